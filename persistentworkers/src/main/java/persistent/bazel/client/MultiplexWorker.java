@@ -0,0 +1,120 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package persistent.bazel.client;
+
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A PersistentWorker whose process handles concurrent requests, i.e. a multiplex worker.
+ *
+ * <p>Each request is written with a unique, nonzero request_id, and a reader thread routes every
+ * response to the request with its id. The number of concurrent requests is limited by the {@link
+ * MultiplexWorkerPool}. If the process exits, all outstanding requests fail.
+ */
+public class MultiplexWorker extends PersistentWorker {
+  private static final Logger logger = Logger.getLogger(MultiplexWorker.class.getName());
+
+  private final AtomicInteger lastRequestId = new AtomicInteger();
+  private final Map<Integer, CompletableFuture<WorkResponse>> pendingResponses =
+      new ConcurrentHashMap<>();
+  private final Object writeLock = new Object();
+  private final Thread reader;
+  private volatile boolean closed = false;
+
+  public MultiplexWorker(WorkerKey key, String workerDir) throws IOException {
+    super(key, workerDir);
+    reader = new Thread(this::readResponses, "MultiplexWorker-" + key.getMnemonic());
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // request_id 0 is reserved for singleplex requests
+  private int nextRequestId() {
+    return lastRequestId.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+  }
+
+  @Override
+  public WorkResponse doWork(WorkRequest request) {
+    int requestId = nextRequestId();
+    CompletableFuture<WorkResponse> response = new CompletableFuture<>();
+    pendingResponses.put(requestId, response);
+    try {
+      // the reader may have failed all pending responses before this one was added
+      if (closed) {
+        throw new IOException("Multiplex worker has exited");
+      }
+      synchronized (writeLock) {
+        getWorkerRW().write(request.toBuilder().setRequestId(requestId).build());
+      }
+      // the caller's request_id is restored, since ours is only meaningful to this worker
+      return response.get().toBuilder().setRequestId(request.getRequestId()).build();
+    } catch (IOException | ExecutionException e) {
+      // the request could not be written, or the worker exited
+      markBroken();
+      logger.log(Level.SEVERE, "Multiplex request " + requestId + " failed", e);
+    } catch (InterruptedException e) {
+      // only this request is abandoned, and its response is discarded by the reader
+      Thread.currentThread().interrupt();
+    } finally {
+      pendingResponses.remove(requestId);
+    }
+    return null;
+  }
+
+  private void readResponses() {
+    try {
+      WorkResponse response;
+      while ((response = getWorkerRW().read()) != null) {
+        CompletableFuture<WorkResponse> pendingResponse =
+            pendingResponses.get(response.getRequestId());
+        if (pendingResponse == null) {
+          logger.log(
+              Level.WARNING,
+              "Multiplex worker responded to unknown request " + response.getRequestId());
+        } else {
+          pendingResponse.complete(response);
+        }
+      }
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Multiplex worker output closed", e);
+    } finally {
+      closed = true;
+      markBroken();
+      IOException exited = new IOException("Multiplex worker exited: " + getExitValue());
+      for (CompletableFuture<WorkResponse> pendingResponse : pendingResponses.values()) {
+        pendingResponse.completeExceptionally(exited);
+      }
+    }
+  }
+
+  /**
+   * The stderr of a multiplex worker is shared by its concurrent requests, and cannot be attributed
+   * to any one of them, so it is discarded.
+   */
+  @Override
+  public String flushStdErr() {
+    super.flushStdErr();
+    return "";
+  }
+}
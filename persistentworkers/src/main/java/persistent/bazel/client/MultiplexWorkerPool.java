@@ -0,0 +1,92 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package persistent.bazel.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import persistent.common.ObjectPool;
+
+/**
+ * Shares a single {@link MultiplexWorker} per WorkerKey between up to {@code maxRequestsPerKey}
+ * concurrent requests. A worker which has exited or been invalidated is replaced on the next
+ * request.
+ */
+public class MultiplexWorkerPool implements ObjectPool<WorkerKey, PersistentWorker> {
+  private final WorkerSupervisor supervisor;
+  private final int maxRequestsPerKey;
+  private final Map<WorkerKey, KeyWorker> keyWorkers = new ConcurrentHashMap<>();
+
+  private final class KeyWorker {
+    private final Semaphore requests = new Semaphore(maxRequestsPerKey, /* fair= */ true);
+    private PersistentWorker worker = null;
+
+    synchronized PersistentWorker get(WorkerKey key) throws Exception {
+      if (worker != null && worker.getExitValue().isPresent()) {
+        worker.destroy();
+        worker = null;
+      }
+      if (worker == null) {
+        worker = supervisor.create(key);
+      }
+      return worker;
+    }
+
+    synchronized void invalidate(PersistentWorker invalid) {
+      if (worker == invalid) {
+        worker = null;
+      }
+    }
+  }
+
+  /**
+   * @param supervisor Creates the multiplex worker for a key
+   * @param maxRequestsPerKey How many requests may be in flight on a key's worker at once
+   */
+  public MultiplexWorkerPool(WorkerSupervisor supervisor, int maxRequestsPerKey) {
+    this.supervisor = supervisor;
+    this.maxRequestsPerKey = maxRequestsPerKey;
+  }
+
+  private KeyWorker keyWorker(WorkerKey key) {
+    return keyWorkers.computeIfAbsent(key, k -> new KeyWorker());
+  }
+
+  @Override
+  public PersistentWorker obtain(WorkerKey key) throws Exception {
+    KeyWorker keyWorker = keyWorker(key);
+    keyWorker.requests.acquire();
+    try {
+      return keyWorker.get(key);
+    } catch (Exception e) {
+      keyWorker.requests.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public void release(WorkerKey key, PersistentWorker worker) {
+    keyWorker(key).requests.release();
+  }
+
+  /** Destroys the worker, failing every request in flight on it. */
+  @Override
+  public void invalidateObject(WorkerKey key, PersistentWorker worker) {
+    KeyWorker keyWorker = keyWorker(key);
+    keyWorker.invalidate(worker);
+    keyWorker.requests.release();
+    worker.destroy();
+  }
+}
@@ -25,6 +25,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import lombok.AccessLevel;
 import lombok.Getter;
 import persistent.bazel.processes.ProtoWorkerRW;
 import persistent.common.Worker;
@@ -48,8 +49,13 @@ public class PersistentWorker implements Worker<WorkRequest, WorkResponse> {
   @Getter private final WorkerKey key;
   @Getter private final ImmutableList<String> initCmd;
   @Getter private final Path execRoot;
+
+  @Getter(AccessLevel.PROTECTED)
   private final ProtoWorkerRW workerRW;
 
+  // set when the protocol stream is no longer at a response boundary
+  private volatile boolean broken = false;
+
   public PersistentWorker(WorkerKey key, String workerDir) throws IOException {
     this.key = key;
     this.execRoot = key.getExecRoot().resolve(workerDir);
@@ -88,15 +94,26 @@ public class PersistentWorker implements Worker<WorkRequest, WorkResponse> {
 
       logIfBadResponse(response);
     } catch (IOException e) {
+      markBroken();
       e.printStackTrace();
       logger.severe("IO Failing with : " + e.getMessage());
     } catch (Exception e) {
+      markBroken();
       e.printStackTrace();
       logger.severe("Failing with : " + e.getMessage());
     }
     return response;
   }
 
+  protected void markBroken() {
+    broken = true;
+  }
+
+  @Override
+  public boolean isBroken() {
+    return broken || getExitValue().isPresent();
+  }
+
   public Optional<Integer> getExitValue() {
     ProcessWrapper pw = workerRW.getProcessWrapper();
     return pw != null && !pw.isAlive() ? Optional.of(pw.exitValue()) : Optional.empty();
@@ -144,6 +161,7 @@ public class PersistentWorker implements Worker<WorkRequest, WorkResponse> {
 
   @Override
   public void destroy() {
+    markBroken();
     this.workerRW.getProcessWrapper().destroy();
   }
 }
@@ -0,0 +1,58 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package persistent.bazel.client;
+
+import persistent.common.ObjectPool;
+
+/**
+ * Obtains workers for multiplex WorkerKeys from a MultiplexWorkerPool, and for all others from a
+ * CommonsWorkerPool.
+ */
+public class PersistentWorkerPool implements ObjectPool<WorkerKey, PersistentWorker> {
+  private final CommonsWorkerPool singleplexPool;
+  private final MultiplexWorkerPool multiplexPool;
+
+  public PersistentWorkerPool(CommonsWorkerPool singleplexPool, MultiplexWorkerPool multiplexPool) {
+    this.singleplexPool = singleplexPool;
+    this.multiplexPool = multiplexPool;
+  }
+
+  @Override
+  public PersistentWorker obtain(WorkerKey key) throws Exception {
+    if (key.isMultiplex()) {
+      return multiplexPool.obtain(key);
+    }
+    return singleplexPool.obtain(key);
+  }
+
+  @Override
+  public void release(WorkerKey key, PersistentWorker worker) {
+    if (key.isMultiplex()) {
+      multiplexPool.release(key, worker);
+    } else {
+      singleplexPool.release(key, worker);
+    }
+  }
+
+  /** Removes the worker from its pool and destroys it, in place of releasing it. */
+  @Override
+  public void invalidateObject(WorkerKey key, PersistentWorker worker) throws Exception {
+    if (key.isMultiplex()) {
+      multiplexPool.invalidateObject(key, worker);
+    } else {
+      singleplexPool.invalidateObject(key, worker);
+    }
+  }
+}
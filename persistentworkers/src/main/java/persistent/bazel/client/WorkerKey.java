@@ -25,8 +25,8 @@ import lombok.Getter;
 import lombok.ToString;
 
 /**
- * Based off of copy-pasting from Bazel's WorkerKey. Has less dependencies, but only ProtoBuf and
- * non-multiplex support.
+ * Based off of copy-pasting from Bazel's WorkerKey. Has less dependencies, and only ProtoBuf
+ * support.
  *
  * <p>Data container that uniquely identifies a kind of worker process.
  */
@@ -67,6 +67,9 @@ public final class WorkerKey {
   /** If true, the workers for this key are able to cancel work requests. */
   @Getter private final boolean cancellable;
 
+  /** If true, a single worker process for this key handles concurrent work requests. */
+  @Getter @ToString.Include private final boolean multiplex;
+
   /**
    * Cached value for the hash of this key, because the value is expensive to calculate
    * (ImmutableMap and ImmutableList do not cache their hashcodes).
@@ -83,6 +86,30 @@ public final class WorkerKey {
       SortedMap<Path, HashCode> workerFilesWithHashes,
       boolean sandboxed,
       boolean cancellable) {
+    this(
+        cmd,
+        args,
+        env,
+        execRoot,
+        mnemonic,
+        workerFilesCombinedHash,
+        workerFilesWithHashes,
+        sandboxed,
+        cancellable,
+        /* multiplex= */ false);
+  }
+
+  public WorkerKey(
+      ImmutableList<String> cmd,
+      ImmutableList<String> args,
+      ImmutableMap<String, String> env,
+      Path execRoot,
+      String mnemonic,
+      HashCode workerFilesCombinedHash,
+      SortedMap<Path, HashCode> workerFilesWithHashes,
+      boolean sandboxed,
+      boolean cancellable,
+      boolean multiplex) {
     // Part of hash
     this.cmd = Preconditions.checkNotNull(cmd);
     this.args = Preconditions.checkNotNull(args);
@@ -91,6 +118,7 @@ public final class WorkerKey {
     this.mnemonic = Preconditions.checkNotNull(mnemonic);
     this.sandboxed = sandboxed;
     this.cancellable = cancellable;
+    this.multiplex = multiplex;
     this.workerFilesCombinedHash = Preconditions.checkNotNull(workerFilesCombinedHash);
     // Not part of hash
     this.workerFilesWithHashes = Preconditions.checkNotNull(workerFilesWithHashes);
@@ -124,6 +152,9 @@ public final class WorkerKey {
     if (!sandboxed == workerKey.sandboxed) {
       return false;
     }
+    if (multiplex != workerKey.multiplex) {
+      return false;
+    }
     if (!env.equals(workerKey.env)) {
       return false;
     }
@@ -146,6 +177,14 @@ public final class WorkerKey {
     // Use the string representation of the protocolFormat because the hash of the same enum value
     // can vary across instances.
     return Objects.hash(
-        cmd, args, env, execRoot, mnemonic, cancellable, sandboxed, workerFilesCombinedHash);
+        cmd,
+        args,
+        env,
+        execRoot,
+        mnemonic,
+        cancellable,
+        sandboxed,
+        multiplex,
+        workerFilesCombinedHash);
   }
 }
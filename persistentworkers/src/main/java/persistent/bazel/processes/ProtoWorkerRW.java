@@ -77,6 +77,11 @@ public class ProtoWorkerRW {
     return readResponse(readStream);
   }
 
+  /** Blocks until a response is read, returning null if the worker's stdout is closed. */
+  public WorkResponse read() throws IOException {
+    return readResponse(readStream);
+  }
+
   public static <R extends GeneratedMessage> void writeTo(R req, OutputStream outputStream)
       throws IOException {
     try {
@@ -43,12 +43,31 @@ public abstract class Coordinator<
     this.workerPool = workerPool;
   }
 
+  /**
+   * Runs the request on a worker obtained from the pool. The worker is released when the request
+   * completes or fails on its own, and is invalidated only if the worker itself is broken, since it
+   * may be serving other requests.
+   */
   public CO runRequest(K workerKey, CI reqWithCtx) throws Exception {
     W worker = workerPool.obtain(workerKey);
 
-    I request = preWorkInit(workerKey, reqWithCtx, worker);
-    O workResponse = worker.doWork(request);
-    CO responseAfterCLeanup = postWorkCleanup(workResponse, worker, reqWithCtx);
+    CO responseAfterCLeanup;
+    try {
+      I request = preWorkInit(workerKey, reqWithCtx, worker);
+      O workResponse = worker.doWork(request);
+      responseAfterCLeanup = postWorkCleanup(workResponse, worker, reqWithCtx);
+    } catch (Throwable t) {
+      if (!worker.isBroken()) {
+        workerPool.release(workerKey, worker);
+        throw t;
+      }
+      try {
+        workerPool.invalidateObject(workerKey, worker);
+      } catch (Exception e) {
+        t.addSuppressed(e);
+      }
+      throw t;
+    }
 
     workerPool.release(workerKey, worker);
     return responseAfterCLeanup;
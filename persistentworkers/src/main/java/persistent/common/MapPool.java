@@ -39,4 +39,9 @@ public class MapPool<K, V> implements ObjectPool<K, V> {
   public void release(K key, V obj) {
     map.put(key, obj);
   }
+
+  @Override
+  public void invalidateObject(K key, V obj) {
+    // the next obtain for the key creates a replacement
+  }
 }
@@ -18,4 +18,7 @@ public interface ObjectPool<K, V> {
   V obtain(K key) throws Exception;
 
   void release(K key, V obj);
+
+  /** Discards an object which has failed, in place of releasing it. */
+  void invalidateObject(K key, V obj) throws Exception;
 }
@@ -18,4 +18,9 @@ public interface Worker<I, O> extends Destructable {
   O doWork(I request);
 
   default void destroy() {}
+
+  /** Whether the worker has failed such that it cannot serve any further requests. */
+  default boolean isBroken() {
+    return false;
+  }
 }
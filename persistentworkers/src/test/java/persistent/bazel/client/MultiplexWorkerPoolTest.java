@@ -0,0 +1,157 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package persistent.bazel.client;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import persistent.common.Coordinator;
+import persistent.common.CtxAround.Id;
+import persistent.testutil.WorkerUtils;
+
+@RunWith(JUnit4.class)
+public class MultiplexWorkerPoolTest {
+  private final WorkerKey key = WorkerUtils.emptyWorkerKey(Path.of("/tmp"), ImmutableList.of());
+  private final List<PersistentWorker> created = new ArrayList<>();
+
+  private final WorkerSupervisor supervisor =
+      new WorkerSupervisor() {
+        @Override
+        public PersistentWorker create(WorkerKey workerKey) {
+          PersistentWorker worker = mock(PersistentWorker.class);
+          when(worker.getExitValue()).thenReturn(Optional.empty());
+          created.add(worker);
+          return worker;
+        }
+      };
+
+  @Test
+  public void concurrentRequestsShareWorker() throws Exception {
+    MultiplexWorkerPool pool = new MultiplexWorkerPool(supervisor, /* maxRequestsPerKey= */ 2);
+
+    PersistentWorker first = pool.obtain(key);
+    PersistentWorker second = pool.obtain(key);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(created).hasSize(1);
+  }
+
+  @Test
+  public void requestsPerKeyAreLimited() throws Exception {
+    MultiplexWorkerPool pool = new MultiplexWorkerPool(supervisor, /* maxRequestsPerKey= */ 1);
+    PersistentWorker worker = pool.obtain(key);
+    CountDownLatch obtained = new CountDownLatch(1);
+    Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                pool.obtain(key);
+                obtained.countDown();
+              } catch (Exception e) {
+                // fails the test by never counting down
+              }
+            });
+    waiter.start();
+
+    assertThat(obtained.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    pool.release(key, worker);
+    assertThat(obtained.await(10, TimeUnit.SECONDS)).isTrue();
+    waiter.join();
+  }
+
+  @Test
+  public void exitedWorkerIsReplaced() throws Exception {
+    MultiplexWorkerPool pool = new MultiplexWorkerPool(supervisor, /* maxRequestsPerKey= */ 2);
+    PersistentWorker exited = pool.obtain(key);
+    pool.release(key, exited);
+    when(exited.getExitValue()).thenReturn(Optional.of(1));
+
+    PersistentWorker replacement = pool.obtain(key);
+
+    assertThat(replacement).isNotSameInstanceAs(exited);
+    verify(exited).destroy();
+  }
+
+  @Test
+  public void invalidatedWorkerIsReplaced() throws Exception {
+    MultiplexWorkerPool pool = new MultiplexWorkerPool(supervisor, /* maxRequestsPerKey= */ 1);
+    PersistentWorker invalid = pool.obtain(key);
+
+    pool.invalidateObject(key, invalid);
+    PersistentWorker replacement = pool.obtain(key);
+
+    verify(invalid).destroy();
+    assertThat(replacement).isNotSameInstanceAs(invalid);
+  }
+
+  @Test
+  public void failedRequestLeavesConcurrentRequestRunning() throws Exception {
+    MultiplexWorkerPool pool = new MultiplexWorkerPool(supervisor, /* maxRequestsPerKey= */ 2);
+    // a request which completes without a response, as an interrupted request does
+    Coordinator<
+            WorkerKey,
+            WorkRequest,
+            WorkResponse,
+            PersistentWorker,
+            Id<WorkRequest>,
+            Id<WorkResponse>,
+            MultiplexWorkerPool>
+        coordinator =
+            new Coordinator<>(pool) {
+              @Override
+              public WorkRequest preWorkInit(
+                  WorkerKey workerKey, Id<WorkRequest> request, PersistentWorker worker) {
+                return request.get();
+              }
+
+              @Override
+              public Id<WorkResponse> postWorkCleanup(
+                  WorkResponse response, PersistentWorker worker, Id<WorkRequest> request)
+                  throws IOException {
+                if (response == null) {
+                  throw new IOException("request did not complete");
+                }
+                return Id.of(response);
+              }
+            };
+    PersistentWorker running = pool.obtain(key);
+
+    assertThrows(
+        IOException.class,
+        () -> coordinator.runRequest(key, Id.of(WorkRequest.getDefaultInstance())));
+
+    verify(running, never()).destroy();
+    // the failed request returned its permit to the worker still in use
+    assertThat(pool.obtain(key)).isSameInstanceAs(running);
+    assertThat(created).hasSize(1);
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package persistent.bazel.processes;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import persistent.bazel.client.MultiplexWorker;
+import persistent.bazel.client.WorkerKey;
+import persistent.common.processes.JavaProcessWrapper;
+import persistent.testutil.ProcessUtils;
+
+@RunWith(JUnit4.class)
+public class MultiplexWorkerTest {
+  private static WorkRequest addRequest(int x, int y) {
+    return WorkRequest.newBuilder()
+        .addArguments(String.valueOf(x))
+        .addArguments(String.valueOf(y))
+        .build();
+  }
+
+  @Test
+  public void concurrentRequestsReceiveTheirOwnResponses() throws Exception {
+    Path workDir = Files.createTempDirectory("test-workdir-");
+
+    String filename = "adder-bin_deploy.jar";
+
+    Path jarPath =
+        ProcessUtils.retrieveFileResource(
+            getClass().getClassLoader(), filename, workDir.resolve(filename));
+
+    ImmutableList<String> initCmd =
+        ImmutableList.of(
+            JavaProcessWrapper.CURRENT_JVM_COMMAND,
+            "-cp",
+            jarPath.toString(),
+            "adder.Adder",
+            "--persistent_worker");
+
+    WorkerKey key =
+        new WorkerKey(
+            initCmd,
+            ImmutableList.of(),
+            ImmutableMap.of(),
+            workDir,
+            "TestOp-Adder",
+            HashCode.fromInt(0),
+            ImmutableSortedMap.of(),
+            /* sandboxed= */ false,
+            /* cancellable= */ false,
+            /* multiplex= */ true);
+
+    MultiplexWorker worker = new MultiplexWorker(key, "worker-dir");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<WorkResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        WorkRequest request = addRequest(i, 100);
+        responses.add(executor.submit(() -> worker.doWork(request)));
+      }
+
+      for (int i = 0; i < 16; i++) {
+        WorkResponse response = responses.get(i).get();
+        assertThat(response.getExitCode()).isEqualTo(0);
+        assertThat(response.getOutput()).isEqualTo(String.valueOf(i + 100));
+        // the worker's request ids are not visible to the caller
+        assertThat(response.getRequestId()).isEqualTo(0);
+      }
+      assertThat(worker.getExitValue().isPresent()).isFalse();
+    } finally {
+      executor.shutdownNow();
+      worker.destroy();
+    }
+  }
+
+  @Test
+  public void requestsFailWhenWorkerExits() throws Exception {
+    Path workDir = Files.createTempDirectory("test-workdir-");
+
+    String filename = "adder-bin_deploy.jar";
+
+    Path jarPath =
+        ProcessUtils.retrieveFileResource(
+            getClass().getClassLoader(), filename, workDir.resolve(filename));
+
+    WorkerKey key =
+        new WorkerKey(
+            ImmutableList.of(
+                JavaProcessWrapper.CURRENT_JVM_COMMAND,
+                "-cp",
+                jarPath.toString(),
+                "adder.Adder",
+                "--persistent_worker"),
+            ImmutableList.of(),
+            ImmutableMap.of(),
+            workDir,
+            "TestOp-Adder",
+            HashCode.fromInt(0),
+            ImmutableSortedMap.of(),
+            /* sandboxed= */ false,
+            /* cancellable= */ false,
+            /* multiplex= */ true);
+
+    MultiplexWorker worker = new MultiplexWorker(key, "worker-dir");
+    try {
+      // the adder exits without responding
+      assertThat(worker.doWork(WorkRequest.newBuilder().addArguments("stop!").build())).isNull();
+      assertThat(worker.doWork(addRequest(1, 2))).isNull();
+    } finally {
+      worker.destroy();
+    }
+  }
+}
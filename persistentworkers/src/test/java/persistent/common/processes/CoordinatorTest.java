@@ -15,7 +15,10 @@
 package persistent.common.processes;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -48,4 +51,69 @@ public class CoordinatorTest {
 
     assertThat(pc.runRequest("someWorkerKey", Id.of(1))).isEqualTo(Id.of("2"));
   }
+
+  private static final class RecordingPool implements ObjectPool<String, Worker<Integer, String>> {
+    private final Worker<Integer, String> worker;
+    private final List<Worker<Integer, String>> released = new ArrayList<>();
+    private final List<Worker<Integer, String>> invalidated = new ArrayList<>();
+
+    RecordingPool(Worker<Integer, String> worker) {
+      this.worker = worker;
+    }
+
+    @Override
+    public Worker<Integer, String> obtain(String key) {
+      return worker;
+    }
+
+    @Override
+    public void release(String key, Worker<Integer, String> worker) {
+      released.add(worker);
+    }
+
+    @Override
+    public void invalidateObject(String key, Worker<Integer, String> worker) {
+      invalidated.add(worker);
+    }
+  }
+
+  private static Worker<Integer, String> failingWorker(boolean broken) {
+    return new Worker<>() {
+      @Override
+      public String doWork(Integer request) {
+        throw new IllegalStateException("request failed");
+      }
+
+      @Override
+      public boolean isBroken() {
+        return broken;
+      }
+    };
+  }
+
+  @Test
+  public void failedRequestReleasesWorker() {
+    Worker<Integer, String> failing = failingWorker(/* broken= */ false);
+    RecordingPool pool = new RecordingPool(failing);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> Coordinator.simple(pool).runRequest("someWorkerKey", Id.of(1)));
+
+    assertThat(pool.released).containsExactly(failing);
+    assertThat(pool.invalidated).isEmpty();
+  }
+
+  @Test
+  public void brokenWorkerIsInvalidated() {
+    Worker<Integer, String> broken = failingWorker(/* broken= */ true);
+    RecordingPool pool = new RecordingPool(broken);
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> Coordinator.simple(pool).runRequest("someWorkerKey", Id.of(1)));
+
+    assertThat(pool.invalidated).containsExactly(broken);
+    assertThat(pool.released).isEmpty();
+  }
 }
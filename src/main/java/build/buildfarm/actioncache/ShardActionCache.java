@@ -15,50 +15,127 @@
 package build.buildfarm.actioncache;
 
 import static com.google.common.util.concurrent.Futures.catching;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.javacrumbs.futureconverter.java8guava.FutureConverter.toCompletableFuture;
 import static net.javacrumbs.futureconverter.java8guava.FutureConverter.toListenableFuture;
 
 import build.bazel.remote.execution.v2.ActionResult;
 import build.buildfarm.backplane.Backplane;
 import build.buildfarm.common.DigestUtil.ActionKey;
-import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
-import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import io.grpc.Status;
+import io.prometheus.client.Counter;
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import org.jspecify.annotations.Nullable;
 
+/**
+ * An action cache of the backplane's action results, with a local cache of results and misses.
+ *
+ * <p>Entries are keyed by the action result name, as stored in the backplane, and are invalidated
+ * when any backplane client puts or removes the result. Misses expire after a short period, which
+ * bounds the staleness of a miss whose invalidation is lost. A miss is not recorded if the result
+ * was invalidated while it was read.
+ */
+@Log
 public class ShardActionCache implements ActionCache {
+  private static final Counter lookups =
+      Counter.build()
+          .name("action_cache_lookups")
+          .labelNames("result")
+          .help("Action cache lookups by local hit, local negative hit, or backplane request.")
+          .register();
+
+  private static final Object MISS = new Object();
+
   private final Backplane backplane;
-  private final AsyncLoadingCache<ActionKey, ActionResult> actionResultCache;
+  private final ListeningExecutorService service;
+  private final AsyncCache<String, ActionResult> actionResultCache;
+  // holds MISS, or the token of a read in progress until it is invalidated
+  private final @Nullable Cache<String, Object> missCache;
 
   public ShardActionCache(
       long maxLocalCacheSize, Backplane backplane, ListeningExecutorService service) {
-    this.backplane = backplane;
-
-    AsyncCacheLoader<ActionKey, ActionResult> loader =
-        (actionKey, executor) ->
-            toCompletableFuture(
-                catching(
-                    service.submit(() -> backplane.getActionResult(actionKey)),
-                    IOException.class,
-                    e -> {
-                      throw Status.fromThrowable(e).asRuntimeException();
-                    },
-                    executor));
+    this(maxLocalCacheSize, /* missExpireMillis= */ 0, backplane, service);
+  }
 
+  /**
+   * @param missExpireMillis The duration for which misses are cached, or 0 to disable
+   */
+  public ShardActionCache(
+      long maxLocalCacheSize,
+      long missExpireMillis,
+      Backplane backplane,
+      ListeningExecutorService service) {
+    this.backplane = backplane;
+    this.service = service;
     actionResultCache =
-        Caffeine.newBuilder().maximumSize(maxLocalCacheSize).executor(service).buildAsync(loader);
+        Caffeine.newBuilder().maximumSize(maxLocalCacheSize).executor(service).buildAsync();
+    if (missExpireMillis > 0) {
+      missCache =
+          Caffeine.newBuilder()
+              .maximumSize(maxLocalCacheSize)
+              .expireAfterWrite(missExpireMillis, MILLISECONDS)
+              .build();
+    } else {
+      missCache = null;
+    }
+    backplane.setOnActionResultInvalidated(this::invalidateLocal);
+  }
+
+  private CompletableFuture<ActionResult> load(ActionKey actionKey) {
+    lookups.labels("miss").inc();
+    String name = actionKey.toString();
+    Object read = new Object();
+    if (missCache != null) {
+      missCache.put(name, read);
+    }
+    return toCompletableFuture(
+        catching(
+            service.submit(
+                () -> {
+                  ActionResult actionResult = backplane.getActionResult(actionKey);
+                  if (missCache != null) {
+                    if (actionResult == null) {
+                      // an invalidation during the read has removed its token
+                      missCache.asMap().replace(name, read, MISS);
+                    } else {
+                      missCache.asMap().remove(name, read);
+                    }
+                  }
+                  return actionResult;
+                }),
+            IOException.class,
+            e -> {
+              throw Status.fromThrowable(e).asRuntimeException();
+            },
+            directExecutor()));
   }
 
   @Override
   public ListenableFuture<ActionResult> get(ActionKey actionKey) {
+    String name = actionKey.toString();
+    CompletableFuture<ActionResult> cached = actionResultCache.getIfPresent(name);
+    if (cached != null) {
+      lookups.labels("hit").inc();
+    } else if (missCache != null && missCache.getIfPresent(name) == MISS) {
+      lookups.labels("negative_hit").inc();
+      return immediateFuture(null);
+    }
+    if (cached == null) {
+      cached = actionResultCache.get(name, (key, executor) -> load(actionKey));
+    }
     return catching(
-        toListenableFuture(actionResultCache.get(actionKey)),
+        toListenableFuture(cached),
         InvalidCacheLoadException.class,
         e -> null,
         directExecutor());
@@ -77,11 +154,27 @@ public class ShardActionCache implements ActionCache {
 
   @Override
   public void invalidate(ActionKey actionKey) {
-    actionResultCache.synchronous().invalidate(actionKey);
+    invalidateLocal(actionKey.toString());
+    try {
+      backplane.invalidateActionResult(actionKey);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "error invalidating " + actionKey + " for backplane clients", e);
+    }
+  }
+
+  private void invalidateLocal(String name) {
+    if (missCache != null) {
+      missCache.invalidate(name);
+    }
+    actionResultCache.synchronous().invalidate(name);
   }
 
   @Override
   public void readThrough(ActionKey actionKey, ActionResult actionResult) {
-    actionResultCache.put(actionKey, CompletableFuture.completedFuture(actionResult));
+    String name = actionKey.toString();
+    if (missCache != null) {
+      missCache.invalidate(name);
+    }
+    actionResultCache.put(name, CompletableFuture.completedFuture(actionResult));
   }
 }
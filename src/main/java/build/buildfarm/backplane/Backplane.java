@@ -20,6 +20,7 @@ import build.bazel.remote.execution.v2.Platform;
 import build.bazel.remote.execution.v2.RequestMetadata;
 import build.bazel.remote.execution.v2.ToolDetails;
 import build.buildfarm.common.CasIndexResults;
+import build.buildfarm.common.DirectorySketch;
 import build.buildfarm.common.DigestUtil.ActionKey;
 import build.buildfarm.common.Watcher;
 import build.buildfarm.common.function.InterruptingRunnable;
@@ -59,6 +60,9 @@ public interface Backplane {
     }
   }
 
+  /** The workers known to store a blob, and the epoch second when the blob was last inserted. */
+  record BlobLocations(Set<String> workers, long insertTime) {}
+
   /**
    * Register a runnable for when the backplane cannot guarantee watch deliveries. This runnable may
    * throw InterruptedException
@@ -68,6 +72,14 @@ public interface Backplane {
    */
   void setOnUnsubscribe(InterruptingRunnable onUnsubscribe);
 
+  /**
+   * Register a consumer for the names of action results which have been put or removed by any
+   * backplane client, including this one, so that local copies may be invalidated.
+   *
+   * <p>Must be called before start, and is only called when the backplane is subscribed.
+   */
+  void setOnActionResultInvalidated(Consumer<String> onActionResultInvalidated);
+
   /** Start the backplane's operation */
   void start(String publicClientName, Consumer<String> onWorkerRemoved) throws IOException;
 
@@ -148,6 +160,9 @@ public interface Backplane {
   /** Bulk remove action results */
   void removeActionResults(Iterable<ActionKey> actionKeys) throws IOException;
 
+  /** Invalidate copies of an action result held by backplane clients, without removing it. */
+  void invalidateActionResult(ActionKey actionKey) throws IOException;
+
   /**
    * Identify an action that should not be executed, and respond to all requests it matches with
    * failover-compatible responses.
@@ -216,6 +231,13 @@ public interface Backplane {
 
   Map<Digest, Set<String>> getBlobDigestsWorkers(Iterable<Digest> blobDigests) throws IOException;
 
+  /**
+   * Returns the workers and insert time for each of the blobs in a single batched lookup. Blobs
+   * with no known workers are left out of the returned map.
+   */
+  Map<Digest, BlobLocations> getBlobDigestsLocations(Iterable<Digest> blobDigests)
+      throws IOException;
+
   /**
    * Executions are stored in a hash map where the key is the name of the execution and the value is
    * a longrunning Operation object.
@@ -243,6 +265,19 @@ public interface Backplane {
   QueueEntry dispatchOperation(List<Platform.Property> provisions, LocalResourceSet resourceSet)
       throws IOException, InterruptedException;
 
+  /**
+   * Moves up to maxEntries operations from the list of queued operations to the list of dispatched
+   * operations, claiming them together. Blocks as {@link #dispatchOperation} while none are queued.
+   *
+   * <p>Operations with inputs in the directories of the sketch are preferred, if it is provided.
+   */
+  List<QueueEntry> dispatchOperations(
+      List<Platform.Property> provisions,
+      LocalResourceSet resourceSet,
+      int maxEntries,
+      @Nullable DirectorySketch directories)
+      throws IOException, InterruptedException;
+
   /**
    * Pushes an operation onto the head of the list of queued operations after a rejection which does
    * not require revalidation
@@ -264,6 +299,14 @@ public interface Backplane {
   boolean pollExecution(QueueEntry queueEntry, ExecutionStage.Value stage, long requeueAt)
       throws IOException;
 
+  /**
+   * Updates the requeue_at of many dispatched executions together, as pollExecution does for each.
+   *
+   * <p>Returns the names of the executions which are no longer valid.
+   */
+  Set<String> pollExecutions(Iterable<QueueEntry> queueEntries, long requeueAt)
+      throws IOException;
+
   /** Complete an operation */
   void completeOperation(String operationName) throws IOException;
 
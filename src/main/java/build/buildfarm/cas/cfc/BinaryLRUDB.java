@@ -0,0 +1,486 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.cas.cfc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import build.buildfarm.common.function.IOConsumer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import javax.annotation.concurrent.GuardedBy;
+import lombok.extern.java.Log;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An lru db made of a binary snapshot and an append-only journal.
+ *
+ * <p>The snapshot lists entries from oldest to newest access, and is only rewritten by a save,
+ * which compacts the journal into it. In between saves, each entry that becomes the newest in the
+ * lru and each entry that is removed is appended to the journal, so that a restart recovers the
+ * current order regardless of when the snapshot was last saved. A save that includes every entry
+ * of the cache, on close with nothing journaled since, removes the journal and leaves a complete
+ * snapshot, which may be restored without scanning the cache directories.
+ *
+ * <p>Accesses and removals are recorded without locking, since they are reported under the cache's
+ * segment locks, and are appended to the journal in the order they were recorded by a flush.
+ *
+ * <p>Keys are stored with their hex hash packed into bytes, and lengths and sizes as varints.
+ */
+@Log
+class BinaryLRUDB implements LRUDB {
+  private static final int MAGIC = 0x4c525531; // LRU1
+  private static final int ACCESSED = 1;
+  private static final int REMOVED = 2;
+  private static final int MAX_KEY_PART_LENGTH = 4096;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  static final long DEFAULT_MIN_COMPACTION_BYTES = 16L * 1024 * 1024;
+
+  private final long minCompactionBytes;
+
+  // a size of -1 records a removal
+  private record Recorded(String key, long size) {}
+
+  private final Queue<Recorded> recorded = new ConcurrentLinkedQueue<>();
+
+  // whether recorded accesses will be journaled, and so should be queued
+  private volatile boolean recording = false;
+
+  @GuardedBy("this")
+  private final Map<Path, Long> truncatedJournals = new HashMap<>();
+
+  @GuardedBy("this")
+  private @Nullable Path journalPath = null;
+
+  @GuardedBy("this")
+  private @Nullable CountingOutputStream journalCounter = null;
+
+  @GuardedBy("this")
+  private @Nullable DataOutputStream journal = null;
+
+  // bytes in the journal file before it was opened for append
+  @GuardedBy("this")
+  private long journalBaseBytes = 0;
+
+  @GuardedBy("this")
+  private long snapshotBytes = 0;
+
+  // records appended since the journal was last rotated
+  @GuardedBy("this")
+  private long appended = 0;
+
+  @GuardedBy("this")
+  private boolean journalFailed = false;
+
+  @GuardedBy("this")
+  private boolean saving = false;
+
+  // the save following the last rotation has completed
+  @GuardedBy("this")
+  private boolean saved = false;
+
+  BinaryLRUDB() {
+    this(DEFAULT_MIN_COMPACTION_BYTES);
+  }
+
+  BinaryLRUDB(long minCompactionBytes) {
+    this.minCompactionBytes = minCompactionBytes;
+  }
+
+  private static Path journalPath(Path path) {
+    return path.resolveSibling(path.getFileName() + ".journal");
+  }
+
+  // the journal of a save in progress, or of a save which failed
+  private static Path rotatedJournalPath(Path path) {
+    return path.resolveSibling(path.getFileName() + ".journal.old");
+  }
+
+  @Override
+  public List<Path> paths(Path path) {
+    return ImmutableList.of(path, journalPath(path), rotatedJournalPath(path));
+  }
+
+  @Override
+  public boolean isComplete(Path path) {
+    return Files.exists(path)
+        && !Files.exists(journalPath(path))
+        && !Files.exists(rotatedJournalPath(path));
+  }
+
+  @Override
+  public void load(Path path, IOConsumer<SizeEntry> onEntry) throws IOException {
+    // journaled keys supersede their snapshot position, and are ordered after all of its entries
+    Map<String, Long> journaled = new LinkedHashMap<>();
+    readJournal(rotatedJournalPath(path), journaled);
+    readJournal(journalPath(path), journaled);
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("lru snapshot " + path + " has an unrecognized format");
+      }
+      for (String key = readKey(in); key != null; key = readKey(in)) {
+        long size = readVarLong(in);
+        if (!journaled.containsKey(key)) {
+          onEntry.accept(new SizeEntry(key, size));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // no snapshot has been saved, the journal holds every entry
+    }
+
+    for (Map.Entry<String, Long> entry : journaled.entrySet()) {
+      long size = entry.getValue();
+      if (size >= 0) {
+        onEntry.accept(new SizeEntry(entry.getKey(), size));
+      }
+    }
+  }
+
+  private void readJournal(Path path, Map<String, Long> journaled) throws IOException {
+    long complete = 0;
+    try (CountingInputStream counter =
+            new CountingInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+        DataInputStream in = new DataInputStream(counter)) {
+      for (int op = in.read(); op != -1; op = in.read()) {
+        String key = readKey(in);
+        if (key == null) {
+          throw new EOFException();
+        }
+        // reinsert to move the key to the end of the journaled order
+        journaled.remove(key);
+        switch (op) {
+          case ACCESSED -> journaled.put(key, readVarLong(in));
+          case REMOVED -> journaled.put(key, -1L);
+          default -> throw new IOException("lru journal " + path + " has an unrecognized record");
+        }
+        complete = counter.getCount();
+      }
+    } catch (NoSuchFileException e) {
+      // nothing journaled
+    } catch (EOFException e) {
+      // the last record was not completely written before a crash, and must be truncated before
+      // anything is appended after it
+      log.log(Level.WARNING, "lru journal " + path + " ends with a truncated record");
+      synchronized (this) {
+        truncatedJournals.put(path, complete);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void open(Path path) throws IOException {
+    for (Map.Entry<Path, Long> truncated : truncatedJournals.entrySet()) {
+      try (FileChannel channel = FileChannel.open(truncated.getKey(), WRITE)) {
+        channel.truncate(truncated.getValue());
+      }
+    }
+    truncatedJournals.clear();
+    snapshotBytes = Files.exists(path) ? Files.size(path) : 0;
+    openJournal(journalPath(path));
+  }
+
+  @GuardedBy("this")
+  private void openJournal(Path path) throws IOException {
+    journalPath = path;
+    journalBaseBytes = Files.exists(path) ? Files.size(path) : 0;
+    journalCounter =
+        new CountingOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(path, CREATE, APPEND), BUFFER_SIZE));
+    journal = new DataOutputStream(journalCounter);
+    journalFailed = false;
+    recording = true;
+  }
+
+  @GuardedBy("this")
+  private void closeJournal() throws IOException {
+    if (journal != null) {
+      try {
+        journal.close();
+      } finally {
+        journal = null;
+        journalCounter = null;
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void failJournal(IOException e) {
+    log.log(Level.SEVERE, "error writing lru journal " + journalPath + ", journaling stopped", e);
+    journalFailed = true;
+    recording = false;
+    recorded.clear();
+    try {
+      closeJournal();
+    } catch (IOException closeException) {
+      e.addSuppressed(closeException);
+    }
+  }
+
+  @Override
+  public void accessed(String key, long size) {
+    if (recording) {
+      recorded.add(new Recorded(key, size));
+    }
+  }
+
+  @Override
+  public void removed(String key) {
+    if (recording) {
+      recorded.add(new Recorded(key, -1));
+    }
+  }
+
+  @Override
+  public void flush() {
+    if (!recorded.isEmpty()) {
+      synchronized (this) {
+        drain();
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void drain() {
+    for (Recorded r = recorded.poll(); r != null && journal != null; r = recorded.poll()) {
+      try {
+        if (r.size() < 0) {
+          journal.writeByte(REMOVED);
+          writeKey(journal, r.key());
+        } else {
+          journal.writeByte(ACCESSED);
+          writeKey(journal, r.key());
+          writeVarLong(journal, r.size());
+        }
+        appended++;
+      } catch (IOException e) {
+        failJournal(e);
+      }
+    }
+  }
+
+  @Override
+  public synchronized boolean shouldSave() {
+    drain();
+    if (journalFailed) {
+      // a save resumes journaling
+      return true;
+    }
+    if (journal == null) {
+      return false;
+    }
+    // bound the journal by the size of the snapshot it compacts into
+    return journalBaseBytes + journalCounter.getCount()
+        >= Math.max(minCompactionBytes, snapshotBytes);
+  }
+
+  @Override
+  public synchronized boolean beginSave(Path path) throws IOException {
+    if (saving) {
+      return false;
+    }
+    saved = false;
+    Path journalPath = journalPath(path);
+    Path rotatedJournalPath = rotatedJournalPath(path);
+    // everything recorded before the rotation belongs to the rotated journal
+    drain();
+    try {
+      closeJournal();
+      if (Files.exists(journalPath)) {
+        if (Files.exists(rotatedJournalPath)) {
+          // a failed save left its journal, which must still be replayed before this one
+          try (OutputStream out = Files.newOutputStream(rotatedJournalPath, APPEND)) {
+            Files.copy(journalPath, out);
+          }
+          Files.delete(journalPath);
+        } else {
+          Files.move(journalPath, rotatedJournalPath);
+        }
+      }
+      openJournal(journalPath);
+    } catch (IOException e) {
+      // retried by the next save
+      journalFailed = true;
+      recording = false;
+      recorded.clear();
+      throw e;
+    }
+    appended = 0;
+    saving = true;
+    return true;
+  }
+
+  @Override
+  public void save(Iterator<SizeEntry> head, Path path) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp." + UUID.randomUUID());
+    try {
+      long size;
+      try (CountingOutputStream counter =
+              new CountingOutputStream(
+                  new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE));
+          DataOutputStream out = new DataOutputStream(counter)) {
+        out.writeInt(MAGIC);
+        while (head.hasNext()) {
+          SizeEntry entry = head.next();
+          writeKey(out, entry.key());
+          writeVarLong(out, entry.size());
+        }
+        out.flush();
+        size = counter.getCount();
+      }
+      Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+      synchronized (this) {
+        // the snapshot includes everything journaled before the rotation
+        Files.deleteIfExists(rotatedJournalPath(path));
+        snapshotBytes = size;
+        saved = true;
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+      endSave();
+    }
+  }
+
+  @Override
+  public synchronized void endSave() {
+    saving = false;
+  }
+
+  @Override
+  public synchronized void close(boolean complete) throws IOException {
+    drain();
+    recording = false;
+    boolean clean = complete && saved && !saving && appended == 0 && !journalFailed;
+    closeJournal();
+    if (clean && journalPath != null) {
+      Files.deleteIfExists(journalPath);
+    }
+  }
+
+  static void writeKey(DataOutput out, String key) throws IOException {
+    // the longest run of lowercase hex in the key is its hash
+    int start = 0;
+    int end = 0;
+    for (int i = 0; i < key.length(); i++) {
+      int j = i;
+      while (j < key.length() && isHex(key.charAt(j))) {
+        j++;
+      }
+      if (j - i > end - start) {
+        start = i;
+        end = j;
+      }
+      i = j;
+    }
+    // only whole bytes are packed, any odd digit remains in the suffix
+    end = start + ((end - start) & ~1);
+    writeString(out, key.substring(0, start));
+    byte[] hash = HEX.decode(key.substring(start, end));
+    writeVarLong(out, hash.length);
+    out.write(hash);
+    writeString(out, key.substring(end));
+  }
+
+  /** Returns null at the end of the input, before any part of a key. */
+  static @Nullable String readKey(DataInputStream in) throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      return null;
+    }
+    String prefix = readString(in, readVarLong(in, first));
+    byte[] hash = readBytes(in, readVarLong(in));
+    return prefix + HEX.encode(hash) + readString(in, readVarLong(in));
+  }
+
+  private static boolean isHex(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+  }
+
+  private static void writeString(DataOutput out, String s) throws IOException {
+    byte[] bytes = s.getBytes(UTF_8);
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in, long length) throws IOException {
+    return new String(readBytes(in, length), UTF_8);
+  }
+
+  private static byte[] readBytes(DataInput in, long length) throws IOException {
+    if (length > MAX_KEY_PART_LENGTH) {
+      throw new IOException("lru key length " + length + " exceeds " + MAX_KEY_PART_LENGTH);
+    }
+    byte[] bytes = new byte[(int) length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7fL) != 0) {
+      out.writeByte((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    return readVarLong(in, in.readUnsignedByte());
+  }
+
+  private static long readVarLong(DataInput in, int first) throws IOException {
+    long value = first & 0x7f;
+    int b = first;
+    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+      if (shift >= 64) {
+        throw new IOException("malformed varint in lru");
+      }
+      b = in.readUnsignedByte();
+      value |= (long) (b & 0x7f) << shift;
+    }
+    return value;
+  }
+}
@@ -35,6 +35,7 @@ import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -62,16 +63,24 @@ import build.buildfarm.common.Time;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.Write.CompleteWrite;
 import build.buildfarm.common.ZstdCompressingInputStream;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import build.buildfarm.common.ZstdDecompressingOutputStream;
 import build.buildfarm.common.ZstdDecompressingOutputStream.FixedBufferPool;
+import build.buildfarm.common.ZstdDecompressingOutputStream.ZstdFixedBufferPool;
+import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.function.IOFunction;
 import build.buildfarm.common.grpc.Retrier;
 import build.buildfarm.common.grpc.Retrier.Backoff;
 import build.buildfarm.common.io.CountingOutputStream;
 import build.buildfarm.common.io.Directories;
 import build.buildfarm.common.io.FeedbackOutputStream;
 import build.buildfarm.common.io.FileStatus;
+import build.buildfarm.common.io.MappedFileReader;
 import build.buildfarm.v1test.BlobWriteKey;
 import build.buildfarm.v1test.Digest;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
@@ -96,7 +105,6 @@ import io.netty.handler.codec.http.QueryStringDecoder;
 import io.prometheus.client.Counter;
 import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
-import java.io.BufferedReader;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -110,6 +118,7 @@ import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.AbstractMap;
@@ -141,6 +150,8 @@ import org.jspecify.annotations.Nullable;
 
 @Log
 public abstract class CASFileCache implements ContentAddressableStorage {
+  private static BuildfarmConfigs configs = BuildfarmConfigs.getInstance();
+
   // Prometheus metrics
   private static final Counter expiredKeyCounter =
       Counter.build().name("expired_key").help("Number of key expirations.").register();
@@ -165,6 +176,32 @@ public abstract class CASFileCache implements ContentAddressableStorage {
   private static final Counter readIOErrors =
       Counter.build().name("read_io_errors").help("Number of IO errors on read.").register();
 
+  private static final Counter adoptedFileCounter =
+      Counter.build()
+          .name("cas_adopted_files")
+          .labelNames("method")
+          .help("Number of hashed files inserted into the CAS by link or copy.")
+          .register();
+
+  private static final Counter lruSegmentAcquisitions =
+      Counter.build()
+          .name("cas_lru_segment_acquisitions")
+          .labelNames("segment")
+          .help("Number of CAS LRU segment lock acquisitions.")
+          .register();
+  private static final Counter lruSegmentContentions =
+      Counter.build()
+          .name("cas_lru_segment_contentions")
+          .labelNames("segment")
+          .help("Number of CAS LRU segment lock acquisitions which had to wait for another holder.")
+          .register();
+  private static final Gauge lruSegmentUnreferencedEntryCount =
+      Gauge.build()
+          .name("cas_lru_segment_unreferenced_entry_count")
+          .labelNames("segment")
+          .help("Number of unreferenced entries in a CAS LRU segment.")
+          .register();
+
   @Getter private final Path root;
   protected final EntryPathStrategy entryPathStrategy;
   protected final long maxSizeInBytes;
@@ -174,11 +211,15 @@ public abstract class CASFileCache implements ContentAddressableStorage {
   private final Consumer<Iterable<Digest>> onExpire;
   private final Executor accessRecorder;
   private final ExecutorService expireService;
-  private final LRUDB db = new TextLRUDB();
+  private final LRUDB db;
   private volatile Deadline saveLRUAfter = Deadline.after(10, MINUTES);
   private final Path lru;
 
   private final FixedBufferPool zstdBufferPool;
+  private final CompressionContextPool zstdCompressionPool;
+  private final boolean storeCompressed;
+  // the size of each chunk of a mapped read
+  private final int mappedChunkSize;
   @Nullable private final ContentAddressableStorage delegate;
   private final boolean delegateSkipLoad;
   private final InputStreamFactory inputStreamFactory;
@@ -220,9 +261,16 @@ public abstract class CASFileCache implements ContentAddressableStorage {
               });
 
   protected FileStore fileStore; // bound to root
-  protected transient long sizeInBytes = 0;
+  protected transient volatile long sizeInBytes = 0;
   protected final transient Entry header = new SentinelEntry();
-  protected volatile long unreferencedEntryCount = 0;
+
+  // the lru is split into segments by key, each with its own lock and list. With a single
+  // segment, all reference and access bookkeeping remains guarded by this.
+  private final Segment[] segments;
+  private final boolean segmented;
+
+  // modified under this, read without it by segmented decrements to elide notification
+  private volatile int evictionWaiters = 0;
 
   private State state = new State();
 
@@ -234,7 +282,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
 
   private Thread prometheusMetricsThread;
 
-  public synchronized long size() {
+  public long size() {
     return sizeInBytes;
   }
 
@@ -247,13 +295,28 @@ public abstract class CASFileCache implements ContentAddressableStorage {
   }
 
   public long unreferencedEntryCount() {
-    return unreferencedEntryCount;
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.unreferencedCount;
+    }
+    return count;
   }
 
   public long directoryStorageCount() {
     return 0;
   }
 
+  /** Visits the hash of each directory held by the cache. */
+  public void forEachDirectoryHash(Consumer<String> consumer) {
+    for (String key : storage.keySet()) {
+      if (key.endsWith("_dir")) {
+        // the hash precedes the suffix, with or without a digest function prefix
+        String[] components = key.split("_");
+        consumer.accept(components[components.length - 2]);
+      }
+    }
+  }
+
   public synchronized int getEvictedCount() {
     int count = removedEntryCount;
     removedEntryCount = 0;
@@ -287,10 +350,49 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       long maxSizeInBytes,
       long maxEntrySizeInBytes,
       int hexBucketLevels,
+      int lruSegments,
+      ExecutorService expireService,
+      Executor accessRecorder,
+      ConcurrentMap<String, Entry> storage,
+      FixedBufferPool zstdBufferPool,
+      Consumer<Digest> onPut,
+      Consumer<Iterable<Digest>> onExpire,
+      @Nullable ContentAddressableStorage delegate,
+      boolean delegateSkipLoad,
+      InputStreamFactory externalInputStreamFactory) {
+    this(
+        root,
+        maxSizeInBytes,
+        maxEntrySizeInBytes,
+        hexBucketLevels,
+        lruSegments,
+        /* lruJournal= */ false,
+        /* storeCompressed= */ false,
+        expireService,
+        accessRecorder,
+        storage,
+        zstdBufferPool,
+        CompressionContextPool.getDefault(),
+        onPut,
+        onExpire,
+        delegate,
+        delegateSkipLoad,
+        externalInputStreamFactory);
+  }
+
+  public CASFileCache(
+      Path root,
+      long maxSizeInBytes,
+      long maxEntrySizeInBytes,
+      int hexBucketLevels,
+      int lruSegments,
+      boolean lruJournal,
+      boolean storeCompressed,
       ExecutorService expireService,
       Executor accessRecorder,
       ConcurrentMap<String, Entry> storage,
       FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
       Consumer<Digest> onPut,
       Consumer<Iterable<Digest>> onExpire,
       @Nullable ContentAddressableStorage delegate,
@@ -310,8 +412,17 @@ public abstract class CASFileCache implements ContentAddressableStorage {
         new EmptyInputStreamFactory(
             new FailoverInputStreamFactory(this::newTransparentInput, externalInputStreamFactory));
     this.zstdBufferPool = zstdBufferPool;
+    this.zstdCompressionPool = zstdCompressionPool;
+    this.storeCompressed = storeCompressed;
+    mappedChunkSize = configs.getServer().getBytestreamChunkSize();
 
-    lru = root.resolve("lru.txt");
+    if (lruJournal) {
+      db = new BinaryLRUDB();
+      lru = root.resolve("lru.bin");
+    } else {
+      db = new TextLRUDB();
+      lru = root.resolve("lru.txt");
+    }
 
     writes =
         CacheBuilder.newBuilder()
@@ -330,7 +441,13 @@ public abstract class CASFileCache implements ContentAddressableStorage {
 
     entryPathStrategy = new HexBucketEntryPathStrategy(root, hexBucketLevels);
 
-    header.before = header.after = header;
+    checkArgument(lruSegments > 0, "lruSegments must be positive");
+    segments = new Segment[lruSegments];
+    segments[0] = new Segment(0, header);
+    for (int i = 1; i < lruSegments; i++) {
+      segments[i] = new Segment(i, new SentinelEntry());
+    }
+    segmented = lruSegments > 1;
   }
 
   protected static Digest keyToDigest(String key, long size, DigestUtil digestUtil)
@@ -365,6 +482,9 @@ public abstract class CASFileCache implements ContentAddressableStorage {
 
   /** Parses the given fileName into a FileEntryKey or null if parsing failed */
   private static @Nullable FileEntryKey parseFileEntryKey(String fileName, long size) {
+    if (isCompressedKey(fileName)) {
+      return parseCompressedEntryKey(fileName, size);
+    }
     String[] components = fileName.split("_");
 
     if (components.length > 3) {
@@ -391,7 +511,41 @@ public abstract class CASFileCache implements ContentAddressableStorage {
 
     try {
       Digest digest = digestUtil.build(components[hasDigestFunction ? 1 : 0], size);
-      return new FileEntryKey(getKey(digest, isExecutable), size, isExecutable, digest);
+      return new FileEntryKey(
+          getKey(digest, isExecutable), size, isExecutable, /* isCompressed= */ false, digest);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Parses a compressed entry key, which carries the uncompressed size of its digest. */
+  private static @Nullable FileEntryKey parseCompressedEntryKey(String fileName, long size) {
+    String[] components = fileName.split("_");
+    if (components.length != 3 && components.length != 4) {
+      return null;
+    }
+
+    boolean hasDigestFunction = components.length == 4;
+    DigestUtil digestUtil;
+    if (hasDigestFunction) {
+      digestUtil = DigestUtil.forHash(components[0]);
+    } else {
+      digestUtil = DigestUtil.parseHash(components[0]);
+    }
+    if (digestUtil == null) {
+      return null;
+    }
+
+    try {
+      Digest digest =
+          digestUtil.build(
+              components[hasDigestFunction ? 1 : 0],
+              Long.parseLong(components[components.length - 2]));
+      String key = getCompressedKey(digest);
+      if (!key.equals(fileName)) {
+        return null;
+      }
+      return new FileEntryKey(key, size, /* isExecutable= */ false, /* isCompressed= */ true, digest);
     } catch (NumberFormatException e) {
       return null;
     }
@@ -421,14 +575,26 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return false;
   }
 
-  private void saveLRU() {
-    List<SizeEntry> list = lruSizeEntryList();
+  /** Returns true iff the saved lru includes every entry of the cache. */
+  private boolean saveLRU() {
     try {
-      synchronized (lru) {
-        db.save(list.iterator(), lru);
+      if (!db.beginSave(lru)) {
+        // another save is in progress
+        return false;
+      }
+      try {
+        List<SizeEntry> list = lruSizeEntryList();
+        boolean complete = list.size() == storage.size();
+        synchronized (lru) {
+          db.save(list.iterator(), lru);
+        }
+        return complete;
+      } finally {
+        db.endSave();
       }
     } catch (Exception e) {
       log.log(Level.SEVERE, "error saving lru state", e);
+      return false;
     }
   }
 
@@ -437,6 +603,10 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     if (saveLRUAfter == null || !saveLRUAfter.isExpired()) {
       return;
     }
+    if (!db.shouldSave()) {
+      saveLRUAfter = Deadline.after(10, MINUTES);
+      return;
+    }
     saveLRUAfter = null;
     expireService.execute(
         () -> {
@@ -454,6 +624,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       accessRecorder.execute(
           () -> {
             recordAccess(keys);
+            // journal writes are kept out of the segment locks held while recording
+            db.flush();
             maybeSaveLRU();
           });
     } catch (RejectedExecutionException e) {
@@ -461,11 +633,34 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     }
   }
 
-  private synchronized void recordAccess(Iterable<String> keys) {
+  private void recordAccess(Iterable<String> keys) {
+    if (segmented) {
+      recordSegmentAccess(keys);
+    } else {
+      synchronized (this) {
+        recordSegmentAccess(keys);
+      }
+    }
+  }
+
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private void recordSegmentAccess(Iterable<String> keys) {
     for (String key : keys) {
       Entry e = storage.get(key);
       if (e != null) {
-        e.recordAccess(header);
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+          // the entry may have been removed since we retrieved it
+          if (storage.get(key) == e) {
+            e.recordAccess(segment.header);
+            if (e.isLinked()) {
+              db.accessed(e.key, e.size);
+            }
+          }
+        } finally {
+          segment.unlock();
+        }
       }
     }
   }
@@ -489,7 +684,29 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       Consumer<String> onContains) {
     /* maybe swap the order here if we're higher in ratio on one side */
     return contains(digest, false, result, onContains)
-        || contains(digest, true, result, onContains);
+        || contains(digest, true, result, onContains)
+        || containsCompressed(digest, result, onContains);
+  }
+
+  private boolean containsCompressed(
+      Digest digest,
+      build.bazel.remote.execution.v2.Digest.@Nullable Builder result,
+      Consumer<String> onContains) {
+    // compressed keys require the uncompressed size
+    if (digest.getSize() <= 0) {
+      return false;
+    }
+    String key = getCompressedKey(digest);
+    Entry entry = getEntry(key);
+    if (entry == null
+        || (entry.referenceCount < 0 && !Files.exists(getPath(digest, key)))) {
+      return false;
+    }
+    if (result != null) {
+      result.mergeFrom(DigestUtil.toDigest(digest));
+    }
+    onContains.accept(key);
+    return true;
   }
 
   @Override
@@ -547,7 +764,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       return identity;
     }
     checkArgument(compressor == Compressor.Value.ZSTD);
-    return new ZstdCompressingInputStream(identity);
+    return new ZstdCompressingInputStream(identity, zstdCompressionPool);
   }
 
   private Entry getEntry(String key) {
@@ -561,20 +778,79 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return null;
   }
 
-  @SuppressWarnings({"ResultOfMethodCallIgnored", "PMD.CompareObjectsWithEquals"})
+  @SuppressWarnings("ResultOfMethodCallIgnored")
   InputStream newLocalInput(Compressor.Value compressor, Digest digest, long offset)
       throws IOException {
     // branch here or above for STARTING
     log.log(Level.FINER, format("getting input stream for %s", DigestUtil.toString(digest)));
-    boolean isExecutable = false;
-    do {
-      String key = getKey(digest, isExecutable);
+    ImmutableList<String> keys =
+        compressor == Compressor.Value.ZSTD
+            ? ImmutableList.of(
+                getCompressedKey(digest), getKey(digest, false), getKey(digest, true))
+            : ImmutableList.of(
+                getKey(digest, false), getKey(digest, true), getCompressedKey(digest));
+    return openLocal(
+        digest,
+        offset,
+        keys,
+        key -> {
+          Path path = getPath(digest, key);
+          if (!isCompressedKey(key)) {
+            InputStream input = compressorInputStream(compressor, Files.newInputStream(path));
+            input.skip(offset);
+            return input;
+          }
+          if (compressor == Compressor.Value.ZSTD && offset == 0) {
+            // the stored frame is the requested content
+            return Files.newInputStream(path);
+          }
+          InputStream input =
+              new ZstdInputStreamNoFinalizer(
+                  Files.newInputStream(path), new ZstdFixedBufferPool(zstdBufferPool));
+          try {
+            ByteStreams.skipFully(input, offset);
+          } catch (IOException e) {
+            input.close();
+            throw e;
+          }
+          return compressorInputStream(compressor, input);
+        });
+  }
+
+  private MappedFileReader newLocalMappedReader(
+      Compressor.Value compressor, Digest digest, long offset, long limit) throws IOException {
+    log.log(Level.FINER, format("getting mapped reader for %s", DigestUtil.toString(digest)));
+    if (compressor == Compressor.Value.ZSTD) {
+      // only a stored frame may be mapped, and only in its entirety, since offset and limit count
+      // uncompressed bytes
+      checkArgument(offset == 0 && limit == 0);
+      return openLocal(
+          digest,
+          offset,
+          ImmutableList.of(getCompressedKey(digest)),
+          key -> MappedFileReader.open(getPath(digest, key), 0, 0, mappedChunkSize));
+    }
+    return openLocal(
+        digest,
+        offset,
+        ImmutableList.of(getKey(digest, false), getKey(digest, true)),
+        key -> MappedFileReader.open(getPath(digest, key), offset, limit, mappedChunkSize));
+  }
+
+  /**
+   * Open the content of the first local entry for digest among keys, removing any entry that cannot
+   * be opened, and recording its access.
+   */
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private <T> T openLocal(
+      Digest digest, long offset, Iterable<String> keys, IOFunction<String, T> open)
+      throws IOException {
+    for (String key : keys) {
       Entry e = getEntry(key);
       if (e != null) {
-        InputStream input = null;
+        T input = null;
         try {
-          input = compressorInputStream(compressor, Files.newInputStream(getPath(digest, key)));
-          input.skip(offset);
+          input = open.apply(key);
         } catch (IOException ioEx) {
           if (!(ioEx instanceof NoSuchFileException)) {
             readIOErrors.inc();
@@ -600,7 +876,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
                 storage.put(key, removedEntry);
               }
             }
-            if (removed && isExecutable) {
+            if (removed && key.endsWith("_exec")) {
               onExpire.accept(ImmutableList.of(digest));
             }
             e = null;
@@ -613,8 +889,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
           return input;
         }
       }
-      isExecutable = !isExecutable;
-    } while (isExecutable);
+    }
     throw new NoSuchFileException(DigestUtil.toString(digest));
   }
 
@@ -667,6 +942,20 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       ServerCallStreamObserver<ByteString> blobObserver,
       RequestMetadata requestMetadata) {
     boolean readThrough = shouldReadThrough(requestMetadata);
+    if (!readThrough
+        && (compressor == Compressor.Value.IDENTITY
+            || (compressor == Compressor.Value.ZSTD && offset == 0 && count == 0))) {
+      MappedFileReader reader = null;
+      try {
+        reader = newLocalMappedReader(compressor, digest, offset, count);
+      } catch (IOException | UnsupportedOperationException e) {
+        // fall back to the stream, which reads through the delegate
+      }
+      if (reader != null) {
+        getMapped(reader, blobObserver);
+        return;
+      }
+    }
     InputStream in;
     try {
       if (readThrough && !contains(digest, /* result= */ null)) {
@@ -756,6 +1045,50 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     blobObserver.setOnReadyHandler(new ReadOnReadyHandler());
   }
 
+  /**
+   * Serve the content of a local file without copying it onto the heap, by sending chunks that wrap
+   * a mapping of the file as the observer becomes ready.
+   */
+  private static void getMapped(
+      MappedFileReader reader, ServerCallStreamObserver<ByteString> blobObserver) {
+    blobObserver.setOnCancelHandler(
+        () -> {
+          try {
+            reader.close();
+          } catch (IOException e) {
+            log.log(Level.SEVERE, "error closing mapped reader on cancel", e);
+          }
+        });
+    final class MappedReadOnReadyHandler implements Runnable {
+      private boolean complete = false;
+
+      @Override
+      public void run() {
+        try {
+          while (!complete && blobObserver.isReady()) {
+            if (reader.hasNext()) {
+              blobObserver.onNext(reader.next());
+            } else {
+              complete = true;
+              reader.close();
+              blobObserver.onCompleted();
+            }
+          }
+        } catch (IOException e) {
+          complete = true;
+          log.log(Level.SEVERE, "error reading from mapped file", e);
+          try {
+            reader.close();
+          } catch (IOException closeEx) {
+            e.addSuppressed(closeEx);
+          }
+          blobObserver.onError(e);
+        }
+      }
+    }
+    blobObserver.setOnReadyHandler(new MappedReadOnReadyHandler());
+  }
+
   boolean completeWrite(Digest digest) {
     // this should be traded for an event emission
     try {
@@ -991,6 +1324,11 @@ public abstract class CASFileCache implements ContentAddressableStorage {
           }
 
           synchronized long getCommittedSizeFromOut() {
+            if (storeCompressed
+                && (out == null || key.getCompressor() != Compressor.Value.IDENTITY)) {
+              // stored frames cannot be resumed after a restart, nor continued with a new frame
+              return 0;
+            }
             if (out == null) {
               if (fileCommittedSize < 0) {
                 // we need to cache this from disk until an out stream is acquired
@@ -1089,7 +1427,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
                       outClosedFuture.set(null);
                     },
                     this::isComplete,
-                    isReset);
+                    isReset,
+                    key.getCompressor());
             if (uniqueOut.getPath() == null) {
               // this is a duplicate output stream and the write is complete
               future.set(key.getDigest().getSize());
@@ -1100,6 +1439,10 @@ public abstract class CASFileCache implements ContentAddressableStorage {
                 case IDENTITY:
                   return uniqueOut;
                 case ZSTD:
+                  if (storeCompressed) {
+                    // the frame is stored as written
+                    return uniqueOut;
+                  }
                   return new ZstdDecompressingOutputStream(uniqueOut, zstdBufferPool);
                 default:
                   throw new UnsupportedOperationException(
@@ -1143,10 +1486,11 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       UUID uuid,
       Consumer<Boolean> onClosed,
       BooleanSupplier isComplete,
-      boolean isReset)
+      boolean isReset,
+      Compressor.Value compressor)
       throws IOException {
     if (out == null) {
-      out = newOutput(digest, uuid, isComplete, isReset);
+      out = newOutput(digest, uuid, isComplete, isReset, compressor);
     }
     if (out == null) {
       // duplicate output stream
@@ -1175,21 +1519,36 @@ public abstract class CASFileCache implements ContentAddressableStorage {
   }
 
   CancellableOutputStream newOutput(
-      Digest digest, UUID uuid, BooleanSupplier isComplete, boolean isReset) throws IOException {
-    String key = getKey(digest, false);
+      Digest digest,
+      UUID uuid,
+      BooleanSupplier isComplete,
+      boolean isReset,
+      Compressor.Value compressor)
+      throws IOException {
+    String key = storeCompressed ? getCompressedKey(digest) : getKey(digest, false);
     final CancellableOutputStream cancellableOut;
     try {
       log.log(Level.FINER, format("getWrite: %s", key));
-      cancellableOut =
-          putImpl(
-              key,
-              digest.getDigestFunction(),
-              uuid,
-              () -> completeWrite(digest),
-              digest.getSize(),
-              /* isExecutable= */ false,
-              () -> invalidateWrite(digest),
-              isReset);
+      if (storeCompressed) {
+        cancellableOut =
+            putCompressedImpl(
+                digest,
+                uuid,
+                compressor,
+                () -> completeWrite(digest),
+                () -> invalidateWrite(digest));
+      } else {
+        cancellableOut =
+            putImpl(
+                key,
+                digest.getDigestFunction(),
+                uuid,
+                () -> completeWrite(digest),
+                digest.getSize(),
+                /* isExecutable= */ false,
+                () -> invalidateWrite(digest),
+                isReset);
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new IOException(e);
@@ -1265,12 +1624,103 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     put(blob, /* onExpiration= */ null);
   }
 
+  /**
+   * Insert a file whose digest has already been computed, without reading its content.
+   *
+   * <p>The file is hard linked into the cache, and is only copied when it resides on another
+   * filesystem, already has other links, or is executable, since the cache will take over the
+   * permissions of a linked file and make it read only. The digest is trusted, and the file must
+   * not be modified after being hashed.
+   */
+  public void putFile(Digest digest, Path file) throws IOException, InterruptedException {
+    long blobSizeInBytes = digest.getSize();
+    if (blobSizeInBytes == 0) {
+      return;
+    }
+    if (blobSizeInBytes > maxEntrySizeInBytes) {
+      throw new EntryLimitException(blobSizeInBytes, maxEntrySizeInBytes);
+    }
+    String key = getKey(digest, false);
+    String writeKey = key + "." + UUID.randomUUID();
+    Path writePath = getPath(digest, key).resolveSibling(writeKey);
+    AtomicBoolean requiresDischarge = new AtomicBoolean(false);
+    boolean referenced = false;
+    try {
+      if (!charge(key, blobSizeInBytes, requiresDischarge)) {
+        referenced = true;
+        return;
+      }
+      try {
+        adoptFile(file, writePath);
+        setReadOnlyPerms(writePath, /* isExecutable= */ false, fileStore);
+      } catch (IOException e) {
+        Files.deleteIfExists(writePath);
+        throw e;
+      }
+      requiresDischarge.set(false); // commit now owns discharge
+      commitEntry(
+          key,
+          getPath(digest, key),
+          writePath,
+          writeKey,
+          blobSizeInBytes,
+          () -> completeWrite(digest),
+          () -> invalidateWrite(digest));
+      referenced = true;
+    } finally {
+      if (requiresDischarge.get()) {
+        dischargeAndNotify(writeKey, blobSizeInBytes);
+      }
+      if (referenced) {
+        decrementReference(key);
+      }
+    }
+  }
+
+  private static void adoptFile(Path file, Path writePath) throws IOException {
+    // the mode of an executable would be lost to the non-executable entry that shares its inode
+    if (linkCount(file) == 1 && !isExecutable(file)) {
+      try {
+        Files.createLink(writePath, file);
+        adoptedFileCounter.labels("link").inc();
+        return;
+      } catch (IOException | UnsupportedOperationException e) {
+        // most likely across filesystems, fall back to copying
+      }
+    }
+    Files.copy(file, writePath);
+    adoptedFileCounter.labels("copy").inc();
+  }
+
+  private static boolean isExecutable(Path file) throws IOException {
+    try {
+      Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+      return permissions.contains(PosixFilePermission.OWNER_EXECUTE)
+          || permissions.contains(PosixFilePermission.GROUP_EXECUTE)
+          || permissions.contains(PosixFilePermission.OTHERS_EXECUTE);
+    } catch (UnsupportedOperationException e) {
+      return Files.isExecutable(file);
+    }
+  }
+
+  private static int linkCount(Path file) {
+    try {
+      if (!Files.isSymbolicLink(file)) {
+        return (Integer) Files.getAttribute(file, "unix:nlink");
+      }
+    } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+      // unknown, assume shared
+    }
+    return -1;
+  }
+
   @Override
   public long maxEntrySize() {
     return maxEntrySizeInBytes;
   }
 
-  private record FileEntryKey(String key, long size, boolean isExecutable, Digest digest) {}
+  private record FileEntryKey(
+      String key, long size, boolean isExecutable, boolean isCompressed, Digest digest) {}
 
   public void initializeRootDirectory() throws IOException {
     for (Path dir : entryPathStrategy) {
@@ -1279,15 +1729,34 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     fileStore = Files.getFileStore(root);
   }
 
+  private List<SizeEntry> lruSizeEntryList() {
+    if (segmented) {
+      return segmentSizeEntryList();
+    }
+    synchronized (this) {
+      return segmentSizeEntryList();
+    }
+  }
+
   @SuppressWarnings({"PMD.CompareObjectsWithEquals"})
-  private synchronized List<SizeEntry> lruSizeEntryList() {
+  private List<SizeEntry> segmentSizeEntryList() {
     /**
      * Steps the entries in order from oldest to newest access The order is used here to insert into
-     * the lru on load
+     * the lru on load. Segments are listed one after another, which preserves the order within
+     * each segment when the entries are reinserted.
      */
     List<SizeEntry> list = new ArrayList<>(storage.size());
-    for (Entry current = header.after; current != header; current = checkNotNull(current.after)) {
-      list.add(new SizeEntry(current.key, current.size));
+    for (Segment segment : segments) {
+      segment.lock();
+      try {
+        for (Entry current = segment.header.after;
+            current != segment.header;
+            current = checkNotNull(current.after)) {
+          list.add(new SizeEntry(current.key, current.size));
+        }
+      } finally {
+        segment.unlock();
+      }
     }
     return list;
   }
@@ -1299,7 +1768,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     }
     // lock ordering, [this] -> [lru]
     // path used as lock due to isolation by filename
-    saveLRU();
+    db.close(saveLRU());
     state.stop();
   }
 
@@ -1354,6 +1823,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       Directories.remove(root, fileStore, removeDirectoryService);
       initializeRootDirectory();
     }
+    // accesses are recorded after the persisted entries are loaded
+    db.open(lru);
 
     // Calculate Startup time
     Instant endTime = Instant.now();
@@ -1368,6 +1839,11 @@ public abstract class CASFileCache implements ContentAddressableStorage {
                 try {
                   casSizeMetric.set(size());
                   casEntryCountMetric.set(entryCount());
+                  for (int i = 0; i < segments.length; i++) {
+                    lruSegmentUnreferencedEntryCount
+                        .labels(Integer.toString(i))
+                        .set(segments[i].unreferencedCount);
+                  }
                   MINUTES.sleep(5);
                 } catch (InterruptedException e) {
                   Thread.currentThread().interrupt();
@@ -1432,47 +1908,69 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return !name.matches("[0-9a-f]{2}");
   }
 
+  /**
+   * Whether the entries of a complete lru db may be restored without scanning the cache
+   * directories, which requires that every piece of cache content is an entry in the lru.
+   */
+  protected boolean canRestoreWithoutScan() {
+    return true;
+  }
+
   private CacheScanResults scanRoot(Consumer<Digest> onStartPut)
       throws IOException, InterruptedException {
-    // create thread pool
-    ExecutorService pool = BuildfarmExecutors.getScanCachePool();
-
     // collect keys from cache root.
     ImmutableList.Builder<Path> computeDirsBuilder = new ImmutableList.Builder<>();
     ImmutableList.Builder<Path> deleteFilesBuilder = new ImmutableList.Builder<>();
 
+    if (canRestoreWithoutScan()
+        && db.isComplete(lru)
+        && restoreLRU(onStartPut, computeDirsBuilder, deleteFilesBuilder)) {
+      return new CacheScanResults(computeDirsBuilder.build(), deleteFilesBuilder.build(), null);
+    }
+
+    // create thread pool
+    ExecutorService pool = BuildfarmExecutors.getScanCachePool();
+
+    List<Path> lruPaths = db.paths(lru);
+
     // TODO invalidate mismatched hash prefix
     Set<Path> files = new HashSet<>();
     for (Path path : entryPathStrategy) {
       files.addAll(listDir(path));
     }
+    // prevent the lru db from being processed -> removed in the purge below
+    lruPaths.forEach(files::remove);
+    if (!storage.isEmpty()) {
+      // a failed restore retains the entries it loaded
+      files.removeIf(file -> storage.containsKey(file.getFileName().toString()));
+    }
 
     for (Path branchDir : entryPathStrategy.branchDirectories()) {
       for (Path file : listDir(branchDir)) {
         // allow migration for digest-y names
         String name = file.getFileName().toString();
-        if (shouldDeleteBranchFile(branchDir, name)) {
+        if (shouldDeleteBranchFile(branchDir, name) && !lruPaths.contains(file)) {
           deleteFilesBuilder.add(file);
         }
       }
     }
 
     // TODO test for hex bins
-    try (BufferedReader br = Files.newBufferedReader(lru)) {
-      for (SizeEntry entry : db.entries(br)) {
-        // ignore files in the lru that are not present in the directories
-        Digest digest = entryDigest(entry.key(), entry.size());
-        if (digest == null) {
-          // unparseable lru entry: no managed file can correspond to it, skip
-          continue;
-        }
-        Path path = entryPathStrategy.getPath(digest, entry.key());
-        if (files.remove(path)) {
-          processRootFile(onStartPut, path, entry, computeDirsBuilder, deleteFilesBuilder);
-        }
-      }
-      // prevent the lru db from being processed -> removed in the purge below
-      files.remove(lru);
+    try {
+      db.load(
+          lru,
+          entry -> {
+            // ignore files in the lru that are not present in the directories
+            Digest digest = entryDigest(entry.key(), entry.size());
+            if (digest == null) {
+              // unparseable lru entry: no managed file can correspond to it, skip
+              return;
+            }
+            Path path = entryPathStrategy.getPath(digest, entry.key());
+            if (files.remove(path)) {
+              processRootFile(onStartPut, path, entry, computeDirsBuilder, deleteFilesBuilder);
+            }
+          });
     } catch (NoSuchFileException e) {
       // ignore - LRU file doesn't exist, will scan all files
     } catch (Exception e) {
@@ -1482,12 +1980,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
           "LRU file is corrupted and cannot be parsed. Deleting corrupted LRU file and falling back"
               + " to full cache scan.",
           e);
-      try {
-        Files.deleteIfExists(lru);
-        log.log(Level.INFO, "Deleted corrupted LRU file: " + lru);
-      } catch (IOException deleteEx) {
-        log.log(Level.SEVERE, "Failed to delete corrupted LRU file: " + lru, deleteEx);
-      }
+      deleteLRU();
       // Continue with full scan - all files will be processed in the loop below
     }
     for (Path file : files) {
@@ -1514,6 +2007,48 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return new CacheScanResults(computeDirsBuilder.build(), deleteFilesBuilder.build(), null);
   }
 
+  /**
+   * Restore the entries of the lru db without listing the cache directories. Returns false if the
+   * db could not be read, retaining any entries that were restored before the failure.
+   */
+  private boolean restoreLRU(
+      Consumer<Digest> onStartPut,
+      ImmutableList.Builder<Path> computeDirs,
+      ImmutableList.Builder<Path> deleteFiles) {
+    try {
+      db.load(
+          lru,
+          entry -> {
+            Digest digest = entryDigest(entry.key(), entry.size());
+            if (digest != null) {
+              Path path = entryPathStrategy.getPath(digest, entry.key());
+              processRootFile(onStartPut, path, entry, computeDirs, deleteFiles);
+            }
+          });
+      log.log(Level.INFO, format("Restored %d entries from %s", storage.size(), lru));
+      return true;
+    } catch (Exception e) {
+      log.log(
+          Level.WARNING,
+          "LRU file cannot be restored. Deleting LRU file and falling back to full cache scan.",
+          e);
+      deleteLRU();
+      return false;
+    }
+  }
+
+  private void deleteLRU() {
+    for (Path path : db.paths(lru)) {
+      try {
+        if (Files.deleteIfExists(path)) {
+          log.log(Level.INFO, "Deleted corrupted LRU file: " + path);
+        }
+      } catch (IOException deleteEx) {
+        log.log(Level.SEVERE, "Failed to delete corrupted LRU file: " + path, deleteEx);
+      }
+    }
+  }
+
   @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   private void processRootFile(
       Consumer<Digest> onStartPut,
@@ -1551,11 +2086,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
           Entry e = new Entry(key, size, Deadline.after(10, SECONDS));
           checkState(storage.put(e.key, e) == null, key);
           onStartPut.accept(fileEntryKey.digest());
-          synchronized (this) {
-            if (e.decrementReference(header)) {
-              unreferencedEntryCount++;
-            }
-          }
+          decrementEntryReference(e);
           sizeInBytes += size;
         }
       }
@@ -1591,9 +2122,52 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return digestFilename(digest) + (isExecutable ? "_exec" : "");
   }
 
-  public synchronized void decrementReference(String inputFile) throws IOException {
-    if (decrementInputReferences(ImmutableList.of(inputFile)) > 0) {
-      notify();
+  /**
+   * The key of the zstd compressed entry for a digest, which includes the uncompressed size, since
+   * the size of its content differs from the digest.
+   */
+  public static String getCompressedKey(Digest digest) {
+    return digestFilename(digest) + "_" + digest.getSize() + "_zstd";
+  }
+
+  private static boolean isCompressedKey(String key) {
+    return key.endsWith("_zstd");
+  }
+
+  /** Whether an entry for the digest of fileEntryKey other than its own remains in storage. */
+  private boolean containsOtherEntry(FileEntryKey fileEntryKey) {
+    Digest digest = fileEntryKey.digest();
+    for (String key :
+        ImmutableList.of(getKey(digest, false), getKey(digest, true), getCompressedKey(digest))) {
+      if (!key.equals(fileEntryKey.key()) && storage.containsKey(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void decrementReference(String inputFile) throws IOException {
+    decrementInputReferencesAndNotify(ImmutableList.of(inputFile));
+  }
+
+  /**
+   * Decrements the references for inputFiles and wakes any expiration waiting for unreferenced
+   * entries. When the lru is segmented, the cache monitor is only acquired to notify a waiting
+   * expiration.
+   */
+  protected void decrementInputReferencesAndNotify(Iterable<String> inputFiles) {
+    if (segmented) {
+      if (decrementInputReferences(inputFiles) > 0 && evictionWaiters > 0) {
+        synchronized (this) {
+          notify();
+        }
+      }
+    } else {
+      synchronized (this) {
+        if (decrementInputReferences(inputFiles) > 0) {
+          notify();
+        }
+      }
     }
   }
 
@@ -1603,7 +2177,6 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       DigestFunction.Value digestFunction)
       throws IOException, InterruptedException;
 
-  @SuppressWarnings("NonAtomicOperationOnVolatileField")
   protected int decrementInputReferences(Iterable<String> inputFiles) {
     int entriesDereferenced = 0;
     for (String input : inputFiles) {
@@ -1615,9 +2188,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       if (!e.key.equals(input)) {
         throw new RuntimeException("ERROR: entry retrieved: " + e.key + " != " + input);
       }
-      if (e.decrementReference(header)) {
+      if (decrementEntryReference(e)) {
         entriesDereferenced++;
-        unreferencedEntryCount++;
       }
     }
     return entriesDereferenced;
@@ -1658,6 +2230,12 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     notify();
   }
 
+  /** Adjusts a charge to the size that was committed, without counting it as a removal. */
+  private synchronized void refundAndNotify(long size) {
+    sizeInBytes -= size;
+    notify();
+  }
+
   protected synchronized void discharge(String key, long size) {
     sizeInBytes -= size;
     removedEntryCount++;
@@ -1684,10 +2262,29 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return getPath(digest, getDirectoryKey(digest));
   }
 
-  @GuardedBy("this")
   @SuppressWarnings("PMD.CompareObjectsWithEquals")
-  private Entry waitForLastUnreferencedEntry(long blobSizeInBytes) throws InterruptedException {
-    while (header.after == header) { // Intentional reference comparison
+  private @Nullable Entry eldestUnreferencedEntry(Segment preferred) {
+    // expire from the preferred segment, falling back to the others only when it is exhausted
+    for (int i = 0; i < segments.length; i++) {
+      Segment segment = segments[(preferred.index + i) % segments.length];
+      segment.lock();
+      try {
+        if (segment.header.after != segment.header) { // Intentional reference comparison
+          return segment.header.after;
+        }
+      } finally {
+        segment.unlock();
+      }
+    }
+    return null;
+  }
+
+  @GuardedBy("this")
+  @SuppressWarnings("NonAtomicOperationOnVolatileField")
+  private Entry waitForLastUnreferencedEntry(long blobSizeInBytes, Segment preferred)
+      throws InterruptedException {
+    Entry eldest;
+    while ((eldest = eldestUnreferencedEntry(preferred)) == null) {
       int references = 0;
       int keys = 0;
       int min = -1;
@@ -1739,12 +2336,21 @@ public abstract class CASFileCache implements ContentAddressableStorage {
               "CASFileCache::expireEntry(%d) unreferenced list is empty, %d bytes, %d keys with %d"
                   + " references, min(%d, %s), max(%d, %s)",
               blobSizeInBytes, sizeInBytes, keys, references, min, minkey, max, maxkey));
-      wait();
+      evictionWaiters++;
+      try {
+        // segmented decrements only notify when they observe a waiter, check again
+        if (eldestUnreferencedEntry(preferred) != null) {
+          continue;
+        }
+        wait();
+      } finally {
+        evictionWaiters--;
+      }
       if (sizeInBytes <= maxSizeInBytes) {
         return null;
       }
     }
-    return header.after;
+    return eldest;
   }
 
   protected abstract List<ListenableFuture<Void>> unlinkAndExpireDirectories(
@@ -1754,6 +2360,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     List<ListenableFuture<Void>> directoryExpirationFutures =
         unlinkAndExpireDirectories(entry, service);
     discharge(entry.key, entry.size);
+    db.removed(entry.key);
     return whenAllComplete(directoryExpirationFutures)
         .call(
             () -> {
@@ -1812,6 +2419,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     }
     // only discharge after all the directories are gone, or their removal failed
     discharge(entry.key, entry.size);
+    db.removed(entry.key);
     if (expirationException != null) {
       throw expirationException;
     }
@@ -1884,14 +2492,15 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return entry;
   }
 
-  @SuppressWarnings({"NonAtomicOperationOnVolatileField", "PMD.CompareObjectsWithEquals"})
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
   @GuardedBy("this")
-  private ListenableFuture<Entry> expireEntry(long blobSizeInBytes, ExecutorService service)
+  private ListenableFuture<Entry> expireEntry(
+      long blobSizeInBytes, Segment preferred, ExecutorService service)
       throws IOException, InterruptedException {
-    for (Entry e = waitForLastUnreferencedEntry(blobSizeInBytes);
+    for (Entry e = waitForLastUnreferencedEntry(blobSizeInBytes, preferred);
         e != null;
-        e = waitForLastUnreferencedEntry(blobSizeInBytes)) {
-      if (e.referenceCount != 0) {
+        e = waitForLastUnreferencedEntry(blobSizeInBytes, preferred)) {
+      if (e.referenceCount != 0 && !segmented) {
         throw new IllegalStateException(
             "ERROR: Reference counts lru ordering has not been maintained correctly, attempting to"
                 + " expire referenced (or negatively counted) content "
@@ -1917,7 +2526,21 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       }
       // Reuse the parsed blob digest where we have one; recover it from a `_dir` key otherwise.
       Digest digest = fileEntryKey != null ? fileEntryKey.digest() : entryDigest(e.key, e.size);
-      Entry removedEntry = safeStorageRemoval(digest, e.key);
+      Entry removedEntry;
+      Segment segment = segmentFor(e.key);
+      segment.lock();
+      try {
+        // segmented references do not hold this, the entry may have been claimed since selection
+        if (e.referenceCount != 0) {
+          if (interrupted || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+          }
+          continue;
+        }
+        removedEntry = safeStorageRemoval(digest, e.key);
+      } finally {
+        segment.unlock();
+      }
       // reference compare on purpose
       if (removedEntry == e) {
         ListenableFuture<Entry> entryFuture = dischargeEntryFuture(e, service);
@@ -1928,10 +2551,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       }
       if (removedEntry == null) {
         log.log(Level.SEVERE, format("entry %s was already removed during expiration", e.key));
-        if (e.isLinked()) {
-          log.log(Level.SEVERE, format("removing spuriously non-existent entry %s", e.key));
-          e.unlink();
-          unreferencedEntryCount--;
+        if (unlinkEntryFromLRU(e)) {
+          log.log(Level.SEVERE, format("removed spuriously non-existent entry %s", e.key));
         } else {
           log.log(
               Level.SEVERE,
@@ -2259,6 +2880,168 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     return newCancellableOutputStream(out);
   }
 
+  /**
+   * Put the compressed entry for digest, returning null if it already exists.
+   *
+   * <p>With a ZSTD compressor, the frame is stored as written and decompressed only to verify its
+   * content. Otherwise the written content is compressed as it is stored. The compressed size is
+   * not known until the write completes, so the entry is charged for the bound of the compressed
+   * size, and the remainder is discharged when it is committed.
+   */
+  private @Nullable CancellableOutputStream putCompressedImpl(
+      Digest digest,
+      UUID writeId,
+      Compressor.Value compressor,
+      Supplier<Boolean> writeWinner,
+      Runnable onInsert)
+      throws IOException, InterruptedException {
+    long blobSizeInBytes = digest.getSize();
+    if (blobSizeInBytes > maxEntrySizeInBytes) {
+      throw new EntryLimitException(blobSizeInBytes, maxEntrySizeInBytes);
+    }
+    String key = getCompressedKey(digest);
+    long chargedSize = Zstd.compressBound(blobSizeInBytes);
+    AtomicBoolean requiresDischarge = new AtomicBoolean(false);
+    try {
+      if (!charge(key, chargedSize, requiresDischarge)) {
+        return null;
+      }
+      CancellableOutputStream out =
+          newCompressedOutput(
+              key, digest, writeId, compressor, chargedSize, writeWinner, onInsert);
+      requiresDischarge.set(false); // stream now owns discharge
+      log.log(Level.FINER, format("entry %s is missing, populating", key));
+      return newCancellableOutputStream(out);
+    } finally {
+      if (requiresDischarge.get()) {
+        dischargeAndNotify("put:" + key, chargedSize);
+      }
+    }
+  }
+
+  private CancellableOutputStream newCompressedOutput(
+      String key,
+      Digest digest,
+      UUID writeId,
+      Compressor.Value compressor,
+      long chargedSize,
+      Supplier<Boolean> writeWinner,
+      Runnable onInsert)
+      throws IOException {
+    long blobSizeInBytes = digest.getSize();
+    DigestUtil digestUtil = new DigestUtil(HashFunction.get(digest.getDigestFunction()));
+    String writeKey = key + "." + writeId;
+    Path writePath = getPath(digest, key).resolveSibling(writeKey);
+    HashingOutputStream hashOut = digestUtil.newHashingOutputStream(nullOutputStream());
+    CountingOutputStream countingOut = new CountingOutputStream(0, hashOut);
+    // content is the uncompressed content, and is only counted and hashed
+    OutputStream fileOut = Files.newOutputStream(writePath, CREATE, TRUNCATE_EXISTING);
+    final OutputStream storedOut;
+    final OutputStream contentOut;
+    if (compressor == Compressor.Value.ZSTD) {
+      storedOut = fileOut;
+      contentOut = new ZstdDecompressingOutputStream(countingOut, zstdBufferPool);
+    } else {
+      storedOut = new ZstdOutputStreamNoFinalizer(fileOut, zstdCompressionPool.getLevel());
+      contentOut = countingOut;
+    }
+    return new CancellableOutputStream(storedOut) {
+      @Override
+      public long getWritten() {
+        return countingOut.written();
+      }
+
+      @Override
+      public Path getPath() {
+        return writePath;
+      }
+
+      @Override
+      public void cancel() throws IOException {
+        try {
+          closeStreams();
+          Files.delete(writePath);
+        } finally {
+          dischargeAndNotify(writeKey, chargedSize);
+        }
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        contentOut.write(b, off, len);
+        if (getWritten() > blobSizeInBytes) {
+          throw new IOException(
+              format("overwrite at %d by %d bytes for %s", getWritten(), len, writeKey));
+        }
+      }
+
+      private void closeStreams() throws IOException {
+        try {
+          contentOut.close();
+        } finally {
+          out.close();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        closeStreams();
+        long size = countingOut.written();
+        if (size != blobSizeInBytes) {
+          try {
+            // a compressed write cannot be resumed, and is restarted from the beginning
+            Files.delete(writePath);
+          } finally {
+            dischargeAndNotify(writeKey, chargedSize);
+          }
+          if (size < blobSizeInBytes) {
+            throw new IncompleteBlobException(writePath, key, size, blobSizeInBytes);
+          }
+          throw new DigestMismatchException(
+              digestUtil.build(hashOut.hash().toString(), size), digest);
+        }
+        Digest actual = digestUtil.build(hashOut.hash().toString(), size);
+        if (!actual.getHash().equals(digest.getHash())) {
+          try {
+            Files.delete(writePath);
+          } finally {
+            dischargeAndNotify(writeKey, chargedSize);
+          }
+          throw new DigestMismatchException(actual, digest);
+        }
+        long storedSize;
+        try {
+          storedSize = Files.size(writePath);
+          setReadOnlyPerms(writePath, /* isExecutable= */ false, fileStore);
+        } catch (IOException e) {
+          dischargeAndNotify(writeKey, chargedSize);
+          throw e;
+        }
+        // the entry retains the charge for its stored size
+        refundAndNotify(chargedSize - storedSize);
+        commitEntry(
+            key,
+            CASFileCache.this.getPath(digest, key),
+            writePath,
+            writeKey,
+            storedSize,
+            writeWinner,
+            onInsert);
+      }
+    };
+  }
+
   private CancellableOutputStream newCancellableOutputStream(
       CancellableOutputStream cancellableOut) {
     return new CancellableOutputStream(cancellableOut) {
@@ -2326,26 +3109,115 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     }
   }
 
-  protected synchronized boolean referenceIfExists(String key) throws IOException {
+  protected boolean referenceIfExists(String key) throws IOException {
+    if (segmented) {
+      return referenceSegmentEntryIfExists(key);
+    }
+    synchronized (this) {
+      return referenceSegmentEntryIfExists(key);
+    }
+  }
+
+  @SuppressWarnings("PMD.CompareObjectsWithEquals")
+  private boolean referenceSegmentEntryIfExists(String key) throws IOException {
     Entry e = storage.get(key);
     if (e == null) {
       return false;
     }
 
     if (!entryExists(e)) {
-      Entry removedEntry = storage.remove(key);
-      if (removedEntry != null) {
-        unlinkEntry(removedEntry);
+      // lock ordering, [this] -> [segment]
+      synchronized (this) {
+        Entry removedEntry = storage.remove(key);
+        if (removedEntry != null) {
+          unlinkEntry(removedEntry);
+        }
       }
       return false;
     }
 
-    if (e.incrementReference()) {
-      unreferencedEntryCount--;
+    Segment segment = segmentFor(key);
+    segment.lock();
+    try {
+      // the entry may have been expired since we retrieved it
+      if (storage.get(key) != e) {
+        return false;
+      }
+      if (e.incrementReference()) {
+        segment.unreferencedCount--;
+      }
+    } finally {
+      segment.unlock();
     }
     return true;
   }
 
+  private Segment segmentFor(String key) {
+    if (!segmented) {
+      return segments[0];
+    }
+    int h = key.hashCode();
+    return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+  }
+
+  @VisibleForTesting
+  int segmentIndex(String key) {
+    return segmentFor(key).index;
+  }
+
+  /**
+   * Adds a reference to an entry, removing it from the lru if it was unreferenced. Returns true iff
+   * the entry's state is changed from unreferenced to referenced.
+   */
+  protected boolean incrementEntryReference(Entry e) {
+    Segment segment = segmentFor(e.key);
+    segment.lock();
+    try {
+      if (e.incrementReference()) {
+        segment.unreferencedCount--;
+        return true;
+      }
+      return false;
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  /**
+   * Removes a reference from an entry, inserting it at the head of its lru segment if it becomes
+   * unreferenced. Returns true iff the entry's state is changed from referenced to unreferenced.
+   */
+  protected boolean decrementEntryReference(Entry e) {
+    Segment segment = segmentFor(e.key);
+    segment.lock();
+    try {
+      if (e.decrementReference(segment.header)) {
+        segment.unreferencedCount++;
+        db.accessed(e.key, e.size);
+        return true;
+      }
+      return false;
+    } finally {
+      segment.unlock();
+    }
+  }
+
+  /** Removes an expiring entry from its lru segment. Returns true iff the entry was linked. */
+  protected boolean unlinkEntryFromLRU(Entry e) {
+    Segment segment = segmentFor(e.key);
+    segment.lock();
+    try {
+      if (!e.isLinked()) {
+        return false;
+      }
+      e.unlink();
+      segment.unreferencedCount--;
+      return true;
+    } finally {
+      segment.unlock();
+    }
+  }
+
   private CancellableOutputStream putOrReference(
       String key,
       DigestFunction.Value digestFunction,
@@ -2399,6 +3271,10 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       throws IOException, InterruptedException {
     boolean interrupted = false;
     Iterable<ListenableFuture<Digest>> expiredDigestsFutures;
+    // avoid the monitor entirely for existing keys when the lru is segmented
+    if (segmented && referenceIfExists(key)) {
+      return false;
+    }
     synchronized (this) {
       if (referenceIfExists(key)) {
         return false;
@@ -2409,7 +3285,8 @@ public abstract class CASFileCache implements ContentAddressableStorage {
       ImmutableList.Builder<ListenableFuture<Digest>> builder = ImmutableList.builder();
       try {
         while (!interrupted && sizeInBytes > maxSizeInBytes) {
-          ListenableFuture<Entry> expiredFuture = expireEntry(blobSizeInBytes, expireService);
+          ListenableFuture<Entry> expiredFuture =
+              expireEntry(blobSizeInBytes, segmentFor(key), expireService);
           interrupted = Thread.interrupted();
           if (expiredFuture != null) {
             builder.add(
@@ -2429,9 +3306,7 @@ public abstract class CASFileCache implements ContentAddressableStorage {
                             eNoEnt);
                       }
                       FileEntryKey fileEntryKey = parseFileEntryKey(expiredKey, expiredEntry.size);
-                      if (fileEntryKey != null
-                          && storage.containsKey(
-                              getKey(fileEntryKey.digest(), !fileEntryKey.isExecutable()))) {
+                      if (fileEntryKey != null && containsOtherEntry(fileEntryKey)) {
                         return immediateFuture(null);
                       }
                       expiredKeyCounter.inc();
@@ -2615,58 +3490,82 @@ public abstract class CASFileCache implements ContentAddressableStorage {
           throw e;
         }
 
-        Entry entry = new Entry(key, blobSizeInBytes, Deadline.after(10, SECONDS));
+        commitEntry(
+            key,
+            CASFileCache.this.getPath(actual, key),
+            writePath,
+            writeKey,
+            blobSizeInBytes,
+            writeWinner,
+            onInsert);
+      }
+    };
+  }
 
-        Entry existingEntry = null;
-        boolean inserted = false;
-        try {
-          // acquire the key lock
-          Files.createLink(CASFileCache.this.getPath(actual, key), writePath);
-          existingEntry = safeStorageInsertion(key, entry);
-          inserted = existingEntry == null;
-        } catch (FileAlreadyExistsException e) {
-          log.log(Level.FINER, "file already exists for " + key + ", nonexistent entry will fail");
-        } finally {
-          Files.delete(writePath);
-          if (!inserted) {
-            dischargeAndNotify(writeKey, blobSizeInBytes);
-          }
-        }
+  /**
+   * Link a complete, read-only write file into the cache under key, and remove the write file.
+   *
+   * <p>The write must have been charged for. On return, a reference is held on the entry for key.
+   */
+  private void commitEntry(
+      String key,
+      Path keyPath,
+      Path writePath,
+      String writeKey,
+      long blobSizeInBytes,
+      Supplier<Boolean> writeWinner,
+      Runnable onInsert)
+      throws IOException {
+    Entry entry = new Entry(key, blobSizeInBytes, Deadline.after(10, SECONDS));
 
-        int attempts = 10;
-        if (!inserted) {
-          while (existingEntry == null && attempts-- != 0) {
-            existingEntry = storage.get(key);
-            try {
-              MILLISECONDS.sleep(10);
-            } catch (InterruptedException intEx) {
-              throw new IOException(intEx);
-            }
-          }
+    Entry existingEntry = null;
+    boolean inserted = false;
+    try {
+      // acquire the key lock
+      Files.createLink(keyPath, writePath);
+      existingEntry = safeStorageInsertion(key, entry);
+      inserted = existingEntry == null;
+    } catch (FileAlreadyExistsException e) {
+      log.log(Level.FINER, "file already exists for " + key + ", nonexistent entry will fail");
+    } finally {
+      Files.delete(writePath);
+      if (!inserted) {
+        dischargeAndNotify(writeKey, blobSizeInBytes);
+      }
+    }
 
-          if (existingEntry == null) {
-            throw new IOException("existing entry did not appear for " + key);
-          }
+    int attempts = 10;
+    if (!inserted) {
+      while (existingEntry == null && attempts-- != 0) {
+        existingEntry = storage.get(key);
+        try {
+          MILLISECONDS.sleep(10);
+        } catch (InterruptedException intEx) {
+          throw new IOException(intEx);
         }
+      }
 
-        if (existingEntry != null) {
-          log.log(Level.FINER, "lost the race to insert " + key);
-          if (!referenceIfExists(key)) {
-            // we would lose our accountability and have a presumed reference if we returned
-            throw new IllegalStateException("storage conflict with existing key for " + key);
-          }
-        } else if (writeWinner.get()) {
-          log.log(Level.FINER, "won the race to insert " + key);
-          try {
-            onInsert.run();
-          } catch (RuntimeException e) {
-            throw new IOException(e);
-          }
-        } else {
-          log.log(Level.FINER, "did not win the race to insert " + key);
-        }
+      if (existingEntry == null) {
+        throw new IOException("existing entry did not appear for " + key);
       }
-    };
+    }
+
+    if (existingEntry != null) {
+      log.log(Level.FINER, "lost the race to insert " + key);
+      if (!referenceIfExists(key)) {
+        // we would lose our accountability and have a presumed reference if we returned
+        throw new IllegalStateException("storage conflict with existing key for " + key);
+      }
+    } else if (writeWinner.get()) {
+      log.log(Level.FINER, "won the race to insert " + key);
+      try {
+        onInsert.run();
+      } catch (RuntimeException e) {
+        throw new IOException(e);
+      }
+    } else {
+      log.log(Level.FINER, "did not win the race to insert " + key);
+    }
   }
 
   @VisibleForTesting
@@ -2763,6 +3662,38 @@ public abstract class CASFileCache implements ContentAddressableStorage {
     }
   }
 
+  private static final class Segment {
+    final int index;
+    final Entry header;
+    final ReentrantLock lock = new ReentrantLock();
+    final Counter.Child acquisitions;
+    final Counter.Child contentions;
+
+    @GuardedBy("lock")
+    volatile long unreferencedCount = 0;
+
+    Segment(int index, Entry header) {
+      this.index = index;
+      this.header = header;
+      header.before = header.after = header;
+      String label = Integer.toString(index);
+      acquisitions = lruSegmentAcquisitions.labels(label);
+      contentions = lruSegmentContentions.labels(label);
+    }
+
+    void lock() {
+      if (!lock.tryLock()) {
+        contentions.inc();
+        lock.lock();
+      }
+      acquisitions.inc();
+    }
+
+    void unlock() {
+      lock.unlock();
+    }
+  }
+
   private static final class SentinelEntry extends Entry {
     @Override
     public void unlink() {
@@ -2821,9 +3752,10 @@ public abstract class CASFileCache implements ContentAddressableStorage {
 
   private void expireEntryFallback(FileEntryKey fileEntryKey) throws IOException {
     if (delegate != null) {
+      // compressed entries are copied as stored
       Write write =
           delegate.getWrite(
-              Compressor.Value.IDENTITY,
+              fileEntryKey.isCompressed() ? Compressor.Value.ZSTD : Compressor.Value.IDENTITY,
               fileEntryKey.digest(),
               UUID.randomUUID(),
               RequestMetadata.getDefaultInstance());
@@ -33,6 +33,7 @@ import build.buildfarm.cas.ContentAddressableStorage;
 import build.buildfarm.common.BuildfarmExecutors;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.InputStreamFactory;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import build.buildfarm.common.ZstdDecompressingOutputStream.FixedBufferPool;
 import build.buildfarm.common.io.Directories;
 import build.buildfarm.v1test.Digest;
@@ -75,6 +76,7 @@ public class DirectoryEntryCFC extends CASFileCache {
       long maxSizeInBytes,
       long maxEntrySizeInBytes,
       int hexBucketLevels,
+      int lruSegments,
       ExecutorService expireService,
       Executor accessRecorder,
       ConcurrentMap<String, Entry> storage,
@@ -84,15 +86,57 @@ public class DirectoryEntryCFC extends CASFileCache {
       @Nullable ContentAddressableStorage delegate,
       boolean delegateSkipLoad,
       InputStreamFactory externalInputStreamFactory) {
+    this(
+        root,
+        maxSizeInBytes,
+        maxEntrySizeInBytes,
+        hexBucketLevels,
+        lruSegments,
+        /* lruJournal= */ false,
+        /* storeCompressed= */ false,
+        expireService,
+        accessRecorder,
+        storage,
+        zstdBufferPool,
+        CompressionContextPool.getDefault(),
+        onPut,
+        onExpire,
+        delegate,
+        delegateSkipLoad,
+        externalInputStreamFactory);
+  }
+
+  public DirectoryEntryCFC(
+      Path root,
+      long maxSizeInBytes,
+      long maxEntrySizeInBytes,
+      int hexBucketLevels,
+      int lruSegments,
+      boolean lruJournal,
+      boolean storeCompressed,
+      ExecutorService expireService,
+      Executor accessRecorder,
+      ConcurrentMap<String, Entry> storage,
+      FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
+      Consumer<Digest> onPut,
+      Consumer<Iterable<Digest>> onExpire,
+      @Nullable ContentAddressableStorage delegate,
+      boolean delegateSkipLoad,
+      InputStreamFactory externalInputStreamFactory) {
     super(
         root,
         maxSizeInBytes,
         maxEntrySizeInBytes,
         hexBucketLevels,
+        lruSegments,
+        lruJournal,
+        storeCompressed,
         expireService,
         accessRecorder,
         storage,
         zstdBufferPool,
+        zstdCompressionPool,
         onPut,
         onExpire,
         delegate,
@@ -123,11 +167,7 @@ public class DirectoryEntryCFC extends CASFileCache {
         }
       } else {
         storage.put(key, e);
-        synchronized (this) {
-          if (e.decrementReference(header)) {
-            unreferencedEntryCount++;
-          }
-        }
+        decrementEntryReference(e);
         sizeInBytes += e.size;
       }
     } catch (Exception e) {
@@ -369,7 +409,7 @@ public class DirectoryEntryCFC extends CASFileCache {
   }
 
   @Override
-  public synchronized void decrementReferences(
+  public void decrementReferences(
       Iterable<String> inputFiles,
       Iterable<build.bazel.remote.execution.v2.Digest> inputDirectories,
       DigestFunction.Value digestFunction)
@@ -380,19 +420,13 @@ public class DirectoryEntryCFC extends CASFileCache {
             digest -> getDirectoryKey(DigestUtil.fromDigest(digest, digestFunction)));
     // decrement references and notify if any dropped to 0
     // insert after the last 0-reference count entry in list
-    inputFiles = Iterables.concat(inputFiles, directoryDigests);
-    if (decrementInputReferences(inputFiles) > 0) {
-      notify();
-    }
-    // this is very funky as is, it smells like something we should elevate to parent
-    // even funkier with the synchronized requirement
+    decrementInputReferencesAndNotify(Iterables.concat(inputFiles, directoryDigests));
   }
 
   @Override
   protected synchronized List<ListenableFuture<Void>> unlinkAndExpireDirectories(
       Entry entry, ExecutorService service) {
-    entry.unlink();
-    unreferencedEntryCount--;
+    unlinkEntryFromLRU(entry);
     if (entry.referenceCount != 0) {
       log.log(Level.SEVERE, "removed referenced entry " + entry.key);
     }
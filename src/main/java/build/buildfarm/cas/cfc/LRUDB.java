@@ -1,14 +1,66 @@
 package build.buildfarm.cas.cfc;
 
-import java.io.BufferedReader;
+import build.buildfarm.common.function.IOConsumer;
+import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
 
 interface LRUDB {
   record SizeEntry(String key, long size) {}
 
-  Iterable<SizeEntry> entries(BufferedReader br) throws IOException;
+  /** The files that persist the db at path, which are not cache content. */
+  default List<Path> paths(Path path) {
+    return ImmutableList.of(path);
+  }
+
+  /** Visit the entries persisted at path, from oldest to newest access. */
+  void load(Path path, IOConsumer<SizeEntry> onEntry) throws IOException;
+
+  /**
+   * Whether the entries persisted at path are known to include every entry of the cache, such that
+   * they may be restored without scanning the cache directories.
+   */
+  default boolean isComplete(Path path) {
+    return false;
+  }
+
+  /** Begin recording accesses after loading the entries persisted at path. */
+  default void open(Path path) throws IOException {}
+
+  /** Record an entry becoming the newest in the lru. */
+  default void accessed(String key, long size) {}
+
+  /** Record the removal of an entry from the cache. */
+  default void removed(String key) {}
+
+  /** Persist the recorded accesses and removals, called periodically off of the access path. */
+  default void flush() {}
+
+  /** Whether the lru should be saved, checked periodically. */
+  default boolean shouldSave() {
+    return true;
+  }
+
+  /**
+   * Prepare for a save to path of the entries listed after this call.
+   *
+   * @return false if another save is in progress, and this save should be skipped.
+   */
+  default boolean beginSave(Path path) throws IOException {
+    return true;
+  }
 
   void save(Iterator<SizeEntry> head, Path path) throws IOException;
+
+  /** Conclude a save begun by beginSave, whether or not it completed. */
+  default void endSave() {}
+
+  /**
+   * Stop recording accesses.
+   *
+   * @param complete whether the last save included every entry of the cache.
+   */
+  default void close(boolean complete) throws IOException {}
 }
@@ -35,6 +35,7 @@ import build.buildfarm.cas.ContentAddressableStorage;
 import build.buildfarm.common.BuildfarmExecutors;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.InputStreamFactory;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import build.buildfarm.common.ZstdDecompressingOutputStream.FixedBufferPool;
 import build.buildfarm.common.io.Directories;
 import build.buildfarm.common.io.NamedFileKey;
@@ -90,11 +91,19 @@ public class LegacyDirectoryCFC extends CASFileCache {
     return directoryStorage.size();
   }
 
+  @Override
+  public void forEachDirectoryHash(Consumer<String> consumer) {
+    for (Digest digest : directoryStorage.keySet()) {
+      consumer.accept(digest.getHash());
+    }
+  }
+
   public LegacyDirectoryCFC(
       Path root,
       long maxSizeInBytes,
       long maxEntrySizeInBytes,
       int hexBucketLevels,
+      int lruSegments,
       boolean storeFileDirsIndexInMemory,
       boolean execRootFallback,
       ExecutorService expireService,
@@ -107,15 +116,63 @@ public class LegacyDirectoryCFC extends CASFileCache {
       @Nullable ContentAddressableStorage delegate,
       boolean delegateSkipLoad,
       InputStreamFactory externalInputStreamFactory) {
+    this(
+        root,
+        maxSizeInBytes,
+        maxEntrySizeInBytes,
+        hexBucketLevels,
+        lruSegments,
+        /* lruJournal= */ false,
+        /* storeCompressed= */ false,
+        storeFileDirsIndexInMemory,
+        execRootFallback,
+        expireService,
+        accessRecorder,
+        storage,
+        directoriesIndexDbName,
+        zstdBufferPool,
+        CompressionContextPool.getDefault(),
+        onPut,
+        onExpire,
+        delegate,
+        delegateSkipLoad,
+        externalInputStreamFactory);
+  }
+
+  public LegacyDirectoryCFC(
+      Path root,
+      long maxSizeInBytes,
+      long maxEntrySizeInBytes,
+      int hexBucketLevels,
+      int lruSegments,
+      boolean lruJournal,
+      boolean storeCompressed,
+      boolean storeFileDirsIndexInMemory,
+      boolean execRootFallback,
+      ExecutorService expireService,
+      Executor accessRecorder,
+      ConcurrentMap<String, Entry> storage,
+      String directoriesIndexDbName,
+      FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
+      Consumer<Digest> onPut,
+      Consumer<Iterable<Digest>> onExpire,
+      @Nullable ContentAddressableStorage delegate,
+      boolean delegateSkipLoad,
+      InputStreamFactory externalInputStreamFactory) {
     super(
         root,
         maxSizeInBytes,
         maxEntrySizeInBytes,
         hexBucketLevels,
+        lruSegments,
+        lruJournal,
+        storeCompressed,
         expireService,
         accessRecorder,
         storage,
         zstdBufferPool,
+        zstdCompressionPool,
         onPut,
         onExpire,
         delegate,
@@ -225,6 +282,12 @@ public class LegacyDirectoryCFC extends CASFileCache {
     return loadResults;
   }
 
+  @Override
+  protected boolean canRestoreWithoutScan() {
+    // directories are not entries in the lru, and are only found by the scan
+    return false;
+  }
+
   @Override
   protected boolean shouldDeleteBranchFile(Path branchDir, String name) {
     boolean isRoot = branchDir.equals(getRoot());
@@ -393,7 +456,6 @@ public class LegacyDirectoryCFC extends CASFileCache {
     }
   }
 
-  @SuppressWarnings("NonAtomicOperationOnVolatileField")
   @Override
   protected synchronized List<ListenableFuture<Void>> unlinkAndExpireDirectories(
       Entry entry, ExecutorService service) {
@@ -411,8 +473,7 @@ public class LegacyDirectoryCFC extends CASFileCache {
 
     // candidate for parent-only method
 
-    entry.unlink();
-    unreferencedEntryCount--;
+    unlinkEntryFromLRU(entry);
     if (entry.referenceCount != 0) {
       log.severe("removed referenced entry " + entry.key);
     }
@@ -571,9 +632,7 @@ public class LegacyDirectoryCFC extends CASFileCache {
             e = null;
             break;
           }
-          if (fileEntry.incrementReference()) {
-            unreferencedEntryCount--;
-          }
+          incrementEntryReference(fileEntry);
           checkNotNull(input);
           inputsBuilder.add(input);
         }
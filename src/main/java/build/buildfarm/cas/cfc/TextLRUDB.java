@@ -3,9 +3,11 @@ package build.buildfarm.cas.cfc;
 import static com.google.common.base.Preconditions.checkState;
 import static java.lang.String.format;
 
+import build.buildfarm.common.function.IOConsumer;
 import build.buildfarm.common.io.AtomicFileWriter;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -48,8 +50,7 @@ class TextLRUDB implements LRUDB {
     }
   }
 
-  @Override
-  public Iterable<SizeEntry> entries(BufferedReader br) throws IOException {
+  Iterable<SizeEntry> entries(BufferedReader br) throws IOException {
     return new Iterable<>() {
       @Override
       public Iterator<SizeEntry> iterator() {
@@ -58,6 +59,15 @@ class TextLRUDB implements LRUDB {
     };
   }
 
+  @Override
+  public void load(Path path, IOConsumer<SizeEntry> onEntry) throws IOException {
+    try (BufferedReader br = Files.newBufferedReader(path)) {
+      for (SizeEntry entry : entries(br)) {
+        onEntry.accept(entry);
+      }
+    }
+  }
+
   @Override
   public void save(Iterator<SizeEntry> entries, Path path) throws IOException {
     try (AtomicFileWriter writer = new AtomicFileWriter(path)) {
@@ -90,6 +90,25 @@ public class BuildfarmExecutors {
     return listeningDecorator(pool);
   }
 
+  public static ListeningExecutorService getOutputUploadPool(int nThreads) {
+    if (nThreads <= 0) {
+      nThreads = SystemProcessors.get();
+    }
+    String threadNameFormat = "output-upload-pool-%d";
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            nThreads, new ThreadFactoryBuilder().setNameFormat(threadNameFormat).build());
+    return listeningDecorator(pool);
+  }
+
+  public static ListeningExecutorService getBlobUploadPool(int nThreads) {
+    String threadNameFormat = "blob-upload-pool-%d";
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            nThreads, new ThreadFactoryBuilder().setNameFormat(threadNameFormat).build());
+    return listeningDecorator(pool);
+  }
+
   public static ExecutorService getFetchServicePool() {
     int nThreads = 128;
     return Executors.newWorkStealingPool(nThreads);
@@ -14,6 +14,9 @@
 
 package build.buildfarm.common;
 
+import java.util.Set;
+import java.util.function.Function;
+
 /**
  * @class CasIndexSettings
  * @brief Settings used to determine how to index CAS entries and remove worker entries.
@@ -33,4 +36,17 @@ public class CasIndexSettings {
    * @details The cas key is a global buildfarm config.
    */
   public String casQuery;
+
+  /**
+   * @field casWorkerIdQuery
+   * @brief How to query all of the CAS entries which hold worker ids in redis.
+   * @details Null if the CAS entries are not stored by worker id.
+   */
+  public String casWorkerIdQuery;
+
+  /**
+   * @field workerIds
+   * @brief Translates active worker endpoints to the ids held by casWorkerIdQuery entries.
+   */
+  public Function<Set<String>, Set<String>> workerIds;
 }
@@ -0,0 +1,52 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * A compact summary of the input directories held by a worker, by hash.
+ *
+ * <p>A sketch may report a directory that is not held, at its false positive probability, but
+ * never misses one that was added.
+ */
+public final class DirectorySketch {
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  private final BloomFilter<CharSequence> hashes;
+
+  /**
+   * @param expectedDirectories The number of directories that the sketch should hold at its false
+   *     positive probability
+   */
+  public DirectorySketch(long expectedDirectories) {
+    hashes =
+        BloomFilter.create(
+            Funnels.stringFunnel(UTF_8),
+            Math.max(1, expectedDirectories),
+            FALSE_POSITIVE_PROBABILITY);
+  }
+
+  public void add(String hash) {
+    hashes.put(hash);
+  }
+
+  public boolean mightContain(String hash) {
+    return hashes.mightContain(hash);
+  }
+}
@@ -297,4 +297,11 @@ public class ExecutionProperties {
    * @details See https://github.com/bazelbuild/bazel/issues/10091
    */
   public static final String PERSISTENT_WORKER_COMMAND = "persistentWorkerCommand";
+
+  /**
+   * @field PERSISTENT_WORKER_MULTIPLEX
+   * @brief Whether the persistent worker handles concurrent requests in a single process.
+   * @details The tool must support multiplex work requests, with a request_id and sandbox_dir.
+   */
+  public static final String PERSISTENT_WORKER_MULTIPLEX = "persistentWorkerMultiplex";
 }
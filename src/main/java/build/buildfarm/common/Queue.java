@@ -1,6 +1,8 @@
 package build.buildfarm.common;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
 import redis.clients.jedis.AbstractPipeline;
 import redis.clients.jedis.resps.ScanResult;
@@ -12,6 +14,26 @@ public interface Queue<E> {
   // java.util.Queue
   E poll();
 
+  /** Poll up to count elements, atomically where the implementation allows. */
+  default List<E> poll(int count) {
+    List<E> elements = new ArrayList<>(count);
+    E e;
+    while (elements.size() < count && (e = poll()) != null) {
+      elements.add(e);
+    }
+    return elements;
+  }
+
+  /** The next count elements that would be polled, without removing them. */
+  List<E> peek(int count);
+
+  /**
+   * Move a peeked element into the dequeue, as if it had been polled.
+   *
+   * <p>Returns false if the element is no longer among the next depth elements.
+   */
+  boolean claim(E e, int depth);
+
   boolean offer(E e);
 
   // our special variety
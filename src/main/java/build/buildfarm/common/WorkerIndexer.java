@@ -85,24 +85,61 @@ public class WorkerIndexer {
    * @param settings Settings on how to traverse the CAS and which worker to remove.
    * @param results Accumulating results from performing reindexing.
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
   private static void reindexNode(
       UnifiedJedis cluster, UnifiedJedis node, CasIndexSettings settings, CasIndexResults results) {
-    Long totalKeys = 0L;
-    Long removedKeys = 0L;
-    Long removedHosts = 0L;
     Set<String> activeWorkers = cluster.hkeys("Workers");
     log.info(
         String.format(
             "Initializing CAS Indexer for Node %s with %d active workers.",
             node.toString(), activeWorkers.size()));
 
+    CasIndexResults nodeResults = new CasIndexResults();
+    reindexKeys(cluster, node, settings.casQuery, settings.scanAmount, activeWorkers, nodeResults);
+    if (settings.casWorkerIdQuery != null) {
+      // entries stored by worker id are pruned of the ids of inactive workers
+      reindexKeys(
+          cluster,
+          node,
+          settings.casWorkerIdQuery,
+          settings.scanAmount,
+          settings.workerIds.apply(activeWorkers),
+          nodeResults);
+    }
+    results.totalKeys += nodeResults.totalKeys;
+    results.removedKeys += nodeResults.removedKeys;
+    results.removedHosts += nodeResults.removedHosts;
+    indexerHostsRemovedGauge.labels(node.toString()).set(nodeResults.removedHosts);
+    indexerKeysRemovedGauge.labels(node.toString()).set(nodeResults.removedKeys);
+  }
+
+  /**
+   * @brief Scan the CAS entries matching a query on a Jedis node and remove inactive members.
+   * @details Results are accumulated onto.
+   * @param cluster An established redis cluster.
+   * @param node A node of the cluster.
+   * @param casQuery The match pattern of the CAS entries.
+   * @param scanAmount The number of redis entries to scan at a time.
+   * @param activeMembers The members which remain in CAS entries.
+   * @param results Accumulating results from performing reindexing.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static void reindexKeys(
+      UnifiedJedis cluster,
+      UnifiedJedis node,
+      String casQuery,
+      int scanAmount,
+      Set<String> activeMembers,
+      CasIndexResults results) {
+    Long totalKeys = 0L;
+    Long removedKeys = 0L;
+    Long removedHosts = 0L;
+
     // iterate over all CAS entries via scanning
     // and remove worker from the CAS keys.
     // construct CAS query
     ScanParams params = new ScanParams();
-    params.match(settings.casQuery);
-    params.count(settings.scanAmount);
+    params.match(casQuery);
+    params.count(scanAmount);
 
     String cursor = "0";
     ScanResult scanResult;
@@ -112,18 +149,17 @@ public class WorkerIndexer {
         List<String> casKeys = scanResult.getResult();
         for (String casKey : casKeys) {
           totalKeys += casKeys.size();
-          Set<String> intersectSource = cluster.smembers(casKey);
-          Set<String> intersectResult =
-              intersectSource.stream()
-                  .distinct()
-                  .filter(activeWorkers::contains)
+          Set<String> members = cluster.smembers(casKey);
+          Set<String> inactiveMembers =
+              members.stream()
+                  .filter(member -> !activeMembers.contains(member))
                   .collect(Collectors.toSet());
-          removedHosts += (intersectSource.size() - intersectResult.size());
-          if (intersectResult.isEmpty()) {
+          removedHosts += inactiveMembers.size();
+          if (inactiveMembers.size() == members.size()) {
             removedKeys++;
             cluster.del(casKey);
-          } else {
-            cluster.sadd(casKey, intersectResult.toArray(new String[0]));
+          } else if (!inactiveMembers.isEmpty()) {
+            cluster.srem(casKey, inactiveMembers.toArray(new String[0]));
           }
         }
         cursor = scanResult.getCursor();
@@ -132,7 +168,5 @@ public class WorkerIndexer {
     results.totalKeys += totalKeys;
     results.removedKeys += removedKeys;
     results.removedHosts += removedHosts;
-    indexerHostsRemovedGauge.labels(node.toString()).set(removedHosts);
-    indexerKeysRemovedGauge.labels(node.toString()).set(removedKeys);
   }
 }
@@ -12,69 +12,201 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
-// This file was copied from the bazel project.
 package build.buildfarm.common;
 
-import static java.lang.Math.max;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 
+import com.github.luben.zstd.EndDirective;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdException;
 import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
-import com.google.common.base.Preconditions;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import org.apache.commons.pool2.BasePooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.jspecify.annotations.Nullable;
 
-/** A {@link FilterInputStream} that use zstd to compress the content. */
+/**
+ * A {@link FilterInputStream} that use zstd to compress the content.
+ *
+ * <p>The content is compressed as a single frame on the calling thread, through a compression
+ * context and direct buffers borrowed from a {@link CompressionContextPool} for the lifetime of the
+ * stream. Input is compressed in blocks of up to {@link #INPUT_BUFFER_SIZE} bytes, and compressed
+ * output is only produced as blocks are completed, rather than flushed on every read.
+ *
+ * <p>{@link #skip} skips uncompressed content before it is compressed.
+ */
 public class ZstdCompressingInputStream extends FilterInputStream {
-  // We want the buffer to be able to contain at least:
-  //   - Magic number: 4 bytes
-  //   - FrameHeader 14 bytes
-  //   - Block Header: 3 bytes
-  //   - First block byte
-  // This guarantees that we can always compress at least
-  // 1 byte and write it to the pipe without blocking.
-  public static final int MIN_BUFFER_SIZE = 4 + 14 + 3 + 1;
-
-  private final PipedInputStream pis;
-  private ZstdOutputStreamNoFinalizer zos;
-  private final int size;
+  // the maximum zstd block size, which is the preferred input size for streaming compression
+  public static final int INPUT_BUFFER_SIZE = 128 * 1024;
+
+  private static final class Context {
+    private final ZstdCompressCtx ctx = new ZstdCompressCtx();
+    private final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+    private final ByteBuffer output =
+        ByteBuffer.allocateDirect((int) ZstdOutputStreamNoFinalizer.recommendedCOutSize());
+    private final byte[] transfer = new byte[INPUT_BUFFER_SIZE];
+
+    void start(int level) {
+      ctx.reset();
+      ctx.setLevel(level);
+      // both buffers begin empty for reading
+      input.clear().flip();
+      output.clear().flip();
+    }
+  }
+
+  private static final class ContextFactory extends BasePooledObjectFactory<Context> {
+    @Override
+    public Context create() {
+      return new Context();
+    }
+
+    @Override
+    public PooledObject<Context> wrap(Context context) {
+      return new DefaultPooledObject<>(context);
+    }
+
+    @Override
+    public void destroyObject(PooledObject<Context> pooled) {
+      pooled.getObject().ctx.close();
+    }
+  }
+
+  /**
+   * A pool of compression contexts and their buffers for a compression level.
+   *
+   * <p>Streams never wait for a context, one is created when none are idle, and at most {@code
+   * maxIdle} contexts are retained when returned.
+   */
+  public static final class CompressionContextPool extends GenericObjectPool<Context> {
+    private static final CompressionContextPool DEFAULT =
+        new CompressionContextPool(Zstd.defaultCompressionLevel(), /* maxIdle= */ 8);
+
+    private final int level;
+
+    private static GenericObjectPoolConfig<Context> createPoolConfig(int maxIdle) {
+      GenericObjectPoolConfig<Context> poolConfig = new GenericObjectPoolConfig<>();
+      poolConfig.setMaxTotal(-1);
+      poolConfig.setMaxIdle(maxIdle);
+      poolConfig.setBlockWhenExhausted(false);
+      return poolConfig;
+    }
+
+    public CompressionContextPool(int level, int maxIdle) {
+      super(new ContextFactory(), createPoolConfig(maxIdle));
+      checkArgument(
+          level >= Zstd.minCompressionLevel() && level <= Zstd.maxCompressionLevel(),
+          "zstd compression level %s must be between %s and %s",
+          level,
+          Zstd.minCompressionLevel(),
+          Zstd.maxCompressionLevel());
+      this.level = level;
+    }
+
+    /** The pool for the default compression level, shared by streams created without a pool. */
+    public static CompressionContextPool getDefault() {
+      return DEFAULT;
+    }
+
+    public int getLevel() {
+      return level;
+    }
+
+    private Context borrow() throws IOException {
+      Context context;
+      try {
+        context = borrowObject();
+      } catch (Exception e) {
+        throwIfInstanceOf(e, IOException.class);
+        throwIfUnchecked(e);
+        throw new IOException(e);
+      }
+      context.start(level);
+      return context;
+    }
+
+    private void release(Context context) {
+      try {
+        returnObject(context);
+      } catch (Exception e) {
+        throwIfUnchecked(e);
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private final CompressionContextPool pool;
+  private @Nullable Context context;
+  private boolean inputComplete = false;
+  private boolean frameComplete = false;
 
   public ZstdCompressingInputStream(InputStream in) throws IOException {
-    this(in, 512);
+    this(in, CompressionContextPool.getDefault());
   }
 
-  ZstdCompressingInputStream(InputStream in, int size) throws IOException {
+  public ZstdCompressingInputStream(InputStream in, CompressionContextPool pool)
+      throws IOException {
     super(in);
-    Preconditions.checkArgument(
-        size >= MIN_BUFFER_SIZE,
-        String.format("The buffer size must be at least %d bytes", MIN_BUFFER_SIZE));
-    this.size = size;
-    this.pis = new PipedInputStream(size);
-    this.zos = new ZstdOutputStreamNoFinalizer(new PipedOutputStream(pis));
+    this.pool = pool;
+    context = pool.borrow();
+  }
+
+  private Context context() throws IOException {
+    if (context == null) {
+      throw new IOException("stream closed");
+    }
+    return context;
+  }
+
+  /** Compress until output is available or the frame is complete. */
+  private void compress(Context context) throws IOException {
+    ByteBuffer output = context.output;
+    output.clear();
+    try {
+      while (output.position() == 0 && !frameComplete) {
+        if (!context.input.hasRemaining() && !inputComplete) {
+          fill(context);
+        }
+        boolean flushed =
+            context.ctx.compressDirectByteBufferStream(
+                output,
+                context.input,
+                inputComplete ? EndDirective.END : EndDirective.CONTINUE);
+        frameComplete = inputComplete && flushed;
+      }
+    } catch (ZstdException e) {
+      throw new IOException(e);
+    } finally {
+      output.flip();
+    }
   }
 
-  private void reFill() throws IOException {
-    byte[] buf = new byte[size];
-    int len = super.read(buf, 0, max(0, size - pis.available() - MIN_BUFFER_SIZE + 1));
+  private void fill(Context context) throws IOException {
+    ByteBuffer input = context.input;
+    int len = in.read(context.transfer, 0, input.capacity());
+    input.clear();
     if (len == -1) {
-      zos.close();
-      zos = null;
+      inputComplete = true;
     } else {
-      zos.write(buf, 0, len);
-      zos.flush();
+      input.put(context.transfer, 0, len);
     }
+    input.flip();
   }
 
   @Override
   public int read() throws IOException {
-    if (pis.available() == 0) {
-      if (zos == null) {
-        return -1;
-      }
-      reFill();
-    }
-    return pis.read();
+    byte[] b = new byte[1];
+    int n = read(b, 0, 1);
+    return n == -1 ? -1 : b[0] & 0xff;
   }
 
   @Override
@@ -84,22 +216,40 @@ public class ZstdCompressingInputStream extends FilterInputStream {
 
   @Override
   public int read(byte[] b, int off, int len) throws IOException {
-    int count = 0;
-    int n = len > 0 ? -1 : 0;
-    while (count < len && (pis.available() > 0 || zos != null)) {
-      if (pis.available() == 0) {
-        reFill();
+    Context context = context();
+    if (len == 0) {
+      return 0;
+    }
+    ByteBuffer output = context.output;
+    if (!output.hasRemaining()) {
+      if (frameComplete) {
+        return -1;
+      }
+      compress(context);
+      if (!output.hasRemaining()) {
+        return -1;
       }
-      n = pis.read(b, count + off, len - count);
-      count += max(0, n);
     }
-    return count > 0 ? count : n;
+    int count = Math.min(len, output.remaining());
+    output.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return context().output.remaining();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
   }
 
   @Override
   public void close() throws IOException {
-    if (zos != null) {
-      zos.close();
+    if (context != null) {
+      pool.release(context);
+      context = null;
     }
     in.close();
   }
@@ -14,6 +14,24 @@ public class Backplane {
     SHARD
   }
 
+  public enum CAS_WORKER_ENCODING {
+    // cas location sets hold worker endpoints
+    ENDPOINT,
+    // cas location sets hold stable integer worker ids
+    WORKER_ID,
+    // write worker ids, read both worker ids and endpoints until endpoint sets expire
+    WORKER_ID_DUAL_READ
+  }
+
+  public enum VALUE_ENCODING {
+    // values are base64 encoded protobuf, binary values are also read
+    BASE64,
+    // values are binary protobuf
+    BINARY,
+    // write binary values, read both binary and base64 until base64 values expire
+    BINARY_DUAL_READ
+  }
+
   private BACKPLANE_TYPE type = BACKPLANE_TYPE.SHARD;
   private String redisUri;
   private int jedisPoolMaxTotal = 200;
@@ -23,6 +41,7 @@ public class Backplane {
   private boolean connectionValidatedOnBorrow = false;
   private String workersHashName = "Workers";
   private String workerChannel = "WorkerChannel";
+  private String actionCacheChannel = "ActionCacheChannel";
   private String actionCachePrefix = "ActionCache";
   private int actionCacheExpire = 2419200; // 4 Weeks
   private String actionBlocklistPrefix = "ActionBlocklist";
@@ -39,10 +58,17 @@ public class Backplane {
   private String queuedOperationsListName = "{Execution}:QueuedOperations";
   private String dispatchingPrefix = "Dispatching";
   private int dispatchingTimeoutMillis = 10000;
+  private int affinitySubtrees = 0;
+  private int affinityScanDepth = 16;
+  private long affinityMaxWaitMillis = 5000;
   private String dispatchedOperationsHashName = "DispatchedOperations";
   private String operationChannelPrefix = "OperationChannel";
   private String casPrefix = "ContentAddressableStorage";
   private int casExpire = 604800; // 1 Week
+  private CAS_WORKER_ENCODING casWorkerEncoding = CAS_WORKER_ENCODING.ENDPOINT;
+  private String casWorkerIdPrefix = "ContentAddressableStorageWorkerIds";
+  private String workerIdsName = "WorkerIds";
+  private VALUE_ENCODING valueEncoding = VALUE_ENCODING.BASE64;
   private String correlatedInvocationsIndexPrefix = "CorrelatedInvocationsIndex";
   private int maxCorrelatedInvocationsIndexTimeout = 3 * 24 * 60 * 60; // 3 Days
   private String correlatedInvocationsPrefix = "CorrelatedInvocations";
@@ -23,6 +23,15 @@ public class Cas {
   private boolean fileDirectoriesIndexInMemory = false;
   private boolean skipLoad = false;
 
+  // number of independently locked lru segments, 1 retains a single lru guarded by the cache
+  private int lruSegments = 1;
+
+  // persist the lru as a binary snapshot and access journal, restoring without a scan after a stop
+  private boolean lruJournal = false;
+
+  // store written blobs zstd compressed, serving compressed reads without recompression
+  private boolean storeCompressed = false;
+
   // if creating a hardlink fails, copy the file instead
   private boolean execRootCopyFallback = false;
 
@@ -8,6 +8,9 @@ import lombok.Data;
 @Data
 public class DequeueMatchSettings {
   private boolean allowUnmatched = false;
+  private int batchSize = 1;
+  private long prefetchTimeoutMillis = 10000;
+  private boolean affinity = false;
   private List<Property> properties = new ArrayList<>();
 
   public Platform getPlatform() {
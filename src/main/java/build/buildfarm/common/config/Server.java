@@ -23,6 +23,7 @@ public class Server {
   private GrpcMetrics grpcMetrics = new GrpcMetrics();
   private int casWriteTimeout = 3600;
   private int bytestreamTimeout = 3600;
+  private int bytestreamChunkSize = 64 * 1024;
   private int casReadTimeout = 60;
   private int expectTimeout = 60;
   private int cacheCheckTimeout = 60;
@@ -50,6 +51,10 @@ public class Server {
   private int maxInboundMessageSizeBytes = 0;
   private int maxInboundMetadataSize = 0;
   private ServerCacheConfigs caches = new ServerCacheConfigs();
+  // input trees are fetched a level at a time with this many concurrent requests,
+  // 0 fetches serially
+  private int treeFetchConcurrency = 0;
+  private int treeFetchBatchSize = 100;
   private boolean findMissingBlobsViaBackplane = false;
   private boolean grpcChannelz = false;
   private int gracefulShutdownSeconds = 0;
@@ -32,6 +32,30 @@ public class ServerCacheConfigs {
    */
   private long directoryCacheMaxEntries = 64 * 1024;
 
+  /**
+   * @field directoryCacheMaxBytes
+   * @brief The max encoded size of the directories that the directory cache will hold.
+   * @details When positive, this bounds the directory cache in place of directoryCacheMaxEntries.
+   */
+  private long directoryCacheMaxBytes = 0;
+
+  /**
+   * @field subtreeCacheMaxBytes
+   * @brief The max encoded size of the directories in input subtrees that the subtree cache will
+   *     hold.
+   * @details Subtrees shared by many actions are added to their input trees at once. Setting this
+   *     to 0 disables the subtree cache.
+   */
+  private long subtreeCacheMaxBytes = 0;
+
+  /**
+   * @field validatedDirectoryCacheMaxInputs
+   * @brief The max number of input digests that the validated directory cache will hold.
+   * @details Input directories which passed validation are not validated again for subsequent
+   *     actions. Setting this to 0 disables the validated directory cache.
+   */
+  private long validatedDirectoryCacheMaxInputs = 0;
+
   /**
    * @field commandCacheMaxEntries
    * @brief The max number of entries that the command cache will hold.
@@ -59,4 +83,27 @@ public class ServerCacheConfigs {
    * @details This will not dictate the max memory used.
    */
   private long actionCacheMaxEntries = 1_000_000;
+
+  /**
+   * @field actionCacheMissExpireMillis
+   * @brief The duration for which the action cache holds misses.
+   * @details Misses are invalidated when any server or worker puts the action result, and expire
+   *     in case an invalidation is lost. Setting this to 0 disables caching of misses.
+   */
+  private long actionCacheMissExpireMillis = 2000;
+
+  /**
+   * @field outputPresenceMemoMillis
+   * @brief The duration for which action results with outputs found present are not checked.
+   * @details Applies when outputs are ensured present. Results are forgotten when a worker is
+   *     removed or a blob is found on none of its registered workers. Setting this to 0 checks the
+   *     outputs of every action cache hit.
+   */
+  private long outputPresenceMemoMillis = 0;
+
+  /**
+   * @field outputPresenceMemoMaxEntries
+   * @brief The max number of action results whose outputs were found that the server remembers.
+   */
+  private long outputPresenceMemoMaxEntries = 64 * 1024;
 }
@@ -32,6 +32,11 @@ import lombok.extern.java.Log;
 @Data
 @Log
 public class Worker {
+  public enum PERSISTENT_WORKER_INPUT_STAGING {
+    COPY,
+    HARDLINK
+  }
+
   private int port = 8981;
   private boolean grpcChannelz = false;
   private GrpcMetrics grpcMetrics = new GrpcMetrics();
@@ -47,6 +52,7 @@ public class Worker {
   private int inputFetchStageWidth = 0;
   private int inputFetchDeadline = 60;
   private int reportResultStageWidth = 1;
+  private int outputUploadConcurrency = 0;
   private boolean linkExecFileSystem = true;
   private boolean linkInputDirectories = true;
   private List<String> linkedInputDirectories = Arrays.asList("^(?!external$).*$");
@@ -62,8 +68,17 @@ public class Worker {
   private SandboxSettings sandboxSettings = new SandboxSettings();
   private boolean createSymlinkOutputs = false;
   private int zstdBufferPoolSize = 2048; /* * ZSTD_DStreamInSize (current is 128k) == 256MiB */
+  private int zstdCompressionLevel = 3;
+  private int zstdCompressionPoolSize = 32;
   private boolean compressedBlobTransfer = false;
+  // blob locations are published to the backplane in batches, blocking puts while maxPending wait
+  private int blobLocationBatchSize = 1000;
+  private long blobLocationFlushIntervalMillis = 50;
+  private int blobLocationMaxPending = 100000;
   private Set<String> persistentWorkerActionMnemonicAllowlist = Set.of("*");
+  // hardlinked inputs share their files with the CAS, and must not be modified by the tools
+  private PERSISTENT_WORKER_INPUT_STAGING persistentWorkerInputStaging =
+      PERSISTENT_WORKER_INPUT_STAGING.COPY;
   // These limited resources are only for the individual worker.
   // An example would be hardware resources such as GPUs.
   // If you want GPU actions to run exclusively, define a single GPU resource.
@@ -72,6 +87,9 @@ public class Worker {
   private boolean errorOperationOutputSizeExceeded = false;
   private boolean legacyDirectoryFileCache = false;
   private boolean absolutizeCommandProgram = isWindows();
+  private int fuseBlockSize = 1024 * 1024;
+  private long fuseBlockCacheSize = 256L * 1024 * 1024;
+  private int fusePrefetchBlocks = 4;
 
   public List<ExecutionPolicy> getExecutionPolicies() {
     return executionPolicies;
@@ -0,0 +1,117 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.common.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardOpenOption.READ;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Reads a range of a file as chunks which wrap a read-only mapping of its content, so that the
+ * content is never copied onto the heap.
+ *
+ * <p>The file is mapped in windows of up to {@link #MAX_WINDOW_SIZE} bytes, and each chunk is a
+ * slice of the current window, so that a single mapping backs many chunks. A mapping is released
+ * when the chunks referencing it are collected, and remains valid if the file is removed. The file
+ * must not be truncated while chunks referencing it are reachable, which is guaranteed for
+ * immutable content like the CAS.
+ *
+ * <p>Filesystems that do not support mapping throw {@link UnsupportedOperationException} on
+ * construction.
+ */
+public final class MappedFileReader implements Closeable {
+  public static final int MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final FileChannel channel;
+  private final int chunkSize;
+  private final long end;
+  private long position;
+  private @Nullable MappedByteBuffer window = null;
+  private long windowPosition = 0;
+
+  /**
+   * @param offset the position of the first byte to read.
+   * @param limit the maximum number of bytes to read, or 0 to read to the end of the file.
+   */
+  public MappedFileReader(FileChannel channel, long offset, long limit, int chunkSize)
+      throws IOException {
+    checkArgument(offset >= 0, "offset must not be negative");
+    checkArgument(limit >= 0, "limit must not be negative");
+    checkArgument(
+        chunkSize > 0 && chunkSize <= MAX_WINDOW_SIZE,
+        "chunkSize must be positive and at most %s",
+        MAX_WINDOW_SIZE);
+    this.channel = channel;
+    this.chunkSize = chunkSize;
+    long size = channel.size();
+    end = limit == 0 ? size : Math.min(size, offset + limit);
+    position = offset;
+    if (hasNext()) {
+      // filesystems which cannot be mapped fail here, rather than after the first chunk
+      map();
+    }
+  }
+
+  public static MappedFileReader open(Path path, long offset, long limit, int chunkSize)
+      throws IOException {
+    FileChannel channel = FileChannel.open(path, READ);
+    try {
+      return new MappedFileReader(channel, offset, limit, chunkSize);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public boolean hasNext() {
+    return position < end;
+  }
+
+  /** Returns the next chunk, which is shorter than the chunk size only at the end of a window. */
+  public ByteString next() throws IOException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (window == null || position >= windowPosition + window.capacity()) {
+      map();
+    }
+    int start = (int) (position - windowPosition);
+    int length = Math.min(chunkSize, window.capacity() - start);
+    position += length;
+    return UnsafeByteOperations.unsafeWrap(window.slice(start, length));
+  }
+
+  private void map() throws IOException {
+    window = channel.map(MapMode.READ_ONLY, position, Math.min(end - position, MAX_WINDOW_SIZE));
+    windowPosition = position;
+  }
+
+  /** Closes the file, chunks which have been read remain valid. */
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+}
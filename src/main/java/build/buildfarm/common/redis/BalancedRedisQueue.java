@@ -32,6 +32,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.Getter;
@@ -356,6 +357,55 @@ public class BalancedRedisQueue<E> {
     return null;
   }
 
+  /**
+   * Poll up to count entries from the first internal queue with any, each internal queue popping
+   * its entries atomically. Returns an empty list if every internal queue is empty.
+   */
+  public List<BalancedQueueEntry<E>> pollAny(UnifiedJedis unified, int count)
+      throws InterruptedException {
+    int startIndex = currentPopQueue;
+    int currentIndex = roundRobinPopIndex();
+    do {
+      String queueName = queues.get(currentIndex);
+      try (Jedis jedis = getJedisFromKey(unified, queueName)) {
+        List<E> items = queueDecorator.decorate(jedis, queueName).poll(count);
+        if (!items.isEmpty()) {
+          return newArrayList(transform(items, item -> new BalancedQueueEntry<>(queueName, item)));
+        }
+      }
+      currentIndex = roundRobinPopIndex();
+    } while (currentIndex != startIndex);
+    return ImmutableList.of();
+  }
+
+  /**
+   * Poll the entries chosen from among the next depth entries of each internal queue, from the
+   * first internal queue with any chosen. Each entry is claimed separately, and may be taken by
+   * another poll between its choice and its claim. Returns an empty list if none are claimed.
+   */
+  public List<BalancedQueueEntry<E>> pollPreferred(
+      UnifiedJedis unified, int depth, Function<List<E>, List<E>> choose) {
+    int startIndex = currentPopQueue;
+    int currentIndex = roundRobinPopIndex();
+    do {
+      String queueName = queues.get(currentIndex);
+      try (Jedis jedis = getJedisFromKey(unified, queueName)) {
+        Queue<E> queue = queueDecorator.decorate(jedis, queueName);
+        List<BalancedQueueEntry<E>> claimed = new ArrayList<>();
+        for (E item : choose.apply(queue.peek(depth))) {
+          if (queue.claim(item, depth)) {
+            claimed.add(new BalancedQueueEntry<>(queueName, item));
+          }
+        }
+        if (!claimed.isEmpty()) {
+          return claimed;
+        }
+      }
+      currentIndex = roundRobinPopIndex();
+    } while (currentIndex != startIndex);
+    return ImmutableList.of();
+  }
+
   /**
    * @brief Get the current pop queue.
    * @details Get the queue that the balanced queue intends to pop from next.
@@ -17,15 +17,21 @@ package build.buildfarm.common.redis;
 import static com.google.common.collect.Iterables.transform;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.transformValues;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import redis.clients.jedis.AbstractPipeline;
 import redis.clients.jedis.Response;
 import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.jedis.params.ScanParams;
 import redis.clients.jedis.resps.ScanResult;
 
@@ -38,6 +44,23 @@ import redis.clients.jedis.resps.ScanResult;
  *     redis maps with the same name, would in fact be the same underlying redis map.
  */
 public class RedisHashMap<T> {
+  private static final String UPDATE_EXISTING_SCRIPT =
+      String.join(
+          "\n",
+          "local missing = {}",
+          "for i = 1, #ARGV, 2 do",
+          "  if redis.call('HEXISTS', KEYS[1], ARGV[i]) == 1 then",
+          "    redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])",
+          "  else",
+          "    table.insert(missing, ARGV[i])",
+          "  end",
+          "end",
+          "return missing");
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String UPDATE_EXISTING_SCRIPT_SHA =
+      Hashing.sha1().hashString(UPDATE_EXISTING_SCRIPT, UTF_8).toString();
+
   /**
    * @field name
    * @brief The unique name of the map.
@@ -92,6 +115,35 @@ public class RedisHashMap<T> {
     return jedis.hsetnx(name, key, translator.print(value));
   }
 
+  /**
+   * @brief Replace the values of keys which exist, in a single atomic script.
+   * @details Keys which do not exist are not added. Unlike an exists check followed by an insert,
+   *     a key removed concurrently is never recreated.
+   * @param jedis Jedis cluster client.
+   * @param values The keys and their new values.
+   * @return The keys which did not exist.
+   */
+  @SuppressWarnings("unchecked")
+  public Set<String> updateExisting(UnifiedJedis jedis, Map<String, T> values) {
+    if (values.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    List<String> keys = ImmutableList.of(name);
+    List<String> args = new ArrayList<>(values.size() * 2);
+    for (Map.Entry<String, T> entry : values.entrySet()) {
+      args.add(entry.getKey());
+      args.add(translator.print(entry.getValue()));
+    }
+    Object missing;
+    try {
+      missing = jedis.evalsha(UPDATE_EXISTING_SCRIPT_SHA, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      missing = jedis.eval(UPDATE_EXISTING_SCRIPT, keys, args);
+    }
+    return ImmutableSet.copyOf((List<String>) missing);
+  }
+
   /**
    * @brief Checks whether key exists
    * @details True if key exists. False if it does not.
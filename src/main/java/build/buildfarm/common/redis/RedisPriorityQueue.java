@@ -15,11 +15,13 @@
 package build.buildfarm.common.redis;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import build.buildfarm.common.Queue;
 import build.buildfarm.common.Visitor;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.List;
@@ -27,6 +29,7 @@ import java.util.function.Supplier;
 import lombok.Getter;
 import redis.clients.jedis.AbstractPipeline;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.jedis.params.ScanParams;
 import redis.clients.jedis.resps.ScanResult;
 import redis.clients.jedis.resps.Tuple;
@@ -38,11 +41,34 @@ import redis.clients.jedis.resps.Tuple;
  *     to store and distribute the data. Its important to know that the lifetime of the queue
  *     persists before and after the queue data structure is created (since it exists in redis).
  *     Therefore, two redis queues with the same name, would in fact be the same underlying redis
- *     queue.
+ *     queue. Every offer also leaves a token on a notify list, which takers block on while the
+ *     queue is empty, rather than polling the queue.
  */
 public class RedisPriorityQueue implements Queue<String> {
   private static final Clock defaultClock = Clock.systemUTC();
-  private static final long defaultPollIntervalMillis = 100;
+  private static final long defaultPollIntervalMillis = 1000;
+  private static final String script = getLuaScript();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String scriptSha = Hashing.sha1().hashString(script, UTF_8).toString();
+
+  private static final String offerScript = getOfferLuaScript();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String offerScriptSha =
+      Hashing.sha1().hashString(offerScript, UTF_8).toString();
+
+  private static final String pollScript = getPollLuaScript();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String pollScriptSha =
+      Hashing.sha1().hashString(pollScript, UTF_8).toString();
+
+  private static final String claimScript = getClaimLuaScript();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String claimScriptSha =
+      Hashing.sha1().hashString(claimScript, UTF_8).toString();
 
   public static Queue<String> decorate(Jedis jedis, String name) {
     return new RedisPriorityQueue(jedis, name);
@@ -59,7 +85,6 @@ public class RedisPriorityQueue implements Queue<String> {
    */
   @Getter private final String name;
 
-  private final String script;
   private final Clock clock;
   private final long pollIntervalMillis;
 
@@ -87,7 +112,7 @@ public class RedisPriorityQueue implements Queue<String> {
    * @details Construct a named redis queue with an established redis cluster. Used to ease the
    *     testing of the order of the queued actions
    * @param name The global name of the queue.
-   * @param pollIntervalMillis pollInterval to use when dqueuing from redis.
+   * @param pollIntervalMillis The longest wait for an offer before checking the queue again.
    */
   public RedisPriorityQueue(Jedis jedis, String name, long pollIntervalMillis) {
     this(jedis, name, defaultClock, pollIntervalMillis);
@@ -99,13 +124,13 @@ public class RedisPriorityQueue implements Queue<String> {
    *     testing of the order of the queued actions
    * @param name The global name of the queue.
    * @param time Timestamp of the operation.
-   * @param pollIntervalMillis pollInterval to use when dqueuing from redis.
+   * @param pollIntervalMillis The longest wait for an offer before checking the queue again. This
+   *     bounds the delay for values offered without a notification.
    */
   public RedisPriorityQueue(Jedis jedis, String name, Clock clock, long pollIntervalMillis) {
     this.jedis = jedis;
     this.name = name;
     this.clock = clock;
-    this.script = getLuaScript();
     this.pollIntervalMillis = pollIntervalMillis;
   }
 
@@ -122,13 +147,22 @@ public class RedisPriorityQueue implements Queue<String> {
   /**
    * @brief Push a value onto the queue with specified priority.
    * @details Adds the value into the backend redis ordered set, with timestamp primary insertion to
-   *     guarantee FIFO within a single priority level
+   *     guarantee FIFO within a single priority level, and wakes a blocked taker.
    * @param val The value to push onto the priority queue.
    * @param priority The priority of action 0 means highest
    */
   @Override
   public boolean offer(String val, double priority) {
-    jedis.zadd(name, priority, clock.millis() + ":" + val);
+    List<String> keys = ImmutableList.of(name);
+    List<String> args =
+        ImmutableList.of(
+            name, getNotifyName(), String.valueOf(priority), clock.millis() + ":" + val);
+    try {
+      jedis.evalsha(offerScriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      jedis.eval(offerScript, keys, args);
+    }
     return true;
   }
 
@@ -164,7 +198,7 @@ public class RedisPriorityQueue implements Queue<String> {
    * @brief Pop element into internal dequeue and return value.
    * @details This pops the element from one queue atomically into an internal list called the
    *     dequeue. It will wait until the timeout has expired. Null is returned if the timeout has
-   *     expired.
+   *     expired. While the queue is empty, the wait blocks on the notify list.
    * @param timeout Timeout to wait if there is no item to dequeue.
    * @return The value of the transfered element. null if the thread was interrupted.
    * @note Overloaded.
@@ -172,18 +206,22 @@ public class RedisPriorityQueue implements Queue<String> {
    */
   @Override
   public String take(Duration timeout) throws InterruptedException {
-    int maxAttempts = Math.max(1, (int) (timeout.toMillis() / pollIntervalMillis));
-    List<String> args = ImmutableList.of(name, getDequeueName(), "true");
-    String val;
-    for (int i = 0; i < maxAttempts; ++i) {
-      Object obj_val = jedis.eval(script, ImmutableList.of(name), args);
-      val = String.valueOf(obj_val);
-      if (!isEmpty(val)) {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    for (; ; ) {
+      String val = poll();
+      if (val != null) {
         return val;
       }
-      Thread.sleep(pollIntervalMillis);
+      long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+      if (remainingMillis <= 0) {
+        return null;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      // an offer wakes us, the interval bounds the delay for offers without a notification
+      jedis.blpop(Math.min(remainingMillis, pollIntervalMillis) / 1000.0, getNotifyName());
     }
-    return null;
   }
 
   /**
@@ -195,8 +233,15 @@ public class RedisPriorityQueue implements Queue<String> {
    */
   @Override
   public String poll() {
-    List<String> args = ImmutableList.of(name, getDequeueName());
-    Object obj_val = jedis.eval(script, ImmutableList.of(name), args);
+    List<String> keys = ImmutableList.of(name);
+    List<String> args = ImmutableList.of(name, getDequeueName(), getNotifyName());
+    Object obj_val;
+    try {
+      obj_val = jedis.evalsha(scriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      obj_val = jedis.eval(script, keys, args);
+    }
     String val = String.valueOf(obj_val);
     if (!isEmpty(val)) {
       return val;
@@ -204,6 +249,79 @@ public class RedisPriorityQueue implements Queue<String> {
     return null;
   }
 
+  /**
+   * @brief Pop elements into internal dequeue and return their values.
+   * @details This pops up to count of the highest priority elements from the queue atomically into
+   *     the dequeue, in the order that they would have been polled individually. It does not block.
+   * @param count The most elements to pop.
+   * @return The values of the transfered elements. Empty if nothing was dequeued.
+   * @note Suggested return identifier: vals.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> poll(int count) {
+    if (count <= 1) {
+      String val = poll();
+      return val == null ? ImmutableList.of() : ImmutableList.of(val);
+    }
+    List<String> keys = ImmutableList.of(name);
+    List<String> args =
+        ImmutableList.of(name, getDequeueName(), getNotifyName(), String.valueOf(count));
+    Object vals;
+    try {
+      vals = jedis.evalsha(pollScriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      vals = jedis.eval(pollScript, keys, args);
+    }
+    return vals == null ? ImmutableList.of() : (List<String>) vals;
+  }
+
+  /**
+   * @brief Peek at the elements that would be polled next.
+   * @details Lists up to count of the highest priority elements, in the order that they would be
+   *     polled.
+   * @param count The most elements to list.
+   * @return The values of the elements.
+   * @note Suggested return identifier: vals.
+   */
+  @Override
+  public List<String> peek(int count) {
+    if (count <= 0) {
+      return ImmutableList.of();
+    }
+    List<String> vals = newArrayList();
+    for (String item : jedis.zrange(name, 0, count - 1)) {
+      // Clear the appended timestamp
+      vals.add(item.replaceFirst("^([0-9]+):(?!$)", ""));
+    }
+    return vals;
+  }
+
+  /**
+   * @brief Move a specific element into internal dequeue.
+   * @details Atomically moves the value to the dequeue if it is among the next depth elements that
+   *     would be polled.
+   * @param val The value to claim.
+   * @param depth The count of elements to search for the value.
+   * @return Whether the value was claimed.
+   * @note Suggested return identifier: wasClaimed.
+   */
+  @Override
+  public boolean claim(String val, int depth) {
+    List<String> keys = ImmutableList.of(name);
+    List<String> args =
+        ImmutableList.of(name, getDequeueName(), getNotifyName(), String.valueOf(depth), val);
+    Object claimed;
+    try {
+      claimed = jedis.evalsha(claimScriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      claimed = jedis.eval(claimScript, keys, args);
+    }
+    return Long.valueOf(1).equals(claimed);
+  }
+
   /**
    * @brief Get dequeue name.
    * @details Get the name of the internal dequeue used by the queue. this is the redis key used for
@@ -215,6 +333,17 @@ public class RedisPriorityQueue implements Queue<String> {
     return name + "_dequeue";
   }
 
+  /**
+   * @brief Get notify name.
+   * @details Get the name of the list that wakes blocked takers when values are offered. This is
+   *     the redis key used for the list.
+   * @return The name of the notify list.
+   * @note Suggested return identifier: name.
+   */
+  public String getNotifyName() {
+    return name + "_notify";
+  }
+
   /**
    * @brief Get size.
    * @details Checks the current length of the queue.
@@ -289,14 +418,17 @@ public class RedisPriorityQueue implements Queue<String> {
   /**
    * @brief Adds additional functionality to the jedis client.
    * @details Load the custom lua script so we can have zpoplpush functionality in our container.
+   *     Pending notifications are discarded once the queue is empty, so that they do not wake
+   *     takers for values that are already gone.
    */
-  private String getLuaScript() {
+  private static String getLuaScript() {
     // We return the lua code in-line to avoid any build complexities having to bundle lua code with
     // the buildfarm artifacts.  Lua code is fed to redis via the eval call.
     return String.join(
         "\n",
         "local zset = ARGV[1]",
         "local deqName = ARGV[2]",
+        "local notifyName = ARGV[3]",
         "local val = ''",
         "local function isempty(s)",
         "   return s == nil or s == ''",
@@ -311,9 +443,90 @@ public class RedisPriorityQueue implements Queue<String> {
         "    redis.call('LPUSH', deqName, val)",
         "  end",
         "end",
+        "if not isempty(notifyName) and redis.call('ZCARD', zset) == 0 then",
+        "  redis.call('DEL', notifyName)",
+        "end",
         "return val");
   }
 
+  /**
+   * @brief Lua for an offer.
+   * @details Adds ARGV[4] to the queue with the score ARGV[3], and leaves a single token on the
+   *     notify list. A blocked taker is woken by the token, and takers poll the queue before they
+   *     block, so more than one pending token would only wake takers for values already taken.
+   */
+  private static String getOfferLuaScript() {
+    return String.join(
+        "\n",
+        "local zset = ARGV[1]",
+        "local notifyName = ARGV[2]",
+        "redis.call('ZADD', zset, ARGV[3], ARGV[4])",
+        "redis.call('LPUSH', notifyName, '1')",
+        "redis.call('LTRIM', notifyName, 0, 0)",
+        "return 1");
+  }
+
+  /**
+   * @brief Lua for a multiple element poll.
+   * @details As the single element script, for up to ARGV[4] of the lowest scored elements.
+   */
+  private static String getPollLuaScript() {
+    return String.join(
+        "\n",
+        "local zset = ARGV[1]",
+        "local deqName = ARGV[2]",
+        "local notifyName = ARGV[3]",
+        "local count = tonumber(ARGV[4])",
+        "local vals = {}",
+        "local function isempty(s)",
+        "   return s == nil or s == ''",
+        "end",
+        "assert(not isempty(zset), 'ERR1: zset missing')",
+        "assert(not isempty(deqName), 'ERR2: dequeue missing')",
+        "local pped = redis.call('ZRANGE', zset, 0, count - 1)",
+        "for i,item in ipairs(pped) do",
+        "  local val = string.gsub(item, '^%d*:', '')",
+        "  redis.call('ZREM', zset, item)",
+        "  redis.call('LPUSH', deqName, val)",
+        "  vals[i] = val",
+        "end",
+        "if not isempty(notifyName) and redis.call('ZCARD', zset) == 0 then",
+        "  redis.call('DEL', notifyName)",
+        "end",
+        "return vals");
+  }
+
+  /**
+   * @brief Lua for a specific element claim.
+   * @details Moves ARGV[5] to the dequeue if it is within the ARGV[4] lowest scored elements.
+   */
+  private static String getClaimLuaScript() {
+    return String.join(
+        "\n",
+        "local zset = ARGV[1]",
+        "local deqName = ARGV[2]",
+        "local notifyName = ARGV[3]",
+        "local depth = tonumber(ARGV[4])",
+        "local claimed = ARGV[5]",
+        "local function isempty(s)",
+        "   return s == nil or s == ''",
+        "end",
+        "assert(not isempty(zset), 'ERR1: zset missing')",
+        "assert(not isempty(deqName), 'ERR2: dequeue missing')",
+        "for _,item in ipairs(redis.call('ZRANGE', zset, 0, depth - 1)) do",
+        "  local val = string.gsub(item, '^%d*:', '')",
+        "  if val == claimed then",
+        "    redis.call('ZREM', zset, item)",
+        "    redis.call('LPUSH', deqName, val)",
+        "    if not isempty(notifyName) and redis.call('ZCARD', zset) == 0 then",
+        "      redis.call('DEL', notifyName)",
+        "    end",
+        "    return 1",
+        "  end",
+        "end",
+        "return 0");
+  }
+
   /**
    * @brief Implement handy isEmpty method.
    * @details Compare the value for null, (empty string) or "null" string. For some reason
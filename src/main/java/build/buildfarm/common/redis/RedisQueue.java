@@ -14,6 +14,7 @@
 
 package build.buildfarm.common.redis;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static redis.clients.jedis.args.ListDirection.LEFT;
 import static redis.clients.jedis.args.ListDirection.RIGHT;
 import static redis.clients.jedis.params.ScanParams.SCAN_POINTER_START;
@@ -21,11 +22,14 @@ import static redis.clients.jedis.params.ScanParams.SCAN_POINTER_START;
 import build.buildfarm.common.Queue;
 import build.buildfarm.common.Visitor;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import java.time.Duration;
 import java.util.List;
 import java.util.function.Supplier;
 import redis.clients.jedis.AbstractPipeline;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.jedis.resps.ScanResult;
 
 /**
@@ -39,6 +43,16 @@ import redis.clients.jedis.resps.ScanResult;
  */
 public class RedisQueue implements Queue<String> {
   private static final int defaultListPageSize = 10000;
+  private static final String pollScript = getPollLuaScript();
+  private static final String claimScript = getClaimLuaScript();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String pollScriptSha =
+      Hashing.sha1().hashString(pollScript, UTF_8).toString();
+
+  @SuppressWarnings("deprecation") // redis identifies scripts by sha1
+  private static final String claimScriptSha =
+      Hashing.sha1().hashString(claimScript, UTF_8).toString();
 
   public static Queue decorate(Jedis jedis, String name) {
     return new RedisQueue(jedis, name, defaultListPageSize);
@@ -151,6 +165,72 @@ public class RedisQueue implements Queue<String> {
     return jedis.lmove(name, getDequeueName(), RIGHT, LEFT);
   }
 
+  /**
+   * @brief Pop elements into internal dequeue and return their values.
+   * @details This pops up to count elements from the queue atomically into the dequeue, in the
+   *     order that they would have been polled individually. It does not block.
+   * @param count The most elements to pop.
+   * @return The values of the transfered elements. Empty if nothing was dequeued.
+   * @note Suggested return identifier: vals.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<String> poll(int count) {
+    if (count <= 1) {
+      String val = poll();
+      return val == null ? ImmutableList.of() : ImmutableList.of(val);
+    }
+    List<String> keys = ImmutableList.of(name, getDequeueName());
+    List<String> args = ImmutableList.of(String.valueOf(count));
+    Object vals;
+    try {
+      vals = jedis.evalsha(pollScriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      vals = jedis.eval(pollScript, keys, args);
+    }
+    return vals == null ? ImmutableList.of() : (List<String>) vals;
+  }
+
+  /**
+   * @brief Peek at the elements that would be polled next.
+   * @details Lists up to count elements, in the order that they would be polled.
+   * @param count The most elements to list.
+   * @return The values of the elements.
+   * @note Suggested return identifier: vals.
+   */
+  @Override
+  public List<String> peek(int count) {
+    if (count <= 0) {
+      return ImmutableList.of();
+    }
+    // polls pop from the right
+    return Lists.reverse(jedis.lrange(name, -count, -1));
+  }
+
+  /**
+   * @brief Move a specific element into internal dequeue.
+   * @details Atomically moves the value to the dequeue if it is among the next depth elements that
+   *     would be polled.
+   * @param val The value to claim.
+   * @param depth The count of elements to search for the value.
+   * @return Whether the value was claimed.
+   * @note Suggested return identifier: wasClaimed.
+   */
+  @Override
+  public boolean claim(String val, int depth) {
+    List<String> keys = ImmutableList.of(name, getDequeueName());
+    List<String> args = ImmutableList.of(val, String.valueOf(depth));
+    Object claimed;
+    try {
+      claimed = jedis.evalsha(claimScriptSha, keys, args);
+    } catch (JedisNoScriptException e) {
+      // eval loads the script into the script cache for subsequent calls
+      claimed = jedis.eval(claimScript, keys, args);
+    }
+    return Long.valueOf(1).equals(claimed);
+  }
+
   /**
    * @brief Get dequeue name.
    * @details Get the name of the internal dequeue used by the queue. this is the redis key used for
@@ -230,4 +310,41 @@ public class RedisQueue implements Queue<String> {
     return new ScanResult<>(
         range.isEmpty() ? SCAN_POINTER_START : String.valueOf(start + range.size()), range);
   }
+
+  /**
+   * @brief Lua for a multiple element poll.
+   * @details Moves up to ARGV[1] elements from the queue to the dequeue, as repeated LMOVEs would,
+   *     within a single script so that the batch is claimed atomically.
+   */
+  private static String getPollLuaScript() {
+    return String.join(
+        "\n",
+        "local vals = {}",
+        "for i = 1, tonumber(ARGV[1]) do",
+        "  local val = redis.call('LMOVE', KEYS[1], KEYS[2], 'RIGHT', 'LEFT')",
+        "  if not val then",
+        "    break",
+        "  end",
+        "  vals[i] = val",
+        "end",
+        "return vals");
+  }
+
+  /**
+   * @brief Lua for a specific element claim.
+   * @details Moves ARGV[1] from the queue to the dequeue if it is within the ARGV[2] elements at
+   *     the polled end of the queue.
+   */
+  private static String getClaimLuaScript() {
+    return String.join(
+        "\n",
+        "local depth = tonumber(ARGV[2])",
+        "local pos = redis.call('LPOS', KEYS[1], ARGV[1], 'RANK', -1, 'MAXLEN', depth)",
+        "if not pos then",
+        "  return 0",
+        "end",
+        "redis.call('LREM', KEYS[1], -1, ARGV[1])",
+        "redis.call('LPUSH', KEYS[2], ARGV[1])",
+        "return 1");
+  }
 }
@@ -14,6 +14,8 @@
 
 package build.buildfarm.common.redis;
 
+import java.util.List;
+
 public interface StringTranslator<T> {
   // dirty bit to indicate that the result should be printed to reflect
   // translation preference
@@ -22,4 +24,10 @@ public interface StringTranslator<T> {
   Result<T> parse(String value);
 
   String print(T value);
+
+  // every form in which value may have been printed by another translator
+  // that this one reads, for removal of values by equality
+  default List<String> printAll(T value) {
+    return List.of(print(value));
+  }
 }
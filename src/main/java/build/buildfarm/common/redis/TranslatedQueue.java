@@ -47,6 +47,27 @@ class TranslatedQueue<E extends Message> implements Queue<E> {
     return translator.parse(queue.poll()).value();
   }
 
+  @Override
+  public List<E> poll(int count) {
+    return newArrayList(transform(queue.poll(count), value -> translator.parse(value).value()));
+  }
+
+  @Override
+  public List<E> peek(int count) {
+    return newArrayList(transform(queue.peek(count), value -> translator.parse(value).value()));
+  }
+
+  @Override
+  public boolean claim(E e, int depth) {
+    // the value may have been enqueued in a form other than our printed one
+    for (String value : translator.printAll(e)) {
+      if (queue.claim(value, depth)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public boolean offer(E e) {
     return queue.offer(translator.print(e));
@@ -82,12 +103,20 @@ class TranslatedQueue<E extends Message> implements Queue<E> {
 
   @Override
   public boolean removeFromDequeue(E e) {
-    return queue.removeFromDequeue(translator.print(e));
+    // the value may have been enqueued in a form other than our printed one
+    for (String value : translator.printAll(e)) {
+      if (queue.removeFromDequeue(value)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
   public void removeFromDequeue(AbstractPipeline pipeline, E e) {
-    queue.removeFromDequeue(pipeline, translator.print(e));
+    for (String value : translator.printAll(e)) {
+      queue.removeFromDequeue(pipeline, value);
+    }
   }
 
   @Override
@@ -50,6 +50,7 @@ import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.grpc.Status;
 import io.grpc.Status.Code;
 import io.grpc.stub.CallStreamObserver;
@@ -68,6 +69,7 @@ public class ByteStreamService extends ByteStreamImplBase {
   public static final int CHUNK_SIZE = 64 * 1024;
 
   private final long deadlineAfter;
+  private final int chunkSize;
   private final Instance instance;
 
   private static BuildfarmConfigs configs = BuildfarmConfigs.getInstance();
@@ -94,17 +96,19 @@ public class ByteStreamService extends ByteStreamImplBase {
   public ByteStreamService(Instance instance) {
     this.instance = instance;
     this.deadlineAfter = configs.getServer().getBytestreamTimeout();
+    this.chunkSize = configs.getServer().getBytestreamChunkSize();
   }
 
   void readFrom(InputStream in, long limit, CallStreamObserver<ReadResponse> target) {
     final class ReadFromOnReadyHandler implements Runnable {
-      private final byte[] buf = new byte[CHUNK_SIZE];
       private final boolean unlimited = limit == 0;
       private long remaining = limit;
       private boolean complete = false;
 
       ReadResponse next() throws IOException {
-        int readBytes = in.read(buf, 0, (int) Math.min(remaining, buf.length));
+        // each response owns its buffer, which is wrapped rather than copied
+        byte[] buf = new byte[(int) Math.min(remaining, chunkSize)];
+        int readBytes = in.read(buf, 0, buf.length);
         if (readBytes <= 0) {
           if (readBytes == -1) {
             if (!unlimited) {
@@ -121,7 +125,9 @@ public class ByteStreamService extends ByteStreamImplBase {
         }
         remaining -= readBytes;
         complete = remaining == 0;
-        return ReadResponse.newBuilder().setData(ByteString.copyFrom(buf, 0, readBytes)).build();
+        return ReadResponse.newBuilder()
+            .setData(UnsafeByteOperations.unsafeWrap(buf, 0, readBytes))
+            .build();
       }
 
       @Override
@@ -211,9 +217,9 @@ public class ByteStreamService extends ByteStreamImplBase {
       public void onNext(ByteString data) {
         while (!data.isEmpty()) {
           ByteString slice;
-          if (data.size() > CHUNK_SIZE) {
-            slice = data.substring(0, CHUNK_SIZE);
-            data = data.substring(CHUNK_SIZE);
+          if (data.size() > chunkSize) {
+            slice = data.substring(0, chunkSize);
+            data = data.substring(chunkSize);
           } else {
             slice = data;
             data = ByteString.EMPTY;
@@ -159,6 +159,7 @@ public abstract class NodeInstance extends InstanceBase {
   protected final OperationsMap completedOperations;
   protected final Map<Digest, ByteString> activeBlobWrites;
   protected final boolean ensureOutputsPresent;
+  protected final @Nullable OutputPresenceMemo outputPresenceMemo;
 
   public static final String ACTION_INPUT_ROOT_DIRECTORY_PATH = "";
 
@@ -250,6 +251,20 @@ public abstract class NodeInstance extends InstanceBase {
     this.completedOperations = completedOperations;
     this.activeBlobWrites = activeBlobWrites;
     this.ensureOutputsPresent = ensureOutputsPresent;
+    long outputPresenceMemoMillis = configs.getServer().getCaches().getOutputPresenceMemoMillis();
+    outputPresenceMemo =
+        ensureOutputsPresent && outputPresenceMemoMillis > 0
+            ? new OutputPresenceMemo(
+                outputPresenceMemoMillis,
+                configs.getServer().getCaches().getOutputPresenceMemoMaxEntries())
+            : null;
+  }
+
+  /** Forget the action results whose outputs were found, since some may have been removed. */
+  protected void invalidateOutputPresence() {
+    if (outputPresenceMemo != null) {
+      outputPresenceMemo.invalidateAll();
+    }
   }
 
   @Override
@@ -267,6 +282,30 @@ public abstract class NodeInstance extends InstanceBase {
     if (result == null) {
       return immediateFuture(ImmutableList.of());
     }
+    if (outputPresenceMemo == null) {
+      return findMissingOutputs(result, digestFunction, executor, requestMetadata);
+    }
+    Digest resultDigest = OutputPresenceMemo.key(result);
+    if (outputPresenceMemo.isPresent(resultDigest)) {
+      return immediateFuture(ImmutableList.of());
+    }
+    long generation = outputPresenceMemo.generation();
+    return transform(
+        findMissingOutputs(result, digestFunction, executor, requestMetadata),
+        missingOutputs -> {
+          if (Iterables.isEmpty(missingOutputs)) {
+            outputPresenceMemo.put(resultDigest, generation);
+          }
+          return missingOutputs;
+        },
+        directExecutor());
+  }
+
+  private ListenableFuture<Iterable<build.bazel.remote.execution.v2.Digest>> findMissingOutputs(
+      ActionResult result,
+      DigestFunction.Value digestFunction,
+      Executor executor,
+      RequestMetadata requestMetadata) {
     ImmutableList.Builder<build.bazel.remote.execution.v2.Digest> digests = ImmutableList.builder();
     digests.addAll(Iterables.transform(result.getOutputFilesList(), OutputFile::getDigest));
     // findMissingBlobs will weed out empties
@@ -941,6 +980,43 @@ public abstract class NodeInstance extends InstanceBase {
       Consumer<String> onInputDirectory,
       Consumer<build.bazel.remote.execution.v2.Digest> onInputDigest,
       PreconditionFailure.Builder preconditionFailure) {
+    validateActionInputDirectory(
+        digestFunction,
+        directoryPath,
+        directory,
+        pathDigests,
+        visited,
+        directoriesIndex,
+        allowSymlinkTargetAbsolute,
+        /* validatedDirectories= */ null,
+        onInputFile,
+        onInputDirectory,
+        onInputDigest,
+        preconditionFailure);
+  }
+
+  /**
+   * Returns the input digests of the directory's subtree if it is valid and validated directories
+   * are remembered, or null otherwise.
+   */
+  private static @Nullable ImmutableSet<build.bazel.remote.execution.v2.Digest>
+      validateActionInputDirectory(
+          DigestFunction.Value digestFunction,
+          String directoryPath,
+          Directory directory,
+          Stack<build.bazel.remote.execution.v2.Digest> pathDigests,
+          Set<build.bazel.remote.execution.v2.Digest> visited,
+          Map<build.bazel.remote.execution.v2.Digest, Directory> directoriesIndex,
+          boolean allowSymlinkTargetAbsolute,
+          @Nullable ValidatedDirectories validatedDirectories,
+          Consumer<String> onInputFile,
+          Consumer<String> onInputDirectory,
+          Consumer<build.bazel.remote.execution.v2.Digest> onInputDigest,
+          PreconditionFailure.Builder preconditionFailure) {
+    int violationsCount = preconditionFailure.getViolationsCount();
+    boolean subtreeValidated = validatedDirectories != null;
+    ImmutableSet.Builder<build.bazel.remote.execution.v2.Digest> subtreeInputs =
+        ImmutableSet.builder();
     Set<String> entryNames = new HashSet<>();
 
     String lastFileName = "";
@@ -966,6 +1042,7 @@ public abstract class NodeInstance extends InstanceBase {
       entryNames.add(fileName);
 
       onInputDigest.accept(fileNode.getDigest());
+      subtreeInputs.add(fileNode.getDigest());
       String filePath = directoryPath.isEmpty() ? fileName : (directoryPath + "/" + fileName);
       onInputFile.accept(filePath);
     }
@@ -1042,6 +1119,16 @@ public abstract class NodeInstance extends InstanceBase {
             directoryPath.isEmpty() ? directoryName : (directoryPath + "/" + directoryName);
         onInputDirectory.accept(subDirectoryPath);
         if (visited.contains(directoryDigest)) {
+          if (subtreeValidated) {
+            // remembered when it was first visited, unless it was invalid or has been evicted
+            ImmutableSet<build.bazel.remote.execution.v2.Digest> visitedInputs =
+                validatedDirectories.get(DigestUtil.fromDigest(directoryDigest, digestFunction));
+            if (visitedInputs == null) {
+              subtreeValidated = false;
+            } else {
+              subtreeInputs.addAll(visitedInputs);
+            }
+          }
           Directory subDirectory;
           if (directoryDigest.getSizeBytes() == 0) {
             subDirectory = Directory.getDefaultInstance();
@@ -1057,34 +1144,72 @@ public abstract class NodeInstance extends InstanceBase {
               onInputDirectory,
               preconditionFailure);
         } else {
-          validateActionInputDirectoryDigest(
-              subDirectoryPath,
-              DigestUtil.fromDigest(directoryDigest, digestFunction),
-              pathDigests,
-              visited,
-              directoriesIndex,
-              allowSymlinkTargetAbsolute,
-              onInputFile,
-              onInputDirectory,
-              onInputDigest,
-              preconditionFailure);
+          ImmutableSet<build.bazel.remote.execution.v2.Digest> subDirectoryInputs =
+              validateActionInputDirectoryDigest(
+                  subDirectoryPath,
+                  DigestUtil.fromDigest(directoryDigest, digestFunction),
+                  pathDigests,
+                  visited,
+                  directoriesIndex,
+                  allowSymlinkTargetAbsolute,
+                  validatedDirectories,
+                  onInputFile,
+                  onInputDirectory,
+                  onInputDigest,
+                  preconditionFailure);
+          if (subDirectoryInputs == null) {
+            subtreeValidated = false;
+          } else {
+            subtreeInputs.addAll(subDirectoryInputs);
+          }
         }
       }
     }
+    if (!subtreeValidated || preconditionFailure.getViolationsCount() != violationsCount) {
+      return null;
+    }
+    return subtreeInputs.build();
   }
 
-  private static void validateActionInputDirectoryDigest(
+  private static void enumerateValidatedDirectory(
+      DigestFunction.Value digestFunction,
       String directoryPath,
-      // based on usage might want to make this bazel and pass function
-      Digest directoryDigest,
-      Stack<build.bazel.remote.execution.v2.Digest> pathDigests,
-      Set<build.bazel.remote.execution.v2.Digest> visited,
+      Directory directory,
+      ImmutableSet<build.bazel.remote.execution.v2.Digest> subtreeInputs,
       Map<build.bazel.remote.execution.v2.Digest, Directory> directoriesIndex,
-      boolean allowSymlinkTargetAbsolute,
       Consumer<String> onInputFile,
       Consumer<String> onInputDirectory,
       Consumer<build.bazel.remote.execution.v2.Digest> onInputDigest,
       PreconditionFailure.Builder preconditionFailure) {
+    for (FileNode fileNode : directory.getFilesList()) {
+      String fileName = fileNode.getName();
+      onInputFile.accept(directoryPath.isEmpty() ? fileName : (directoryPath + "/" + fileName));
+    }
+    enumerateActionInputDirectory(
+        digestFunction,
+        directoryPath,
+        directory,
+        directoriesIndex,
+        onInputFile,
+        onInputDirectory,
+        preconditionFailure);
+    subtreeInputs.forEach(onInputDigest);
+  }
+
+  private static @Nullable ImmutableSet<build.bazel.remote.execution.v2.Digest>
+      validateActionInputDirectoryDigest(
+          String directoryPath,
+          // based on usage might want to make this bazel and pass function
+          Digest directoryDigest,
+          Stack<build.bazel.remote.execution.v2.Digest> pathDigests,
+          Set<build.bazel.remote.execution.v2.Digest> visited,
+          Map<build.bazel.remote.execution.v2.Digest, Directory> directoriesIndex,
+          boolean allowSymlinkTargetAbsolute,
+          @Nullable ValidatedDirectories validatedDirectories,
+          Consumer<String> onInputFile,
+          Consumer<String> onInputDirectory,
+          Consumer<build.bazel.remote.execution.v2.Digest> onInputDigest,
+          PreconditionFailure.Builder preconditionFailure) {
     build.bazel.remote.execution.v2.Digest digest = DigestUtil.toDigest(directoryDigest);
     pathDigests.push(digest);
     final Directory directory;
@@ -1093,31 +1218,51 @@ public abstract class NodeInstance extends InstanceBase {
     } else {
       directory = directoriesIndex.get(digest);
     }
+    ImmutableSet<build.bazel.remote.execution.v2.Digest> subtreeInputs = null;
     if (directory == null) {
       preconditionFailure
           .addViolationsBuilder()
           .setType(VIOLATION_TYPE_MISSING)
           .setSubject("blobs/" + DigestUtil.toString(directoryDigest))
           .setDescription("The directory `/" + directoryPath + "` was not found in the CAS.");
-    } else {
-      validateActionInputDirectory(
+    } else if (validatedDirectories != null
+        && (subtreeInputs = validatedDirectories.get(directoryDigest)) != null) {
+      // validated for a previous action, only its paths and inputs are enumerated
+      enumerateValidatedDirectory(
           directoryDigest.getDigestFunction(),
           directoryPath,
           directory,
-          pathDigests,
-          visited,
+          subtreeInputs,
           directoriesIndex,
-          allowSymlinkTargetAbsolute,
           onInputFile,
           onInputDirectory,
           onInputDigest,
           preconditionFailure);
+    } else {
+      subtreeInputs =
+          validateActionInputDirectory(
+              directoryDigest.getDigestFunction(),
+              directoryPath,
+              directory,
+              pathDigests,
+              visited,
+              directoriesIndex,
+              allowSymlinkTargetAbsolute,
+              validatedDirectories,
+              onInputFile,
+              onInputDirectory,
+              onInputDigest,
+              preconditionFailure);
+      if (subtreeInputs != null) {
+        validatedDirectories.put(directoryDigest, subtreeInputs);
+      }
     }
     pathDigests.pop();
     if (directory != null) {
       // missing directories are not visited and will appear in violations list each time
       visited.add(digest);
     }
+    return subtreeInputs;
   }
 
   protected ListenableFuture<Tree> getTreeFuture(
@@ -1317,6 +1462,11 @@ public abstract class NodeInstance extends InstanceBase {
     /* no default platform validation */
   }
 
+  /** Returns the memo of valid input directories, or null if every directory is validated. */
+  protected @Nullable ValidatedDirectories getValidatedDirectories() {
+    return null;
+  }
+
   @VisibleForTesting
   void validateCommand(
       Command command,
@@ -1411,6 +1561,7 @@ public abstract class NodeInstance extends InstanceBase {
         new HashSet<>(),
         directoriesIndex,
         allowSymlinkTargetAbsolute,
+        getValidatedDirectories(),
         inputFilesBuilder::add,
         inputDirectoriesBuilder::add,
         onInputDigest,
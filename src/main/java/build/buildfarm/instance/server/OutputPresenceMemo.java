@@ -0,0 +1,87 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.server;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.v1test.Digest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.prometheus.client.Counter;
+
+/**
+ * Remembers the action results whose outputs were all found in the CAS, so that repeated action
+ * cache hits within a window are not checked again.
+ *
+ * <p>Results are keyed by the digest of the encoded ActionResult, so a result which is replaced
+ * is checked again. Servers do not know which outputs a removed worker held or which blobs a worker
+ * has expired, so every result is forgotten when either is observed, and the window bounds the
+ * time that a result is served after an unobserved expiration. A check which began before an
+ * invalidation is not remembered.
+ */
+public class OutputPresenceMemo {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  private static final Counter lookups =
+      Counter.build()
+          .name("output_presence_memo_lookups")
+          .labelNames("result")
+          .help("Action result output presence lookups, as hits or verifications.")
+          .register();
+
+  private final Cache<Digest, Boolean> presentResults;
+  private long generation = 0;
+
+  public OutputPresenceMemo(long windowMillis, long maxEntries) {
+    presentResults =
+        Caffeine.newBuilder()
+            .expireAfterWrite(windowMillis, MILLISECONDS)
+            .maximumSize(maxEntries)
+            .build();
+  }
+
+  // the key identifies the result alone, independent of the digest function of its outputs
+  static Digest key(ActionResult result) {
+    return DIGEST_UTIL.compute(result);
+  }
+
+  /** Returns true if the result's outputs were found within the window. */
+  boolean isPresent(Digest resultDigest) {
+    boolean present = presentResults.getIfPresent(resultDigest) != null;
+    lookups.labels(present ? "hit" : "verify").inc();
+    return present;
+  }
+
+  /** Returns the generation to present with a result whose check begins now. */
+  synchronized long generation() {
+    return generation;
+  }
+
+  /** Remember a result whose outputs were all found by a check begun in generation. */
+  synchronized void put(Digest resultDigest, long generation) {
+    if (generation == this.generation) {
+      presentResults.put(resultDigest, true);
+    }
+  }
+
+  /** Forget every result, and any check in progress. */
+  public synchronized void invalidateAll() {
+    generation++;
+    presentResults.invalidateAll();
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.server;
+
+import build.buildfarm.v1test.Digest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableSet;
+import io.prometheus.client.Counter;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Remembers the input directories which passed validation, with the digests of every file in
+ * their subtrees.
+ *
+ * <p>A directory's validity depends only on its content, so a subtree validated for one action
+ * need not be descended into for another. Its input digests are still reported for each action,
+ * so that missing inputs are always found. Entries are weighed by their number of input digests.
+ */
+public class ValidatedDirectories {
+  private static final Counter lookups =
+      Counter.build()
+          .name("validated_directory_cache_lookups")
+          .labelNames("result")
+          .help("Validated input directory cache lookups.")
+          .register();
+
+  private final Cache<Digest, ImmutableSet<build.bazel.remote.execution.v2.Digest>> inputs;
+
+  public ValidatedDirectories(long maxInputs) {
+    inputs =
+        Caffeine.newBuilder()
+            .maximumWeight(maxInputs)
+            .<Digest, ImmutableSet<build.bazel.remote.execution.v2.Digest>>weigher(
+                (digest, subtreeInputs) -> subtreeInputs.size() + 1)
+            .build();
+  }
+
+  /** Returns the input digests of a validated directory's subtree, or null. */
+  @Nullable
+  ImmutableSet<build.bazel.remote.execution.v2.Digest> get(Digest directoryDigest) {
+    ImmutableSet<build.bazel.remote.execution.v2.Digest> subtreeInputs =
+        inputs.getIfPresent(directoryDigest);
+    lookups.labels(subtreeInputs == null ? "miss" : "hit").inc();
+    return subtreeInputs;
+  }
+
+  void put(
+      Digest directoryDigest, ImmutableSet<build.bazel.remote.execution.v2.Digest> subtreeInputs) {
+    inputs.put(directoryDigest, subtreeInputs);
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import build.buildfarm.common.redis.RedisHashtags;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import redis.clients.jedis.UnifiedJedis;
+
+/**
+ * @class CasWorkerIds
+ * @brief Stable integer identifiers for worker endpoints.
+ * @details Each worker endpoint is assigned a small integer the first time it is needed, and keeps
+ *     it for the lifetime of the backplane. Identifiers are never reused, so a stale identifier in
+ *     a CAS location set can only ever refer to the worker it was assigned to. Both directions of
+ *     the mapping are cached locally once observed, since they never change.
+ */
+public class CasWorkerIds {
+  // KEYS[1]: endpoint -> id hash, KEYS[2]: id -> endpoint hash, KEYS[3]: id counter
+  private static final String ASSIGN_SCRIPT =
+      String.join(
+          "\n",
+          "local id = redis.call('HGET', KEYS[1], ARGV[1])",
+          "if not id then",
+          "  id = tostring(redis.call('INCR', KEYS[3]))",
+          "  redis.call('HSET', KEYS[1], ARGV[1], id)",
+          "  redis.call('HSET', KEYS[2], id, ARGV[1])",
+          "end",
+          "return id");
+
+  /**
+   * @field endpointsKey
+   * @brief The redis hash of endpoints to identifiers.
+   */
+  private final String endpointsKey;
+
+  /**
+   * @field idsKey
+   * @brief The redis hash of identifiers to endpoints.
+   */
+  private final String idsKey;
+
+  /**
+   * @field counterKey
+   * @brief The redis counter of the last assigned identifier.
+   */
+  private final String counterKey;
+
+  private final Map<String, Integer> idsByEndpoint = new ConcurrentHashMap<>();
+  private final Map<Integer, String> endpointsById = new ConcurrentHashMap<>();
+
+  /**
+   * @brief Constructor.
+   * @details All keys share a hashtag so that assignment can be performed atomically in a cluster.
+   * @param name The global name of the identifier mapping.
+   */
+  public CasWorkerIds(String name) {
+    endpointsKey = RedisHashtags.hashedName(":endpoints", name);
+    idsKey = RedisHashtags.hashedName(":ids", name);
+    counterKey = RedisHashtags.hashedName(":counter", name);
+  }
+
+  /**
+   * @brief Get the identifier for a worker, assigning one if it does not exist.
+   * @param jedis Client used for interacting with redis.
+   * @param endpoint The worker endpoint.
+   * @return The stable identifier for the worker.
+   * @note Suggested return identifier: workerId.
+   */
+  public int assign(UnifiedJedis jedis, String endpoint) {
+    Integer id = idsByEndpoint.get(endpoint);
+    if (id == null) {
+      Object result =
+          jedis.eval(
+              ASSIGN_SCRIPT,
+              ImmutableList.of(endpointsKey, idsKey, counterKey),
+              ImmutableList.of(endpoint));
+      id = Integer.parseInt(String.valueOf(result));
+      observe(endpoint, id);
+    }
+    return id;
+  }
+
+  /**
+   * @brief Get the identifier for a worker without assigning one.
+   * @param jedis Client used for interacting with redis.
+   * @param endpoint The worker endpoint.
+   * @return The identifier for the worker, or null if it has never been assigned one.
+   * @note Suggested return identifier: workerId.
+   */
+  public Integer get(UnifiedJedis jedis, String endpoint) {
+    Integer id = idsByEndpoint.get(endpoint);
+    if (id == null) {
+      String value = jedis.hget(endpointsKey, endpoint);
+      if (value != null) {
+        id = Integer.parseInt(value);
+        observe(endpoint, id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @brief Get the identifiers of workers without assigning any.
+   * @details Workers which have never been assigned an identifier are left out of the returned
+   *     set.
+   * @param jedis Client used for interacting with redis.
+   * @param endpoints The worker endpoints.
+   * @return The identifiers of the workers, as they are stored in CAS location sets.
+   * @note Suggested return identifier: workerIds.
+   */
+  public Set<String> ids(UnifiedJedis jedis, Iterable<String> endpoints) {
+    ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+    for (String endpoint : endpoints) {
+      Integer id = get(jedis, endpoint);
+      if (id != null) {
+        ids.add(String.valueOf(id));
+      }
+    }
+    return ids.build();
+  }
+
+  /**
+   * @brief Translate identifiers back to worker endpoints.
+   * @details Identifiers not already cached are fetched in a single request. Identifiers with no
+   *     known endpoint are left out of the returned map.
+   * @param jedis Client used for interacting with redis.
+   * @param ids The identifiers to translate.
+   * @return The endpoints for the identifiers.
+   * @note Suggested return identifier: endpoints.
+   */
+  public Map<Integer, String> endpoints(UnifiedJedis jedis, Iterable<Integer> ids) {
+    ImmutableMap.Builder<Integer, String> endpoints = ImmutableMap.builder();
+    List<Integer> missing = new ArrayList<>();
+    for (Integer id : ids) {
+      String endpoint = endpointsById.get(id);
+      if (endpoint == null) {
+        missing.add(id);
+      } else {
+        endpoints.put(id, endpoint);
+      }
+    }
+    if (!missing.isEmpty()) {
+      List<String> values =
+          jedis.hmget(idsKey, missing.stream().map(String::valueOf).toArray(String[]::new));
+      for (int i = 0; i < missing.size(); i++) {
+        String endpoint = values.get(i);
+        if (endpoint != null) {
+          Integer id = missing.get(i);
+          observe(endpoint, id);
+          endpoints.put(id, endpoint);
+        }
+      }
+    }
+    return endpoints.buildKeepingLast();
+  }
+
+  private void observe(String endpoint, int id) {
+    idsByEndpoint.put(endpoint, id);
+    endpointsById.put(id, endpoint);
+  }
+}
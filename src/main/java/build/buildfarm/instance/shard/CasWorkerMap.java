@@ -14,6 +14,7 @@
 
 package build.buildfarm.instance.shard;
 
+import build.buildfarm.backplane.Backplane.BlobLocations;
 import build.buildfarm.v1test.Digest;
 import java.util.Map;
 import java.util.Set;
@@ -97,6 +98,16 @@ public interface CasWorkerMap {
    */
   Map<Digest, Set<String>> getMap(Iterable<Digest> blobDigests);
 
+  /**
+   * @brief Get the workers and insert times for the digests given.
+   * @details Lookups are batched rather than issued per digest. If there are no workers for the
+   *     digest, the key is left out of the returned map.
+   * @param blobDigests The blob digests to get the locations for.
+   * @return The map for digests to workers and insert time.
+   * @note Suggested return identifier: blobLocations.
+   */
+  Map<Digest, BlobLocations> getLocationsMap(Iterable<Digest> blobDigests);
+
   /**
    * @brief Get the size of the map.
    * @details Returns the number of key-value pairs in this multimap.
@@ -0,0 +1,140 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import build.buildfarm.backplane.Backplane.BlobLocations;
+import build.buildfarm.v1test.Digest;
+import com.google.common.collect.Sets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @class DualReadCasWorkerMap
+ * @brief A mapping which migrates blob locations from one encoding to another.
+ * @details New locations are only written to the primary map. Reads are the union of both maps, and
+ *     removals are applied to both, so that locations written by the legacy map remain visible
+ *     until they expire. Lease extensions only apply to the primary map.
+ */
+public class DualReadCasWorkerMap implements CasWorkerMap {
+  private final CasWorkerMap primary;
+  private final CasWorkerMap legacy;
+
+  /**
+   * @brief Constructor.
+   * @param primary The map that receives all new locations.
+   * @param legacy The map that is being migrated from.
+   */
+  public DualReadCasWorkerMap(CasWorkerMap primary, CasWorkerMap legacy) {
+    this.primary = primary;
+    this.legacy = legacy;
+  }
+
+  @Override
+  public void adjust(Digest blobDigest, Set<String> addWorkers, Set<String> removeWorkers) {
+    primary.adjust(blobDigest, addWorkers, removeWorkers);
+    // adjusting the legacy map would refresh its expiration
+    for (String workerName : removeWorkers) {
+      legacy.remove(blobDigest, workerName);
+    }
+  }
+
+  @Override
+  public void add(Digest blobDigest, String workerName) {
+    primary.add(blobDigest, workerName);
+  }
+
+  @Override
+  public void addAll(Iterable<Digest> blobDigests, String workerName) {
+    primary.addAll(blobDigests, workerName);
+  }
+
+  @Override
+  public void remove(Digest blobDigest, String workerName) {
+    primary.remove(blobDigest, workerName);
+    legacy.remove(blobDigest, workerName);
+  }
+
+  @Override
+  public void removeAll(Iterable<Digest> blobDigests, String workerName) {
+    primary.removeAll(blobDigests, workerName);
+    legacy.removeAll(blobDigests, workerName);
+  }
+
+  @Override
+  public String getAny(Digest blobDigest) {
+    String workerName = primary.getAny(blobDigest);
+    if (workerName == null) {
+      workerName = legacy.getAny(blobDigest);
+    }
+    return workerName;
+  }
+
+  @Override
+  public Set<String> get(Digest blobDigest) {
+    return Sets.union(primary.get(blobDigest), legacy.get(blobDigest)).immutableCopy();
+  }
+
+  @Override
+  public long insertTime(Digest blobDigest) {
+    return Math.max(primary.insertTime(blobDigest), legacy.insertTime(blobDigest));
+  }
+
+  @Override
+  public Map<Digest, Set<String>> getMap(Iterable<Digest> blobDigests) {
+    Map<Digest, Set<String>> blobDigestsWorkers = new HashMap<>(legacy.getMap(blobDigests));
+    primary
+        .getMap(blobDigests)
+        .forEach(
+            (digest, workers) ->
+                blobDigestsWorkers.merge(
+                    digest, workers, (a, b) -> Sets.union(a, b).immutableCopy()));
+    return blobDigestsWorkers;
+  }
+
+  @Override
+  public Map<Digest, BlobLocations> getLocationsMap(Iterable<Digest> blobDigests) {
+    Map<Digest, BlobLocations> blobLocations = new HashMap<>(legacy.getLocationsMap(blobDigests));
+    primary
+        .getLocationsMap(blobDigests)
+        .forEach(
+            (digest, locations) ->
+                blobLocations.merge(
+                    digest,
+                    locations,
+                    (a, b) ->
+                        new BlobLocations(
+                            Sets.union(a.workers(), b.workers()).immutableCopy(),
+                            Math.max(a.insertTime(), b.insertTime()))));
+    return blobLocations;
+  }
+
+  /**
+   * @brief Get the size of the map.
+   * @details Blobs present in both maps are counted twice.
+   * @return The size of the map.
+   * @note Suggested return identifier: size.
+   */
+  @Override
+  public int size() {
+    return primary.size() + legacy.size();
+  }
+
+  @Override
+  public void setExpire(Iterable<Digest> blobDigests) {
+    // legacy locations are left to expire, bounding the migration by the key expiration
+    primary.setExpire(blobDigests);
+  }
+}
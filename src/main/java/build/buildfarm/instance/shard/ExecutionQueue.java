@@ -20,25 +20,34 @@ import static com.google.common.collect.Lists.newArrayList;
 import static redis.clients.jedis.params.ScanParams.SCAN_POINTER_START;
 
 import build.bazel.remote.execution.v2.Platform;
+import build.buildfarm.common.DirectorySketch;
 import build.buildfarm.common.Visitor;
 import build.buildfarm.common.redis.BalancedRedisQueue;
 import build.buildfarm.common.redis.BalancedRedisQueue.BalancedQueueEntry;
 import build.buildfarm.common.redis.ProvisionedRedisQueue;
+import build.buildfarm.v1test.InputSubtree;
 import build.buildfarm.v1test.OperationQueueStatus;
 import build.buildfarm.v1test.QueueEntry;
 import build.buildfarm.v1test.QueueStatus;
 import build.buildfarm.worker.resources.LocalResourceSet;
 import build.buildfarm.worker.resources.LocalResourceSetUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.SetMultimap;
+import com.google.protobuf.util.Timestamps;
+import io.prometheus.client.Counter;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.extern.java.Log;
+import org.jspecify.annotations.Nullable;
 import redis.clients.jedis.AbstractPipeline;
 import redis.clients.jedis.UnifiedJedis;
 import redis.clients.jedis.resps.ScanResult;
@@ -55,9 +64,25 @@ public class ExecutionQueue {
 
   private static final Duration MAX_TIMEOUT = Duration.ofSeconds(8);
 
+  private static final Counter affinityDequeues =
+      Counter.build()
+          .name("execution_queue_affinity_dequeues")
+          .labelNames("result")
+          .help("Execution queue dequeues with a directory affinity.")
+          .register();
+
   public record ExecutionQueueEntry(
       BalancedRedisQueue queue, BalancedQueueEntry<QueueEntry> balancedQueueEntry) {}
 
+  /**
+   * A preference for the queued executions whose heaviest input subtrees are held by a worker.
+   *
+   * @param directories The sketch of input directories held by the worker
+   * @param scanDepth The count of entries at the head of each queue to choose among
+   * @param maxWaitMillis The queued time after which the head entry is taken by any worker
+   */
+  public record Affinity(DirectorySketch directories, int scanDepth, long maxWaitMillis) {}
+
   /**
    * @field maxQueueSize
    * @brief The maximum amount of elements that should be added to the queue.
@@ -319,6 +344,140 @@ public class ExecutionQueue {
     return take(jedis, queues, resourceSet, service);
   }
 
+  /**
+   * @brief Pop elements into internal dequeues and return their values.
+   * @details As the single element dequeue, but first polls each matched queue without blocking for
+   *     up to maxEntries elements, popped atomically from a single internal queue. Only if every
+   *     matched queue is empty does it block, for a single element. With an affinity, the elements
+   *     which the worker is most likely to hold inputs for are preferred.
+   * @param jedis Jedis cluster client.
+   * @param provisions Provisions used to select an eligible queue.
+   * @param maxEntries The most elements to dequeue.
+   * @param affinity The preference for elements by held input directories, or null for none.
+   * @return The values of the transfered elements, at least one unless interrupted.
+   * @note Suggested return identifier: vals.
+   */
+  public List<ExecutionQueueEntry> dequeue(
+      UnifiedJedis jedis,
+      List<Platform.Property> provisions,
+      LocalResourceSet resourceSet,
+      ExecutorService service,
+      int maxEntries,
+      @Nullable Affinity affinity)
+      throws InterruptedException {
+    List<ProvisionedRedisQueue> queues = chooseEligibleQueues(provisions);
+    checkState(!queues.isEmpty());
+    if (affinity != null) {
+      List<ExecutionQueueEntry> entries =
+          pollPreferred(jedis, queues, resourceSet, maxEntries, affinity);
+      affinityDequeues.labels(entries.isEmpty() ? "none" : "preferred").inc();
+      if (!entries.isEmpty()) {
+        return entries;
+      }
+    }
+    if (maxEntries > 1) {
+      List<ExecutionQueueEntry> entries = poll(jedis, queues, resourceSet, maxEntries);
+      if (!entries.isEmpty()) {
+        return entries;
+      }
+    }
+    ExecutionQueueEntry entry = take(jedis, queues, resourceSet, service);
+    return entry == null ? ImmutableList.of() : ImmutableList.of(entry);
+  }
+
+  private List<ExecutionQueueEntry> poll(
+      UnifiedJedis jedis,
+      List<ProvisionedRedisQueue> queues,
+      LocalResourceSet resourceSet,
+      int maxEntries)
+      throws InterruptedException {
+    // a single nonblocking round-robin cycle, as the first phase of take
+    int startQueue = currentDequeueIndex;
+    do {
+      int index = roundRobinPopIndex(queues);
+      ProvisionedRedisQueue provisionedQueue = queues.get(index);
+      BalancedRedisQueue<QueueEntry> queue = provisionedQueue.queue();
+      if (!provisionedQueue.isExhausted(LocalResourceSetUtils.exhausted(resourceSet))) {
+        List<BalancedQueueEntry<QueueEntry>> balancedQueueEntries =
+            queue.pollAny(jedis, maxEntries);
+        if (!balancedQueueEntries.isEmpty()) {
+          return newArrayList(
+              transform(
+                  balancedQueueEntries,
+                  balancedQueueEntry -> new ExecutionQueueEntry(queue, balancedQueueEntry)));
+        }
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        throw new InterruptedException();
+      }
+    } while (currentDequeueIndex != startQueue);
+    return ImmutableList.of();
+  }
+
+  private List<ExecutionQueueEntry> pollPreferred(
+      UnifiedJedis jedis,
+      List<ProvisionedRedisQueue> queues,
+      LocalResourceSet resourceSet,
+      int maxEntries,
+      Affinity affinity) {
+    int startQueue = currentDequeueIndex;
+    do {
+      int index = roundRobinPopIndex(queues);
+      ProvisionedRedisQueue provisionedQueue = queues.get(index);
+      BalancedRedisQueue<QueueEntry> queue = provisionedQueue.queue();
+      if (!provisionedQueue.isExhausted(LocalResourceSetUtils.exhausted(resourceSet))) {
+        List<BalancedQueueEntry<QueueEntry>> balancedQueueEntries =
+            queue.pollPreferred(
+                jedis,
+                affinity.scanDepth(),
+                candidates -> preferred(candidates, maxEntries, affinity));
+        if (!balancedQueueEntries.isEmpty()) {
+          return newArrayList(
+              transform(
+                  balancedQueueEntries,
+                  balancedQueueEntry -> new ExecutionQueueEntry(queue, balancedQueueEntry)));
+        }
+      }
+    } while (currentDequeueIndex != startQueue);
+    return ImmutableList.of();
+  }
+
+  /**
+   * Choose up to maxEntries of the candidates with the most input bytes in held subtrees, in
+   * descending order. None are chosen once the head candidate has waited for the affinity's
+   * maximum, so that it is taken next by any worker.
+   */
+  @VisibleForTesting
+  static List<QueueEntry> preferred(
+      List<QueueEntry> candidates, int maxEntries, Affinity affinity) {
+    if (candidates.isEmpty() || waitedMillis(candidates.getFirst()) >= affinity.maxWaitMillis()) {
+      return ImmutableList.of();
+    }
+    Map<QueueEntry, Long> heldBytes = new LinkedHashMap<>();
+    for (QueueEntry candidate : candidates) {
+      long bytes = 0;
+      for (InputSubtree subtree : candidate.getHeaviestSubtreesList()) {
+        if (affinity.directories().mightContain(subtree.getDirectoryDigest().getHash())) {
+          bytes += subtree.getInputBytes();
+        }
+      }
+      if (bytes > 0) {
+        heldBytes.put(candidate, bytes);
+      }
+    }
+    // stable, so that equally preferred candidates remain in queue order
+    return heldBytes.entrySet().stream()
+        .sorted(Map.Entry.<QueueEntry, Long>comparingByValue().reversed())
+        .limit(maxEntries)
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+  }
+
+  private static long waitedMillis(QueueEntry queueEntry) {
+    return System.currentTimeMillis()
+        - Timestamps.toMillis(queueEntry.getExecuteEntry().getQueuedTimestamp());
+  }
+
   /**
    * @brief Get status information about the queue.
    * @details Helpful for understanding the current load on the queue and how elements are balanced.
@@ -0,0 +1,131 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static java.util.Comparator.comparingLong;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.DigestFunction;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.bazel.remote.execution.v2.FileNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.v1test.InputSubtree;
+import build.buildfarm.v1test.Tree;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Selects the subtrees of an input root which hold the most input bytes, for workers to match
+ * against the directories that they hold.
+ *
+ * <p>The subtrees are disjoint. Beginning with the children of the root, the heaviest subtree is
+ * repeatedly replaced with its children while they fit within the count, since a worker which holds
+ * a subtree also holds each of its children, but may hold a child without its parent.
+ */
+final class InputSubtrees {
+  private final Map<String, Directory> directories;
+  private final Map<String, Long> inputBytes = new HashMap<>();
+
+  private InputSubtrees(Map<String, Directory> directories) {
+    this.directories = directories;
+  }
+
+  /** Returns up to count of the heaviest subtrees of the tree, in descending input bytes. */
+  static List<InputSubtree> heaviest(Tree tree, int count) {
+    if (count <= 0) {
+      return ImmutableList.of();
+    }
+    return new InputSubtrees(tree.getDirectoriesMap())
+        .select(tree.getRootDigest().getHash(), count, tree.getRootDigest().getDigestFunction());
+  }
+
+  private List<InputSubtree> select(
+      String rootHash, int count, DigestFunction.Value digestFunction) {
+    Directory root = directories.get(rootHash);
+    if (root == null) {
+      return ImmutableList.of();
+    }
+    PriorityQueue<Digest> frontier =
+        new PriorityQueue<>(comparingLong((Digest digest) -> inputBytes(digest)).reversed());
+    // a subtree which appears more than once is selected at most once
+    Set<String> seen = new HashSet<>();
+    split(root, frontier, seen);
+    List<Digest> selected = new ArrayList<>();
+    while (!frontier.isEmpty()) {
+      Digest heaviest = frontier.poll();
+      Directory directory = directories.get(heaviest.getHash());
+      int children = directory == null ? 0 : unseenChildren(directory, seen).size();
+      if (children == 0 || selected.size() + frontier.size() + children > count) {
+        selected.add(heaviest);
+      } else {
+        split(directory, frontier, seen);
+      }
+    }
+    ImmutableList.Builder<InputSubtree> subtrees = ImmutableList.builder();
+    selected.stream()
+        .filter(digest -> inputBytes(digest) > 0)
+        .sorted(comparingLong((Digest digest) -> inputBytes(digest)).reversed())
+        .limit(count)
+        .forEach(
+            digest ->
+                subtrees.add(
+                    InputSubtree.newBuilder()
+                        .setDirectoryDigest(DigestUtil.fromDigest(digest, digestFunction))
+                        .setInputBytes(inputBytes(digest))
+                        .build()));
+    return subtrees.build();
+  }
+
+  private static Map<String, Digest> unseenChildren(Directory directory, Set<String> seen) {
+    Map<String, Digest> children = new HashMap<>();
+    for (DirectoryNode node : directory.getDirectoriesList()) {
+      if (!seen.contains(node.getDigest().getHash())) {
+        children.put(node.getDigest().getHash(), node.getDigest());
+      }
+    }
+    return children;
+  }
+
+  private static void split(Directory directory, PriorityQueue<Digest> frontier, Set<String> seen) {
+    Map<String, Digest> children = unseenChildren(directory, seen);
+    seen.addAll(children.keySet());
+    frontier.addAll(children.values());
+  }
+
+  private long inputBytes(Digest digest) {
+    Long bytes = inputBytes.get(digest.getHash());
+    if (bytes == null) {
+      bytes = 0L;
+      Directory directory = directories.get(digest.getHash());
+      if (directory != null) {
+        for (FileNode file : directory.getFilesList()) {
+          bytes += file.getDigest().getSizeBytes();
+        }
+        for (DirectoryNode child : directory.getDirectoriesList()) {
+          bytes += inputBytes(child.getDigest());
+        }
+      }
+      inputBytes.put(digest.getHash(), bytes);
+    }
+    return bytes;
+  }
+}
@@ -14,14 +14,21 @@
 
 package build.buildfarm.instance.shard;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import build.buildfarm.backplane.Backplane.BlobLocations;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.redis.ScanCount;
+import build.buildfarm.common.redis.Unified;
 import build.buildfarm.v1test.Digest;
 import com.google.common.collect.ImmutableMap;
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import redis.clients.jedis.AbstractPipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.UnifiedJedis;
 
 /**
@@ -49,6 +56,13 @@ public class JedisCasWorkerMap implements CasWorkerMap {
    */
   private final int keyExpiration_s;
 
+  /**
+   * @field pipelineExecutor
+   * @brief Executor used to sync multi-node pipelines.
+   * @details Responses from each node in a cluster pipeline are read on this executor.
+   */
+  private final Executor pipelineExecutor;
+
   /**
    * @brief Constructor.
    * @details Construct storage object under the assumption that all calls will go to redis (no
@@ -59,9 +73,25 @@ public class JedisCasWorkerMap implements CasWorkerMap {
    * @note Overloaded.
    */
   public JedisCasWorkerMap(UnifiedJedis jedis, String name, int keyExpiration_s) {
+    this(jedis, name, keyExpiration_s, directExecutor());
+  }
+
+  /**
+   * @brief Constructor.
+   * @details Construct storage object under the assumption that all calls will go to redis (no
+   *     caching).
+   * @param jedis Client used for interacting with redis.
+   * @param name The global name of the map.
+   * @param keyExpiration_s When to have keys expire automatically. (units: seconds (s))
+   * @param pipelineExecutor Executor used to sync responses from each node of a pipeline.
+   * @note Overloaded.
+   */
+  public JedisCasWorkerMap(
+      UnifiedJedis jedis, String name, int keyExpiration_s, Executor pipelineExecutor) {
     this.jedis = jedis;
     this.name = name;
     this.keyExpiration_s = keyExpiration_s;
+    this.pipelineExecutor = pipelineExecutor;
   }
 
   /**
@@ -181,7 +211,11 @@ public class JedisCasWorkerMap implements CasWorkerMap {
   @Override
   public long insertTime(Digest blobDigest) {
     String key = redisCasKey(blobDigest);
-    return Instant.now().getEpochSecond() - keyExpiration_s + jedis.ttl(key);
+    return insertTime(Instant.now().getEpochSecond(), jedis.ttl(key));
+  }
+
+  private long insertTime(long now, long ttl) {
+    return now - keyExpiration_s + ttl;
   }
 
   /**
@@ -207,6 +241,49 @@ public class JedisCasWorkerMap implements CasWorkerMap {
     return blobDigestsWorkers.build();
   }
 
+  private record LocationResponses(Response<Set<String>> workers, Response<Long> ttl) {}
+
+  /**
+   * @brief Get the workers and insert times for the digests given.
+   * @details The SMEMBERS and TTL for every digest are pipelined, grouped by the node serving each
+   *     key's slot. If there are no workers for the digest, the key is left out of the returned
+   *     map.
+   * @param blobDigests The blob digests to get the locations for.
+   * @return The map for digests to workers and insert time.
+   * @note Suggested return identifier: blobLocations.
+   */
+  @Override
+  public Map<Digest, BlobLocations> getLocationsMap(Iterable<Digest> blobDigests) {
+    Map<Digest, LocationResponses> responses = new LinkedHashMap<>();
+    long now = Instant.now().getEpochSecond();
+    try (AbstractPipeline p = pipelined()) {
+      for (Digest blobDigest : blobDigests) {
+        String key = redisCasKey(blobDigest);
+        responses.put(blobDigest, new LocationResponses(p.smembers(key), p.ttl(key)));
+      }
+      p.sync();
+    }
+
+    ImmutableMap.Builder<Digest, BlobLocations> blobLocations = ImmutableMap.builder();
+    for (Map.Entry<Digest, LocationResponses> entry : responses.entrySet()) {
+      Set<String> workers = entry.getValue().workers().get();
+      if (workers.isEmpty()) {
+        continue;
+      }
+      blobLocations.put(
+          entry.getKey(),
+          new BlobLocations(workers, insertTime(now, entry.getValue().ttl().get())));
+    }
+    return blobLocations.build();
+  }
+
+  private AbstractPipeline pipelined() {
+    if (jedis instanceof Unified unified) {
+      return unified.pipelined(pipelineExecutor);
+    }
+    return jedis.pipelined();
+  }
+
   /**
    * @brief Get the size of the map.
    * @details May be inefficient to due scanning into memory and deduplicating.
@@ -0,0 +1,211 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.collect.Iterables.concat;
+
+import build.buildfarm.backplane.Backplane.BlobLocations;
+import build.buildfarm.v1test.Digest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import redis.clients.jedis.UnifiedJedis;
+
+/**
+ * @class JedisCompactCasWorkerMap
+ * @brief A mapping from blob digest to the workers where the blobs reside, stored by worker id.
+ * @details Location sets hold the stable integer id of each worker rather than its endpoint, which
+ *     redis stores as an intset of a few bytes per member. Endpoints are translated to and from ids
+ *     through a shared CasWorkerIds, so callers see the same endpoint sets as with
+ *     JedisCasWorkerMap.
+ */
+public class JedisCompactCasWorkerMap implements CasWorkerMap {
+  /**
+   * @field jedis
+   * @brief Client used for translating worker ids.
+   */
+  private final UnifiedJedis jedis;
+
+  /**
+   * @field workerIds
+   * @brief The translation between worker endpoints and ids.
+   */
+  private final CasWorkerIds workerIds;
+
+  /**
+   * @field idMap
+   * @brief The location sets, with worker ids as members.
+   */
+  private final JedisCasWorkerMap idMap;
+
+  /**
+   * @brief Constructor.
+   * @details Construct storage object under the assumption that all calls will go to redis (no
+   *     caching of locations).
+   * @param jedis Client used for interacting with redis.
+   * @param name The global name of the map.
+   * @param keyExpiration_s When to have keys expire automatically. (units: seconds (s))
+   * @param pipelineExecutor Executor used to sync responses from each node of a pipeline.
+   * @param workerIds The translation between worker endpoints and ids.
+   */
+  public JedisCompactCasWorkerMap(
+      UnifiedJedis jedis,
+      String name,
+      int keyExpiration_s,
+      Executor pipelineExecutor,
+      CasWorkerIds workerIds) {
+    this.jedis = jedis;
+    this.workerIds = workerIds;
+    idMap = new JedisCasWorkerMap(jedis, name, keyExpiration_s, pipelineExecutor);
+  }
+
+  @Override
+  public void adjust(Digest blobDigest, Set<String> addWorkers, Set<String> removeWorkers) {
+    idMap.adjust(blobDigest, assignIds(addWorkers), knownIds(removeWorkers));
+  }
+
+  @Override
+  public void add(Digest blobDigest, String workerName) {
+    idMap.add(blobDigest, String.valueOf(workerIds.assign(jedis, workerName)));
+  }
+
+  @Override
+  public void addAll(Iterable<Digest> blobDigests, String workerName) {
+    idMap.addAll(blobDigests, String.valueOf(workerIds.assign(jedis, workerName)));
+  }
+
+  @Override
+  public void remove(Digest blobDigest, String workerName) {
+    Integer id = workerIds.get(jedis, workerName);
+    if (id != null) {
+      idMap.remove(blobDigest, String.valueOf(id));
+    }
+  }
+
+  @Override
+  public void removeAll(Iterable<Digest> blobDigests, String workerName) {
+    Integer id = workerIds.get(jedis, workerName);
+    if (id != null) {
+      idMap.removeAll(blobDigests, String.valueOf(id));
+    }
+  }
+
+  @Override
+  public String getAny(Digest blobDigest) {
+    String id = idMap.getAny(blobDigest);
+    if (id == null) {
+      return null;
+    }
+    String workerName = endpoints(ImmutableSet.of(id)).get(Integer.parseInt(id));
+    if (workerName == null) {
+      // the sampled id may not have been translatable, choose among the rest
+      return get(blobDigest).stream().findAny().orElse(null);
+    }
+    return workerName;
+  }
+
+  @Override
+  public Set<String> get(Digest blobDigest) {
+    Set<String> ids = idMap.get(blobDigest);
+    return translate(ids, endpoints(ids));
+  }
+
+  @Override
+  public long insertTime(Digest blobDigest) {
+    return idMap.insertTime(blobDigest);
+  }
+
+  @Override
+  public Map<Digest, Set<String>> getMap(Iterable<Digest> blobDigests) {
+    Map<Digest, Set<String>> blobDigestsIds = idMap.getMap(blobDigests);
+    Map<Integer, String> endpoints = endpoints(concat(blobDigestsIds.values()));
+    ImmutableMap.Builder<Digest, Set<String>> blobDigestsWorkers = ImmutableMap.builder();
+    for (Map.Entry<Digest, Set<String>> entry : blobDigestsIds.entrySet()) {
+      Set<String> workers = translate(entry.getValue(), endpoints);
+      if (!workers.isEmpty()) {
+        blobDigestsWorkers.put(entry.getKey(), workers);
+      }
+    }
+    return blobDigestsWorkers.build();
+  }
+
+  @Override
+  public Map<Digest, BlobLocations> getLocationsMap(Iterable<Digest> blobDigests) {
+    Map<Digest, BlobLocations> blobIdLocations = idMap.getLocationsMap(blobDigests);
+    Map<Integer, String> endpoints =
+        endpoints(concat(blobIdLocations.values().stream().map(BlobLocations::workers).toList()));
+    ImmutableMap.Builder<Digest, BlobLocations> blobLocations = ImmutableMap.builder();
+    for (Map.Entry<Digest, BlobLocations> entry : blobIdLocations.entrySet()) {
+      Set<String> workers = translate(entry.getValue().workers(), endpoints);
+      if (!workers.isEmpty()) {
+        blobLocations.put(
+            entry.getKey(), new BlobLocations(workers, entry.getValue().insertTime()));
+      }
+    }
+    return blobLocations.build();
+  }
+
+  @Override
+  public int size() {
+    return idMap.size();
+  }
+
+  @Override
+  public void setExpire(Iterable<Digest> blobDigests) {
+    idMap.setExpire(blobDigests);
+  }
+
+  private Set<String> assignIds(Collection<String> workerNames) {
+    ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+    for (String workerName : workerNames) {
+      ids.add(String.valueOf(workerIds.assign(jedis, workerName)));
+    }
+    return ids.build();
+  }
+
+  private Set<String> knownIds(Collection<String> workerNames) {
+    ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+    for (String workerName : workerNames) {
+      Integer id = workerIds.get(jedis, workerName);
+      if (id != null) {
+        ids.add(String.valueOf(id));
+      }
+    }
+    return ids.build();
+  }
+
+  private Map<Integer, String> endpoints(Iterable<String> ids) {
+    ImmutableSet.Builder<Integer> parsedIds = ImmutableSet.builder();
+    for (String id : ids) {
+      parsedIds.add(Integer.parseInt(id));
+    }
+    return workerIds.endpoints(jedis, parsedIds.build());
+  }
+
+  // ids without a known endpoint are omitted
+  private static Set<String> translate(Set<String> ids, Map<Integer, String> endpoints) {
+    ImmutableSet.Builder<String> workers = ImmutableSet.builder();
+    for (String id : ids) {
+      String workerName = endpoints.get(Integer.parseInt(id));
+      if (workerName != null) {
+        workers.add(workerName);
+      }
+    }
+    return workers.build();
+  }
+}
@@ -16,6 +16,7 @@ package build.buildfarm.instance.shard;
 
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.transform;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -27,21 +28,25 @@ import build.bazel.remote.execution.v2.Platform;
 import build.bazel.remote.execution.v2.RequestMetadata;
 import build.bazel.remote.execution.v2.ToolDetails;
 import build.buildfarm.backplane.Backplane;
+import build.buildfarm.backplane.Backplane.BlobLocations;
 import build.buildfarm.common.BuildfarmExecutors;
 import build.buildfarm.common.CasIndexResults;
 import build.buildfarm.common.CasIndexSettings;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.DigestUtil.ActionKey;
+import build.buildfarm.common.DirectorySketch;
 import build.buildfarm.common.Time;
 import build.buildfarm.common.Visitor;
 import build.buildfarm.common.Watcher;
 import build.buildfarm.common.WorkerIndexer;
+import build.buildfarm.common.config.Backplane.CAS_WORKER_ENCODING;
 import build.buildfarm.common.config.BuildfarmConfigs;
 import build.buildfarm.common.function.InterruptingRunnable;
 import build.buildfarm.common.redis.BalancedRedisQueue.BalancedQueueEntry;
 import build.buildfarm.common.redis.Codec;
 import build.buildfarm.common.redis.RedisClient;
 import build.buildfarm.common.redis.Unified;
+import build.buildfarm.instance.shard.ExecutionQueue.Affinity;
 import build.buildfarm.instance.shard.ExecutionQueue.ExecutionQueueEntry;
 import build.buildfarm.instance.shard.RedisShardSubscriber.TimedWatchFuture;
 import build.buildfarm.v1test.BackplaneStatus;
@@ -83,10 +88,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -113,6 +120,7 @@ public class RedisShardBackplane implements Backplane {
   private final Codec codec;
 
   private @Nullable InterruptingRunnable onUnsubscribe = null;
+  private @Nullable Consumer<String> onActionResultInvalidated = null;
   private Thread subscriptionThread = null;
   private Thread failsafeOperationThread = null;
   private RedisShardSubscriber subscriber = null;
@@ -122,6 +130,9 @@ public class RedisShardBackplane implements Backplane {
   private ExecutorService pipelineExecutor = null;
   private @Nullable RedisClient client = null;
 
+  private final CasWorkerIds casWorkerIds =
+      new CasWorkerIds(configs.getBackplane().getWorkerIdsName());
+
   private Deadline storageWorkersDeadline = null;
   private final Map<String, ShardWorker> storageWorkers = new ConcurrentHashMap<>();
   private final Supplier<Set<String>> recentExecuteWorkers;
@@ -176,6 +187,11 @@ public class RedisShardBackplane implements Backplane {
     this.onUnsubscribe = onUnsubscribe;
   }
 
+  @Override
+  public void setOnActionResultInvalidated(Consumer<String> onActionResultInvalidated) {
+    this.onActionResultInvalidated = onActionResultInvalidated;
+  }
+
   private void scanProcessing(UnifiedJedis jedis, Consumer<String> onOperationName, Instant now) {
     state.prequeue.visitDequeue(
         jedis,
@@ -418,6 +434,8 @@ public class RedisShardBackplane implements Backplane {
             WorkerType.STORAGE.getNumber(),
             configs.getBackplane().getWorkerChannel(),
             onWorkerRemoved,
+            configs.getBackplane().getActionCacheChannel(),
+            onActionResultInvalidated,
             subscriberService,
             codec);
 
@@ -607,6 +625,9 @@ public class RedisShardBackplane implements Backplane {
     }
     if ((type & WorkerType.STORAGE.getNumber()) == WorkerType.STORAGE.getNumber()) {
       result = state.storageWorkers.insert(jedis, shardWorker.getEndpoint(), shardWorker) && result;
+      if (configs.getBackplane().getCasWorkerEncoding() != CAS_WORKER_ENCODING.ENDPOINT) {
+        casWorkerIds.assign(jedis, shardWorker.getEndpoint());
+      }
     }
     return result;
   }
@@ -640,8 +661,14 @@ public class RedisShardBackplane implements Backplane {
   public CasIndexResults reindexCas() throws IOException {
     CasIndexSettings settings = new CasIndexSettings();
     settings.casQuery = configs.getBackplane().getCasPrefix() + ":*";
+    // entries written under any encoding are reindexed
+    settings.casWorkerIdQuery = configs.getBackplane().getCasWorkerIdPrefix() + ":*";
     settings.scanAmount = 10000;
-    return client.call(jedis -> WorkerIndexer.removeWorkerIndexesFromCas(jedis, settings));
+    return client.call(
+        jedis -> {
+          settings.workerIds = workers -> casWorkerIds.ids(jedis, workers);
+          return WorkerIndexer.removeWorkerIndexesFromCas(jedis, settings);
+        });
   }
 
   private static String tokenFromRedisCursor(String cursor) {
@@ -733,8 +760,28 @@ public class RedisShardBackplane implements Backplane {
   }
 
   private CasWorkerMap createCasWorkerMap(UnifiedJedis jedis) {
-    return new JedisCasWorkerMap(
-        jedis, configs.getBackplane().getCasPrefix(), configs.getBackplane().getCasExpire());
+    Executor executor = pipelineExecutor == null ? directExecutor() : pipelineExecutor;
+    CasWorkerMap endpointMap =
+        new JedisCasWorkerMap(
+            jedis,
+            configs.getBackplane().getCasPrefix(),
+            configs.getBackplane().getCasExpire(),
+            executor);
+    return switch (configs.getBackplane().getCasWorkerEncoding()) {
+      case ENDPOINT -> endpointMap;
+      case WORKER_ID -> createCompactCasWorkerMap(jedis, executor);
+      case WORKER_ID_DUAL_READ ->
+          new DualReadCasWorkerMap(createCompactCasWorkerMap(jedis, executor), endpointMap);
+    };
+  }
+
+  private CasWorkerMap createCompactCasWorkerMap(UnifiedJedis jedis, Executor executor) {
+    return new JedisCompactCasWorkerMap(
+        jedis,
+        configs.getBackplane().getCasWorkerIdPrefix(),
+        configs.getBackplane().getCasExpire(),
+        executor,
+        casWorkerIds);
   }
 
   @Override
@@ -829,12 +876,18 @@ public class RedisShardBackplane implements Backplane {
   public void putActionResult(ActionKey actionKey, ActionResult actionResult) throws IOException {
     // give all maps StringTranslators for their types?
     client.run(
-        jedis ->
-            state.actionCache.insert(
-                jedis,
-                actionKey.toString(),
-                actionResult,
-                configs.getBackplane().getActionCacheExpire()));
+        jedis -> {
+          state.actionCache.insert(
+              jedis,
+              actionKey.toString(),
+              actionResult,
+              configs.getBackplane().getActionCacheExpire());
+          publishActionResultInvalidation(jedis, actionKey.toString());
+        });
+  }
+
+  private void publishActionResultInvalidation(UnifiedJedis jedis, String name) {
+    jedis.publish(configs.getBackplane().getActionCacheChannel(), name);
   }
 
   private void removeActionResult(UnifiedJedis jedis, ActionKey actionKey) {
@@ -844,7 +897,11 @@ public class RedisShardBackplane implements Backplane {
   @SuppressWarnings("ConstantConditions")
   @Override
   public void removeActionResult(ActionKey actionKey) throws IOException {
-    client.run(jedis -> removeActionResult(jedis, actionKey));
+    client.run(
+        jedis -> {
+          removeActionResult(jedis, actionKey);
+          publishActionResultInvalidation(jedis, actionKey.toString());
+        });
   }
 
   @SuppressWarnings("ConstantConditions")
@@ -854,7 +911,19 @@ public class RedisShardBackplane implements Backplane {
     List<String> keyNames = new ArrayList<>();
     actionKeys.forEach(key -> keyNames.add(key.toString()));
 
-    client.run(jedis -> state.actionCache.remove(jedis, keyNames));
+    client.run(
+        jedis -> {
+          state.actionCache.remove(jedis, keyNames);
+          for (String keyName : keyNames) {
+            publishActionResultInvalidation(jedis, keyName);
+          }
+        });
+  }
+
+  @SuppressWarnings("ConstantConditions")
+  @Override
+  public void invalidateActionResult(ActionKey actionKey) throws IOException {
+    client.run(jedis -> publishActionResultInvalidation(jedis, actionKey.toString()));
   }
 
   @Override
@@ -900,6 +969,12 @@ public class RedisShardBackplane implements Backplane {
     return client.call(jedis -> createCasWorkerMap(jedis).getMap(blobDigests));
   }
 
+  @Override
+  public Map<Digest, BlobLocations> getBlobDigestsLocations(Iterable<Digest> blobDigests)
+      throws IOException {
+    return client.call(jedis -> createCasWorkerMap(jedis).getLocationsMap(blobDigests));
+  }
+
   private Operation getExecution(UnifiedJedis jedis, String executionName) {
     return state.executions.get(jedis, executionName);
   }
@@ -1076,6 +1151,38 @@ public class RedisShardBackplane implements Backplane {
     return client.blockingCall(this::deprequeueOperation);
   }
 
+  private List<QueueEntry> dispatch(
+      UnifiedJedis jedis, List<ExecutionQueueEntry> executionQueueEntries) {
+    ImmutableList.Builder<QueueEntry> queueEntries = ImmutableList.builder();
+    Unified unified = (Unified) jedis;
+    // every entry's dispatch is recorded in a single round trip
+    try (AbstractPipeline pipeline = unified.pipelined(pipelineExecutor)) {
+      long requeueAt =
+          System.currentTimeMillis() + configs.getBackplane().getDispatchingTimeoutMillis();
+      for (ExecutionQueueEntry executionQueueEntry : executionQueueEntries) {
+        QueueEntry queueEntry = executionQueueEntry.balancedQueueEntry().value();
+        String executionName = queueEntry.getExecuteEntry().getOperationName();
+        Operation operation = keepaliveExecution(executionName);
+        publishReset(pipeline, operation);
+
+        DispatchedOperation o =
+            DispatchedOperation.newBuilder()
+                .setQueueEntry(queueEntry)
+                .setRequeueAt(requeueAt)
+                .build();
+        state.dispatchedExecutions.insertIfMissing(pipeline, executionName, o);
+        state.executionQueue.removeFromDequeue(pipeline, executionQueueEntry);
+        state.dispatchingExecutions.remove(pipeline, executionName);
+
+        // Return entries so that if they need re-queued, they will have the correct "requeue
+        // attempts".
+        queueEntries.add(
+            queueEntry.toBuilder().setRequeueAttempts(queueEntry.getRequeueAttempts() + 1).build());
+      }
+    }
+    return queueEntries.build();
+  }
+
   private @Nullable QueueEntry dispatchOperation(
       UnifiedJedis jedis, List<Platform.Property> provisions, LocalResourceSet resourceSet)
       throws InterruptedException {
@@ -1084,28 +1191,23 @@ public class RedisShardBackplane implements Backplane {
     if (executionQueueEntry == null) {
       return null;
     }
+    return dispatch(jedis, ImmutableList.of(executionQueueEntry)).getFirst();
+  }
 
-    QueueEntry queueEntry = executionQueueEntry.balancedQueueEntry().value();
-    String executionName = queueEntry.getExecuteEntry().getOperationName();
-    Operation operation = keepaliveExecution(executionName);
-    Unified unified = (Unified) jedis;
-    try (AbstractPipeline pipeline = unified.pipelined(pipelineExecutor)) {
-      publishReset(pipeline, operation);
-
-      long requeueAt =
-          System.currentTimeMillis() + configs.getBackplane().getDispatchingTimeoutMillis();
-      DispatchedOperation o =
-          DispatchedOperation.newBuilder()
-              .setQueueEntry(queueEntry)
-              .setRequeueAt(requeueAt)
-              .build();
-      state.dispatchedExecutions.insertIfMissing(pipeline, executionName, o);
-      state.executionQueue.removeFromDequeue(pipeline, executionQueueEntry);
-      state.dispatchingExecutions.remove(pipeline, executionName);
+  private List<QueueEntry> dispatchOperations(
+      UnifiedJedis jedis,
+      List<Platform.Property> provisions,
+      LocalResourceSet resourceSet,
+      int maxEntries,
+      @Nullable Affinity affinity)
+      throws InterruptedException {
+    List<ExecutionQueueEntry> executionQueueEntries =
+        state.executionQueue.dequeue(
+            jedis, provisions, resourceSet, dequeueService, maxEntries, affinity);
+    if (executionQueueEntries.isEmpty()) {
+      return ImmutableList.of();
     }
-
-    // Return an entry so that if it needs re-queued, it will have the correct "requeue attempts".
-    return queueEntry.toBuilder().setRequeueAttempts(queueEntry.getRequeueAttempts() + 1).build();
+    return dispatch(jedis, executionQueueEntries);
   }
 
   @SuppressWarnings("ConstantConditions")
@@ -1116,6 +1218,25 @@ public class RedisShardBackplane implements Backplane {
     return client.blockingCall(jedis -> dispatchOperation(jedis, provisions, resourceSet));
   }
 
+  @SuppressWarnings("ConstantConditions")
+  @Override
+  public List<QueueEntry> dispatchOperations(
+      List<Platform.Property> provisions,
+      LocalResourceSet resourceSet,
+      int maxEntries,
+      @Nullable DirectorySketch directories)
+      throws IOException, InterruptedException {
+    Affinity affinity =
+        directories == null
+            ? null
+            : new Affinity(
+                directories,
+                configs.getBackplane().getAffinityScanDepth(),
+                configs.getBackplane().getAffinityMaxWaitMillis());
+    return client.blockingCall(
+        jedis -> dispatchOperations(jedis, provisions, resourceSet, maxEntries, affinity));
+  }
+
   @SuppressWarnings("ConstantConditions")
   @Override
   public void rejectOperation(QueueEntry queueEntry) throws IOException {
@@ -1149,6 +1270,24 @@ public class RedisShardBackplane implements Backplane {
     return client.call(jedis -> pollExecution(jedis, executionName, o));
   }
 
+  @SuppressWarnings("ConstantConditions")
+  @Override
+  public Set<String> pollExecutions(Iterable<QueueEntry> queueEntries, long requeueAt)
+      throws IOException {
+    Map<String, DispatchedOperation> dispatchedOperations = new LinkedHashMap<>();
+    for (QueueEntry queueEntry : queueEntries) {
+      dispatchedOperations.put(
+          queueEntry.getExecuteEntry().getOperationName(),
+          DispatchedOperation.newBuilder()
+              .setQueueEntry(queueEntry)
+              .setRequeueAt(requeueAt)
+              .build());
+    }
+    // the dispatched executions are a single hash, so all leases are renewed by one script
+    return client.call(
+        jedis -> state.dispatchedExecutions.updateExisting(jedis, dispatchedOperations));
+  }
+
   boolean pollExecution(
       UnifiedJedis jedis, String executionName, DispatchedOperation dispatchedOperation) {
     if (state.dispatchedExecutions.exists(jedis, executionName)) {
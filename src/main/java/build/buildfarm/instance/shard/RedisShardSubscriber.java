@@ -67,6 +67,8 @@ class RedisShardSubscriber extends JedisPubSub {
   private final int workerChangeTypeMask;
   private final String workerChannel;
   private final Consumer<String> onWorkerRemoved;
+  private final String actionCacheChannel;
+  private final @Nullable Consumer<String> onActionResultInvalidated;
   private final Executor executor;
   private final Codec codec;
   private SettableFuture<Void> subscribeFuture = null;
@@ -79,11 +81,35 @@ class RedisShardSubscriber extends JedisPubSub {
       Consumer<String> onWorkerRemoved,
       Executor executor,
       Codec codec) {
+    this(
+        watchers,
+        workers,
+        workerChangeTypeMask,
+        workerChannel,
+        onWorkerRemoved,
+        /* actionCacheChannel= */ null,
+        /* onActionResultInvalidated= */ null,
+        executor,
+        codec);
+  }
+
+  RedisShardSubscriber(
+      ListMultimap<String, TimedWatchFuture> watchers,
+      Map<String, ShardWorker> workers,
+      int workerChangeTypeMask,
+      String workerChannel,
+      Consumer<String> onWorkerRemoved,
+      String actionCacheChannel,
+      @Nullable Consumer<String> onActionResultInvalidated,
+      Executor executor,
+      Codec codec) {
     this.watchers = watchers;
     this.workers = workers;
     this.workerChangeTypeMask = workerChangeTypeMask;
     this.workerChannel = workerChannel;
     this.onWorkerRemoved = onWorkerRemoved;
+    this.actionCacheChannel = actionCacheChannel;
+    this.onActionResultInvalidated = onActionResultInvalidated;
     this.executor = executor;
     this.codec = codec;
   }
@@ -99,7 +125,11 @@ class RedisShardSubscriber extends JedisPubSub {
     synchronized (watchers) {
       channels.addAll(watchers.keySet());
     }
-    return channels.add(workerChannel).build();
+    channels.add(workerChannel);
+    if (onActionResultInvalidated != null) {
+      channels.add(actionCacheChannel);
+    }
+    return channels.build();
   }
 
   public List<String> expiredWatchedOperationChannels(Instant now) {
@@ -212,6 +242,9 @@ class RedisShardSubscriber extends JedisPubSub {
   public void onMessage(String channel, String message) {
     if (channel.equals(workerChannel)) {
       onWorkerChange(codec.workerChange().parse(message).value());
+    } else if (onActionResultInvalidated != null && channel.equals(actionCacheChannel)) {
+      // messages are action result names
+      onActionResultInvalidated.accept(message);
     } else {
       onOperationMessage(channel, message);
     }
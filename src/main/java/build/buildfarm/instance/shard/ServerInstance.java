@@ -87,12 +87,14 @@ import build.buildfarm.common.TreeIterator.DirectoryEntry;
 import build.buildfarm.common.Watcher;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.config.ServerCacheConfigs;
 import build.buildfarm.common.function.CountingConsumer;
 import build.buildfarm.common.grpc.UniformDelegateServerCallStreamObserver;
 import build.buildfarm.common.redis.RedisHashtags;
 import build.buildfarm.instance.Instance;
 import build.buildfarm.instance.server.Filter;
 import build.buildfarm.instance.server.NodeInstance;
+import build.buildfarm.instance.server.ValidatedDirectories;
 import build.buildfarm.instance.shard.codec.ShardCodec;
 import build.buildfarm.instance.stub.StubInstance;
 import build.buildfarm.v1test.BackplaneStatus;
@@ -101,6 +103,7 @@ import build.buildfarm.v1test.DispatchedOperation;
 import build.buildfarm.v1test.ExecuteEntry;
 import build.buildfarm.v1test.GetClientStartTimeRequest;
 import build.buildfarm.v1test.GetClientStartTimeResult;
+import build.buildfarm.v1test.InputSubtree;
 import build.buildfarm.v1test.ProfiledQueuedOperationMetadata;
 import build.buildfarm.v1test.QueueEntry;
 import build.buildfarm.v1test.QueueStatus;
@@ -167,6 +170,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -174,6 +178,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -207,6 +212,12 @@ public class ServerInstance extends NodeInstance {
           .register();
   private static final Counter casMissCounter =
       Counter.build().name("cas_miss").help("Number of CAS misses from worker-worker.").register();
+  private static final Counter directoryCacheLookups =
+      Counter.build()
+          .name("directory_cache_lookups")
+          .labelNames("result")
+          .help("Directory cache lookups.")
+          .register();
   private static final Counter requeueFailureCounter =
       Counter.build()
           .name("requeue_failure")
@@ -261,6 +272,8 @@ public class ServerInstance extends NodeInstance {
   private final Thread dispatchedMonitor;
   private final Duration maxActionTimeout;
   private AsyncCache<build.buildfarm.v1test.Digest, Directory> directoryCache;
+  private SubtreeCache subtreeCache;
+  private @Nullable ValidatedDirectories validatedDirectories;
   private AsyncCache<build.buildfarm.v1test.Digest, Command> commandCache;
   private AsyncCache<build.buildfarm.v1test.Digest, Action> digestToActionCache;
   private Cache<RequestMetadata, Boolean> recentCacheServedExecutions;
@@ -302,7 +315,7 @@ public class ServerInstance extends NodeInstance {
           /* subscribeToBackplane= */ true,
           configs.getServer().isRunFailsafeOperation(),
           ServerInstance::stripExecution,
-          ShardCodec.DEFAULT_CODEC);
+          ShardCodec.create(configs.getBackplane().getValueEncoding()));
     } else {
       throw new IllegalArgumentException("Shard Backplane not set in config");
     }
@@ -328,6 +341,7 @@ public class ServerInstance extends NodeInstance {
         backplane,
         new ShardActionCache(
             configs.getServer().getCaches().getActionCacheMaxEntries(),
+            configs.getServer().getCaches().getActionCacheMissExpireMillis(),
             backplane,
             actionCacheFetchService),
         configs.getServer().isRunDispatchedMonitor(),
@@ -347,10 +361,24 @@ public class ServerInstance extends NodeInstance {
   }
 
   void initializeCaches() {
-    directoryCache =
-        Caffeine.newBuilder()
-            .maximumSize(configs.getServer().getCaches().getDirectoryCacheMaxEntries())
-            .buildAsync();
+    ServerCacheConfigs caches = configs.getServer().getCaches();
+    if (caches.getDirectoryCacheMaxBytes() > 0) {
+      // weighed by the size of the encoded directory, which is known before it is fetched
+      directoryCache =
+          Caffeine.newBuilder()
+              .maximumWeight(caches.getDirectoryCacheMaxBytes())
+              .<build.buildfarm.v1test.Digest, Directory>weigher(
+                  (digest, directory) -> (int) Math.min(digest.getSize(), Integer.MAX_VALUE))
+              .buildAsync();
+    } else {
+      directoryCache =
+          Caffeine.newBuilder().maximumSize(caches.getDirectoryCacheMaxEntries()).buildAsync();
+    }
+    subtreeCache = new SubtreeCache(caches.getSubtreeCacheMaxBytes());
+    validatedDirectories =
+        caches.getValidatedDirectoryCacheMaxInputs() > 0
+            ? new ValidatedDirectories(caches.getValidatedDirectoryCacheMaxInputs())
+            : null;
     commandCache =
         Caffeine.newBuilder()
             .maximumSize(configs.getServer().getCaches().getCommandCacheMaxEntries())
@@ -735,7 +763,7 @@ public class ServerInstance extends NodeInstance {
   public void start(String publicName) throws IOException {
     stopped = false;
     try {
-      backplane.start(publicName, workerStubs::invalidate);
+      backplane.start(publicName, this::onWorkerRemoved);
     } catch (RuntimeException e) {
       try {
         stop();
@@ -943,8 +971,8 @@ public class ServerInstance extends NodeInstance {
       Set<Digest> uniqueDigests = new HashSet<>();
       nonEmptyDigests.forEach(uniqueDigests::add);
       // convert in, convert out?
-      Map<build.buildfarm.v1test.Digest, Set<String>> foundBlobs =
-          backplane.getBlobDigestsWorkers(
+      Map<build.buildfarm.v1test.Digest, Backplane.BlobLocations> foundBlobs =
+          backplane.getBlobDigestsLocations(
               Iterables.transform(uniqueDigests, d -> DigestUtil.fromDigest(d, digestFunction)));
       Set<String> workerSet =
           backplane.getStorageWorkers().stream()
@@ -955,14 +983,19 @@ public class ServerInstance extends NodeInstance {
           uniqueDigests.stream()
               .map(
                   digest -> {
-                    Set<String> initialWorkers =
-                        foundBlobs.getOrDefault(
-                            DigestUtil.fromDigest(digest, digestFunction), Collections.emptySet());
+                    build.buildfarm.v1test.Digest blobDigest =
+                        DigestUtil.fromDigest(digest, digestFunction);
+                    Backplane.BlobLocations locations = foundBlobs.get(blobDigest);
+                    if (locations == null) {
+                      return new AbstractMap.SimpleEntry<>(
+                          digest, Collections.<String>emptySet());
+                    }
                     return new AbstractMap.SimpleEntry<>(
                         digest,
                         filterAndAdjustWorkersForDigest(
-                            DigestUtil.fromDigest(digest, digestFunction),
-                            initialWorkers,
+                            blobDigest,
+                            locations.workers(),
+                            locations.insertTime(),
                             workerSet,
                             workersStartTime));
                   })
@@ -991,17 +1024,9 @@ public class ServerInstance extends NodeInstance {
   private Set<String> filterAndAdjustWorkersForDigest(
       build.buildfarm.v1test.Digest digest,
       Set<String> originalWorkerSetWithDigest,
+      long insertTime,
       Set<String> activeWorkers,
       Map<String, Long> workersStartTime) {
-    long insertTime;
-    try {
-      insertTime = backplane.getDigestInsertTime(digest);
-    } catch (IOException e) {
-      log.log(
-          Level.WARNING,
-          format("failed to get digest (%s) insertion time", DigestUtil.toString(digest)));
-      return Collections.emptySet();
-    }
     Set<String> activeWorkersWithDigest =
         Sets.intersection(originalWorkerSetWithDigest, activeWorkers);
     Set<String> workersStartedBeforeDigestInsertion =
@@ -1326,6 +1351,7 @@ public class ServerInstance extends NodeInstance {
                     format(
                         "worker list was corrected for %s to be %s",
                         DigestUtil.toString(blobDigest), foundOnWorkers.toString()));
+                onLocationsCorrected(locationSet, foundOnWorkers);
                 Iterables.addAll(workersList, foundOnWorkers);
                 return workersList;
               },
@@ -1372,6 +1398,7 @@ public class ServerInstance extends NodeInstance {
                             format(
                                 "worker list was corrected after depletion for %s to be %s",
                                 DigestUtil.toString(blobDigest), foundOnWorkers.toString()));
+                        onLocationsCorrected(locationSet, foundOnWorkers);
                         Iterables.addAll(workersList, foundOnWorkers);
                         return workersList;
                       },
@@ -1604,6 +1631,26 @@ public class ServerInstance extends NodeInstance {
       build.buildfarm.v1test.Digest inputRoot,
       ExecutorService service,
       RequestMetadata requestMetadata) {
+    int treeFetchConcurrency = configs.getServer().getTreeFetchConcurrency();
+    ListenableFuture<Tree> tree =
+        treeFetchConcurrency > 0
+            ? getTreeWavefrontFuture(
+                reason, inputRoot, treeFetchConcurrency, service, requestMetadata)
+            : getTreeSerialFuture(reason, inputRoot, service, requestMetadata);
+    return transform(
+        tree,
+        result -> {
+          subtreeCache.put(result);
+          return result;
+        },
+        service);
+  }
+
+  private ListenableFuture<Tree> getTreeSerialFuture(
+      String reason,
+      build.buildfarm.v1test.Digest inputRoot,
+      ExecutorService service,
+      RequestMetadata requestMetadata) {
     SettableFuture<Void> future = SettableFuture.create();
     Tree.Builder tree = Tree.newBuilder().setRootDigest(inputRoot);
     Set<Digest> digests = Sets.newConcurrentHashSet();
@@ -1623,19 +1670,35 @@ public class ServerInstance extends NodeInstance {
             }
           }
 
+          private void onSubtree(Map<String, Directory> subtree) {
+            tree.putAllDirectories(subtree);
+            for (Directory directory : subtree.values()) {
+              for (DirectoryNode childNode : directory.getDirectoriesList()) {
+                digests.add(childNode.getDigest());
+              }
+            }
+          }
+
           @Override
           boolean next() {
-            Digest nextDigest = remaining.poll();
-            if (!future.isDone() && nextDigest != null) {
+            for (Digest nextDigest = remaining.poll();
+                !future.isDone() && nextDigest != null;
+                nextDigest = remaining.poll()) {
+              build.buildfarm.v1test.Digest nextBlobDigest =
+                  DigestUtil.fromDigest(nextDigest, inputRoot.getDigestFunction());
+              // cached subtrees are added without fetching their directories
+              Map<String, Directory> subtree = subtreeCache.get(nextBlobDigest);
+              if (subtree != null) {
+                onSubtree(subtree);
+                continue;
+              }
+              Digest fetchDigest = nextDigest;
               ctx.run(
                   () ->
                       addCallback(
                           transform(
-                              expectDirectory(
-                                  reason,
-                                  DigestUtil.fromDigest(nextDigest, inputRoot.getDigestFunction()),
-                                  requestMetadata),
-                              directory -> new DirectoryEntry(nextDigest, directory),
+                              expectDirectory(reason, nextBlobDigest, requestMetadata),
+                              directory -> new DirectoryEntry(fetchDigest, directory),
                               service),
                           this,
                           service));
@@ -1644,10 +1707,145 @@ public class ServerInstance extends NodeInstance {
             return false;
           }
         };
-    callback.next();
+    // a cached root completes the tree without any fetch
+    if (!callback.next()) {
+      future.set(null);
+    }
     return transform(future, (result) -> tree.build(), service);
   }
 
+  private ListenableFuture<Tree> getTreeWavefrontFuture(
+      String reason,
+      build.buildfarm.v1test.Digest inputRoot,
+      int concurrency,
+      ExecutorService service,
+      RequestMetadata requestMetadata) {
+    DigestFunction.Value digestFunction = inputRoot.getDigestFunction();
+    Executor contextExecutor = Context.current().fixedContextExecutor(service);
+    WavefrontTreeFetcher fetcher =
+        new WavefrontTreeFetcher(
+            new WavefrontTreeFetcher.DirectoryFetcher() {
+              @Override
+              public ListenableFuture<Map<Digest, Directory>> getDirectories(
+                  List<Digest> digests) {
+                return batchGetDirectories(digests, digestFunction, contextExecutor);
+              }
+
+              @Override
+              public ListenableFuture<Directory> getDirectory(Digest digest) {
+                return expectDirectory(
+                    reason, DigestUtil.fromDigest(digest, digestFunction), requestMetadata);
+              }
+
+              @Override
+              public Map<String, Directory> getSubtree(Digest digest) {
+                return subtreeCache.get(DigestUtil.fromDigest(digest, digestFunction));
+              }
+            },
+            concurrency,
+            configs.getServer().getTreeFetchBatchSize(),
+            contextExecutor);
+    return fetcher.fetch(reason, inputRoot);
+  }
+
+  /**
+   * Reads directories with a BatchReadBlobs request to each worker that holds them, grouping the
+   * directories by a worker chosen from their locations. Directories which are cached are not
+   * read, and directories which could not be read or do not match their digests are left out of
+   * the result.
+   */
+  private ListenableFuture<Map<Digest, Directory>> batchGetDirectories(
+      List<Digest> digests, DigestFunction.Value digestFunction, Executor executor) {
+    Map<Digest, Directory> directories = new ConcurrentHashMap<>();
+    List<build.buildfarm.v1test.Digest> uncached = new ArrayList<>();
+    for (Digest digest : digests) {
+      build.buildfarm.v1test.Digest blobDigest = DigestUtil.fromDigest(digest, digestFunction);
+      CompletableFuture<Directory> cached = directoryCache.getIfPresent(blobDigest);
+      Directory directory =
+          cached != null && cached.isDone() && !cached.isCompletedExceptionally()
+              ? cached.join()
+              : null;
+      if (directory != null) {
+        directories.put(digest, directory);
+      } else {
+        uncached.add(blobDigest);
+      }
+    }
+    directoryCacheLookups.labels("hit").inc(directories.size());
+    directoryCacheLookups.labels("miss").inc(uncached.size());
+    if (uncached.isEmpty()) {
+      return immediateFuture(directories);
+    }
+    DigestUtil digestUtil = new DigestUtil(HashFunction.get(digestFunction));
+    return Futures.submitAsync(
+        () -> {
+          Set<String> workers =
+              backplane.getStorageWorkers().stream()
+                  .map(w -> w.getEndpoint())
+                  .collect(Collectors.toSet());
+          Map<String, List<Digest>> workerDigests = new HashMap<>();
+          for (Map.Entry<build.buildfarm.v1test.Digest, Set<String>> entry :
+              backplane.getBlobDigestsWorkers(uncached).entrySet()) {
+            List<String> locations = new ArrayList<>(Sets.intersection(entry.getValue(), workers));
+            if (!locations.isEmpty()) {
+              String worker = locations.get(rand.nextInt(locations.size()));
+              workerDigests
+                  .computeIfAbsent(worker, w -> new ArrayList<>())
+                  .add(DigestUtil.toDigest(entry.getKey()));
+            }
+          }
+          List<ListenableFuture<List<Response>>> reads = new ArrayList<>();
+          for (Map.Entry<String, List<Digest>> entry : workerDigests.entrySet()) {
+            String worker = entry.getKey();
+            reads.add(
+                catching(
+                    workerStub(worker).getAllBlobsFuture(entry.getValue(), digestFunction),
+                    Exception.class,
+                    e -> {
+                      log.log(
+                          Level.WARNING,
+                          format(
+                              "error reading %d directories from %s",
+                              entry.getValue().size(), worker),
+                          e);
+                      return ImmutableList.of();
+                    },
+                    executor));
+          }
+          return transform(
+              allAsList(reads),
+              workerResponses -> {
+                for (List<Response> responses : workerResponses) {
+                  for (Response response : responses) {
+                    if (response.getStatus().getCode() != Code.OK.value()) {
+                      continue;
+                    }
+                    build.buildfarm.v1test.Digest blobDigest =
+                        DigestUtil.fromDigest(response.getDigest(), digestFunction);
+                    if (!digestUtil.compute(response.getData()).equals(blobDigest)) {
+                      log.log(
+                          Level.WARNING,
+                          format(
+                              "directory %s read in batch did not match its digest",
+                              DigestUtil.toString(blobDigest)));
+                      continue;
+                    }
+                    try {
+                      Directory directory = Directory.parseFrom(response.getData());
+                      directories.put(response.getDigest(), directory);
+                      directoryCache.put(blobDigest, CompletableFuture.completedFuture(directory));
+                    } catch (InvalidProtocolBufferException e) {
+                      // left out, to be fetched individually
+                    }
+                  }
+                }
+                return directories;
+              },
+              executor);
+        },
+        executor);
+  }
+
   private static <V> ListenableFuture<V> notFoundNull(ListenableFuture<V> value) {
     return catchingAsync(
         value,
@@ -1670,6 +1868,7 @@ public class ServerInstance extends NodeInstance {
       return immediateFuture(Directory.getDefaultInstance());
     }
 
+    AtomicBoolean missed = new AtomicBoolean(false);
     BiFunction<build.buildfarm.v1test.Digest, Executor, CompletableFuture<Directory>> getCallback =
         (digest, executor) -> {
           log.log(
@@ -1677,6 +1876,7 @@ public class ServerInstance extends NodeInstance {
               format(
                   "transformQueuedOperation(%s): fetching directory %s",
                   reason, DigestUtil.toString(directoryBlobDigest)));
+          missed.set(true);
 
           Supplier<ListenableFuture<Directory>> fetcher =
               () ->
@@ -1685,7 +1885,9 @@ public class ServerInstance extends NodeInstance {
           return toCompletableFuture(fetcher.get());
         };
 
-    return toListenableFuture(directoryCache.get(directoryBlobDigest, getCallback));
+    CompletableFuture<Directory> directory = directoryCache.get(directoryBlobDigest, getCallback);
+    directoryCacheLookups.labels(missed.get() ? "miss" : "hit").inc();
+    return toListenableFuture(directory);
   }
 
   @Override
@@ -1751,7 +1953,20 @@ public class ServerInstance extends NodeInstance {
       throw Status.fromThrowable(e).asRuntimeException();
     }
 
+    onWorkerRemoved(worker);
+  }
+
+  private void onLocationsCorrected(Set<String> locationSet, Set<String> foundOnWorkers) {
+    // a misread location is routine, but a blob held by none of its locations has expired
+    if (!locationSet.isEmpty() && foundOnWorkers.isEmpty()) {
+      invalidateOutputPresence();
+    }
+  }
+
+  private void onWorkerRemoved(String worker) {
     workerStubs.invalidate(worker);
+    // the outputs of remembered results may only have been held by the removed worker
+    invalidateOutputPresence();
   }
 
   @Override
@@ -1856,6 +2071,12 @@ public class ServerInstance extends NodeInstance {
     return queuedOperation.getCommand().getPlatform();
   }
 
+  // workers with a directory affinity prefer the executions whose heaviest subtrees they hold
+  private static List<InputSubtree> heaviestSubtrees(QueuedOperation queuedOperation) {
+    return InputSubtrees.heaviest(
+        queuedOperation.getTree(), configs.getBackplane().getAffinitySubtrees());
+  }
+
   private ListenableFuture<QueuedOperationResult> uploadQueuedOperation(
       DigestUtil digestUtil,
       QueuedOperation queuedOperation,
@@ -1876,6 +2097,7 @@ public class ServerInstance extends NodeInstance {
             .setExecuteEntry(executeEntry)
             .setQueuedOperationDigest(queuedOperationDigest)
             .setPlatform(queuedOperationPlatform(queuedOperation))
+            .addAllHeaviestSubtrees(heaviestSubtrees(queuedOperation))
             .build();
     return transform(
         retryWriteBlobFuture(
@@ -2029,6 +2251,11 @@ public class ServerInstance extends NodeInstance {
     }
   }
 
+  @Override
+  protected @Nullable ValidatedDirectories getValidatedDirectories() {
+    return validatedDirectories;
+  }
+
   private boolean hasMaxActionTimeout() {
     return Durations.isPositive(maxActionTimeout);
   }
@@ -2881,6 +3108,8 @@ public class ServerInstance extends NodeInstance {
                     .setQueuedOperationDigest(queuedOperationMetadata.getQueuedOperationDigest())
                     .setPlatform(
                         queuedOperationPlatform(profiledQueuedMetadata.getQueuedOperation()))
+                    .addAllHeaviestSubtrees(
+                        heaviestSubtrees(profiledQueuedMetadata.getQueuedOperation()))
                     .build();
             try {
               ensureCanQueue(stopwatch);
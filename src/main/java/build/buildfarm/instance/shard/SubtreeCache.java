@@ -0,0 +1,151 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.DigestFunction;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.v1test.Tree;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableMap;
+import io.prometheus.client.Counter;
+import java.util.HashMap;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Caches the assembled directories of input subtrees, so that a subtree shared by many actions,
+ * such as a toolchain or an external repository, is added to each action's tree at once, rather
+ * than a directory at a time.
+ *
+ * <p>Subtrees are weighed by the serialized size of their directories, and only subtrees of at
+ * least {@link #MIN_SUBTREE_DIRECTORIES} directories are cached. Subtrees with missing directories
+ * are never cached. A cache with no capacity is disabled.
+ */
+class SubtreeCache {
+  // smaller subtrees are cheap enough to assemble from the directory cache
+  static final int MIN_SUBTREE_DIRECTORIES = 8;
+
+  private static final Counter lookups =
+      Counter.build()
+          .name("subtree_cache_lookups")
+          .labelNames("result")
+          .help("Input subtree cache lookups.")
+          .register();
+
+  private final @Nullable Cache<build.buildfarm.v1test.Digest, Map<String, Directory>> subtrees;
+
+  SubtreeCache(long maxBytes) {
+    if (maxBytes > 0) {
+      subtrees =
+          Caffeine.newBuilder()
+              .maximumWeight(maxBytes)
+              .<build.buildfarm.v1test.Digest, Map<String, Directory>>weigher(
+                  (digest, subtree) -> weigh(subtree))
+              .build();
+    } else {
+      subtrees = null;
+    }
+  }
+
+  private static int weigh(Map<String, Directory> subtree) {
+    long size = 0;
+    for (Directory directory : subtree.values()) {
+      size += directory.getSerializedSize();
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  /** Returns the directories of the subtree, keyed by hash, or null if it is not cached. */
+  @Nullable
+  Map<String, Directory> get(build.buildfarm.v1test.Digest digest) {
+    if (subtrees == null) {
+      return null;
+    }
+    Map<String, Directory> subtree = subtrees.getIfPresent(digest);
+    lookups.labels(subtree == null ? "miss" : "hit").inc();
+    return subtree;
+  }
+
+  /**
+   * Caches the complete subtrees of a tree which are large enough. The root is not cached, since
+   * it is unique to its action, and would only displace shared subtrees.
+   */
+  void put(Tree tree) {
+    if (subtrees != null) {
+      Directory root = tree.getDirectoriesMap().get(tree.getRootDigest().getHash());
+      if (root != null) {
+        Assembly assembly = new Assembly(tree);
+        for (DirectoryNode childNode : root.getDirectoriesList()) {
+          assembly.subtree(childNode.getDigest());
+        }
+      }
+    }
+  }
+
+  private final class Assembly {
+    private final Map<String, Directory> directories;
+    private final DigestFunction.Value digestFunction;
+    // null for incomplete subtrees
+    private final Map<String, Map<String, Directory>> assembled = new HashMap<>();
+
+    Assembly(Tree tree) {
+      directories = tree.getDirectoriesMap();
+      digestFunction = tree.getRootDigest().getDigestFunction();
+    }
+
+    @Nullable
+    Map<String, Directory> subtree(Digest digest) {
+      String hash = digest.getHash();
+      if (assembled.containsKey(hash)) {
+        return assembled.get(hash);
+      }
+      Map<String, Directory> subtree = assemble(digest);
+      assembled.put(hash, subtree);
+      return subtree;
+    }
+
+    @Nullable
+    private Map<String, Directory> assemble(Digest digest) {
+      Directory directory = directories.get(digest.getHash());
+      if (directory == null) {
+        return null;
+      }
+      build.buildfarm.v1test.Digest key = DigestUtil.fromDigest(digest, digestFunction);
+      Map<String, Directory> cached = subtrees.getIfPresent(key);
+      if (cached != null) {
+        return cached;
+      }
+      Map<String, Directory> subtree = new HashMap<>();
+      subtree.put(digest.getHash(), directory);
+      for (DirectoryNode childNode : directory.getDirectoriesList()) {
+        Map<String, Directory> child = subtree(childNode.getDigest());
+        if (child == null) {
+          return null;
+        }
+        subtree.putAll(child);
+      }
+      if (subtree.size() < MIN_SUBTREE_DIRECTORIES) {
+        return subtree;
+      }
+      Map<String, Directory> complete = ImmutableMap.copyOf(subtree);
+      subtrees.put(key, complete);
+      return complete;
+    }
+  }
+}
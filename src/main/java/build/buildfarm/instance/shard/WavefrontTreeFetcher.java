@@ -0,0 +1,297 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.allAsList;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.Futures.transform;
+import static com.google.common.util.concurrent.Futures.transformAsync;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.v1test.Tree;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Fetches the directories of an input tree breadth first, requesting every directory in a level of
+ * the tree concurrently, rather than one directory at a time.
+ *
+ * <p>Directories are requested in batches of at most {@code batchSize} digests and {@link
+ * #MAX_BATCH_BYTES}, with at most {@code concurrency} requests in flight for a tree. Directories
+ * which are empty or too large for a batch, or which a batch did not return, are fetched
+ * individually. Directories which do not exist are left out of the tree, and cached subtrees are
+ * added to the tree without fetching their directories.
+ */
+@Log
+class WavefrontTreeFetcher {
+  // well within the default grpc message size limit
+  static final long MAX_BATCH_BYTES = 1024 * 1024;
+
+  private static final Histogram fetchTime =
+      Histogram.build()
+          .name("tree_fetch_time_ms")
+          .help("Input tree fetch time in ms.")
+          .register();
+  private static final Histogram fetchDirectories =
+      Histogram.build()
+          .name("tree_fetch_directories")
+          .exponentialBuckets(1, 4, 10)
+          .help("Directories fetched per input tree.")
+          .register();
+  private static final Counter fetchRequests =
+      Counter.build()
+          .name("tree_fetch_requests")
+          .labelNames("type")
+          .help("Directory fetch requests made for input trees.")
+          .register();
+
+  interface DirectoryFetcher {
+    /** Returns the directories read in a single batch, leaving out any which were not. */
+    ListenableFuture<Map<Digest, Directory>> getDirectories(List<Digest> digests);
+
+    /** Returns the directory, or null if it does not exist. */
+    ListenableFuture<Directory> getDirectory(Digest digest);
+
+    /** Returns the directories of a subtree keyed by hash if they are cached, or null. */
+    default Map<String, Directory> getSubtree(Digest digest) {
+      return null;
+    }
+  }
+
+  private final DirectoryFetcher fetcher;
+  private final int concurrency;
+  private final int batchSize;
+  private final Executor executor;
+
+  WavefrontTreeFetcher(
+      DirectoryFetcher fetcher, int concurrency, int batchSize, Executor executor) {
+    this.fetcher = fetcher;
+    this.concurrency = Math.max(1, concurrency);
+    this.batchSize = Math.max(1, batchSize);
+    this.executor = executor;
+  }
+
+  ListenableFuture<Tree> fetch(String reason, build.buildfarm.v1test.Digest inputRoot) {
+    return new Fetch(reason, inputRoot).start();
+  }
+
+  private final class Fetch {
+    private final String reason;
+    private final Tree.Builder tree;
+    private final Digest rootDigest;
+    // only accessed between levels
+    private final Set<Digest> seen = new HashSet<>();
+    private final SettableFuture<Tree> result = SettableFuture.create();
+    private final long startNanos = System.nanoTime();
+    private int levels = 0;
+
+    Fetch(String reason, build.buildfarm.v1test.Digest inputRoot) {
+      this.reason = reason;
+      tree = Tree.newBuilder().setRootDigest(inputRoot);
+      rootDigest = DigestUtil.toDigest(inputRoot);
+    }
+
+    ListenableFuture<Tree> start() {
+      seen.add(rootDigest);
+      fetchLevel(List.of(rootDigest));
+      return result;
+    }
+
+    private void fetchLevel(List<Digest> level) {
+      List<Digest> frontier = new ArrayList<>(level.size());
+      for (Digest digest : level) {
+        Map<String, Directory> subtree = fetcher.getSubtree(digest);
+        if (subtree == null) {
+          frontier.add(digest);
+        } else {
+          tree.putAllDirectories(subtree);
+          for (Directory directory : subtree.values()) {
+            for (DirectoryNode childNode : directory.getDirectoriesList()) {
+              seen.add(childNode.getDigest());
+            }
+          }
+        }
+      }
+      if (frontier.isEmpty()) {
+        complete();
+        return;
+      }
+      levels++;
+      addCallback(
+          fetchLimited(requests(frontier)),
+          new FutureCallback<List<Map<Digest, Directory>>>() {
+            @Override
+            public void onSuccess(List<Map<Digest, Directory>> fetched) {
+              List<Digest> next = new ArrayList<>();
+              for (Map<Digest, Directory> directories : fetched) {
+                for (Map.Entry<Digest, Directory> entry : directories.entrySet()) {
+                  Directory directory = entry.getValue();
+                  tree.putDirectories(entry.getKey().getHash(), directory);
+                  for (DirectoryNode childNode : directory.getDirectoriesList()) {
+                    if (seen.add(childNode.getDigest())) {
+                      next.add(childNode.getDigest());
+                    }
+                  }
+                }
+              }
+              fetchLevel(next);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              result.setException(t);
+            }
+          },
+          executor);
+    }
+
+    private void complete() {
+      long elapsedMicros = NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+      int directories = tree.getDirectoriesCount();
+      fetchTime.observe(elapsedMicros / 1000.0);
+      fetchDirectories.observe(directories);
+      log.log(
+          Level.FINE,
+          format(
+              "%s: fetched %d directories in %d levels in %gms",
+              reason, directories, levels, elapsedMicros / 1000.0));
+      result.set(tree.build());
+    }
+
+    /** Starts requests as others complete, so that at most concurrency are in flight. */
+    private ListenableFuture<List<Map<Digest, Directory>>> fetchLimited(
+        List<Supplier<ListenableFuture<Map<Digest, Directory>>>> requests) {
+      List<SettableFuture<Map<Digest, Directory>>> responses = new ArrayList<>(requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+        responses.add(SettableFuture.create());
+      }
+      ListenableFuture<List<Map<Digest, Directory>>> fetched = allAsList(responses);
+      AtomicInteger started = new AtomicInteger();
+      Runnable startNext =
+          new Runnable() {
+            @Override
+            public void run() {
+              int index = started.getAndIncrement();
+              if (index >= requests.size()) {
+                return;
+              }
+              SettableFuture<Map<Digest, Directory>> response = responses.get(index);
+              if (fetched.isDone()) {
+                // a failed level does not issue its remaining requests
+                response.cancel(false);
+                return;
+              }
+              try {
+                response.setFuture(requests.get(index).get());
+              } catch (RuntimeException e) {
+                response.setException(e);
+              }
+              response.addListener(this, executor);
+            }
+          };
+      for (int i = 0; i < Math.min(concurrency, requests.size()); i++) {
+        startNext.run();
+      }
+      return fetched;
+    }
+  }
+
+  private List<Supplier<ListenableFuture<Map<Digest, Directory>>>> requests(List<Digest> digests) {
+    List<Supplier<ListenableFuture<Map<Digest, Directory>>>> requests = new ArrayList<>();
+    List<Digest> batch = new ArrayList<>();
+    long batchBytes = 0;
+    for (Digest digest : digests) {
+      long size = digest.getSizeBytes();
+      if (size == 0 || size > MAX_BATCH_BYTES) {
+        requests.add(() -> getDirectory(digest));
+        continue;
+      }
+      if (batch.size() == batchSize || batchBytes + size > MAX_BATCH_BYTES) {
+        List<Digest> full = batch;
+        requests.add(() -> getDirectories(full));
+        batch = new ArrayList<>();
+        batchBytes = 0;
+      }
+      batch.add(digest);
+      batchBytes += size;
+    }
+    if (!batch.isEmpty()) {
+      List<Digest> last = batch;
+      requests.add(() -> getDirectories(last));
+    }
+    return requests;
+  }
+
+  private ListenableFuture<Map<Digest, Directory>> getDirectory(Digest digest) {
+    fetchRequests.labels("single").inc();
+    return transform(
+        fetcher.getDirectory(digest),
+        directory -> directory == null ? ImmutableMap.of() : ImmutableMap.of(digest, directory),
+        directExecutor());
+  }
+
+  private ListenableFuture<Map<Digest, Directory>> getDirectories(List<Digest> digests) {
+    if (digests.size() == 1) {
+      return getDirectory(digests.getFirst());
+    }
+    fetchRequests.labels("batch").inc();
+    return transformAsync(
+        fetcher.getDirectories(digests),
+        found -> {
+          List<ListenableFuture<Map<Digest, Directory>>> unbatched = new ArrayList<>();
+          for (Digest digest : digests) {
+            if (!found.containsKey(digest)) {
+              unbatched.add(getDirectory(digest));
+            }
+          }
+          if (unbatched.isEmpty()) {
+            return immediateFuture(found);
+          }
+          return transform(
+              allAsList(unbatched),
+              fetched -> {
+                Map<Digest, Directory> directories = new HashMap<>(found);
+                for (Map<Digest, Directory> directory : fetched) {
+                  directories.putAll(directory);
+                }
+                return directories;
+              },
+              directExecutor());
+        },
+        executor);
+  }
+}
@@ -14,15 +14,35 @@
 
 package build.buildfarm.instance.shard.codec;
 
+import build.buildfarm.common.config.Backplane.VALUE_ENCODING;
 import build.buildfarm.common.redis.Codec;
 import build.buildfarm.instance.shard.codec.b64.B64Codec;
+import build.buildfarm.instance.shard.codec.binary.BinaryCodec;
 import build.buildfarm.instance.shard.codec.failover.FailoverCodec;
 import build.buildfarm.instance.shard.codec.json.JsonCodec;
 import java.util.logging.Level;
 
 public final class ShardCodec {
+  // values are removed by their readers, which may pop binary values written by BINARY_DUAL_READ
   public static final Codec DEFAULT_CODEC =
-      FailoverCodec.create(B64Codec.create(Level.FINEST), JsonCodec.CODEC);
+      FailoverCodec.create(
+          FailoverCodec.createDualRead(
+              B64Codec.create(Level.FINEST), BinaryCodec.create(Level.FINEST)),
+          JsonCodec.CODEC);
+
+  public static final Codec BINARY_DUAL_READ_CODEC =
+      FailoverCodec.create(
+          FailoverCodec.createDualRead(
+              BinaryCodec.create(Level.FINEST), B64Codec.create(Level.FINEST)),
+          JsonCodec.CODEC);
+
+  public static Codec create(VALUE_ENCODING valueEncoding) {
+    return switch (valueEncoding) {
+      case BASE64 -> DEFAULT_CODEC;
+      case BINARY -> BinaryCodec.CODEC;
+      case BINARY_DUAL_READ -> BINARY_DUAL_READ_CODEC;
+    };
+  }
 
   private ShardCodec() {}
 }
@@ -0,0 +1,44 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard.codec.binary;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.buildfarm.common.redis.Codec;
+import build.buildfarm.v1test.DispatchedOperation;
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.OperationChange;
+import build.buildfarm.v1test.QueueEntry;
+import build.buildfarm.v1test.ShardWorker;
+import build.buildfarm.v1test.WorkerChange;
+import com.google.longrunning.Operation;
+import java.util.logging.Level;
+
+public final class BinaryCodec {
+  public static final Codec CODEC = create(Level.SEVERE);
+
+  public static Codec create(Level level) {
+    return new Codec(
+        new BinaryTranslator<>(ActionResult.parser(), "ActionResult", level),
+        new BinaryTranslator<>(ExecuteEntry.parser(), "ExecuteEntry", level),
+        new BinaryTranslator<>(QueueEntry.parser(), "QueueEntry", level),
+        new BinaryTranslator<>(Operation.parser(), "Operation", level),
+        new BinaryTranslator<>(OperationChange.parser(), "OperationChange", level),
+        new BinaryTranslator<>(DispatchedOperation.parser(), "DispatchedOperation", level),
+        new BinaryTranslator<>(ShardWorker.parser(), "ShardWorker", level),
+        new BinaryTranslator<>(WorkerChange.parser(), "WorkerChange", level));
+  }
+
+  private BinaryCodec() {}
+}
@@ -0,0 +1,80 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard.codec.binary;
+
+import build.buildfarm.common.redis.StringTranslator;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Prints messages as their serialized bytes, one ISO-8859-1 character per byte.
+ *
+ * <p>Redis clients encode strings as UTF-8, so bytes below 0x80 are stored as themselves and only
+ * higher bytes are widened, where base64 widens every byte. The printed value begins with a NUL,
+ * which neither base64 nor json produce, so that translators for every format may be tried in turn.
+ */
+@Log
+class BinaryTranslator<T extends Message> implements StringTranslator<T> {
+  static final char MARKER = '\0';
+
+  private final Parser<T> parser;
+  private final String name;
+  private final Level level;
+
+  BinaryTranslator(Parser<T> parser, String name, Level level) {
+    this.parser = parser;
+    this.name = name;
+    this.level = level;
+  }
+
+  @Override
+  public Result<T> parse(String value) {
+    if (value != null && !value.isEmpty() && value.charAt(0) == MARKER) {
+      byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+      try {
+        return new Result<>(parser.parseFrom(bytes, 1, bytes.length - 1), /* dirty= */ false);
+      } catch (InvalidProtocolBufferException e) {
+        log.log(level, "error parsing " + name + " from " + bytes.length + " bytes", e);
+      }
+    } else if (value != null) {
+      log.log(level, "error parsing " + name + ": not a binary value");
+    }
+    return new Result<>(null, /* dirty= */ false);
+  }
+
+  @Override
+  public String print(T value) {
+    if (value != null) {
+      byte[] bytes = new byte[value.getSerializedSize() + 1];
+      bytes[0] = MARKER;
+      try {
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes, 1, bytes.length - 1);
+        value.writeTo(output);
+        output.checkNoSpaceLeft();
+      } catch (IOException e) {
+        log.log(Level.SEVERE, "error printing " + name + " from " + value, e);
+        return null;
+      }
+      return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+    return null;
+  }
+}
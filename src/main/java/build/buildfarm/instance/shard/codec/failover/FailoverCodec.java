@@ -17,16 +17,31 @@ package build.buildfarm.instance.shard.codec.failover;
 import build.buildfarm.common.redis.Codec;
 
 public final class FailoverCodec {
+  /** Read values of initial, or of next, and write values of initial. */
   public static Codec create(Codec initial, Codec next) {
+    return create(initial, next, /* printsNext= */ false);
+  }
+
+  /**
+   * Read values of initial, or of next, and write values of initial.
+   *
+   * <p>Values are removed by equality in both forms, for use while both are being written.
+   */
+  public static Codec createDualRead(Codec initial, Codec next) {
+    return create(initial, next, /* printsNext= */ true);
+  }
+
+  private static Codec create(Codec initial, Codec next, boolean printsNext) {
     return new Codec(
-        new FailoverTranslator<>(initial.actionResult(), next.actionResult()),
-        new FailoverTranslator<>(initial.executeEntry(), next.executeEntry()),
-        new FailoverTranslator<>(initial.queueEntry(), next.queueEntry()),
-        new FailoverTranslator<>(initial.execution(), next.execution()),
-        new FailoverTranslator<>(initial.operationChange(), next.operationChange()),
-        new FailoverTranslator<>(initial.dispatchedExecution(), next.dispatchedExecution()),
-        new FailoverTranslator<>(initial.worker(), next.worker()),
-        new FailoverTranslator<>(initial.workerChange(), next.workerChange()));
+        new FailoverTranslator<>(initial.actionResult(), next.actionResult(), printsNext),
+        new FailoverTranslator<>(initial.executeEntry(), next.executeEntry(), printsNext),
+        new FailoverTranslator<>(initial.queueEntry(), next.queueEntry(), printsNext),
+        new FailoverTranslator<>(initial.execution(), next.execution(), printsNext),
+        new FailoverTranslator<>(initial.operationChange(), next.operationChange(), printsNext),
+        new FailoverTranslator<>(
+            initial.dispatchedExecution(), next.dispatchedExecution(), printsNext),
+        new FailoverTranslator<>(initial.worker(), next.worker(), printsNext),
+        new FailoverTranslator<>(initial.workerChange(), next.workerChange(), printsNext));
   }
 
   private FailoverCodec() {}
@@ -15,15 +15,19 @@
 package build.buildfarm.instance.shard.codec.failover;
 
 import build.buildfarm.common.redis.StringTranslator;
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.Message;
+import java.util.List;
 
 class FailoverTranslator<T extends Message> implements StringTranslator<T> {
   private final StringTranslator<T> initial;
   private final StringTranslator<T> next;
+  private final boolean printsNext;
 
-  FailoverTranslator(StringTranslator<T> initial, StringTranslator<T> next) {
+  FailoverTranslator(StringTranslator<T> initial, StringTranslator<T> next, boolean printsNext) {
     this.initial = initial;
     this.next = next;
+    this.printsNext = printsNext;
   }
 
   @Override
@@ -47,4 +51,15 @@ class FailoverTranslator<T extends Message> implements StringTranslator<T> {
   public String print(T t) {
     return initial.print(t);
   }
+
+  @Override
+  public List<String> printAll(T t) {
+    if (!printsNext) {
+      return initial.printAll(t);
+    }
+    return ImmutableList.<String>builder()
+        .addAll(initial.printAll(t))
+        .addAll(next.printAll(t))
+        .build();
+  }
 }
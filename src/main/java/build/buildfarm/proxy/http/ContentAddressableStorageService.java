@@ -15,10 +15,16 @@
 package build.buildfarm.proxy.http;
 
 import static build.buildfarm.common.DigestUtil.optionalDigestFunction;
+import static com.google.common.util.concurrent.Futures.addCallback;
+import static com.google.common.util.concurrent.Futures.allAsList;
 import static com.google.common.util.concurrent.Futures.catching;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.Futures.transform;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+import build.bazel.remote.execution.v2.BatchReadBlobsRequest;
+import build.bazel.remote.execution.v2.BatchReadBlobsResponse;
 import build.bazel.remote.execution.v2.BatchUpdateBlobsRequest;
 import build.bazel.remote.execution.v2.BatchUpdateBlobsRequest.Request;
 import build.bazel.remote.execution.v2.BatchUpdateBlobsResponse;
@@ -30,12 +36,18 @@ import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
 import build.bazel.remote.execution.v2.GetTreeRequest;
 import build.bazel.remote.execution.v2.GetTreeResponse;
 import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.Size;
 import build.buildfarm.common.TokenizableIterator;
 import build.buildfarm.common.TreeIterator;
 import build.buildfarm.common.TreeIterator.DirectoryEntry;
 import build.buildfarm.v1test.Digest;
 import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import io.grpc.Status;
@@ -43,20 +55,46 @@ import io.grpc.StatusException;
 import io.grpc.protobuf.StatusProto;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.function.Function;
 
+/**
+ * A CAS of the blobs in an HTTP cache.
+ *
+ * <p>The blobs of batch requests are checked, read and written concurrently, bounded by the
+ * connections of the blob store. Blobs which are known to exist are remembered for a period, so
+ * that repeated checks for the same blobs are answered without a request to the cache.
+ */
 public class ContentAddressableStorageService
     extends ContentAddressableStorageGrpc.ContentAddressableStorageImplBase {
+  // the batch limit advertised by buildfarm servers, within the default grpc message size
+  static final long MAX_BATCH_TOTAL_SIZE_BYTES = Size.mbToBytes(4);
+
   private final SimpleBlobStore simpleBlobStore;
   private final int treeDefaultPageSize;
   private final int treeMaxPageSize;
+  private final ListeningExecutorService uploadService;
+  private final Cache<String, Boolean> existingKeys;
 
   public ContentAddressableStorageService(
-      SimpleBlobStore simpleBlobStore, int treeDefaultPageSize, int treeMaxPageSize) {
+      SimpleBlobStore simpleBlobStore,
+      int treeDefaultPageSize,
+      int treeMaxPageSize,
+      long existenceCacheTtlSeconds,
+      long existenceCacheMaxEntries,
+      ListeningExecutorService uploadService) {
     this.simpleBlobStore = simpleBlobStore;
     this.treeDefaultPageSize = treeDefaultPageSize;
     this.treeMaxPageSize = treeMaxPageSize;
+    this.uploadService = uploadService;
+    existingKeys =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(existenceCacheTtlSeconds, SECONDS)
+            .maximumSize(existenceCacheMaxEntries)
+            .build();
   }
 
   private static String key(
@@ -69,22 +107,87 @@ public class ContentAddressableStorageService
     return optionalDigestFunction(digest.getDigestFunction()) + digest.getHash();
   }
 
+  private static <T> void respond(
+      ListenableFuture<T> response, StreamObserver<T> responseObserver) {
+    addCallback(
+        response,
+        new FutureCallback<>() {
+          @Override
+          public void onSuccess(T result) {
+            responseObserver.onNext(result);
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            responseObserver.onError(Status.fromThrowable(t).asException());
+          }
+        },
+        directExecutor());
+  }
+
+  private ListenableFuture<Boolean> containsKey(String key) {
+    if (existingKeys.getIfPresent(key) != null) {
+      return immediateFuture(true);
+    }
+    return transform(
+        simpleBlobStore.containsKeyFuture(key),
+        exists -> {
+          if (exists) {
+            existingKeys.put(key, true);
+          }
+          return exists;
+        },
+        directExecutor());
+  }
+
   @Override
   public void findMissingBlobs(
       FindMissingBlobsRequest request, StreamObserver<FindMissingBlobsResponse> responseObserver) {
-    FindMissingBlobsResponse.Builder responseBuilder = FindMissingBlobsResponse.newBuilder();
+    List<build.bazel.remote.execution.v2.Digest> blobDigests = request.getBlobDigestsList();
+    // each distinct key is requested once
+    Map<String, ListenableFuture<Boolean>> keyContains = new HashMap<>();
+    List<ListenableFuture<Boolean>> digestContains = new ArrayList<>(blobDigests.size());
+    for (build.bazel.remote.execution.v2.Digest blobDigest : blobDigests) {
+      digestContains.add(
+          keyContains.computeIfAbsent(
+              key(blobDigest, request.getDigestFunction()), this::containsKey));
+    }
+    respond(
+        transform(
+            allAsList(digestContains),
+            contains -> {
+              FindMissingBlobsResponse.Builder responseBuilder =
+                  FindMissingBlobsResponse.newBuilder();
+              for (int i = 0; i < blobDigests.size(); i++) {
+                if (!contains.get(i)) {
+                  responseBuilder.addMissingBlobDigests(blobDigests.get(i));
+                }
+              }
+              return responseBuilder.build();
+            },
+            directExecutor()),
+        responseObserver);
+  }
+
+  private BatchUpdateBlobsResponse.Response updateBlob(
+      Request request, DigestFunction.Value digestFunction) throws InterruptedException {
+    build.bazel.remote.execution.v2.Digest digest = request.getDigest();
+    String key = key(digest, digestFunction);
     try {
-      for (build.bazel.remote.execution.v2.Digest blobDigest : request.getBlobDigestsList()) {
-        if (!simpleBlobStore.containsKey(key(blobDigest, request.getDigestFunction()))) {
-          responseBuilder.addMissingBlobDigests(blobDigest);
-        }
-      }
-      responseObserver.onNext(responseBuilder.build());
-      responseObserver.onCompleted();
+      simpleBlobStore.put(key, digest.getSizeBytes(), request.getData().newInput());
+      existingKeys.put(key, true);
+      return BatchUpdateBlobsResponse.Response.newBuilder()
+          .setDigest(digest)
+          .setStatus(
+              com.google.rpc.Status.newBuilder().setCode(com.google.rpc.Code.OK.getNumber()))
+          .build();
     } catch (IOException e) {
-      responseObserver.onError(Status.fromThrowable(e).asException());
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
+      StatusException statusException = Status.fromThrowable(e).asException();
+      return BatchUpdateBlobsResponse.Response.newBuilder()
+          .setDigest(digest)
+          .setStatus(StatusProto.fromThrowable(statusException))
+          .build();
     }
   }
 
@@ -92,38 +195,87 @@ public class ContentAddressableStorageService
   public void batchUpdateBlobs(
       BatchUpdateBlobsRequest batchRequest,
       StreamObserver<BatchUpdateBlobsResponse> responseObserver) {
-    ImmutableList.Builder<BatchUpdateBlobsResponse.Response> responses =
-        new ImmutableList.Builder<>();
-    Function<com.google.rpc.Code, com.google.rpc.Status> statusForCode =
-        (code) -> com.google.rpc.Status.newBuilder().setCode(code.getNumber()).build();
+    List<ListenableFuture<BatchUpdateBlobsResponse.Response>> responses = new ArrayList<>();
     for (Request request : batchRequest.getRequestsList()) {
-      build.bazel.remote.execution.v2.Digest digest = request.getDigest();
-      try {
-        simpleBlobStore.put(
-            key(digest, batchRequest.getDigestFunction()),
-            digest.getSizeBytes(),
-            request.getData().newInput());
-        responses.add(
-            BatchUpdateBlobsResponse.Response.newBuilder()
-                .setDigest(digest)
-                .setStatus(statusForCode.apply(com.google.rpc.Code.OK))
-                .build());
-      } catch (IOException e) {
-        StatusException statusException = Status.fromThrowable(e).asException();
-        responses.add(
-            BatchUpdateBlobsResponse.Response.newBuilder()
-                .setDigest(digest)
-                .setStatus(StatusProto.fromThrowable(statusException))
-                .build());
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+      // puts block for a channel, and are bounded by the pool
+      responses.add(
+          uploadService.submit(() -> updateBlob(request, batchRequest.getDigestFunction())));
+    }
+    respond(
+        transform(
+            allAsList(responses),
+            results -> BatchUpdateBlobsResponse.newBuilder().addAllResponses(results).build(),
+            directExecutor()),
+        responseObserver);
+  }
+
+  private ListenableFuture<BatchReadBlobsResponse.Response> readBlob(
+      build.bazel.remote.execution.v2.Digest digest, DigestFunction.Value digestFunction) {
+    String key = key(digest, digestFunction);
+    // sized by the content received, rather than the requested size
+    ByteString.Output stream = ByteString.newOutput();
+    BatchReadBlobsResponse.Response.Builder response =
+        BatchReadBlobsResponse.Response.newBuilder().setDigest(digest);
+    return catching(
+        transform(
+            simpleBlobStore.get(key, stream),
+            found -> {
+              if (!found) {
+                return response
+                    .setStatus(StatusProto.fromThrowable(Status.NOT_FOUND.asException()))
+                    .build();
+              }
+              existingKeys.put(key, true);
+              return response
+                  .setData(stream.toByteString())
+                  .setStatus(
+                      com.google.rpc.Status.newBuilder()
+                          .setCode(com.google.rpc.Code.OK.getNumber()))
+                  .build();
+            },
+            directExecutor()),
+        Exception.class,
+        e ->
+            response
+                .setStatus(StatusProto.fromThrowable(Status.fromThrowable(e).asException()))
+                .build(),
+        directExecutor());
+  }
+
+  @Override
+  public void batchReadBlobs(
+      BatchReadBlobsRequest batchRequest, StreamObserver<BatchReadBlobsResponse> responseObserver) {
+    long totalSize = 0;
+    for (build.bazel.remote.execution.v2.Digest digest : batchRequest.getDigestsList()) {
+      if (digest.getSizeBytes() < 0) {
+        responseObserver.onError(
+            Status.INVALID_ARGUMENT
+                .withDescription("negative size for " + digest.getHash())
+                .asException());
         return;
       }
+      totalSize += digest.getSizeBytes();
     }
-
-    responseObserver.onNext(
-        BatchUpdateBlobsResponse.newBuilder().addAllResponses(responses.build()).build());
-    responseObserver.onCompleted();
+    if (totalSize > MAX_BATCH_TOTAL_SIZE_BYTES) {
+      responseObserver.onError(
+          Status.INVALID_ARGUMENT
+              .withDescription(
+                  String.format(
+                      "batch size %d exceeds the limit of %d bytes",
+                      totalSize, MAX_BATCH_TOTAL_SIZE_BYTES))
+              .asException());
+      return;
+    }
+    List<ListenableFuture<BatchReadBlobsResponse.Response>> responses = new ArrayList<>();
+    for (build.bazel.remote.execution.v2.Digest digest : batchRequest.getDigestsList()) {
+      responses.add(readBlob(digest, batchRequest.getDigestFunction()));
+    }
+    respond(
+        transform(
+            allAsList(responses),
+            results -> BatchReadBlobsResponse.newBuilder().addAllResponses(results).build(),
+            directExecutor()),
+        responseObserver);
   }
 
   private String getTree(
@@ -406,7 +406,7 @@ public final class HttpBlobStore implements SimpleBlobStore {
   @Override
   public boolean containsKey(String key) throws IOException, InterruptedException {
     try {
-      return get(key, /* out= */ null, true, false).get();
+      return containsKeyFuture(key).get();
     } catch (ExecutionException e) {
       Throwable cause = e.getCause();
       Throwables.throwIfInstanceOf(e, IOException.class);
@@ -415,6 +415,11 @@ public final class HttpBlobStore implements SimpleBlobStore {
     }
   }
 
+  @Override
+  public ListenableFuture<Boolean> containsKeyFuture(String key) {
+    return get(key, /* out= */ null, true, false);
+  }
+
   @Override
   public ListenableFuture<Boolean> get(String key, OutputStream out) {
     return get(key, out, true, true);
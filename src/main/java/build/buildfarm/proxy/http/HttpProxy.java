@@ -16,6 +16,7 @@ package build.buildfarm.proxy.http;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import build.buildfarm.common.BuildfarmExecutors;
 import build.buildfarm.common.LoggingMain;
 import com.google.auth.Credentials;
 import com.google.devtools.common.options.OptionsParser;
@@ -60,8 +61,8 @@ public class HttpProxy extends LoggingMain {
     SimpleBlobStore simpleBlobStore =
         HttpBlobStore.create(
             URI.create(options.httpCache),
-            /* remoteMaxConnections= */ 0,
             (int) SECONDS.toMillis(options.timeout),
+            options.maxConnections,
             creds);
     server =
         serverBuilder
@@ -69,7 +70,12 @@ public class HttpProxy extends LoggingMain {
             .addService(new ActionCacheService(simpleBlobStore))
             .addService(
                 new ContentAddressableStorageService(
-                    simpleBlobStore, options.treeDefaultPageSize, options.treeMaxPageSize))
+                    simpleBlobStore,
+                    options.treeDefaultPageSize,
+                    options.treeMaxPageSize,
+                    options.blobExistenceCacheTtl,
+                    options.blobExistenceCacheMaxEntries,
+                    BuildfarmExecutors.getBlobUploadPool(options.maxConnections)))
             .addService(new ByteStreamService(simpleBlobStore))
             .intercept(TransmitStatusRuntimeExceptionInterceptor.instance())
             .build();
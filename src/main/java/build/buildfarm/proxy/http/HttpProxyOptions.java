@@ -61,4 +61,22 @@ public class HttpProxyOptions extends OptionsBase {
       defaultValue = "16384",
       help = "The maximum number of directories per tree page.")
   public int treeMaxPageSize;
+
+  @Option(
+      name = "max_connections",
+      defaultValue = "100",
+      help = "The maximum number of concurrent connections to the http_cache.")
+  public int maxConnections;
+
+  @Option(
+      name = "blob_existence_cache_ttl",
+      defaultValue = "60",
+      help = "The number of seconds for which blobs found in the http_cache are assumed to exist.")
+  public int blobExistenceCacheTtl;
+
+  @Option(
+      name = "blob_existence_cache_max_entries",
+      defaultValue = "1000000",
+      help = "The maximum number of blobs assumed to exist in the http_cache.")
+  public long blobExistenceCacheMaxEntries;
 }
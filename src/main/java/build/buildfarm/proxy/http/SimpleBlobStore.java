@@ -28,6 +28,12 @@ public interface SimpleBlobStore {
   /** Returns {@code key} if the provided {@code key} is stored in the CAS. */
   boolean containsKey(String key) throws IOException, InterruptedException;
 
+  /**
+   * Returns a future for whether the provided {@code key} is stored in the CAS, without blocking,
+   * so that many keys may be checked concurrently.
+   */
+  ListenableFuture<Boolean> containsKeyFuture(String key);
+
   /**
    * Fetches the BLOB associated with the {@code key} from the CAS and writes it to {@code out}.
    *
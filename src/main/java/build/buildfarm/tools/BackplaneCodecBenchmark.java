@@ -0,0 +1,130 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.tools;
+
+import build.bazel.remote.execution.v2.Platform;
+import build.bazel.remote.execution.v2.RequestMetadata;
+import build.buildfarm.common.config.Backplane.VALUE_ENCODING;
+import build.buildfarm.common.redis.Codec;
+import build.buildfarm.instance.shard.codec.ShardCodec;
+import build.buildfarm.v1test.Digest;
+import build.buildfarm.v1test.DispatchedOperation;
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.QueueEntry;
+import com.google.protobuf.Timestamp;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the backplane value encodings for the entries which are pushed to and popped from the
+ * execution queue, and stored in the dispatched operations hash.
+ *
+ * <p>The {@code redisBytes} counter reports the bytes per second that redis receives for each
+ * encoding, in the utf-8 form that clients send, and the {@code valueBytes} counter the same for
+ * the serialized messages, so that redisBytes per operation is the memory of each stored value, and
+ * redisBytes over valueBytes the overhead of the encoding. Redis server time for a command is
+ * dominated by reading, copying and writing its values, so it scales with redisBytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BackplaneCodecBenchmark {
+  @Param({"BASE64", "BINARY"})
+  public VALUE_ENCODING encoding;
+
+  private Codec codec;
+  private DispatchedOperation dispatchedOperation;
+  private String printed;
+  private int valueSize;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public long redisBytes;
+    public long valueBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      redisBytes = 0;
+      valueBytes = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    codec = ShardCodec.create(encoding);
+    String hash = "8b1a9953c4611296a827abf8c47804d7e6c49c6b1e5c5b6f0b0d5a3e4f9d2c11";
+    QueueEntry queueEntry =
+        QueueEntry.newBuilder()
+            .setExecuteEntry(
+                ExecuteEntry.newBuilder()
+                    .setOperationName("shard/operations/6a7e2c3b-2f0e-4c61-9d4f-6f0d1c9b8e21")
+                    .setActionDigest(Digest.newBuilder().setHash(hash).setSize(142))
+                    .setRequestMetadata(
+                        RequestMetadata.newBuilder()
+                            .setToolInvocationId("0c5f3b4e-8b7a-4d5c-9e2f-1a3b5c7d9e0f")
+                            .setCorrelatedInvocationsId("d1e2f3a4-b5c6-4d7e-8f90-a1b2c3d4e5f6")
+                            .setActionMnemonic("CppCompile")
+                            .setTargetId("//src/main/cpp:library"))
+                    .setQueuedTimestamp(
+                        Timestamp.newBuilder().setSeconds(1792310400L).setNanos(987654321)))
+            .setQueuedOperationDigest(Digest.newBuilder().setHash(hash).setSize(3187))
+            .setPlatform(
+                Platform.newBuilder()
+                    .addProperties(
+                        Platform.Property.newBuilder().setName("OSFamily").setValue("Linux"))
+                    .addProperties(
+                        Platform.Property.newBuilder()
+                            .setName("container-image")
+                            .setValue("docker://gcr.io/project/image:latest")))
+            .build();
+    dispatchedOperation =
+        DispatchedOperation.newBuilder()
+            .setQueueEntry(queueEntry)
+            .setRequeueAt(1792310430000L)
+            .build();
+    printed = codec.dispatchedExecution().print(dispatchedOperation);
+    valueSize = dispatchedOperation.getSerializedSize();
+  }
+
+  @Benchmark
+  public String print(Counters counters) {
+    String value = codec.dispatchedExecution().print(dispatchedOperation);
+    counters.redisBytes += value.getBytes(StandardCharsets.UTF_8).length;
+    counters.valueBytes += valueSize;
+    return value;
+  }
+
+  @Benchmark
+  public DispatchedOperation parse() {
+    return codec.dispatchedExecution().parse(printed).value();
+  }
+}
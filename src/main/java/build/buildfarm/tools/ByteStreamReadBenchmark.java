@@ -0,0 +1,112 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.tools;
+
+import build.buildfarm.common.io.MappedFileReader;
+import com.google.bytestream.ByteStreamProto.ReadResponse;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares serving a CAS file as ByteStream ReadResponses by copying streamed reads onto the heap
+ * against wrapping chunks of a mapping of the file.
+ *
+ * <p>Each response is serialized as it would be by the transport, so that the cost of reading the
+ * chunk content is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ByteStreamReadBenchmark {
+  @Param({"65536", "1048576", "67108864"})
+  public int fileSize;
+
+  @Param({"16384", "65536", "1048576"})
+  public int chunkSize;
+
+  private Path root;
+  private Path path;
+  private byte[] output;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("bytestream-read-benchmark");
+    path = root.resolve("blob");
+    byte[] content = new byte[fileSize];
+    new Random(fileSize).nextBytes(content);
+    Files.write(path, content);
+    output = new byte[chunkSize + 16];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.delete(path);
+    Files.delete(root);
+  }
+
+  private long serialize(ByteString data) throws IOException {
+    ReadResponse response = ReadResponse.newBuilder().setData(data).build();
+    CodedOutputStream out = CodedOutputStream.newInstance(output);
+    response.writeTo(out);
+    return out.getTotalBytesWritten();
+  }
+
+  @Benchmark
+  public long streamCopy() throws IOException {
+    long total = 0;
+    try (InputStream in = Files.newInputStream(path)) {
+      byte[] buf = new byte[chunkSize];
+      int n;
+      while ((n = ByteStreams.read(in, buf, 0, buf.length)) > 0) {
+        total += serialize(ByteString.copyFrom(buf, 0, n));
+      }
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long mappedWrap() throws IOException {
+    long total = 0;
+    try (MappedFileReader reader = MappedFileReader.open(path, 0, 0, chunkSize)) {
+      while (reader.hasNext()) {
+        total += serialize(reader.next());
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.tools;
+
+import static java.lang.Math.max;
+
+import build.buildfarm.common.ZstdCompressingInputStream;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
+import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the pooled streaming {@link ZstdCompressingInputStream} against the piped compressor
+ * that it replaced.
+ *
+ * <p>The {@code inputBytes} and {@code compressedBytes} counters report throughput in bytes per
+ * second, and their quotient is the compression ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZstdCompressBenchmark {
+  @Param({"65536", "16777216"})
+  public int size;
+
+  @Param({"text", "random"})
+  public String content;
+
+  @Param({"1", "3"})
+  public int level;
+
+  private byte[] data;
+  private CompressionContextPool pool;
+  private final byte[] buf = new byte[64 * 1024];
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public long inputBytes;
+    public long compressedBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      inputBytes = 0;
+      compressedBytes = 0;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    data = new byte[size];
+    Random random = new Random(size);
+    if (content.equals("random")) {
+      random.nextBytes(data);
+    } else {
+      String[] words = {"action", "digest", "output", "input", "worker", "queue", "tree", "blob"};
+      int i = 0;
+      while (i < size) {
+        byte[] word = (words[random.nextInt(words.length)] + ' ').getBytes();
+        int len = Math.min(word.length, size - i);
+        System.arraycopy(word, 0, data, i, len);
+        i += len;
+      }
+    }
+    pool = new CompressionContextPool(level, /* maxIdle= */ 1);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.close();
+  }
+
+  private long drain(InputStream in, Counters counters) throws IOException {
+    long total = 0;
+    try (in) {
+      int n;
+      while ((n = in.read(buf)) != -1) {
+        total += n;
+      }
+    }
+    counters.inputBytes += size;
+    counters.compressedBytes += total;
+    return total;
+  }
+
+  @Benchmark
+  public long pooled(Counters counters) throws IOException {
+    return drain(new ZstdCompressingInputStream(new ByteArrayInputStream(data), pool), counters);
+  }
+
+  @Benchmark
+  public long piped(Counters counters) throws IOException {
+    return drain(
+        new PipedZstdCompressingInputStream(new ByteArrayInputStream(data), level), counters);
+  }
+
+  /** The previous compressor, which flushes each small read through a 512 byte pipe. */
+  private static final class PipedZstdCompressingInputStream extends FilterInputStream {
+    private static final int MIN_BUFFER_SIZE = 4 + 14 + 3 + 1;
+    private static final int SIZE = 512;
+
+    private final PipedInputStream pis;
+    private ZstdOutputStreamNoFinalizer zos;
+
+    PipedZstdCompressingInputStream(InputStream in, int level) throws IOException {
+      super(in);
+      pis = new PipedInputStream(SIZE);
+      zos = new ZstdOutputStreamNoFinalizer(new PipedOutputStream(pis), level);
+    }
+
+    private void reFill() throws IOException {
+      byte[] buf = new byte[SIZE];
+      int len = super.read(buf, 0, max(0, SIZE - pis.available() - MIN_BUFFER_SIZE + 1));
+      if (len == -1) {
+        zos.close();
+        zos = null;
+      } else {
+        zos.write(buf, 0, len);
+        zos.flush();
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int n = read(b, 0, 1);
+      return n == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int count = 0;
+      int n = len > 0 ? -1 : 0;
+      while (count < len && (pis.available() > 0 || zos != null)) {
+        if (pis.available() == 0) {
+          reFill();
+        }
+        n = pis.read(b, count + off, len - count);
+        count += max(0, n);
+      }
+      return count > 0 ? count : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (zos != null) {
+        zos.close();
+      }
+      in.close();
+    }
+  }
+}
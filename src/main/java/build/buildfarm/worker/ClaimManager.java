@@ -0,0 +1,130 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import com.google.common.base.Stopwatch;
+import io.prometheus.client.Histogram;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Counts the slots available to a superscalar stage.
+ *
+ * <p>Multiple slots are acquired atomically, and waiters are served in arrival order, so that a
+ * claim for several slots cannot be starved by a stream of single slot claims. Waiters are woken
+ * when slots are released or the manager is closed.
+ */
+final class ClaimManager {
+  private static final Histogram claimWaitTime =
+      Histogram.build()
+          .name("pipeline_stage_claim_wait_time_ms")
+          .labelNames("stage")
+          .help("Pipeline stage claim wait time in ms.")
+          .register();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final Histogram.Child waitTime;
+
+  @GuardedBy("lock")
+  private final Queue<Thread> waiters = new ArrayDeque<>();
+
+  @GuardedBy("lock")
+  private int available;
+
+  @GuardedBy("lock")
+  private boolean closed = false;
+
+  ClaimManager(String stage, int available) {
+    this.available = available;
+    waitTime = claimWaitTime.labels(stage);
+  }
+
+  /**
+   * Wait for and acquire count slots.
+   *
+   * @return true if the slots were acquired, false if the manager was closed.
+   */
+  boolean acquire(int count) throws InterruptedException {
+    checkArgument(count >= 0, "count must not be negative");
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Thread self = Thread.currentThread();
+    lock.lockInterruptibly();
+    try {
+      waiters.add(self);
+      try {
+        while (!closed && (waiters.peek() != self || available < count)) {
+          changed.await();
+        }
+        if (closed) {
+          return false;
+        }
+        available -= count;
+        return true;
+      } finally {
+        waiters.remove(self);
+        // the next waiter may now be at the head of the queue
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+      waitTime.observe(stopwatch.elapsed(MICROSECONDS) / 1000.0);
+    }
+  }
+
+  void release(int count) {
+    lock.lock();
+    try {
+      available += count;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int available() {
+    lock.lock();
+    try {
+      return available;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  boolean hasWaiters() {
+    lock.lock();
+    try {
+      return !waiters.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
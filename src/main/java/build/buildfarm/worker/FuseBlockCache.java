@@ -0,0 +1,195 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+import build.bazel.remote.execution.v2.Compressor;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.InputStreamFactory;
+import build.buildfarm.v1test.Digest;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * A block cache over CAS content for FuseCAS reads.
+ *
+ * <p>Blobs are fetched in fixed size, aligned blocks with offset reads, so that a read only ever
+ * retrieves the blocks it overlaps. Blocks are shared between all open handles and evicted in LRU
+ * order once the cache exceeds its size. Sequential reads through a {@link Reader} prefetch the
+ * blocks that follow.
+ */
+@Log
+final class FuseBlockCache {
+  static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+  static final long DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024;
+  static final int DEFAULT_PREFETCH_BLOCKS = 4;
+
+  private record BlockKey(Digest digest, long index) {}
+
+  private final InputStreamFactory inputStreamFactory;
+  private final int blockSize;
+  private final int prefetchBlocks;
+  private final Executor prefetchExecutor;
+  private final Cache<BlockKey, ByteString> blocks;
+
+  FuseBlockCache(
+      InputStreamFactory inputStreamFactory,
+      int blockSize,
+      long maxSizeBytes,
+      int prefetchBlocks,
+      Executor prefetchExecutor) {
+    checkArgument(blockSize > 0, "blockSize must be positive");
+    checkArgument(maxSizeBytes >= blockSize, "maxSizeBytes must hold at least one block");
+    this.inputStreamFactory = inputStreamFactory;
+    this.blockSize = blockSize;
+    this.prefetchBlocks = prefetchBlocks;
+    this.prefetchExecutor = prefetchExecutor;
+    blocks =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxSizeBytes)
+            .<BlockKey, ByteString>weigher((key, block) -> block.size())
+            .build();
+  }
+
+  /** Read state for a single open handle, used to detect sequential access. */
+  final class Reader {
+    private final Digest digest;
+    private long nextOffset = 0;
+    private long prefetchedIndex = -1;
+
+    private Reader(Digest digest) {
+      this.digest = digest;
+    }
+
+    /**
+     * Read up to length bytes at offset into buf.
+     *
+     * @return the number of bytes read, 0 at or beyond the end of the blob.
+     */
+    synchronized int read(long offset, byte[] buf, int length) throws IOException {
+      int count = FuseBlockCache.this.read(digest, offset, buf, length);
+      if (offset != nextOffset) {
+        // a seek restarts the prefetch window
+        prefetchedIndex = -1;
+      } else if (count > 0) {
+        prefetchFrom(offset + count);
+      }
+      nextOffset = offset + count;
+      return count;
+    }
+
+    private void prefetchFrom(long offset) {
+      long lastIndex = Math.min(blockCount(digest), offset / blockSize + prefetchBlocks) - 1;
+      for (long index = Math.max(offset / blockSize, prefetchedIndex + 1);
+          index <= lastIndex;
+          index++) {
+        prefetch(new BlockKey(digest, index));
+      }
+      prefetchedIndex = Math.max(prefetchedIndex, lastIndex);
+    }
+  }
+
+  Reader newReader(Digest digest) {
+    return new Reader(digest);
+  }
+
+  /**
+   * Read up to length bytes of a blob at offset into buf, fetching only the blocks that overlap.
+   *
+   * @return the number of bytes read, 0 at or beyond the end of the blob.
+   */
+  int read(Digest digest, long offset, byte[] buf, int length) throws IOException {
+    long size = digest.getSize();
+    if (offset >= size) {
+      return 0;
+    }
+    length = (int) Math.min(length, size - offset);
+    int count = 0;
+    while (count < length) {
+      long position = offset + count;
+      ByteString block = getBlock(new BlockKey(digest, position / blockSize));
+      int blockOffset = (int) (position % blockSize);
+      int blockLength = Math.min(block.size() - blockOffset, length - count);
+      block.copyTo(buf, blockOffset, count, blockLength);
+      count += blockLength;
+    }
+    return count;
+  }
+
+  private long blockCount(Digest digest) {
+    return (digest.getSize() + blockSize - 1) / blockSize;
+  }
+
+  private ByteString getBlock(BlockKey key) throws IOException {
+    try {
+      return blocks.get(key, () -> fetchBlock(key));
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+  }
+
+  private void prefetch(BlockKey key) {
+    if (blocks.getIfPresent(key) != null) {
+      return;
+    }
+    try {
+      prefetchExecutor.execute(
+          () -> {
+            try {
+              getBlock(key);
+            } catch (IOException | RuntimeException e) {
+              // the read that needs the block will fetch it again and report the failure
+              log.log(
+                  Level.FINE,
+                  format(
+                      "error prefetching block %d of %s",
+                      key.index(), DigestUtil.toString(key.digest())),
+                  e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // prefetching is only advisory
+    }
+  }
+
+  private ByteString fetchBlock(BlockKey key) throws IOException {
+    long offset = key.index() * blockSize;
+    int length = (int) Math.min(blockSize, key.digest().getSize() - offset);
+    byte[] block = new byte[length];
+    try (InputStream in =
+        inputStreamFactory.newInput(Compressor.Value.IDENTITY, key.digest(), offset)) {
+      ByteStreams.readFully(in, block);
+    }
+    return UnsafeByteOperations.unsafeWrap(block);
+  }
+}
@@ -14,6 +14,8 @@
 
 package build.buildfarm.worker;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import build.bazel.remote.execution.v2.Compressor;
 import build.bazel.remote.execution.v2.Directory;
 import build.bazel.remote.execution.v2.DirectoryNode;
@@ -22,7 +24,6 @@ import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.InputStreamFactory;
 import build.buildfarm.common.Watchdog;
 import build.buildfarm.v1test.Digest;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Duration;
@@ -33,6 +34,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -61,6 +63,8 @@ public class FuseCAS extends FuseStubFS {
   private final DirectoryEntry root;
   private final AtomicInteger fileHandleCounter = new AtomicInteger(1);
   private final Map<Integer, Entry> fileHandleEntries = new ConcurrentHashMap<>();
+  private final Map<Integer, FuseBlockCache.Reader> fileHandleReaders = new ConcurrentHashMap<>();
+  private final FuseBlockCache blockCache;
   private final Map<Digest, Map<String, Entry>> childrenCache = new ConcurrentHashMap<>();
 
   private transient boolean mounted = false;
@@ -349,8 +353,33 @@ public class FuseCAS extends FuseStubFS {
   }
 
   public FuseCAS(Path mountPath, InputStreamFactory inputStreamFactory) {
+    this(
+        mountPath,
+        inputStreamFactory,
+        FuseBlockCache.DEFAULT_BLOCK_SIZE,
+        FuseBlockCache.DEFAULT_MAX_SIZE_BYTES,
+        /* prefetchBlocks= */ 0,
+        directExecutor());
+  }
+
+  /**
+   * @param blockSize Size of the blocks that file content is fetched and cached in
+   * @param blockCacheSize Maximum size of cached file content, in bytes
+   * @param prefetchBlocks Number of blocks to fetch ahead of sequential reads
+   * @param prefetchExecutor Executor for fetches ahead of reads
+   */
+  public FuseCAS(
+      Path mountPath,
+      InputStreamFactory inputStreamFactory,
+      int blockSize,
+      long blockCacheSize,
+      int prefetchBlocks,
+      Executor prefetchExecutor) {
     this.mountPath = mountPath;
     this.inputStreamFactory = inputStreamFactory;
+    blockCache =
+        new FuseBlockCache(
+            inputStreamFactory, blockSize, blockCacheSize, prefetchBlocks, prefetchExecutor);
     root = new LocalDirectoryEntry();
   }
 
@@ -827,6 +856,7 @@ public class FuseCAS extends FuseStubFS {
   @Override
   public int release(String path, FuseFileInfo fi) {
     fileHandleEntries.remove(fi.fh.intValue());
+    fileHandleReaders.remove(fi.fh.intValue());
 
     /*
     // Maybe do this, maybe not
@@ -892,28 +922,26 @@ public class FuseCAS extends FuseStubFS {
       return -ErrorCodes.EISDIR();
     }
 
-    ByteString content;
-    if (entry.isWritable()) {
-      WriteFileEntry writeFileEntry = (WriteFileEntry) entry;
-
-      content = writeFileEntry.content;
-    } else {
+    if (!entry.isWritable()) {
       FileEntry fileEntry = (FileEntry) entry;
-
+      FuseBlockCache.Reader reader =
+          fileHandleReaders.computeIfAbsent(
+              fi.fh.intValue(), fh -> blockCache.newReader(fileEntry.digest));
+      byte[] bytes = new byte[(int) Math.min(size, fileEntry.digest.getSize())];
+      int count;
       try {
-        content =
-            ByteString.readFrom(
-                inputStreamFactory.newInput(Compressor.Value.IDENTITY, fileEntry.digest, 0));
+        count = reader.read(offset, bytes, bytes.length);
       } catch (IOException e) {
         if (e.getCause() != null && e.getCause() instanceof InterruptedException) {
           return -ErrorCodes.EINTR();
         }
         return -ErrorCodes.EIO();
       }
-
-      Preconditions.checkState(fileEntry.digest.getSize() == content.size());
+      buf.put(0, bytes, 0, count);
+      return count;
     }
 
+    ByteString content = ((WriteFileEntry) entry).content;
     int length = content.size();
     if (offset < length) {
       if (offset + size > length) {
@@ -34,6 +34,12 @@ public class InputFetchStage extends SuperscalarPipelineStage {
           .name("input_fetch_stall_time_ms")
           .help("Input fetch stall time in ms.")
           .register();
+  private static final Histogram inputFetchBytes =
+      Histogram.build()
+          .name("input_fetch_bytes")
+          .help("Input bytes fetched into the CAS for an execution.")
+          .exponentialBuckets(/* 1KiB */ 1 << 10, 4, 12)
+          .register();
   private final ConcurrentMap<String, InputFetcher> inputFetchers = Maps.newConcurrentMap();
 
   @GuardedBy("this")
@@ -74,6 +80,10 @@ public class InputFetchStage extends SuperscalarPipelineStage {
         String.format("%s, %s", success ? "Success" : "Failure", getUsage(size)));
   }
 
+  void recordFetchedBytes(long fetchedBytes) {
+    inputFetchBytes.observe(fetchedBytes);
+  }
+
   @Override
   protected int claimsRequired(ExecutionContext executionContext) {
     return 1;
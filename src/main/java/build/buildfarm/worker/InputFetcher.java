@@ -269,6 +269,8 @@ public class InputFetcher implements Runnable {
       return 0;
     }
     success = true;
+    // inputs already held by the CAS are not fetched, so this reflects directory reuse
+    owner.recordFetchedBytes(executionContext.workerExecutedMetadata.getFetchedBytes());
 
     /* tweak command executable used */
     String programName = queuedOperation.getCommand().getArguments(0);
@@ -25,6 +25,11 @@ public interface MatchListener {
 
   void onWaitEnd();
 
+  // the number of executions which could begin now, including the one being matched
+  default int getFreeClaims() {
+    return 1;
+  }
+
   // returns false if this listener will not handle this match
   boolean onEntry(@Nullable QueueEntry queueEntry, Claim resource) throws InterruptedException;
 
@@ -82,6 +82,12 @@ public class MatchStage extends PipelineStage {
       waitStart = elapsedUSecs;
     }
 
+    @Override
+    public int getFreeClaims() {
+      // the output was claimed for this match
+      return output.getFreeClaims() + 1;
+    }
+
     @SuppressWarnings("ConstantConditions")
     @Override
     public boolean onEntry(@Nullable QueueEntry queueEntry, Claim claim)
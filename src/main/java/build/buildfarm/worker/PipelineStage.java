@@ -18,6 +18,8 @@ import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 
 import com.google.common.base.Stopwatch;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import lombok.Getter;
@@ -32,6 +34,7 @@ public abstract class PipelineStage implements Runnable {
 
   protected boolean claimed = false;
   @Getter private volatile boolean closed = false;
+  private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
   private Thread tickThread = null;
   private boolean tickCancelledFlag = false;
   private String operationName = null;
@@ -225,12 +228,25 @@ public abstract class PipelineStage implements Runnable {
 
   public void close() {
     closed = true;
+    for (Runnable listener : closeListeners) {
+      listener.run();
+    }
+  }
+
+  /** Run listener when this stage is closed, used to wake stages waiting on it. */
+  void onClose(Runnable listener) {
+    closeListeners.add(listener);
   }
 
   protected boolean isClaimed() {
     return claimed;
   }
 
+  /** The number of executions which could be claimed without waiting. */
+  public int getFreeClaims() {
+    return isClaimed() ? 0 : 1;
+  }
+
   public PipelineStage output() {
     return this.output;
   }
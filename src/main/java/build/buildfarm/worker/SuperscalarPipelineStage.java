@@ -18,30 +18,31 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.concurrent.GuardedBy;
 import lombok.Getter;
 
 public abstract class SuperscalarPipelineStage extends PipelineStage {
-  private final BlockingQueue<ExecutionContext> queue = new ArrayBlockingQueue<>(1);
+  // a single execution handed off from the claiming stage, waiters are signalled on any change
+  private final ReentrantLock handoffLock = new ReentrantLock();
+  private final Condition handoffChanged = handoffLock.newCondition();
+
+  @GuardedBy("handoffLock")
+  private ExecutionContext handoff = null;
+
   protected Set<String> operationNames = new HashSet<>();
   @Getter protected int width;
 
-  protected final BlockingQueue<Object> claims;
+  protected final ClaimManager claims;
   private int suppressReleases = 0;
 
   protected final ThreadPoolExecutor executor;
   protected final ThreadPoolExecutor pollerExecutor;
 
-  private volatile boolean catastrophic = false;
-
-  // ensure that only a single claim waits for available slots for core count
-  private final Object claimLock = new Object();
-
   public SuperscalarPipelineStage(
       String name,
       String executorName,
@@ -51,12 +52,11 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
       int width) {
     super(name, workerContext, output, error);
     this.width = width;
-    claims = new LinkedBlockingQueue<>();
-    Object handle = new Object();
-    for (int i = 0; i < width; i++) {
-      claims.offer(handle);
+    claims = new ClaimManager(name, width);
+    checkState(claims.available() == width);
+    if (output != null) {
+      output.onClose(this::outputClosed);
     }
-    checkState(claims.size() == width);
     executor =
         new ThreadPoolExecutor(
             width,
@@ -109,19 +109,19 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
     }
   }
 
-  synchronized void waitForReleaseOrCatastrophe(BlockingQueue<ExecutionContext> queue) {
+  synchronized void waitForRelease() {
     boolean interrupted = false;
-    while (!catastrophic && isClaimed()) {
+    while (isClaimed()) {
       if (output.isClosed()) {
         // interrupt the currently running threads, because they have nowhere to go
         executor.shutdownNow();
       }
-      ExecutionContext executionContext = queue.poll();
+      ExecutionContext executionContext = pollHandoff();
       if (executionContext != null) {
         releaseClaim(executionContext.operation.getName(), claimsRequired(executionContext));
       } else {
         try {
-          wait(/* timeout= */ 10);
+          wait();
         } catch (InterruptedException e) {
           interrupted = Thread.interrupted() || interrupted;
           // ignore, we will throw it eventually
@@ -133,14 +133,53 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
     }
   }
 
+  private boolean isHandoffClosed() {
+    return isClosed() || output.isClosed();
+  }
+
+  private ExecutionContext pollHandoff() {
+    handoffLock.lock();
+    try {
+      ExecutionContext executionContext = handoff;
+      handoff = null;
+      handoffChanged.signalAll();
+      return executionContext;
+    } finally {
+      handoffLock.unlock();
+    }
+  }
+
+  private void signalHandoff() {
+    handoffLock.lock();
+    try {
+      handoffChanged.signalAll();
+    } finally {
+      handoffLock.unlock();
+    }
+  }
+
+  private void outputClosed() {
+    signalHandoff();
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
   @Override
   public void put(ExecutionContext executionContext) throws InterruptedException {
-    while (!isClosed() && !output.isClosed()) {
-      if (queue.offer(executionContext, 10, TimeUnit.MILLISECONDS)) {
-        return;
+    handoffLock.lockInterruptibly();
+    try {
+      while (handoff != null && !isHandoffClosed()) {
+        handoffChanged.await();
+      }
+      if (isHandoffClosed()) {
+        throw new InterruptedException("stage closed");
       }
+      handoff = executionContext;
+      handoffChanged.signalAll();
+    } finally {
+      handoffLock.unlock();
     }
-    throw new InterruptedException("stage closed");
   }
 
   @Override
@@ -148,11 +187,19 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
     boolean interrupted = false;
     InterruptedException exception;
     try {
-      while (!isClosed() && !output.isClosed()) {
-        ExecutionContext context = queue.poll(10, TimeUnit.MILLISECONDS);
-        if (context != null) {
-          return context;
+      handoffLock.lockInterruptibly();
+      try {
+        while (handoff == null && !isHandoffClosed()) {
+          handoffChanged.await();
         }
+        if (!isHandoffClosed()) {
+          ExecutionContext executionContext = handoff;
+          handoff = null;
+          handoffChanged.signalAll();
+          return executionContext;
+        }
+      } finally {
+        handoffLock.unlock();
       }
       exception = new InterruptedException();
     } catch (InterruptedException e) {
@@ -161,7 +208,7 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
       // clear interrupted flag
       interrupted = Thread.interrupted();
     }
-    waitForReleaseOrCatastrophe(queue);
+    waitForRelease();
     if (interrupted) {
       Thread.currentThread().interrupt();
     }
@@ -169,33 +216,16 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
   }
 
   protected synchronized void releaseClaim(String operationName, int slots) {
-    Object handle = new Object();
-    // clear interrupted flag for take
-    boolean interrupted = Thread.interrupted();
-    try {
-      for (int i = 0; i < slots; i++) {
-        if (suppressReleases > 0) {
-          suppressReleases--;
-        } else {
-          claims.put(handle);
-        }
-      }
-    } catch (InterruptedException e) {
-      catastrophic = true;
-      getLogger()
-          .log(
-              Level.SEVERE,
-              name
-                  + ": could not release claim on "
-                  + operationName
-                  + ", aborting drain to avoid deadlock");
-      close();
-    } finally {
-      notify();
-      if (interrupted) {
-        Thread.currentThread().interrupt();
+    int released = 0;
+    for (int i = 0; i < slots; i++) {
+      if (suppressReleases > 0) {
+        suppressReleases--;
+      } else {
+        released++;
       }
     }
+    claims.release(released);
+    notifyAll();
   }
 
   @Override
@@ -213,37 +243,8 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
     return String.format("%s/%d", size, width);
   }
 
-  @SuppressWarnings("unchecked")
   private boolean claim(int count) throws InterruptedException {
-    int claimed = 0;
-    synchronized (claimLock) {
-      while (count > 0 && !isClosed()) {
-        try {
-          if (claims.poll(10, TimeUnit.MILLISECONDS) != null) {
-            claimed++;
-            count--;
-          }
-        } catch (InterruptedException e) {
-          boolean interrupted = Thread.interrupted();
-          Object handle = new Object();
-          while (claimed != 0) {
-            interrupted = Thread.interrupted() || interrupted;
-            try {
-              claims.put(handle);
-              claimed--;
-            } catch (InterruptedException intEx) {
-              // ignore, we must release our claims
-              e.addSuppressed(intEx);
-            }
-          }
-          if (interrupted) {
-            Thread.currentThread().interrupt();
-          }
-          throw e;
-        }
-      }
-    }
-    return count == 0;
+    return !isClosed() && claims.acquire(count);
   }
 
   @Override
@@ -258,12 +259,19 @@ public abstract class SuperscalarPipelineStage extends PipelineStage {
 
   @Override
   protected boolean isClaimed() {
-    return claims.size() + suppressReleases != width;
+    return claims.available() + suppressReleases != width;
+  }
+
+  @Override
+  public int getFreeClaims() {
+    return claims.available();
   }
 
   @Override
   public void close() {
     super.close();
+    claims.close();
+    signalHandoff();
     executor.shutdown();
     // might want to move this to actual teardown of the stage
     boolean interrupted = false;
@@ -25,11 +25,12 @@ import java.nio.file.attribute.PosixFilePermission;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import lombok.extern.java.Log;
 
 /**
- * Utility for concurrent move/copy of files Can be extended in the future to (sym)linking if we
- * need performance
+ * Utility for concurrent move/copy/hardlink of files. Hardlinking is preferred for inputs when they
+ * are known to be read-only, falling back to a copy where a link cannot be made.
  */
 @Log
 public final class FileAccessUtils {
@@ -88,6 +89,46 @@ public final class FileAccessUtils {
     }
   }
 
+  /**
+   * Hardlinks a file, creating necessary directories, replacing existing files, and copying if the
+   * link cannot be made, e.g. across filesystems. The permissions of a linked file are shared with
+   * its source, and are not changed. Thread-safe (within a process) against writes to the same
+   * path.
+   *
+   * @param from
+   * @param to
+   * @throws IOException
+   */
+  public static void linkFile(Path from, Path to) throws IOException {
+    Path absTo = to.toAbsolutePath();
+    log.finer("linkFile: " + from + " to " + absTo);
+    if (!Files.exists(from)) {
+      throw new IOException("linkFile: source file doesn't exist: " + from);
+    }
+    IOException ioException =
+        writeFileSafe(
+            absTo,
+            () -> {
+              try {
+                Files.deleteIfExists(absTo);
+                Files.createLink(absTo, from);
+                return null;
+              } catch (IOException | UnsupportedOperationException e) {
+                log.log(Level.FINER, "linkFile: copying " + from + " after link failure", e);
+              }
+              try {
+                Files.copy(from, absTo, REPLACE_EXISTING, COPY_ATTRIBUTES);
+                addPosixOwnerWrite(absTo);
+                return null;
+              } catch (IOException e) {
+                return new IOException("linkFile() could not copy: " + absTo, e);
+              }
+            });
+    if (ioException != null) {
+      throw ioException;
+    }
+  }
+
   /**
    * Moves a file, creating necessary directories, replacing existing files. The resulting file is
    * set to be writeable, and we throw if we cannot set that. Thread-safe against writes to the same
@@ -37,6 +37,27 @@ public class Keymaker {
       ImmutableMap<String, String> workerEnv,
       String executionName,
       WorkerInputs workerFiles) {
+    return make(
+        opRoot,
+        workRootsDir,
+        workerInitCmd,
+        workerInitArgs,
+        workerEnv,
+        executionName,
+        workerFiles,
+        /* multiplex= */ false);
+  }
+
+  // Multiplex keys are distinct from singleplex keys for the same tool, with their own work root
+  public static WorkerKey make(
+      Path opRoot,
+      Path workRootsDir,
+      ImmutableList<String> workerInitCmd,
+      ImmutableList<String> workerInitArgs,
+      ImmutableMap<String, String> workerEnv,
+      String executionName,
+      WorkerInputs workerFiles,
+      boolean multiplex) {
     // Cancellation not yet supported; can change in the future,
     //  Presumably, following how Bazel's own persistent workers work
     boolean sandboxed = true;
@@ -50,7 +71,8 @@ public class Keymaker {
             workerEnv,
             executionName,
             sandboxed,
-            cancellable);
+            cancellable,
+            multiplex);
 
     SortedMap<Path, HashCode> hashedTools = workerFilesWithHashes(workerFiles);
     HashCode combinedToolsHash = workerFilesCombinedHash(hashedTools);
@@ -64,7 +86,8 @@ public class Keymaker {
         combinedToolsHash,
         hashedTools,
         sandboxed,
-        cancellable);
+        cancellable,
+        multiplex);
   }
 
   // Hash of a subset of the WorkerKey
@@ -75,8 +98,11 @@ public class Keymaker {
       ImmutableMap<String, String> workerEnv,
       String executionName,
       boolean sandboxed,
-      boolean cancellable) {
-    int workRootId = Objects.hash(workerInitCmd, workerInitArgs, workerEnv, sandboxed, cancellable);
+      boolean cancellable,
+      boolean multiplex) {
+    int workRootId =
+        Objects.hash(
+            workerInitCmd, workerInitArgs, workerEnv, sandboxed, cancellable, multiplex);
     String workRootDirName = "work-root_" + executionName + "_" + workRootId;
     return workRootsDir.resolve(workRootDirName);
   }
@@ -17,6 +17,8 @@ package build.buildfarm.worker.persistent;
 import static java.lang.String.join;
 
 import build.bazel.remote.execution.v2.ActionResult;
+import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.config.Worker.PERSISTENT_WORKER_INPUT_STAGING;
 import build.buildfarm.worker.resources.ResourceLimits;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -47,7 +49,11 @@ import persistent.bazel.client.WorkerKey;
 @Log
 public class PersistentExecutor {
   private static final ProtoCoordinator coordinator =
-      ProtoCoordinator.ofCommonsPool(getMaxWorkersPerKey());
+      ProtoCoordinator.ofCommonsPool(
+          getMaxWorkersPerKey(),
+          getMaxMultiplexRequestsPerKey(),
+          BuildfarmConfigs.getInstance().getWorker().getPersistentWorkerInputStaging()
+              == PERSISTENT_WORKER_INPUT_STAGING.HARDLINK);
 
   // TODO load from config (i.e. {worker_root}/persistent)
   public static final Path defaultWorkRootsDir = Path.of("/tmp/worker/persistent/");
@@ -66,15 +72,25 @@ public class PersistentExecutor {
   //  e.g. if builds are run with different tool fingerprints
   private static final int defaultMaxWorkersPerKey = 6;
 
+  // How many requests can run at once on the single multiplex worker for a given WorkerKey
+  private static final int defaultMaxMultiplexRequestsPerKey = 8;
+
   private static int getMaxWorkersPerKey() {
+    return getEnvInt("BUILDFARM_MAX_WORKERS_PER_KEY", defaultMaxWorkersPerKey);
+  }
+
+  private static int getMaxMultiplexRequestsPerKey() {
+    return getEnvInt(
+        "BUILDFARM_MAX_MULTIPLEX_REQUESTS_PER_KEY", defaultMaxMultiplexRequestsPerKey);
+  }
+
+  private static int getEnvInt(String name, int defaultValue) {
     try {
-      return Integer.parseInt(System.getenv("BUILDFARM_MAX_WORKERS_PER_KEY"));
+      return Integer.parseInt(System.getenv(name));
     } catch (Exception ignored) {
-      log.info(
-          "Could not get env var BUILDFARM_MAX_WORKERS_PER_KEY; defaulting to "
-              + defaultMaxWorkersPerKey);
+      log.info("Could not get env var " + name + "; defaulting to " + defaultValue);
     }
-    return defaultMaxWorkersPerKey;
+    return defaultValue;
   }
 
   /**
@@ -82,7 +98,7 @@ public class PersistentExecutor {
    *
    * <ol>
    *   <li>Parses action inputs into tool inputs and request inputs
-   *   <li>Makes the WorkerKey
+   *   <li>Makes the WorkerKey, which is multiplex if requested by the action's platform
    *   <li>Loads the tool inputs, if needed, into the WorkerKey tool inputs dir
    *   <li>Runs the work request on its Coordinator, passing it the required context
    *   <li>Passes output to the resultBuilder
@@ -155,7 +171,8 @@ public class PersistentExecutor {
             workerInitArgs,
             env,
             executionName,
-            workerFiles);
+            workerFiles,
+            limits.persistentWorkerMultiplex);
 
     coordinator.copyToolInputsIntoWorkerToolRoot(key, workerFiles);
 
@@ -16,6 +16,7 @@ package build.buildfarm.worker.persistent;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import build.buildfarm.common.io.Directories;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import com.google.protobuf.util.Durations;
@@ -29,7 +30,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import lombok.extern.java.Log;
 import persistent.bazel.client.CommonsWorkerPool;
+import persistent.bazel.client.MultiplexWorker;
+import persistent.bazel.client.MultiplexWorkerPool;
 import persistent.bazel.client.PersistentWorker;
+import persistent.bazel.client.PersistentWorkerPool;
 import persistent.bazel.client.WorkCoordinator;
 import persistent.bazel.client.WorkerKey;
 import persistent.bazel.client.WorkerSupervisor;
@@ -42,12 +46,24 @@ import persistent.bazel.client.WorkerSupervisor;
  *   <li>pre-request requirements, e.g. ensuring tool input files
  *   <li>post-response requirements, i.e. putting output files in the right place
  * </ol>
+ *
+ * <p>Requests for multiplex WorkerKeys share a single worker, and each is run in its own sandbox
+ * directory under the worker's exec root, named by the request's sandbox_dir.
+ *
+ * <p>Inputs are staged by copying, or, when {@code linkInputs} is set, by hardlinking them from the
+ * operation root, whose inputs are themselves linked from the CAS, so that no file content is
+ * written for tool or request inputs.
  */
 @Log
-public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, CommonsWorkerPool> {
+public class ProtoCoordinator
+    extends WorkCoordinator<RequestCtx, ResponseCtx, PersistentWorkerPool> {
   private static final String WORKER_INIT_LOG_SUFFIX = ".initargs.log";
 
-  private record PendingRequest(PersistentWorker worker, RequestTimeoutHandler task) {}
+  private static final String SANDBOX_DIR = "sandbox";
+
+  // execRoot is the root of the request's inputs and outputs
+  private record PendingRequest(
+      PersistentWorker worker, RequestTimeoutHandler task, Path execRoot) {}
 
   private static final ConcurrentHashMap<RequestCtx, PendingRequest> pendingReqs =
       new ConcurrentHashMap<>();
@@ -64,8 +80,15 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     return toolInputSyncs.computeIfAbsent(key, k -> k);
   }
 
-  public ProtoCoordinator(CommonsWorkerPool workerPool) {
+  private final boolean linkInputs;
+
+  public ProtoCoordinator(PersistentWorkerPool workerPool) {
+    this(workerPool, /* linkInputs= */ false);
+  }
+
+  public ProtoCoordinator(PersistentWorkerPool workerPool, boolean linkInputs) {
     super(workerPool);
+    this.linkInputs = linkInputs;
 
     timeoutScheduler.scheduleAtFixedRate(
         new TimerTask() {
@@ -78,8 +101,16 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
         10000);
   }
 
-  private ProtoCoordinator(WorkerSupervisor supervisor, int maxWorkersPerKey) {
-    super(new CommonsWorkerPool(supervisor, maxWorkersPerKey));
+  private ProtoCoordinator(
+      WorkerSupervisor supervisor,
+      int maxWorkersPerKey,
+      int maxMultiplexRequestsPerKey,
+      boolean linkInputs) {
+    this(
+        new PersistentWorkerPool(
+            new CommonsWorkerPool(supervisor, maxWorkersPerKey),
+            new MultiplexWorkerPool(supervisor, maxMultiplexRequestsPerKey)),
+        linkInputs);
   }
 
   // We copy tool inputs from the shared WorkerKey tools directory into our worker exec root,
@@ -87,6 +118,11 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
   //    and presumably there might be writes to tool inputs?
   // Tool inputs which are absolute-paths (e.g. /usr/bin/...) are not affected
   public static ProtoCoordinator ofCommonsPool(int maxWorkersPerKey) {
+    return ofCommonsPool(maxWorkersPerKey, maxWorkersPerKey, /* linkInputs= */ false);
+  }
+
+  public static ProtoCoordinator ofCommonsPool(
+      int maxWorkersPerKey, int maxMultiplexRequestsPerKey, boolean linkInputs) {
     WorkerSupervisor loadToolsOnCreate =
         new WorkerSupervisor() {
           @Override
@@ -94,7 +130,7 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
             Path keyExecRoot = workerKey.getExecRoot();
             String workerExecDir = getUniqueSubdir(keyExecRoot);
             Path workerExecRoot = keyExecRoot.resolve(workerExecDir);
-            copyToolsIntoWorkerExecRoot(workerKey, workerExecRoot);
+            copyToolsIntoWorkerExecRoot(workerKey, workerExecRoot, linkInputs);
 
             Path initArgsLogFile = workerExecRoot.resolve(workerExecDir + WORKER_INIT_LOG_SUFFIX);
             if (!Files.exists(initArgsLogFile)) {
@@ -108,10 +144,14 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
 
               Files.write(initArgsLogFile, initArgs.toString().getBytes());
             }
+            if (workerKey.isMultiplex()) {
+              return new MultiplexWorker(workerKey, workerExecDir);
+            }
             return new PersistentWorker(workerKey, workerExecDir);
           }
         };
-    return new ProtoCoordinator(loadToolsOnCreate, maxWorkersPerKey);
+    return new ProtoCoordinator(
+        loadToolsOnCreate, maxWorkersPerKey, maxMultiplexRequestsPerKey, linkInputs);
   }
 
   public void copyToolInputsIntoWorkerToolRoot(WorkerKey key, WorkerInputs workerFiles)
@@ -119,12 +159,12 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     WorkerKey lock = keyLock(key);
     synchronized (lock) {
       try {
-        // Copy tool inputs as needed
+        // Copy tool inputs as needed, restoring any which were removed since they were staged
         Path workToolRoot = key.getToolRoot();
         for (Path opToolPath : workerFiles.opToolInputs) {
           Path workToolPath = workerFiles.relativizeInput(workToolRoot, opToolPath);
           if (!Files.exists(workToolPath)) {
-            workerFiles.copyInputFile(opToolPath, workToolPath);
+            stageInputFile(workerFiles, opToolPath, workToolPath);
           }
         }
       } finally {
@@ -141,9 +181,17 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     return uuid;
   }
 
+  private void stageInputFile(WorkerInputs workerInputs, Path from, Path to) throws IOException {
+    if (linkInputs) {
+      workerInputs.linkInputFile(from, to);
+    } else {
+      workerInputs.copyInputFile(from, to);
+    }
+  }
+
   // copyToolInputsIntoWorkerToolRoot() should have been called before this.
-  private static void copyToolsIntoWorkerExecRoot(WorkerKey key, Path workerExecRoot)
-      throws IOException {
+  private static void copyToolsIntoWorkerExecRoot(
+      WorkerKey key, Path workerExecRoot, boolean linkInputs) throws IOException {
     log.log(Level.FINE, "loadToolsIntoWorkerRoot() into: " + workerExecRoot);
 
     Path toolInputRoot = key.getToolRoot();
@@ -151,7 +199,11 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
       Path toolInputPath = toolInputRoot.resolve(relPath);
       Path execRootPath = workerExecRoot.resolve(relPath);
 
-      FileAccessUtils.copyFile(toolInputPath, execRootPath);
+      if (linkInputs) {
+        FileAccessUtils.linkFile(toolInputPath, execRootPath);
+      } else {
+        FileAccessUtils.copyFile(toolInputPath, execRootPath);
+      }
     }
   }
 
@@ -159,7 +211,21 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
   public WorkRequest preWorkInit(WorkerKey key, RequestCtx request, PersistentWorker worker)
       throws IOException {
     checkNotNull(request.timeout);
-    PendingRequest pendingRequest = new PendingRequest(worker, new RequestTimeoutHandler(request));
+    Path workerExecRoot = worker.getExecRoot();
+    Path execRoot = workerExecRoot;
+    WorkRequest workRequest = request.request;
+    if (key.isMultiplex()) {
+      // concurrent requests must not see each other's inputs or outputs
+      Path sandboxRoot = workerExecRoot.resolve(SANDBOX_DIR);
+      execRoot = sandboxRoot.resolve(getUniqueSubdir(sandboxRoot));
+      Files.createDirectories(execRoot);
+      workRequest =
+          workRequest.toBuilder()
+              .setSandboxDir(workerExecRoot.relativize(execRoot).toString())
+              .build();
+    }
+    PendingRequest pendingRequest =
+        new PendingRequest(worker, new RequestTimeoutHandler(request), execRoot);
     PendingRequest alreadyPendingRequest = pendingReqs.putIfAbsent(request, pendingRequest);
     // null means that this request was not in pendingReqs (the expected case)
     if (alreadyPendingRequest != null) {
@@ -174,9 +240,10 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     timeoutScheduler.schedule(pendingRequest.task, Durations.toMillis(request.timeout));
 
     // Symlinking should hypothetically be faster+leaner than copying inputs, but it's buggy.
-    copyNontoolInputs(request.workerInputs, worker.getExecRoot());
+    // Tool inputs are loaded by the worker from its exec root, and are not staged per request.
+    copyNontoolInputs(request.workerInputs, execRoot);
 
-    return request.request;
+    return workRequest;
   }
 
   // After the worker has finished, output files need to be visible in the operation directory
@@ -185,21 +252,31 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
       WorkResponse response, PersistentWorker worker, RequestCtx request) throws IOException {
     PendingRequest pendingRequest = pendingReqs.remove(request);
 
+    Path execRoot = worker.getExecRoot();
     if (pendingRequest != null) {
       pendingRequest.task.cancel();
+      execRoot = pendingRequest.execRoot;
     }
+    boolean sandboxed = !execRoot.equals(worker.getExecRoot());
 
-    if (response == null) {
-      throw new RuntimeException("postWorkCleanup: WorkResponse was null!");
-    }
+    try {
+      if (response == null) {
+        throw new RuntimeException("postWorkCleanup: WorkResponse was null!");
+      }
 
-    if (response.getExitCode() == 0) {
-      try {
-        Path workerExecRoot = worker.getExecRoot();
-        moveOutputsToOperationRoot(request.filesContext, workerExecRoot);
-        cleanUpNontoolInputs(request.workerInputs, workerExecRoot);
-      } catch (IOException e) {
-        throw logBadCleanup(request, e);
+      if (response.getExitCode() == 0) {
+        try {
+          moveOutputsToOperationRoot(request.filesContext, execRoot);
+          if (!sandboxed) {
+            cleanUpNontoolInputs(request.workerInputs, execRoot);
+          }
+        } catch (IOException e) {
+          throw logBadCleanup(request, e);
+        }
+      }
+    } finally {
+      if (sandboxed && Files.exists(execRoot)) {
+        Directories.remove(execRoot, Files.getFileStore(execRoot));
       }
     }
 
@@ -229,7 +306,7 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     for (Path opPath : workerInputs.allInputs.keySet()) {
       if (!workerInputs.allToolInputs.contains(opPath)) {
         Path execPath = workerInputs.relativizeInput(workerExecRoot, opPath);
-        workerInputs.copyInputFile(opPath, execPath);
+        stageInputFile(workerInputs, opPath, execPath);
       }
     }
   }
@@ -278,20 +355,11 @@ public class ProtoCoordinator extends WorkCoordinator<RequestCtx, ResponseCtx, C
     }
   }
 
+  // the failed request invalidates the worker, which must only be returned to the pool once
   private void onTimeout(RequestCtx request, PersistentWorker worker) {
     if (worker != null) {
       log.severe("Persistent Worker timed out on request: " + request.request);
-      try {
-        this.workerPool.invalidateObject(worker.getKey(), worker);
-      } catch (Exception e) {
-        log.severe(
-            "Tried to invalidate worker for request:\n"
-                + request
-                + "\n\tbut got: "
-                + e
-                + "\n\nCalling worker.destroy() and moving on.");
-        worker.destroy();
-      }
+      worker.destroy();
     }
   }
 }
@@ -70,6 +70,11 @@ public class WorkerInputs {
     FileAccessUtils.copyFile(from, to);
   }
 
+  public void linkInputFile(Path from, Path to) throws IOException {
+    checkFileIsInput("linkInputFile()", from);
+    FileAccessUtils.linkFile(from, to);
+  }
+
   public void deleteInputFileIfExists(Path workerExecRoot, Path opPathInput) throws IOException {
     checkFileIsInput("deleteInputFile()", opPathInput);
     Path execPathInput = relativizeInput(workerExecRoot, opPathInput);
@@ -70,6 +70,9 @@ public class ExecutionPropertiesParser {
     parser.put(
         ExecutionProperties.PERSISTENT_WORKER_KEY,
         ExecutionPropertiesParser::storePersistentWorkerKey);
+    parser.put(
+        ExecutionProperties.PERSISTENT_WORKER_MULTIPLEX,
+        ExecutionPropertiesParser::storePersistentWorkerMultiplex);
 
     ResourceLimits limits = new ResourceLimits();
     command
@@ -349,6 +352,18 @@ public class ExecutionPropertiesParser {
     describeChange(xs, "persistentWorkerKey(hash of tool inputs)", property.getValue(), property);
   }
 
+  /**
+   * @brief Stores persistentWorkerMultiplex
+   * @details Parses and stores a boolean.
+   * @param limits Current limits to apply changes to.
+   * @param property The property to store.
+   */
+  private static void storePersistentWorkerMultiplex(ResourceLimits limits, Property property) {
+    limits.persistentWorkerMultiplex = Boolean.parseBoolean(property.getValue());
+    describeChange(
+        limits.description, "persistent worker multiplex", property.getValue(), property);
+  }
+
   /**
    * @brief Store the description of the change made.
    * @details Adds a debug message on the resource change.
@@ -163,4 +163,11 @@ public class ResourceLimits {
    * @details See https://github.com/bazelbuild/bazel/issues/10091
    */
   public String persistentWorkerKey = "";
+
+  /**
+   * @field persistentWorkerMultiplex
+   * @brief Whether to run the action on a multiplex persistent worker
+   * @details Concurrent multiplex requests share a single worker process.
+   */
+  public boolean persistentWorkerMultiplex = false;
 }
@@ -0,0 +1,254 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.WARNING;
+
+import build.buildfarm.backplane.Backplane;
+import build.buildfarm.v1test.Digest;
+import com.google.common.collect.ImmutableList;
+import io.grpc.Status;
+import io.grpc.Status.Code;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.extern.java.Log;
+
+/**
+ * Publishes the locations of blobs put into and expired from a worker's CAS to the backplane in
+ * the background.
+ *
+ * <p>Changes are buffered and coalesced by digest, so that only the latest change to a digest is
+ * published, and are flushed in batches when {@code batchSize} changes are pending, or when the
+ * oldest pending change has waited for {@code flushIntervalMillis}. Callers block while {@code
+ * maxPending} changes are buffered, so that a slow backplane slows the CAS rather than growing the
+ * buffer without bound. Batches which fail because the backplane is unavailable are retried.
+ */
+@Log
+public class BlobLocationPublisher {
+  private static final Gauge pendingLocations =
+      Gauge.build()
+          .name("blob_location_publish_pending")
+          .help("Blob location changes waiting to be published.")
+          .register();
+  private static final Histogram publishTime =
+      Histogram.build()
+          .name("blob_location_publish_time_ms")
+          .help("Blob location publish batch time in ms.")
+          .register();
+  private static final Counter publishedLocations =
+      Counter.build()
+          .name("blob_location_published")
+          .labelNames("operation")
+          .help("Blob location changes published.")
+          .register();
+
+  private final Backplane backplane;
+  private final String workerName;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final int maxPending;
+  private final Thread publisher;
+
+  // true for an added location, false for a removed one
+  private final Map<Digest, Boolean> pending = new LinkedHashMap<>();
+  private long oldestPendingNanos = 0;
+  private boolean stopped = false;
+
+  public BlobLocationPublisher(
+      Backplane backplane,
+      String workerName,
+      int batchSize,
+      long flushIntervalMillis,
+      int maxPending) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    checkArgument(flushIntervalMillis > 0, "flushIntervalMillis must be positive");
+    checkArgument(maxPending >= batchSize, "maxPending must be at least batchSize");
+    this.backplane = backplane;
+    this.workerName = workerName;
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.maxPending = maxPending;
+    publisher = new Thread(this::run, "BlobLocationPublisher");
+    publisher.setDaemon(true);
+  }
+
+  public void start() {
+    publisher.start();
+  }
+
+  /** Publish remaining changes and stop, waiting up to timeoutMillis for the final flush. */
+  public void stop(long timeoutMillis) throws InterruptedException {
+    synchronized (this) {
+      stopped = true;
+      notifyAll();
+    }
+    publisher.join(timeoutMillis);
+    if (publisher.isAlive()) {
+      publisher.interrupt();
+      log.log(WARNING, "blob location publisher did not complete before stop timeout");
+    }
+  }
+
+  public void add(Digest digest) throws InterruptedException {
+    enqueue(digest, /* added= */ true);
+  }
+
+  public void remove(Iterable<Digest> digests) throws InterruptedException {
+    for (Digest digest : digests) {
+      enqueue(digest, /* added= */ false);
+    }
+  }
+
+  private synchronized void enqueue(Digest digest, boolean added) throws InterruptedException {
+    // changes to pending digests coalesce without growing the buffer
+    while (!stopped && pending.size() >= maxPending && !pending.containsKey(digest)) {
+      wait();
+    }
+    if (stopped) {
+      publish(ImmutableList.of(digest), added);
+      return;
+    }
+    if (pending.isEmpty()) {
+      oldestPendingNanos = System.nanoTime();
+    }
+    // reinsert so that iteration order reflects the latest change
+    pending.remove(digest);
+    pending.put(digest, added);
+    pendingLocations.set(pending.size());
+    if (pending.size() == batchSize) {
+      notifyAll();
+    }
+  }
+
+  private synchronized void requeue(Map<Digest, Boolean> batch) {
+    // changes made since the batch was taken are newer and take precedence
+    for (Map.Entry<Digest, Boolean> change : batch.entrySet()) {
+      pending.putIfAbsent(change.getKey(), change.getValue());
+    }
+    oldestPendingNanos = System.nanoTime();
+    pendingLocations.set(pending.size());
+  }
+
+  private synchronized Map<Digest, Boolean> take() throws InterruptedException {
+    for (; ; ) {
+      if (pending.isEmpty()) {
+        if (stopped) {
+          return null;
+        }
+        wait();
+      } else {
+        long waitMillis =
+            flushIntervalMillis - NANOSECONDS.toMillis(System.nanoTime() - oldestPendingNanos);
+        if (stopped || pending.size() >= batchSize || waitMillis <= 0) {
+          break;
+        }
+        wait(waitMillis);
+      }
+    }
+    Map<Digest, Boolean> batch = new LinkedHashMap<>();
+    Iterator<Map.Entry<Digest, Boolean>> changes = pending.entrySet().iterator();
+    while (batch.size() < batchSize && changes.hasNext()) {
+      Map.Entry<Digest, Boolean> change = changes.next();
+      batch.put(change.getKey(), change.getValue());
+      changes.remove();
+    }
+    pendingLocations.set(pending.size());
+    notifyAll();
+    return batch;
+  }
+
+  private synchronized void backoff() throws InterruptedException {
+    if (!stopped) {
+      wait(flushIntervalMillis);
+    }
+  }
+
+  private synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  private void run() {
+    try {
+      Map<Digest, Boolean> batch;
+      while ((batch = take()) != null) {
+        if (!publish(batch)) {
+          if (isStopped()) {
+            log.log(SEVERE, "dropping unpublished blob locations after stop");
+            return;
+          }
+          requeue(batch);
+          backoff();
+        }
+      }
+    } catch (InterruptedException e) {
+      // stopped
+    }
+  }
+
+  private void publish(Iterable<Digest> digests, boolean added) {
+    Map<Digest, Boolean> batch = new LinkedHashMap<>();
+    for (Digest digest : digests) {
+      batch.put(digest, added);
+    }
+    publish(batch);
+  }
+
+  /** Returns false if the batch should be retried. */
+  private boolean publish(Map<Digest, Boolean> batch) {
+    ImmutableList.Builder<Digest> additions = ImmutableList.builder();
+    ImmutableList.Builder<Digest> removals = ImmutableList.builder();
+    for (Map.Entry<Digest, Boolean> change : batch.entrySet()) {
+      if (change.getValue()) {
+        additions.add(change.getKey());
+      } else {
+        removals.add(change.getKey());
+      }
+    }
+    long startNanos = System.nanoTime();
+    try {
+      // both operations are idempotent, a retry may repeat either
+      ImmutableList<Digest> added = additions.build();
+      if (!added.isEmpty()) {
+        backplane.addBlobsLocation(added, workerName);
+        publishedLocations.labels("add").inc(added.size());
+      }
+      ImmutableList<Digest> removed = removals.build();
+      if (!removed.isEmpty()) {
+        backplane.removeBlobsLocation(removed, workerName);
+        publishedLocations.labels("remove").inc(removed.size());
+      }
+      return true;
+    } catch (IOException e) {
+      Status status = Status.fromThrowable(e);
+      if ((status.getCode() == Code.UNAVAILABLE || status.getCode() == Code.DEADLINE_EXCEEDED)
+          && !backplane.isStopped()) {
+        log.log(WARNING, "backplane was unavailable or overloaded, retrying blob locations", e);
+        return false;
+      }
+      log.log(SEVERE, "dropping " + batch.size() + " blob location changes", e);
+      return true;
+    } finally {
+      publishTime.observe(NANOSECONDS.toMicros(System.nanoTime() - startNanos) / 1000.0);
+    }
+  }
+}
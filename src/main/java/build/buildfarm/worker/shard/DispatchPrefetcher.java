@@ -0,0 +1,246 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import build.buildfarm.v1test.QueueEntry;
+import build.buildfarm.worker.shard.ExecutionLeaseRenewer.Lease;
+import com.google.common.collect.ImmutableList;
+import io.grpc.Deadline;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Claims executions from the queue in batches, and buffers those beyond the first for subsequent
+ * matches.
+ *
+ * <p>A dispatch only occurs when the buffer is empty, so that a worker holds at most one batch of
+ * claimed executions, and each batch is bounded by the executions that the worker could begin now.
+ * Buffered executions keep their dispatch leases through the {@link ExecutionLeaseRenewer}, and are
+ * returned to the queue if they are not matched before the prefetch timeout, or when the worker
+ * shuts down. A returned execution was never attempted, and does not count against its requeues.
+ */
+@Log
+class DispatchPrefetcher {
+  private static final Histogram matchTime =
+      Histogram.build()
+          .name("dispatch_match_time_ms")
+          .help("Time to take an execution for a match, from the buffer or the queue, in ms.")
+          .register();
+  private static final Gauge bufferedEntries =
+      Gauge.build()
+          .name("dispatch_prefetch_buffered")
+          .help("Dispatched executions buffered for a match.")
+          .register();
+  private static final Counter prefetchedEntries =
+      Counter.build()
+          .name("dispatch_prefetch_entries")
+          .labelNames("result")
+          .help("Prefetched executions by how they left the buffer.")
+          .register();
+
+  @FunctionalInterface
+  interface Dispatch {
+    /** Claims up to maxEntries executions, blocking while none are queued. */
+    List<QueueEntry> dispatch(int maxEntries) throws IOException, InterruptedException;
+  }
+
+  @FunctionalInterface
+  interface Rejection {
+    void reject(QueueEntry queueEntry) throws IOException;
+  }
+
+  private record Prefetched(Lease lease, Deadline deadline) {}
+
+  private final int batchSize;
+  private final long prefetchTimeoutMillis;
+  private final ExecutionLeaseRenewer leaseRenewer;
+  private final Dispatch dispatch;
+  private final Rejection rejection;
+  private final ScheduledExecutorService expirationService;
+  private final Map<QueueEntry, Prefetched> buffer = new LinkedHashMap<>();
+  private boolean closed = false;
+
+  /**
+   * @param batchSize The most executions to claim with each dispatch
+   * @param prefetchTimeoutMillis The longest that an execution may be buffered
+   * @param leaseRenewer The renewer of dispatch leases for buffered executions
+   * @param dispatch The batch claim of queued executions
+   * @param rejection The return of an unmatched execution to the queue
+   * @param expirationService The scheduler of buffered execution expirations, shut down on close
+   */
+  DispatchPrefetcher(
+      int batchSize,
+      long prefetchTimeoutMillis,
+      ExecutionLeaseRenewer leaseRenewer,
+      Dispatch dispatch,
+      Rejection rejection,
+      ScheduledExecutorService expirationService) {
+    this.batchSize = Math.max(1, batchSize);
+    this.prefetchTimeoutMillis = prefetchTimeoutMillis;
+    this.leaseRenewer = leaseRenewer;
+    this.dispatch = dispatch;
+    this.rejection = rejection;
+    this.expirationService = expirationService;
+  }
+
+  /**
+   * Take the oldest buffered execution, or dispatch a batch if none are buffered.
+   *
+   * <p>Returns null if the dispatch yielded nothing.
+   *
+   * @param freeClaims The executions which could begin now, including the one taken
+   */
+  @Nullable QueueEntry take(int freeClaims) throws IOException, InterruptedException {
+    long startNanos = System.nanoTime();
+    try {
+      expire();
+      QueueEntry queueEntry = poll();
+      if (queueEntry != null) {
+        prefetchedEntries.labels("matched").inc();
+        return queueEntry;
+      }
+      List<QueueEntry> queueEntries =
+          dispatch.dispatch(Math.min(batchSize, Math.max(1, freeClaims)));
+      if (queueEntries.isEmpty()) {
+        return null;
+      }
+      for (QueueEntry prefetched : queueEntries.subList(1, queueEntries.size())) {
+        buffer(prefetched);
+      }
+      return queueEntries.getFirst();
+    } finally {
+      matchTime.observe(NANOSECONDS.toMicros(System.nanoTime() - startNanos) / 1000.0);
+    }
+  }
+
+  private synchronized @Nullable QueueEntry poll() {
+    Iterator<Map.Entry<QueueEntry, Prefetched>> entries = buffer.entrySet().iterator();
+    if (!entries.hasNext()) {
+      return null;
+    }
+    Map.Entry<QueueEntry, Prefetched> entry = entries.next();
+    entries.remove();
+    bufferedEntries.set(buffer.size());
+    // the lease is resumed by the stages which follow a match
+    entry.getValue().lease().pause();
+    return entry.getKey();
+  }
+
+  private void buffer(QueueEntry queueEntry) {
+    synchronized (this) {
+      if (!closed) {
+        Lease lease = leaseRenewer.newLease();
+        buffer.put(
+            queueEntry, new Prefetched(lease, Deadline.after(prefetchTimeoutMillis, MILLISECONDS)));
+        bufferedEntries.set(buffer.size());
+        // the prefetch timeout is enforced here, the lease only fails if it is lost
+        lease.resume(
+            "prefetch", queueEntry, () -> onLeaseFailure(queueEntry), Deadline.after(10, DAYS));
+        expirationService.schedule(this::expire, prefetchTimeoutMillis, MILLISECONDS);
+        return;
+      }
+    }
+    // claimed during close, and returned immediately
+    reject(queueEntry, "returned");
+  }
+
+  /** Return every buffered execution whose prefetch timeout has elapsed to the queue. */
+  void expire() {
+    ImmutableList.Builder<QueueEntry> expired = ImmutableList.builder();
+    synchronized (this) {
+      Iterator<Map.Entry<QueueEntry, Prefetched>> entries = buffer.entrySet().iterator();
+      // entries are buffered in deadline order
+      while (entries.hasNext()) {
+        Map.Entry<QueueEntry, Prefetched> entry = entries.next();
+        if (!entry.getValue().deadline().isExpired()) {
+          break;
+        }
+        entry.getValue().lease().pause();
+        entries.remove();
+        expired.add(entry.getKey());
+      }
+      bufferedEntries.set(buffer.size());
+    }
+    for (QueueEntry queueEntry : expired.build()) {
+      reject(queueEntry, "expired");
+    }
+  }
+
+  private void onLeaseFailure(QueueEntry queueEntry) {
+    synchronized (this) {
+      if (buffer.remove(queueEntry) == null) {
+        return;
+      }
+      bufferedEntries.set(buffer.size());
+    }
+    // the execution is no longer dispatched to us, and may already be elsewhere
+    prefetchedEntries.labels("lost").inc();
+  }
+
+  private void reject(QueueEntry queueEntry, String result) {
+    prefetchedEntries.labels(result).inc();
+    try {
+      // the dispatch counted a requeue attempt for an execution which was never attempted
+      rejection.reject(
+          queueEntry.toBuilder()
+              .setRequeueAttempts(Math.max(0, queueEntry.getRequeueAttempts() - 1))
+              .build());
+    } catch (IOException e) {
+      // the dispatch lease will lapse and requeue the execution
+      log.log(
+          Level.WARNING,
+          format("error returning prefetched %s", queueEntry.getExecuteEntry().getOperationName()),
+          e);
+    }
+  }
+
+  /** Return every buffered execution to the queue, and any claimed hereafter. */
+  void close() {
+    ImmutableList<QueueEntry> queueEntries;
+    synchronized (this) {
+      closed = true;
+      for (Prefetched prefetched : buffer.values()) {
+        prefetched.lease().pause();
+      }
+      queueEntries = ImmutableList.copyOf(buffer.keySet());
+      buffer.clear();
+      bufferedEntries.set(0);
+      // nothing remains to expire, and nothing further is buffered
+      expirationService.shutdownNow();
+    }
+    for (QueueEntry queueEntry : queueEntries) {
+      reject(queueEntry, "returned");
+    }
+  }
+
+  synchronized int size() {
+    return buffer.size();
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import build.buildfarm.common.Poller;
+import build.buildfarm.v1test.QueueEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.Duration;
+import com.google.protobuf.util.Durations;
+import io.grpc.Deadline;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import lombok.extern.java.Log;
+
+/**
+ * Renews the leases of all of a worker's in-flight executions together, once per period, rather
+ * than polling each execution separately.
+ *
+ * <p>Leases are {@link Poller}s, so that the stages which pause and resume pollers are unaware of
+ * the batching. A lease which is lost or whose deadline expires is removed, and only its execution
+ * is notified of the failure. A batch which could not be renewed is retried in the next period.
+ */
+@Log
+class ExecutionLeaseRenewer {
+  private static final Histogram renewalTime =
+      Histogram.build()
+          .name("execution_lease_renewal_time_ms")
+          .help("Execution lease batch renewal time in ms.")
+          .register();
+  private static final Counter lostLeases =
+      Counter.build()
+          .name("execution_leases_lost")
+          .help("Execution leases which could not be renewed.")
+          .register();
+
+  @FunctionalInterface
+  interface Renewal {
+    /** Returns the names of the executions whose leases were not renewed. */
+    Set<String> renew(Iterable<QueueEntry> queueEntries, long requeueAt) throws IOException;
+  }
+
+  private record Registration(
+      String name, QueueEntry queueEntry, Runnable onFailure, Deadline deadline) {
+    String executionName() {
+      return queueEntry.getExecuteEntry().getOperationName();
+    }
+  }
+
+  private final Duration period;
+  private final long leaseMillis;
+  private final Renewal renewal;
+  private final IntConsumer onRenewed;
+  private final Map<Lease, Registration> registrations = new LinkedHashMap<>();
+  private ScheduledExecutorService scheduler = null;
+  private boolean stopped = false;
+
+  /**
+   * A lease on a single execution, renewed with every other active lease while resumed.
+   *
+   * <p>The generic {@link Poller#resume} remains available for polls which are not leases.
+   */
+  class Lease extends Poller {
+    Lease() {
+      super(period);
+    }
+
+    void resume(String name, QueueEntry queueEntry, Runnable onFailure, Deadline deadline) {
+      register(this, new Registration(name, queueEntry, onFailure, deadline));
+    }
+
+    @Override
+    public void pause() {
+      unregister(this, /* registration= */ null);
+      super.pause();
+    }
+  }
+
+  /**
+   * @param period The period between renewals
+   * @param leaseMillis The duration after each renewal at which an execution may be requeued
+   * @param renewal The batch renewal of execution leases
+   * @param onRenewed Receives the number of leases renewed in each period
+   */
+  ExecutionLeaseRenewer(Duration period, long leaseMillis, Renewal renewal, IntConsumer onRenewed) {
+    this.period = period;
+    this.leaseMillis = leaseMillis;
+    this.renewal = renewal;
+    this.onRenewed = onRenewed;
+  }
+
+  Lease newLease() {
+    return new Lease();
+  }
+
+  private synchronized void register(Lease lease, Registration registration) {
+    if (registrations.putIfAbsent(lease, registration) != null) {
+      throw new IllegalStateException("lease is already active");
+    }
+    if (scheduler == null && !stopped) {
+      // renewals begin with the first lease, and the daemon thread idles when none are active
+      long periodMicros = Durations.toMicros(period);
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("ExecutionLeaseRenewer")
+                  .setDaemon(true)
+                  .build());
+      scheduler.scheduleWithFixedDelay(this::renewAll, periodMicros, periodMicros, MICROSECONDS);
+    }
+  }
+
+  /**
+   * Remove a lease if it is active with the registration, or with any registration if null.
+   *
+   * <p>Returns true if the lease was removed.
+   */
+  private synchronized boolean unregister(Lease lease, Registration registration) {
+    if (registration == null) {
+      return registrations.remove(lease) != null;
+    }
+    return registrations.remove(lease, registration);
+  }
+
+  private synchronized Map<Lease, Registration> active() {
+    return new LinkedHashMap<>(registrations);
+  }
+
+  private void fail(Lease lease, Registration registration, String reason) {
+    // a lease paused or resumed since it was renewed is no longer ours to fail
+    if (unregister(lease, registration)) {
+      log.log(
+          Level.WARNING,
+          format(
+              "%s: lease renewal: %s for %s",
+              registration.name(), reason, registration.executionName()));
+      lostLeases.inc();
+      registration.onFailure().run();
+    }
+  }
+
+  void renewAll() {
+    try {
+      Map<Lease, Registration> renewing = new LinkedHashMap<>();
+      for (Map.Entry<Lease, Registration> entry : active().entrySet()) {
+        Registration registration = entry.getValue();
+        if (registration.deadline().isExpired()) {
+          fail(entry.getKey(), registration, "Deadline expired");
+        } else {
+          renewing.put(entry.getKey(), registration);
+        }
+      }
+      if (renewing.isEmpty()) {
+        return;
+      }
+      ImmutableList<QueueEntry> queueEntries =
+          ImmutableList.copyOf(Iterables.transform(renewing.values(), Registration::queueEntry));
+      Set<String> lost;
+      long startNanos = System.nanoTime();
+      try {
+        lost = renewal.renew(queueEntries, System.currentTimeMillis() + leaseMillis);
+      } catch (IOException e) {
+        // the leases are kept until their deadlines, and retried in the next period
+        log.log(Level.SEVERE, format("error while renewing %d leases", renewing.size()), e);
+        return;
+      } finally {
+        renewalTime.observe(NANOSECONDS.toMicros(System.nanoTime() - startNanos) / 1000.0);
+      }
+      int renewed = 0;
+      for (Map.Entry<Lease, Registration> entry : renewing.entrySet()) {
+        Registration registration = entry.getValue();
+        if (lost.contains(registration.executionName())) {
+          fail(entry.getKey(), registration, "Lease lost");
+        } else {
+          renewed++;
+        }
+      }
+      onRenewed.accept(renewed);
+    } catch (RuntimeException e) {
+      // an exception would cancel all subsequent renewals
+      log.log(Level.SEVERE, "error while renewing leases", e);
+    }
+  }
+
+  /** Stop renewing leases, once no executions remain. */
+  synchronized void stop() {
+    stopped = true;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+}
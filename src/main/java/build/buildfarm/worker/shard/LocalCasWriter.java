@@ -18,6 +18,7 @@ import static java.util.concurrent.TimeUnit.DAYS;
 
 import build.bazel.remote.execution.v2.Compressor;
 import build.bazel.remote.execution.v2.RequestMetadata;
+import build.buildfarm.cas.cfc.CASFileCache;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.function.IOSupplier;
 import build.buildfarm.v1test.Digest;
@@ -41,7 +42,12 @@ class LocalCasWriter implements CasWriter {
 
   @Override
   public void write(Digest digest, Path file) throws IOException, InterruptedException {
-    insertStream(digest, () -> Files.newInputStream(file));
+    if (execFileSystem.getStorage() instanceof CASFileCache fileCache) {
+      // the digest was just computed from the file, avoid reading it again
+      fileCache.putFile(digest, file);
+    } else {
+      insertStream(digest, () -> Files.newInputStream(file));
+    }
   }
 
   @Override
@@ -24,6 +24,7 @@ import build.buildfarm.backplane.Backplane;
 import build.buildfarm.common.Size;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.ZstdCompressingInputStream;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import build.buildfarm.common.grpc.Retrier;
 import build.buildfarm.common.grpc.RetryException;
 import build.buildfarm.common.io.FeedbackOutputStream;
@@ -54,17 +55,20 @@ public class RemoteCasWriter implements CasWriter {
   private final LoadingCache<String, StubInstance> workerStubs;
   private final Retrier retrier;
   private final boolean compressedBlobTransfer;
+  private final CompressionContextPool zstdCompressionPool;
   private final Random rand = new Random();
 
   public RemoteCasWriter(
       Backplane backplane,
       LoadingCache<String, StubInstance> workerStubs,
       Retrier retrier,
-      boolean compressedBlobTransfer) {
+      boolean compressedBlobTransfer,
+      CompressionContextPool zstdCompressionPool) {
     this.backplane = backplane;
     this.workerStubs = workerStubs;
     this.retrier = retrier;
     this.compressedBlobTransfer = compressedBlobTransfer;
+    this.zstdCompressionPool = zstdCompressionPool;
   }
 
   @Override
@@ -115,7 +119,7 @@ public class RemoteCasWriter implements CasWriter {
 
   private InputStream maybeCompress(InputStream in) throws IOException {
     if (compressedBlobTransfer) {
-      return new ZstdCompressingInputStream(in);
+      return new ZstdCompressingInputStream(in, zstdCompressionPool);
     }
     return in;
   }
@@ -18,8 +18,11 @@ import static build.buildfarm.cas.ContentAddressableStorage.UNLIMITED_ENTRY_SIZE
 import static build.buildfarm.common.Actions.checkPreconditionFailure;
 import static build.buildfarm.common.Errors.VIOLATION_TYPE_INVALID;
 import static build.buildfarm.common.Errors.VIOLATION_TYPE_MISSING;
+import static io.prometheus.client.Histogram.exponentialBuckets;
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Command;
@@ -29,12 +32,14 @@ import build.bazel.remote.execution.v2.ExecutionStage;
 import build.bazel.remote.execution.v2.Platform;
 import build.buildfarm.backplane.Backplane;
 import build.buildfarm.cas.ContentAddressableStorage;
+import build.buildfarm.cas.cfc.CASFileCache;
 import build.buildfarm.common.Claim;
 import build.buildfarm.common.CommandUtils;
 import build.buildfarm.common.DigestPath;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.DigestUtil.ActionKey;
 import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.common.DirectorySketch;
 import build.buildfarm.common.EntryLimitException;
 import build.buildfarm.common.ExecutionProperties;
 import build.buildfarm.common.InputStreamFactory;
@@ -45,6 +50,7 @@ import build.buildfarm.common.Size;
 import build.buildfarm.common.SystemProcessors;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.config.DequeueMatchSettings;
 import build.buildfarm.common.config.ExecutionPolicy;
 import build.buildfarm.common.function.IOConsumer;
 import build.buildfarm.common.grpc.Retrier;
@@ -67,13 +73,19 @@ import build.buildfarm.worker.resources.LocalResourceSet;
 import build.buildfarm.worker.resources.ResourceDecider;
 import build.buildfarm.worker.resources.ResourceLimits;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.longrunning.Operation;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.Duration;
@@ -83,6 +95,7 @@ import io.grpc.Deadline;
 import io.grpc.Status;
 import io.grpc.StatusException;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -97,7 +110,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import lombok.extern.java.Log;
 import org.jspecify.annotations.Nullable;
@@ -116,6 +137,14 @@ class ShardWorkerContext implements WorkerContext {
       Counter.build().name("completed_operations").help("Completed operations.").register();
   private static final Counter operationPollerCounter =
       Counter.build().name("operation_poller").help("Number of operations polled.").register();
+  private static final Counter outputUploadBytes =
+      Counter.build().name("output_upload_bytes").help("Output bytes uploaded.").register();
+  private static final Histogram outputUploadThroughput =
+      Histogram.build()
+          .name("output_upload_throughput_bytes_per_second")
+          .buckets(exponentialBuckets(/* 64KiB/s */ 1 << 16, 4, 10))
+          .help("Output upload throughput of an action in bytes per second.")
+          .register();
 
   private static BuildfarmConfigs configs = BuildfarmConfigs.getInstance();
 
@@ -123,6 +152,12 @@ class ShardWorkerContext implements WorkerContext {
   private final SetMultimap<String, String> matchProvisions;
   private final Duration operationPollPeriod;
   private final OperationPoller operationPoller;
+  private final ExecutionLeaseRenewer leaseRenewer;
+  private final DispatchPrefetcher dispatchPrefetcher;
+  // the most recent sketch, or null until one is built
+  private final AtomicReference<DirectorySketch> directorySketch = new AtomicReference<>();
+  // rebuilds the sketch, or null without affinity matching
+  private final ScheduledExecutorService sketchService;
   private final int inputFetchDeadline;
   private final int inputFetchStageWidth;
   private final int executeStageWidth;
@@ -142,6 +177,7 @@ class ShardWorkerContext implements WorkerContext {
   private final Group executionsGroup = Group.getRoot().getChild("executions");
   private final Group operationsGroup = executionsGroup.getChild("operations");
   private final CasWriter writer;
+  private final Executor outputUploadService;
   private final boolean errorOperationRemainingResources;
   private final LocalResourceSet resourceSet;
   private final boolean errorOperationOutputSizeExceeded;
@@ -173,7 +209,7 @@ class ShardWorkerContext implements WorkerContext {
    * @details Intended to manage backplane, CFC exec filesystem, and CAS storage interactions
    * @param name Name used to identify this worker on executions
    * @param matchWorkerNames All names where this worker should match Worker platform properties
-   * @param operationPollPeriod Duration between active execution poller runs
+   * @param operationPollPeriod Duration between active execution lease renewals
    * @param operationPoller Poller activity on periodic runs
    * @param inputFetchStageWidth Number of execution slots for concurrent input fetches
    * @param executeStageWidth Number of execution slots for concurrent action execution
@@ -198,6 +234,7 @@ class ShardWorkerContext implements WorkerContext {
    *     size of an output is an error
    * @param resourceSet The resources available to the worker
    * @param writer The CAS writer for output content of executions
+   * @param outputUploadService Executor for hashing and writing output files of executions
    */
   ShardWorkerContext(
       String name,
@@ -222,11 +259,31 @@ class ShardWorkerContext implements WorkerContext {
       boolean errorOperationRemainingResources,
       boolean errorOperationOutputSizeExceeded,
       LocalResourceSet resourceSet,
-      CasWriter writer) {
+      CasWriter writer,
+      Executor outputUploadService) {
     this.name = name;
     this.matchProvisions = getMatchProvisions(policies, matchWorkerNames, executeStageWidth);
     this.operationPollPeriod = operationPollPeriod;
     this.operationPoller = operationPoller;
+    leaseRenewer =
+        new ExecutionLeaseRenewer(
+            operationPollPeriod,
+            /* leaseMillis= */ 30 * 1000,
+            backplane::pollExecutions,
+            operationPollerCounter::inc);
+    DequeueMatchSettings dequeueMatchSettings = configs.getWorker().getDequeueMatchSettings();
+    dispatchPrefetcher =
+        new DispatchPrefetcher(
+            dequeueMatchSettings.getBatchSize(),
+            dequeueMatchSettings.getPrefetchTimeoutMillis(),
+            leaseRenewer,
+            this::dispatch,
+            backplane::rejectOperation,
+            Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("DispatchPrefetcher")
+                    .setDaemon(true)
+                    .build()));
     this.inputFetchStageWidth = inputFetchStageWidth;
     this.executeStageWidth = executeStageWidth;
     this.reportResultStageWidth = reportResultStageWidth;
@@ -246,8 +303,20 @@ class ShardWorkerContext implements WorkerContext {
     this.errorOperationOutputSizeExceeded = errorOperationOutputSizeExceeded;
     this.resourceSet = resourceSet;
     this.writer = writer;
+    this.outputUploadService = outputUploadService;
 
     provideOwnedClaim = this.resourceSet.poolResources.containsKey(EXEC_OWNER_RESOURCE_NAME);
+
+    if (dequeueMatchSettings.isAffinity()) {
+      // the sketch is rebuilt periodically off of the match thread, rather than tracking each
+      // directory put and expiration
+      sketchService =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder().setNameFormat("DirectorySketch").setDaemon(true).build());
+      sketchService.scheduleWithFixedDelay(this::sketchDirectories, 0, 10, SECONDS);
+    } else {
+      sketchService = null;
+    }
   }
 
   private static Retrier createBackplaneRetrier() {
@@ -269,6 +338,16 @@ class ShardWorkerContext implements WorkerContext {
   @Override
   public void prepareForGracefulShutdown() {
     inGracefulShutdown = true;
+    dispatchPrefetcher.close();
+    if (sketchService != null) {
+      // no further matches are made
+      sketchService.shutdownNow();
+    }
+  }
+
+  /** Release the context's background services, once the pipeline has completed. */
+  void stop() {
+    leaseRenewer.stop();
   }
 
   @Override
@@ -284,7 +363,7 @@ class ShardWorkerContext implements WorkerContext {
   @Override
   public Poller createPoller(
       String name, QueueEntry queueEntry, ExecutionStage.Value stage, Executor executor) {
-    Poller poller = new Poller(operationPollPeriod);
+    Poller poller = leaseRenewer.newLease();
     resumePoller(poller, name, queueEntry, stage, () -> {}, Deadline.after(10, DAYS), executor);
     return poller;
   }
@@ -298,6 +377,11 @@ class ShardWorkerContext implements WorkerContext {
       Runnable onFailure,
       Deadline deadline,
       Executor executor) {
+    if (poller instanceof ExecutionLeaseRenewer.Lease lease) {
+      // renewed in a batch with the leases of every other execution on this worker
+      lease.resume(name, queueEntry, onFailure, deadline);
+      return;
+    }
     String operationName = queueEntry.getExecuteEntry().getOperationName();
     poller.resume(
         () -> {
@@ -416,10 +500,8 @@ class ShardWorkerContext implements WorkerContext {
     }
     QueueEntry queueEntry = null;
     try {
-      queueEntry =
-          backplane.dispatchOperation(
-              configs.getWorker().getDequeueMatchSettings().getPlatform().getPropertiesList(),
-              resourceSet);
+      // a batch is bounded by the executions which could begin fetching inputs
+      queueEntry = dispatchPrefetcher.take(listener.getFreeClaims());
     } catch (IOException e) {
       Status status = Status.fromThrowable(e);
       switch (status.getCode()) {
@@ -438,6 +520,32 @@ class ShardWorkerContext implements WorkerContext {
     return queueEntry;
   }
 
+  private List<QueueEntry> dispatch(int maxEntries) throws IOException, InterruptedException {
+    List<Platform.Property> provisions =
+        configs.getWorker().getDequeueMatchSettings().getPlatform().getPropertiesList();
+    DirectorySketch directories = directorySketch.get();
+    if (maxEntries == 1 && directories == null) {
+      QueueEntry queueEntry = backplane.dispatchOperation(provisions, resourceSet);
+      return queueEntry == null ? ImmutableList.of() : ImmutableList.of(queueEntry);
+    }
+    return backplane.dispatchOperations(provisions, resourceSet, maxEntries, directories);
+  }
+
+  private void sketchDirectories() {
+    try {
+      if (execFileSystem.getStorage() instanceof CASFileCache fileCache) {
+        List<String> hashes = new ArrayList<>();
+        fileCache.forEachDirectoryHash(hashes::add);
+        DirectorySketch directories = new DirectorySketch(hashes.size());
+        hashes.forEach(directories::add);
+        directorySketch.set(directories);
+      }
+    } catch (RuntimeException e) {
+      // an exception would cancel all subsequent sketches
+      log.log(Level.SEVERE, "error while sketching directories", e);
+    }
+  }
+
   /** wait until matching should occur, false return indicates that we are shutting down */
   private boolean waitToMatch() throws InterruptedException {
     ContentAddressableStorage storage = execFileSystem.getStorage();
@@ -469,6 +577,11 @@ class ShardWorkerContext implements WorkerContext {
             listener.onWaitEnd();
           }
 
+          @Override
+          public int getFreeClaims() {
+            return listener.getFreeClaims();
+          }
+
           @Override
           public boolean onEntry(@Nullable QueueEntry queueEntry, Claim claim)
               throws InterruptedException {
@@ -626,19 +739,80 @@ class ShardWorkerContext implements WorkerContext {
     return nativePath;
   }
 
-  private void uploadOutputFile(
+  private record UploadedOutputFile(
+      String path, Digest digest, boolean isExecutable, boolean exceededEntryLimit) {}
+
+  /**
+   * An output file upload, which can be awaited until it is no longer running, even once its
+   * future has been cancelled.
+   */
+  private static final class OutputUpload {
+    // claimed by the first of the upload starting or being abandoned
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final ListenableFuture<UploadedOutputFile> file;
+
+    OutputUpload(Callable<UploadedOutputFile> upload, Executor executor) {
+      file =
+          Futures.submit(
+              () -> {
+                if (!claimed.compareAndSet(false, true)) {
+                  return null;
+                }
+                try {
+                  return upload.call();
+                } finally {
+                  finished.countDown();
+                }
+              },
+              executor);
+    }
+
+    void cancel() {
+      if (claimed.compareAndSet(false, true)) {
+        finished.countDown();
+      }
+      file.cancel(true);
+    }
+
+    void awaitFinished() {
+      Uninterruptibles.awaitUninterruptibly(finished);
+    }
+  }
+
+  private void addUploadedOutputFile(
       ActionResult.Builder resultBuilder,
+      UploadedOutputFile uploadedFile,
+      String entrySizeViolationType,
+      PreconditionFailure.Builder preconditionFailure) {
+    resultBuilder
+        .addOutputFilesBuilder()
+        .setPath(uploadedFile.path())
+        .setDigest(DigestUtil.toDigest(uploadedFile.digest()))
+        .setIsExecutable(uploadedFile.isExecutable());
+    if (uploadedFile.exceededEntryLimit()) {
+      preconditionFailure
+          .addViolationsBuilder()
+          .setType(entrySizeViolationType)
+          .setSubject("blobs/" + DigestUtil.toString(uploadedFile.digest()))
+          .setDescription(
+              "An output could not be uploaded because it exceeded the maximum size of an entry");
+    }
+  }
+
+  private @Nullable OutputUpload uploadOutputFile(
       DigestUtil digestUtil,
       Path outputPath,
       Path workingDirectory,
       String entrySizeViolationType,
-      PreconditionFailure.Builder preconditionFailure)
-      throws IOException, InterruptedException {
+      PreconditionFailure.Builder preconditionFailure,
+      AtomicLong uploadedBytes)
+      throws IOException {
     String outputFile = toREOutputPath(workingDirectory.relativize(outputPath).toString());
 
     if (!Files.exists(outputPath)) {
       log.log(Level.FINER, "ReportResultStage: " + outputFile + " does not exist...");
-      return;
+      return null;
     }
 
     if (Files.isDirectory(outputPath)) {
@@ -651,7 +825,7 @@ class ShardWorkerContext implements WorkerContext {
           .setType(VIOLATION_TYPE_INVALID)
           .setSubject(outputFile)
           .setDescription(message);
-      return;
+      return null;
     }
 
     long size = Files.size(outputPath);
@@ -667,35 +841,66 @@ class ShardWorkerContext implements WorkerContext {
           .setType(entrySizeViolationType)
           .setSubject(outputFile + ": " + size)
           .setDescription(message);
-      return;
+      return null;
     }
 
     // will run into issues if we end up blocking on the cache insertion, might
     // want to decrement input references *before* this to ensure that we cannot
     // cause an internal deadlock
 
-    Digest digest;
+    return new OutputUpload(
+        () -> {
+          Digest digest;
+          try {
+            digest = digestUtil.compute(outputPath);
+          } catch (NoSuchFileException e) {
+            return null;
+          }
+
+          boolean isExecutable = Files.isExecutable(outputPath);
+          boolean exceededEntryLimit = false;
+          try {
+            insertFile(digest, outputPath);
+            uploadedBytes.addAndGet(digest.getSize());
+          } catch (EntryLimitException e) {
+            exceededEntryLimit = true;
+          }
+          return new UploadedOutputFile(outputFile, digest, isExecutable, exceededEntryLimit);
+        },
+        outputUploadService);
+  }
+
+  private static void awaitOutputUploads(List<OutputUpload> uploads) throws InterruptedException {
     try {
-      digest = digestUtil.compute(outputPath);
-    } catch (NoSuchFileException e) {
-      return;
+      Futures.successfulAsList(Lists.transform(uploads, upload -> upload.file)).get();
+    } catch (InterruptedException e) {
+      uploads.forEach(OutputUpload::cancel);
+      // cancelled uploads which have started are still running against the action root
+      uploads.forEach(OutputUpload::awaitFinished);
+      throw e;
+    } catch (ExecutionException e) {
+      // successfulAsList does not fail
+      throw new IllegalStateException(e);
     }
+  }
 
-    resultBuilder
-        .addOutputFilesBuilder()
-        .setPath(outputFile)
-        .setDigest(DigestUtil.toDigest(digest))
-        .setIsExecutable(Files.isExecutable(outputPath));
-
+  private static @Nullable UploadedOutputFile getUploadedOutputFile(
+      ListenableFuture<UploadedOutputFile> uploadedFile) throws IOException, InterruptedException {
     try {
-      insertFile(digest, outputPath);
-    } catch (EntryLimitException e) {
-      preconditionFailure
-          .addViolationsBuilder()
-          .setType(entrySizeViolationType)
-          .setSubject("blobs/" + DigestUtil.toString(digest))
-          .setDescription(
-              "An output could not be uploaded because it exceeded the maximum size of an entry");
+      return Futures.getDone(uploadedFile);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.throwIfInstanceOf(cause, IOException.class);
+      Throwables.throwIfInstanceOf(cause, InterruptedException.class);
+      Throwables.throwIfUnchecked(cause);
+      throw new IOException(cause);
+    }
+  }
+
+  private static void recordOutputUpload(long usecs, long bytes) {
+    outputUploadBytes.inc(bytes);
+    if (bytes > 0 && usecs > 0) {
+      outputUploadThroughput.observe(bytes * 1_000_000.0 / usecs);
     }
   }
 
@@ -705,7 +910,8 @@ class ShardWorkerContext implements WorkerContext {
       Path outputDirPath,
       Path workingDirectory,
       String entrySizeViolationType,
-      PreconditionFailure.Builder preconditionFailure)
+      PreconditionFailure.Builder preconditionFailure,
+      AtomicLong uploadedBytes)
       throws IOException, InterruptedException {
     String outputDir = toREOutputPath(workingDirectory.relativize(outputDirPath).toString());
 
@@ -729,21 +935,25 @@ class ShardWorkerContext implements WorkerContext {
           Digest digest = digestPath.digest();
           try {
             insertFile(digest, digestPath.path());
+            uploadedBytes.addAndGet(digest.getSize());
           } catch (InterruptedException e) {
             throw new IOException(e);
           } catch (EntryLimitException e) {
-            preconditionFailure
-                .addViolationsBuilder()
-                .setType(entrySizeViolationType)
-                .setSubject("blobs/" + DigestUtil.toString(digest))
-                .setDescription(
-                    "An output could not be uploaded because it exceeded "
-                        + "the maximum size of an entry");
+            // observed concurrently on the output upload service
+            synchronized (preconditionFailure) {
+              preconditionFailure
+                  .addViolationsBuilder()
+                  .setType(entrySizeViolationType)
+                  .setSubject("blobs/" + DigestUtil.toString(digest))
+                  .setDescription(
+                      "An output could not be uploaded because it exceeded "
+                          + "the maximum size of an entry");
+            }
           }
         };
     Set<FileVisitOption> options =
         configs.getWorker().isCreateSymlinkOutputs() ? NOFOLLOW_LINKS : FOLLOW_LINKS;
-    TreeWalker treeWalker = new TreeWalker(digestUtil, fileObserver);
+    TreeWalker treeWalker = new TreeWalker(digestUtil, fileObserver, outputUploadService);
     Files.walkFileTree(outputDirPath, options, Integer.MAX_VALUE, treeWalker);
     ByteString treeBlob = treeWalker.getTree().toByteString();
     Digest treeDigest = digestUtil.compute(treeBlob);
@@ -763,28 +973,49 @@ class ShardWorkerContext implements WorkerContext {
 
     PreconditionFailure.Builder preconditionFailure = PreconditionFailure.newBuilder();
 
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    AtomicLong uploadedBytes = new AtomicLong();
     Path workingDirectory = actionRoot.resolve(command.getWorkingDirectory());
     List<Path> outputPaths = CommandUtils.getResolvedOutputPaths(command, workingDirectory);
     DigestUtil digestUtil = new DigestUtil(HashFunction.get(actionDigest.getDigestFunction()));
-    for (Path outputPath : outputPaths) {
-      if (Files.isDirectory(outputPath)) {
-        uploadOutputDirectory(
-            resultBuilder,
-            digestUtil,
-            outputPath,
-            workingDirectory,
-            entrySizeViolationType,
-            preconditionFailure);
-      } else {
-        uploadOutputFile(
-            resultBuilder,
-            digestUtil,
-            outputPath,
-            workingDirectory,
-            entrySizeViolationType,
-            preconditionFailure);
+    // output files are hashed and inserted concurrently, and added in their declared order
+    List<OutputUpload> uploadedFiles = new ArrayList<>();
+    try {
+      for (Path outputPath : outputPaths) {
+        if (Files.isDirectory(outputPath)) {
+          uploadOutputDirectory(
+              resultBuilder,
+              digestUtil,
+              outputPath,
+              workingDirectory,
+              entrySizeViolationType,
+              preconditionFailure,
+              uploadedBytes);
+        } else {
+          OutputUpload uploadedFile =
+              uploadOutputFile(
+                  digestUtil,
+                  outputPath,
+                  workingDirectory,
+                  entrySizeViolationType,
+                  preconditionFailure,
+                  uploadedBytes);
+          if (uploadedFile != null) {
+            uploadedFiles.add(uploadedFile);
+          }
+        }
+      }
+    } finally {
+      // wait for every upload, so that none remain in flight once the action root is destroyed
+      awaitOutputUploads(uploadedFiles);
+    }
+    for (OutputUpload uploadedFile : uploadedFiles) {
+      UploadedOutputFile file = getUploadedOutputFile(uploadedFile.file);
+      if (file != null) {
+        addUploadedOutputFile(resultBuilder, file, entrySizeViolationType, preconditionFailure);
       }
     }
+    recordOutputUpload(stopwatch.elapsed(MICROSECONDS), uploadedBytes.get());
     checkPreconditionFailure(actionDigest, preconditionFailure.build());
 
     /* put together our outputs and update the result */
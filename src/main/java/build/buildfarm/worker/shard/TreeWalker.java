@@ -15,6 +15,7 @@
 package build.buildfarm.worker.shard;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.lang.String.format;
 
 import build.bazel.remote.execution.v2.Directory;
@@ -26,7 +27,11 @@ import build.buildfarm.common.DigestPath;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.function.IOConsumer;
 import build.buildfarm.v1test.Digest;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -37,36 +42,54 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import lombok.extern.java.Log;
 
-/** May be used multiple times, but not threadsafe */
+/**
+ * May be used multiple times, but not threadsafe
+ *
+ * <p>Files are hashed and observed on the supplied executor, and the tree is assembled in walk
+ * order once every file has completed, so the result does not depend on the order in which the
+ * files finish.
+ */
 @Log
 class TreeWalker extends SimpleFileVisitor<Path> {
+  private record NamedDirectory(String name, OutputDirectoryContext context) {}
+
   private static final class OutputDirectoryContext {
-    private final List<FileNode> files = new ArrayList<>();
-    private final List<DirectoryNode> directories = new ArrayList<>();
+    private final List<ListenableFuture<FileNode>> files = new ArrayList<>();
+    private final List<NamedDirectory> directories = new ArrayList<>();
     private final List<SymlinkNode> symlinks = new ArrayList<>();
 
-    void addFile(FileNode fileNode) {
+    void addFile(ListenableFuture<FileNode> fileNode) {
       files.add(fileNode);
     }
 
-    void addDirectory(DirectoryNode directoryNode) {
-      directories.add(directoryNode);
+    void addDirectory(String name, OutputDirectoryContext directory) {
+      directories.add(new NamedDirectory(name, directory));
     }
 
     void addSymlink(SymlinkNode symlinkNode) {
       symlinks.add(symlinkNode);
     }
 
-    Directory toDirectory() {
-      files.sort(Comparator.comparing(FileNode::getName));
-      directories.sort(Comparator.comparing(DirectoryNode::getName));
+    // only valid once all files are done
+    Directory toDirectory(List<DirectoryNode> directoryNodes) {
+      List<FileNode> fileNodes = new ArrayList<>(files.size());
+      for (ListenableFuture<FileNode> file : files) {
+        FileNode fileNode = Futures.getUnchecked(file);
+        if (fileNode != null) {
+          fileNodes.add(fileNode);
+        }
+      }
+      fileNodes.sort(Comparator.comparing(FileNode::getName));
+      directoryNodes.sort(Comparator.comparing(DirectoryNode::getName));
       symlinks.sort(Comparator.comparing(SymlinkNode::getName));
       return Directory.newBuilder()
-          .addAllFiles(files)
-          .addAllDirectories(directories)
+          .addAllFiles(fileNodes)
+          .addAllDirectories(directoryNodes)
           .addAllSymlinks(symlinks)
           .build();
     }
@@ -75,14 +98,20 @@ class TreeWalker extends SimpleFileVisitor<Path> {
   private final Stack<OutputDirectoryContext> path = new Stack<>();
   private final DigestUtil digestUtil;
   private final IOConsumer<DigestPath> fileObserver;
-  private Tree.Builder treeBuilder = null;
+  private final Executor executor;
+  private List<ListenableFuture<FileNode>> pendingFiles = null;
   private OutputDirectoryContext currentDirectory = null;
   private Tree tree = null;
   private Path root = null;
 
   TreeWalker(DigestUtil digestUtil, IOConsumer<DigestPath> fileObserver) {
+    this(digestUtil, fileObserver, directExecutor());
+  }
+
+  TreeWalker(DigestUtil digestUtil, IOConsumer<DigestPath> fileObserver, Executor executor) {
     this.digestUtil = digestUtil;
     this.fileObserver = fileObserver;
+    this.executor = executor;
   }
 
   Tree getTree() {
@@ -109,7 +138,15 @@ class TreeWalker extends SimpleFileVisitor<Path> {
             .build());
   }
 
-  private void visitRegularFile(Path file) throws IOException {
+  private void visitRegularFile(Path file) {
+    Path root = this.root;
+    ListenableFuture<FileNode> fileNode =
+        Futures.submit(() -> hashAndObserve(root, file), executor);
+    pendingFiles.add(fileNode);
+    currentDirectory.addFile(fileNode);
+  }
+
+  private FileNode hashAndObserve(Path root, Path file) throws IOException {
     Digest digest;
     try {
       // should we create symlink nodes in output?
@@ -124,19 +161,20 @@ class TreeWalker extends SimpleFileVisitor<Path> {
               "error visiting file %s under output dir %s",
               root.relativize(file), root.toAbsolutePath()),
           e);
-      return;
+      return null;
     }
 
     // should we cast to PosixFilePermissions and do gymnastics there for executable?
 
     // TODO symlink per revision proposal
-    currentDirectory.addFile(
+    FileNode fileNode =
         FileNode.newBuilder()
             .setName(file.getFileName().toString())
             .setDigest(DigestUtil.toDigest(digest))
             .setIsExecutable(Files.isExecutable(file))
-            .build());
+            .build();
     fileObserver.accept(new DigestPath(digest, file));
+    return fileNode;
   }
 
   @Override
@@ -144,7 +182,7 @@ class TreeWalker extends SimpleFileVisitor<Path> {
     path.push(currentDirectory);
     if (currentDirectory == null) {
       // reset state when at root
-      treeBuilder = Tree.newBuilder();
+      pendingFiles = new ArrayList<>();
       root = dir;
     }
     currentDirectory = new OutputDirectoryContext();
@@ -152,24 +190,59 @@ class TreeWalker extends SimpleFileVisitor<Path> {
   }
 
   @Override
-  public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+  public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
     OutputDirectoryContext parentDirectory = path.pop();
-    Directory directory = currentDirectory.toDirectory();
     if (parentDirectory == null) {
-      treeBuilder.setRoot(directory);
-      tree = treeBuilder.build();
-      treeBuilder = null;
+      List<ListenableFuture<FileNode>> files = pendingFiles;
+      pendingFiles = null;
       root = null;
+      awaitFiles(files);
+      Tree.Builder treeBuilder = Tree.newBuilder();
+      treeBuilder.setRoot(buildDirectory(currentDirectory, treeBuilder));
+      tree = treeBuilder.build();
     } else {
-      parentDirectory.addDirectory(
+      parentDirectory.addDirectory(dir.getFileName().toString(), currentDirectory);
+    }
+    currentDirectory = parentDirectory;
+    return FileVisitResult.CONTINUE;
+  }
+
+  // children are added in post-order, matching a serial walk
+  private Directory buildDirectory(OutputDirectoryContext context, Tree.Builder treeBuilder) {
+    List<DirectoryNode> directoryNodes = new ArrayList<>(context.directories.size());
+    for (NamedDirectory child : context.directories) {
+      Directory directory = buildDirectory(child.context(), treeBuilder);
+      directoryNodes.add(
           DirectoryNode.newBuilder()
-              .setName(dir.getFileName().toString())
+              .setName(child.name())
               // FIXME make one digestUtil for all
               .setDigest(DigestUtil.toDigest(digestUtil.compute(directory)))
               .build());
       treeBuilder.addChildren(directory);
     }
-    currentDirectory = parentDirectory;
-    return FileVisitResult.CONTINUE;
+    return context.toDirectory(directoryNodes);
+  }
+
+  // waits for every file, even after a failure, so that none are still in flight on return
+  private static void awaitFiles(List<ListenableFuture<FileNode>> files) throws IOException {
+    try {
+      Futures.successfulAsList(files).get();
+    } catch (InterruptedException e) {
+      files.forEach(file -> file.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for output files");
+    } catch (ExecutionException e) {
+      // successfulAsList does not fail
+      throw new IllegalStateException(e);
+    }
+    for (ListenableFuture<FileNode> file : files) {
+      try {
+        Futures.getDone(file);
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      }
+    }
   }
 }
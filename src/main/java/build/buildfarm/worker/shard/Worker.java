@@ -43,6 +43,7 @@ import build.buildfarm.common.EmptyInputStreamFactory;
 import build.buildfarm.common.FailoverInputStreamFactory;
 import build.buildfarm.common.InputStreamFactory;
 import build.buildfarm.common.LoggingMain;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import build.buildfarm.common.ZstdDecompressingOutputStream.FixedBufferPool;
 import build.buildfarm.common.ZstdDecompressingOutputStream.ZstdFixedBufferPool;
 import build.buildfarm.common.config.BuildfarmConfigs;
@@ -173,7 +174,9 @@ public final class Worker extends LoggingMain {
   private Pipeline pipeline;
   private PipelineStage matchStage;
   private ShardWorkerContext context;
+  private ExecutorService outputUploadService;
   private Backplane backplane;
+  private BlobLocationPublisher blobLocationPublisher;
   private LoadingCache<String, StubInstance> workerStubs;
   private AtomicBoolean released = new AtomicBoolean(true);
   private AtomicBoolean shutdownInitiated = new AtomicBoolean(false);
@@ -272,31 +275,36 @@ public final class Worker extends LoggingMain {
 
   @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
   private ExecFileSystem createFuseExecFileSystem(
-      InputStreamFactory remoteInputStreamFactory, ContentAddressableStorage storage) {
+      InputStreamFactory remoteInputStreamFactory,
+      Executor fetchService,
+      ContentAddressableStorage storage) {
+    // block reads consume only the bytes of their block from these streams
     InputStreamFactory storageInputStreamFactory =
         (compressor, digest, offset) -> {
           checkArgument(compressor == Compressor.Value.IDENTITY);
-          return storage.get(digest).getData().substring((int) offset).newInput();
+          return storage.newInput(compressor, digest, offset);
         };
 
+    long fuseBlockSize = configs.getWorker().getFuseBlockSize();
     InputStreamFactory localPopulatingInputStreamFactory =
         (compressor, blobDigest, offset) -> {
+          if (offset != 0 || blobDigest.getSize() > fuseBlockSize) {
+            // larger blobs are read by range, and their blocks are cached by the fuse cas
+            return remoteInputStreamFactory.newInput(compressor, blobDigest, offset);
+          }
           // FIXME use write
           ByteString content =
-              ByteString.readFrom(
-                  remoteInputStreamFactory.newInput(compressor, blobDigest, offset));
+              ByteString.readFrom(remoteInputStreamFactory.newInput(compressor, blobDigest, 0));
 
           // needs some treatment for compressor
-          if (offset == 0) {
-            // extra computations
-            Blob blob =
-                new Blob(content, new DigestUtil(HashFunction.get(blobDigest.getDigestFunction())));
-            // here's hoping that our digest matches...
-            try {
-              storage.put(blob);
-            } catch (InterruptedException e) {
-              throw new IOException(e);
-            }
+          // extra computations
+          Blob blob =
+              new Blob(content, new DigestUtil(HashFunction.get(blobDigest.getDigestFunction())));
+          // here's hoping that our digest matches...
+          try {
+            storage.put(blob);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
           }
 
           return content.newInput();
@@ -307,7 +315,11 @@ public final class Worker extends LoggingMain {
             root,
             new EmptyInputStreamFactory(
                 new FailoverInputStreamFactory(
-                    storageInputStreamFactory, localPopulatingInputStreamFactory))),
+                    storageInputStreamFactory, localPopulatingInputStreamFactory)),
+            configs.getWorker().getFuseBlockSize(),
+            configs.getWorker().getFuseBlockCacheSize(),
+            configs.getWorker().getFusePrefetchBlocks(),
+            fetchService),
         storage);
   }
 
@@ -368,7 +380,7 @@ public final class Worker extends LoggingMain {
           removeDirectoryService, accessRecorder, fetchService, cfc, owners);
     } else {
       // FIXME not the only fuse backing capacity...
-      return createFuseExecFileSystem(remoteInputStreamFactory, storage);
+      return createFuseExecFileSystem(remoteInputStreamFactory, fetchService, storage);
     }
   }
 
@@ -377,6 +389,7 @@ public final class Worker extends LoggingMain {
       ExecutorService removeDirectoryService,
       Executor accessRecorder,
       FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
       List<Cas> storages)
       throws ConfigurationException {
     ContentAddressableStorage storage = null;
@@ -389,6 +402,7 @@ public final class Worker extends LoggingMain {
               removeDirectoryService,
               accessRecorder,
               zstdBufferPool,
+              zstdCompressionPool,
               cas,
               delegate,
               delegateSkipLoad);
@@ -403,6 +417,7 @@ public final class Worker extends LoggingMain {
       ExecutorService removeDirectoryService,
       Executor accessRecorder,
       FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
       Cas cas,
       ContentAddressableStorage delegate,
       boolean delegateSkipLoad)
@@ -425,6 +440,7 @@ public final class Worker extends LoggingMain {
             accessRecorder,
             /* storage= */ Maps.newConcurrentMap(),
             zstdBufferPool,
+            zstdCompressionPool,
             this::onStoragePut,
             delegate == null ? this::onStorageExpire : (digests) -> {},
             delegate,
@@ -441,6 +457,7 @@ public final class Worker extends LoggingMain {
       Executor accessRecorder,
       ConcurrentMap<String, CASFileCache.Entry> storage,
       FixedBufferPool zstdBufferPool,
+      CompressionContextPool zstdCompressionPool,
       Consumer<Digest> onPut,
       Consumer<Iterable<Digest>> onExpire,
       @Nullable ContentAddressableStorage delegate,
@@ -452,6 +469,9 @@ public final class Worker extends LoggingMain {
           cas.getMaxSizeBytes(),
           maxEntrySizeInBytes, // TODO make this a configurable value for each cas
           cas.getHexBucketLevels(),
+          cas.getLruSegments(),
+          cas.isLruJournal(),
+          cas.isStoreCompressed(),
           cas.isFileDirectoriesIndexInMemory(),
           cas.isExecRootCopyFallback(),
           expireService,
@@ -459,6 +479,7 @@ public final class Worker extends LoggingMain {
           storage,
           LegacyDirectoryCFC.DEFAULT_DIRECTORIES_INDEX_NAME,
           zstdBufferPool,
+          zstdCompressionPool,
           onPut,
           onExpire,
           delegate,
@@ -470,10 +491,14 @@ public final class Worker extends LoggingMain {
         cas.getMaxSizeBytes(),
         maxEntrySizeInBytes,
         cas.getHexBucketLevels(),
+        cas.getLruSegments(),
+        cas.isLruJournal(),
+        cas.isStoreCompressed(),
         expireService,
         accessRecorder,
         storage,
         zstdBufferPool,
+        zstdCompressionPool,
         onPut,
         onExpire,
         delegate,
@@ -514,10 +539,11 @@ public final class Worker extends LoggingMain {
     try {
       // if the worker is a CAS member, it can send/modify blobs in the backplane.
       if (configs.getWorker().getCapabilities().isCas()) {
-        backplane.addBlobLocation(digest, configs.getWorker().getPublicName());
+        blobLocationPublisher.add(digest);
       }
-    } catch (IOException e) {
-      throw Status.fromThrowable(e).asRuntimeException();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Status.CANCELLED.withCause(e).asRuntimeException();
     }
   }
 
@@ -525,9 +551,10 @@ public final class Worker extends LoggingMain {
     if (configs.getWorker().getCapabilities().isCas()) {
       try {
         // if the worker is a CAS member, it can send/modify blobs in the backplane.
-        backplane.removeBlobsLocation(digests, configs.getWorker().getPublicName());
-      } catch (IOException e) {
-        throw Status.fromThrowable(e).asRuntimeException();
+        blobLocationPublisher.remove(digests);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw Status.CANCELLED.withCause(e).asRuntimeException();
       }
     }
   }
@@ -673,8 +700,16 @@ public final class Worker extends LoggingMain {
               /* subscribeToBackplane= */ true,
               /* runFailsafeOperation= */ false,
               this::stripOperation,
-              ShardCodec.DEFAULT_CODEC);
+              ShardCodec.create(configs.getBackplane().getValueEncoding()));
       backplane.start(configs.getWorker().getPublicName(), workerStubs::invalidate);
+      blobLocationPublisher =
+          new BlobLocationPublisher(
+              backplane,
+              configs.getWorker().getPublicName(),
+              configs.getWorker().getBlobLocationBatchSize(),
+              configs.getWorker().getBlobLocationFlushIntervalMillis(),
+              configs.getWorker().getBlobLocationMaxPending());
+      blobLocationPublisher.start();
     } else {
       throw new IllegalArgumentException("Shard Backplane not set in config");
     }
@@ -696,6 +731,22 @@ public final class Worker extends LoggingMain {
               }
             })
         .register();
+    CompressionContextPool zstdCompressionPool =
+        new CompressionContextPool(
+            configs.getWorker().getZstdCompressionLevel(),
+            configs.getWorker().getZstdCompressionPoolSize());
+    Gauge.build()
+        .name("zstd_compression_pool_used")
+        .help("Current number of Zstd compression contexts active")
+        .create()
+        .setChild(
+            new Gauge.Child() {
+              @Override
+              public double get() {
+                return zstdCompressionPool.getNumActive();
+              }
+            })
+        .register();
 
     int inputFetchStageWidth = configs.getWorker().getInputFetchStageWidth();
     int executeStageWidth = configs.getWorker().getExecuteStageWidth();
@@ -733,6 +784,7 @@ public final class Worker extends LoggingMain {
             removeDirectoryService,
             accessRecorder,
             zstdBufferPool,
+            zstdCompressionPool,
             configs.getWorker().getStorages());
     // may modify resourceSet to provide additional resources
     execFileSystem =
@@ -754,11 +806,18 @@ public final class Worker extends LoggingMain {
       Retrier retrier = new Retrier(Backoff.sequential(5), Retrier.DEFAULT_IS_RETRIABLE);
       writer =
           new RemoteCasWriter(
-              backplane, workerStubs, retrier, configs.getWorker().isCompressedBlobTransfer());
+              backplane,
+              workerStubs,
+              retrier,
+              configs.getWorker().isCompressedBlobTransfer(),
+              zstdCompressionPool);
     } else {
       writer = new LocalCasWriter(execFileSystem);
     }
 
+    outputUploadService =
+        BuildfarmExecutors.getOutputUploadPool(configs.getWorker().getOutputUploadConcurrency());
+
     String endpointName = configs.getWorker().getPublicName();
     String hostName = InetAddress.getLocalHost().getHostName();
 
@@ -788,7 +847,8 @@ public final class Worker extends LoggingMain {
             configs.getWorker().isErrorOperationRemainingResources(),
             configs.getWorker().isErrorOperationOutputSizeExceeded(),
             resourceSet,
-            writer);
+            writer,
+            outputUploadService);
 
     pipeline = new Pipeline();
     SuperscalarPipelineStage inputFetchStage = null;
@@ -960,6 +1020,15 @@ public final class Worker extends LoggingMain {
         interrupted = true;
       }
     }
+    if (outputUploadService != null) {
+      // the pipeline is closed, no outputs remain to be uploaded
+      outputUploadService.shutdown();
+      outputUploadService = null;
+    }
+    if (context != null) {
+      // no executions remain with leases to renew
+      context.stop();
+    }
     healthStatusManager.setStatus(
         HealthStatusManager.SERVICE_NAME_ALL_SERVICES, ServingStatus.NOT_SERVING);
     healthCheckMetric.labels("stop").inc();
@@ -988,6 +1057,15 @@ public final class Worker extends LoggingMain {
       }
       server = null;
     }
+    if (blobLocationPublisher != null) {
+      // publish the locations of the final puts and expirations
+      try {
+        blobLocationPublisher.stop(SECONDS.toMillis(shutdownWaitTimeInSeconds));
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+      blobLocationPublisher = null;
+    }
     if (backplane != null) {
       try {
         backplane.stop();
@@ -28,10 +28,18 @@ import build.buildfarm.backplane.Backplane;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.common.DigestUtil.ActionKey;
 import build.buildfarm.v1test.Digest;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -101,10 +109,114 @@ public class ShardActionCacheTest {
     verify(backplane, times(1)).getActionResult(KEY_A);
   }
 
+  @Test
+  public void missesAreCachedWhenEnabled() throws Exception {
+    ShardActionCache cache = newCache(/* maxEntries= */ 10L, /* missExpireMillis= */ 60000);
+
+    assertThat(cache.get(KEY_A).get()).isNull();
+    assertThat(cache.get(KEY_A).get()).isNull();
+
+    verify(backplane, times(1)).getActionResult(KEY_A);
+  }
+
+  @Test
+  public void missesAreNotCachedByDefault() throws Exception {
+    ShardActionCache cache = newCache(/* maxEntries= */ 10L);
+
+    assertThat(cache.get(KEY_A).get()).isNull();
+    assertThat(cache.get(KEY_A).get()).isNull();
+
+    verify(backplane, times(2)).getActionResult(KEY_A);
+  }
+
+  @Test
+  public void readThroughShouldReplaceCachedMiss() throws Exception {
+    ShardActionCache cache = newCache(/* maxEntries= */ 10L, /* missExpireMillis= */ 60000);
+
+    assertThat(cache.get(KEY_A).get()).isNull();
+    cache.readThrough(KEY_A, RESULT_A);
+
+    assertThat(cache.get(KEY_A).get()).isEqualTo(RESULT_A);
+    verify(backplane, times(1)).getActionResult(KEY_A);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void invalidationFromBackplaneShouldEvictMissesAndResults() throws Exception {
+    ShardActionCache cache = newCache(/* maxEntries= */ 10L, /* missExpireMillis= */ 60000);
+    ArgumentCaptor<Consumer<String>> onInvalidated = ArgumentCaptor.forClass(Consumer.class);
+    verify(backplane).setOnActionResultInvalidated(onInvalidated.capture());
+    ActionKey keyB = key("b");
+
+    assertThat(cache.get(KEY_A).get()).isNull();
+    cache.readThrough(keyB, RESULT_A);
+    // a peer has put A and removed B
+    when(backplane.getActionResult(KEY_A)).thenReturn(RESULT_A);
+    onInvalidated.getValue().accept(KEY_A.toString());
+    onInvalidated.getValue().accept(keyB.toString());
+
+    assertThat(cache.get(KEY_A).get()).isEqualTo(RESULT_A);
+    assertThat(cache.get(keyB).get()).isNull();
+    verify(backplane, times(2)).getActionResult(KEY_A);
+    verify(backplane, times(1)).getActionResult(keyB);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void invalidationDuringReadShouldNotCacheMiss() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ShardActionCache cache =
+          new ShardActionCache(
+              /* maxLocalCacheSize= */ 10L,
+              /* missExpireMillis= */ 60000,
+              backplane,
+              MoreExecutors.listeningDecorator(executor));
+      ArgumentCaptor<Consumer<String>> onInvalidated = ArgumentCaptor.forClass(Consumer.class);
+      verify(backplane).setOnActionResultInvalidated(onInvalidated.capture());
+      CountDownLatch reading = new CountDownLatch(1);
+      CountDownLatch invalidated = new CountDownLatch(1);
+      when(backplane.getActionResult(KEY_A))
+          .thenAnswer(
+              invocation -> {
+                reading.countDown();
+                invalidated.await();
+                return null;
+              })
+          .thenReturn(RESULT_A);
+
+      ListenableFuture<ActionResult> stale = cache.get(KEY_A);
+      assertThat(reading.await(10, TimeUnit.SECONDS)).isTrue();
+      // a peer puts A after the read has missed in the backplane
+      onInvalidated.getValue().accept(KEY_A.toString());
+      invalidated.countDown();
+
+      assertThat(stale.get()).isNull();
+      assertThat(cache.get(KEY_A).get()).isEqualTo(RESULT_A);
+      verify(backplane, times(2)).getActionResult(KEY_A);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void invalidateShouldNotifyBackplaneClients() throws Exception {
+    ShardActionCache cache = newCache(/* maxEntries= */ 10L);
+
+    cache.invalidate(KEY_A);
+
+    verify(backplane, times(1)).invalidateActionResult(KEY_A);
+  }
+
   private ShardActionCache newCache(long maxEntries) {
     return new ShardActionCache(maxEntries, backplane, newDirectExecutorService());
   }
 
+  private ShardActionCache newCache(long maxEntries, long missExpireMillis) {
+    return new ShardActionCache(
+        maxEntries, missExpireMillis, backplane, newDirectExecutorService());
+  }
+
   private static ActionKey key(String hash) {
     return DigestUtil.asActionKey(Digest.newBuilder().setHash(hash).setSize(1).build());
   }
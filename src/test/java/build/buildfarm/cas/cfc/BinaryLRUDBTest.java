@@ -0,0 +1,218 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.cas.cfc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.file.StandardOpenOption.APPEND;
+
+import build.buildfarm.cas.cfc.LRUDB.SizeEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BinaryLRUDBTest {
+  private static final String HASH_A =
+      "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+  private static final String HASH_B =
+      "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752";
+  private static final String HASH_C =
+      "fd61a03af4f77d870fc21e05e7e80678095c92d808cfb3b5c279ee04c74aca13";
+
+  private FileSystem fileSystem;
+  private Path lru;
+
+  @Before
+  public void setUp() {
+    fileSystem = Jimfs.newFileSystem();
+    lru = Iterables.getFirst(fileSystem.getRootDirectories(), null).resolve("lru.bin");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    fileSystem.close();
+  }
+
+  private List<SizeEntry> load(BinaryLRUDB db) throws IOException {
+    List<SizeEntry> entries = new ArrayList<>();
+    db.load(lru, entries::add);
+    return entries;
+  }
+
+  private void save(BinaryLRUDB db, SizeEntry... entries) throws IOException {
+    assertThat(db.beginSave(lru)).isTrue();
+    db.save(ImmutableList.copyOf(entries).iterator(), lru);
+  }
+
+  @Test
+  public void saveAndLoadPreservesOrderAndKeys() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    SizeEntry[] entries = {
+      new SizeEntry(HASH_A, 1),
+      new SizeEntry("blake3_" + HASH_B + "_exec", 1L << 40),
+      new SizeEntry(HASH_C + "_dir", 0),
+      new SizeEntry("abc", 3),
+      new SizeEntry("not-a-digest", 4),
+    };
+    save(db, entries);
+
+    assertThat(load(new BinaryLRUDB())).containsExactlyElementsIn(entries).inOrder();
+  }
+
+  @Test
+  public void loadReplaysJournalAfterSnapshot() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    save(db, new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2), new SizeEntry(HASH_C, 3));
+    db.accessed(HASH_A, 1);
+    db.removed(HASH_B);
+    db.accessed(HASH_B + "_exec", 4);
+    db.close(/* complete= */ false);
+
+    assertThat(db.isComplete(lru)).isFalse();
+    assertThat(load(new BinaryLRUDB()))
+        .containsExactly(
+            new SizeEntry(HASH_C, 3), new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B + "_exec", 4))
+        .inOrder();
+  }
+
+  @Test
+  public void loadWithoutSnapshotReplaysJournal() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    db.accessed(HASH_A, 1);
+    db.accessed(HASH_B, 2);
+    db.close(/* complete= */ true);
+
+    assertThat(db.isComplete(lru)).isFalse();
+    assertThat(load(new BinaryLRUDB()))
+        .containsExactly(new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2))
+        .inOrder();
+  }
+
+  @Test
+  public void truncatedJournalRecordIsDiscardedBeforeAppending() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    db.accessed(HASH_A, 1);
+    db.close(/* complete= */ false);
+    Path journal = db.paths(lru).get(1);
+    // a record interrupted by a crash
+    Files.write(journal, new byte[] {1, 0, 32}, APPEND);
+
+    BinaryLRUDB restarted = new BinaryLRUDB();
+    assertThat(load(restarted)).containsExactly(new SizeEntry(HASH_A, 1));
+    restarted.open(lru);
+    restarted.accessed(HASH_B, 2);
+    restarted.close(/* complete= */ false);
+
+    assertThat(load(new BinaryLRUDB()))
+        .containsExactly(new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2))
+        .inOrder();
+  }
+
+  @Test
+  public void completeSaveOnCloseRemovesJournal() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    db.accessed(HASH_A, 1);
+    save(db, new SizeEntry(HASH_A, 1));
+    db.close(/* complete= */ true);
+
+    assertThat(db.isComplete(lru)).isTrue();
+    assertThat(load(new BinaryLRUDB())).containsExactly(new SizeEntry(HASH_A, 1));
+  }
+
+  @Test
+  public void accessAfterSaveLeavesIncomplete() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    save(db, new SizeEntry(HASH_A, 1));
+    db.accessed(HASH_B, 2);
+    db.close(/* complete= */ true);
+
+    assertThat(db.isComplete(lru)).isFalse();
+    assertThat(load(new BinaryLRUDB()))
+        .containsExactly(new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2))
+        .inOrder();
+  }
+
+  @Test
+  public void concurrentSaveIsSkipped() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    assertThat(db.beginSave(lru)).isTrue();
+
+    assertThat(db.beginSave(lru)).isFalse();
+
+    db.save(ImmutableList.<SizeEntry>of().iterator(), lru);
+    assertThat(db.beginSave(lru)).isTrue();
+  }
+
+  @Test
+  public void abandonedSaveAllowsNextSave() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    assertThat(db.beginSave(lru)).isTrue();
+
+    // the listing failed before the save
+    db.endSave();
+
+    assertThat(db.beginSave(lru)).isTrue();
+  }
+
+  @Test
+  public void accessesDuringSaveSurviveIt() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB();
+    db.open(lru);
+    db.accessed(HASH_A, 1);
+    assertThat(db.beginSave(lru)).isTrue();
+    // recorded after the rotation, and possibly missing from the listing
+    db.accessed(HASH_B, 2);
+    db.save(ImmutableList.of(new SizeEntry(HASH_A, 1)).iterator(), lru);
+    db.close(/* complete= */ true);
+
+    assertThat(db.isComplete(lru)).isFalse();
+    assertThat(load(new BinaryLRUDB()))
+        .containsExactly(new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2))
+        .inOrder();
+  }
+
+  @Test
+  public void shouldSaveWhenJournalReachesSnapshotSize() throws IOException {
+    BinaryLRUDB db = new BinaryLRUDB(/* minCompactionBytes= */ 0);
+    db.open(lru);
+    save(db, new SizeEntry(HASH_A, 1), new SizeEntry(HASH_B, 2));
+    assertThat(db.shouldSave()).isFalse();
+
+    db.accessed(HASH_A, 1);
+    db.accessed(HASH_B, 2);
+    db.accessed(HASH_C, 3);
+
+    assertThat(db.shouldSave()).isTrue();
+  }
+}
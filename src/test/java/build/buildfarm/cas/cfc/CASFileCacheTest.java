@@ -21,6 +21,7 @@ import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.common.util.concurrent.MoreExecutors.shutdownAndAwaitTermination;
 import static java.lang.Thread.State.TERMINATED;
 import static java.lang.Thread.State.WAITING;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -52,10 +53,15 @@ import build.buildfarm.common.DigestUtil.HashFunction;
 import build.buildfarm.common.InputStreamFactory;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.Write.NullWrite;
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
+import build.buildfarm.common.ZstdDecompressingOutputStream.FixedBufferPool;
 import build.buildfarm.common.io.Directories;
 import build.buildfarm.common.io.EvenMoreFiles;
 import build.buildfarm.common.io.FeedbackOutputStream;
 import build.buildfarm.v1test.Digest;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -78,8 +84,14 @@ import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CyclicBarrier;
@@ -102,12 +114,13 @@ import org.mockito.stubbing.Answer;
 
 @SuppressWarnings("PMD.TestClassWithoutTestCases")
 class CASFileCacheTest {
-  private final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+  final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
 
-  private CASFileCache fileCache;
+  CASFileCache fileCache;
   private final Path root;
   private final boolean storeFileDirsIndexInMemory;
-  private Map<Digest, ByteString> blobs;
+  private final int lruSegments;
+  Map<Digest, ByteString> blobs;
   private ExecutorService putService;
 
   @Mock private Consumer<Digest> onPut;
@@ -118,11 +131,17 @@ class CASFileCacheTest {
 
   private ExecutorService expireService;
 
-  private ConcurrentMap<String, Entry> storage;
+  ConcurrentMap<String, Entry> storage;
 
   protected CASFileCacheTest(Path fileSystemRoot, boolean storeFileDirsIndexInMemory) {
+    this(fileSystemRoot, storeFileDirsIndexInMemory, /* lruSegments= */ 1);
+  }
+
+  protected CASFileCacheTest(
+      Path fileSystemRoot, boolean storeFileDirsIndexInMemory, int lruSegments) {
     this.root = fileSystemRoot.resolve("cache");
     this.storeFileDirsIndexInMemory = storeFileDirsIndexInMemory;
+    this.lruSegments = lruSegments;
   }
 
   @Before
@@ -153,6 +172,7 @@ class CASFileCacheTest {
             /* maxSizeInBytes= */ 1024,
             /* maxEntrySizeInBytes= */ 1024,
             /* hexBucketLevels= */ 1,
+            lruSegments,
             storeFileDirsIndexInMemory,
             /* execRootFallback= */ false,
             expireService,
@@ -200,6 +220,35 @@ class CASFileCacheTest {
     assertThat(Files.exists(path)).isTrue();
   }
 
+  @Test
+  public void putFileInsertsWithoutConsumingSource() throws IOException, InterruptedException {
+    ByteString blob = ByteString.copyFromUtf8("output");
+    Digest blobDigest = DIGEST_UTIL.compute(blob);
+    Path output = root.resolveSibling("output");
+    Files.write(output, blob.toByteArray());
+    fileCache.putFile(blobDigest, output);
+    assertThat(fileCache.contains(blobDigest, /* result= */ null)).isTrue();
+    assertThat(Files.exists(output)).isTrue();
+    try (InputStream in = fileCache.newInput(Compressor.Value.IDENTITY, blobDigest, 0)) {
+      assertThat(ByteString.readFrom(in)).isEqualTo(blob);
+    }
+  }
+
+  @Test
+  public void putFileRetainsExecutableSourceMode() throws IOException, InterruptedException {
+    ByteString blob = ByteString.copyFromUtf8("executable output");
+    Digest blobDigest = DIGEST_UTIL.compute(blob);
+    Path output = root.resolveSibling("executable_output");
+    Files.write(output, blob.toByteArray());
+    Set<PosixFilePermission> mode = PosixFilePermissions.fromString("rwxr-xr-x");
+    Files.setPosixFilePermissions(output, mode);
+
+    fileCache.putFile(blobDigest, output);
+
+    assertThat(fileCache.contains(blobDigest, /* result= */ null)).isTrue();
+    assertThat(Files.getPosixFilePermissions(output)).containsExactlyElementsIn(mode);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void putEmptyFileThrowsIllegalStateException() throws IOException, InterruptedException {
     InputStreamFactory mockInputStreamFactory = mock(InputStreamFactory.class);
@@ -550,6 +599,150 @@ class CASFileCacheTest {
     }
   }
 
+  private CASFileCache newCompressingCache() throws IOException {
+    CASFileCache compressingCache =
+        new LegacyDirectoryCFC(
+            root,
+            /* maxSizeInBytes= */ 1024,
+            /* maxEntrySizeInBytes= */ 1024,
+            /* hexBucketLevels= */ 1,
+            lruSegments,
+            /* lruJournal= */ false,
+            /* storeCompressed= */ true,
+            storeFileDirsIndexInMemory,
+            /* execRootFallback= */ false,
+            expireService,
+            /* accessRecorder= */ directExecutor(),
+            storage,
+            /* directoriesIndexDbName= */ ":memory:",
+            new FixedBufferPool(/* capacity= */ 2),
+            CompressionContextPool.getDefault(),
+            onPut,
+            onExpire,
+            /* delegate= */ null,
+            /* delegateSkipLoad= */ false,
+            (compressor, digest, offset) -> {
+              throw new NoSuchFileException(digest.getHash());
+            });
+    compressingCache.initializeRootDirectory();
+    return compressingCache;
+  }
+
+  @Test
+  public void compressedWriteIsStoredAsReceived() throws IOException, InterruptedException {
+    CASFileCache compressingCache = newCompressingCache();
+    ByteString content = ByteString.copyFromUtf8(Strings.repeat("compressible ", 32));
+    Digest digest = DIGEST_UTIL.compute(content);
+    ByteString compressed = ByteString.copyFrom(Zstd.compress(content.toByteArray()));
+
+    Write write =
+        compressingCache.getWrite(
+            Compressor.Value.ZSTD, digest, UUID.randomUUID(), RequestMetadata.getDefaultInstance());
+    try (OutputStream out = write.getOutput(1, SECONDS, () -> {})) {
+      compressed.writeTo(out);
+    }
+
+    String key = CASFileCache.getCompressedKey(digest);
+    assertThat(storage.get(key)).isNotNull();
+    assertThat(storage.get(compressingCache.getKey(digest, false))).isNull();
+    assertThat(compressingCache.size()).isEqualTo(compressed.size());
+    try (InputStream in = compressingCache.newInput(Compressor.Value.ZSTD, digest, 0)) {
+      assertThat(ByteString.readFrom(in)).isEqualTo(compressed);
+    }
+    try (InputStream in = compressingCache.newInput(Compressor.Value.IDENTITY, digest, 5)) {
+      assertThat(ByteString.readFrom(in)).isEqualTo(content.substring(5));
+    }
+    assertThat(compressingCache.contains(digest, /* result= */ null)).isTrue();
+  }
+
+  @Test
+  public void uncompressedWriteIsStoredCompressed() throws IOException, InterruptedException {
+    CASFileCache compressingCache = newCompressingCache();
+    ByteString content = ByteString.copyFromUtf8(Strings.repeat("compressible ", 32));
+    Digest digest = DIGEST_UTIL.compute(content);
+
+    Write write =
+        compressingCache.getWrite(
+            Compressor.Value.IDENTITY,
+            digest,
+            UUID.randomUUID(),
+            RequestMetadata.getDefaultInstance());
+    try (OutputStream out = write.getOutput(1, SECONDS, () -> {})) {
+      content.writeTo(out);
+    }
+
+    String key = CASFileCache.getCompressedKey(digest);
+    assertThat(storage.get(key)).isNotNull();
+    assertThat(storage.get(key).size).isLessThan(digest.getSize());
+    try (InputStream in =
+        new ZstdInputStreamNoFinalizer(
+            compressingCache.newInput(Compressor.Value.ZSTD, digest, 0))) {
+      assertThat(ByteString.readFrom(in)).isEqualTo(content);
+    }
+
+    // materializing an input decompresses the stored entry into the identity entry
+    Path path = compressingCache.put(digest, /* isExecutable= */ false).path();
+    assertThat(ByteString.copyFrom(Files.readAllBytes(path))).isEqualTo(content);
+  }
+
+  @Test
+  public void compressedEntryMaterializesExecutable() throws IOException, InterruptedException {
+    CASFileCache compressingCache = newCompressingCache();
+    ByteString content = ByteString.copyFromUtf8(Strings.repeat("executable ", 32));
+    Digest digest = DIGEST_UTIL.compute(content);
+    Write write =
+        compressingCache.getWrite(
+            Compressor.Value.ZSTD, digest, UUID.randomUUID(), RequestMetadata.getDefaultInstance());
+    try (OutputStream out = write.getOutput(1, SECONDS, () -> {})) {
+      out.write(Zstd.compress(content.toByteArray()));
+    }
+
+    Path path = compressingCache.put(digest, /* isExecutable= */ true).path();
+
+    assertThat(path.getFileName().toString()).isEqualTo(compressingCache.getKey(digest, true));
+    assertThat(Files.isExecutable(path)).isTrue();
+    assertThat(ByteString.copyFrom(Files.readAllBytes(path))).isEqualTo(content);
+  }
+
+  @Test
+  public void incompleteCompressedWriteIsDischarged() throws IOException {
+    CASFileCache compressingCache = newCompressingCache();
+    ByteString content = ByteString.copyFromUtf8(Strings.repeat("incomplete ", 32));
+    Digest digest = DIGEST_UTIL.compute(content);
+    byte[] compressed = Zstd.compress(content.substring(0, 64).toByteArray());
+
+    // closes of incomplete writes are only ignored above this stream
+    OutputStream out =
+        compressingCache.newOutput(
+            digest,
+            UUID.randomUUID(),
+            /* isComplete= */ () -> false,
+            /* isReset= */ true,
+            Compressor.Value.ZSTD);
+    out.write(compressed);
+    out.close();
+
+    assertThat(storage.get(CASFileCache.getCompressedKey(digest))).isNull();
+    assertThat(compressingCache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void compressedWriteWithMismatchedContentIsDiscarded() throws IOException {
+    CASFileCache compressingCache = newCompressingCache();
+    ByteString content = ByteString.copyFromUtf8("expected content");
+    Digest digest = DIGEST_UTIL.compute(content);
+    byte[] compressed = Zstd.compress("expected CONTENT".getBytes(StandardCharsets.UTF_8));
+
+    Write write =
+        compressingCache.getWrite(
+            Compressor.Value.ZSTD, digest, UUID.randomUUID(), RequestMetadata.getDefaultInstance());
+    OutputStream out = write.getOutput(1, SECONDS, () -> {});
+    out.write(compressed);
+    assertThrows(DigestMismatchException.class, out::close);
+    assertThat(storage.get(CASFileCache.getCompressedKey(digest))).isNull();
+    assertThat(compressingCache.size()).isEqualTo(0);
+  }
+
   @Test
   public void asyncWriteCompletionDischargesWriteSize() throws IOException {
     ByteString content = ByteString.copyFromUtf8("Hello, World");
@@ -1144,6 +1337,7 @@ class CASFileCacheTest {
             /* maxSizeInBytes= */ 1024,
             /* maxEntrySizeInBytes= */ 1024,
             /* hexBucketLevels= */ 1,
+            lruSegments,
             storeFileDirsIndexInMemory,
             /* execRootFallback= */ false,
             expireService,
@@ -1208,6 +1402,7 @@ class CASFileCacheTest {
             /* maxSizeInBytes= */ 1024,
             /* maxEntrySizeInBytes= */ 1024,
             /* hexBucketLevels= */ 1,
+            lruSegments,
             storeFileDirsIndexInMemory,
             /* execRootFallback= */ false,
             expireService,
@@ -1375,6 +1570,117 @@ class CASFileCacheTest {
     }
   }
 
+  @RunWith(JUnit4.class)
+  public static class NativeSegmentedLRUCASFileCacheTest extends CASFileCacheTest {
+    private int blobCount = 0;
+
+    public NativeSegmentedLRUCASFileCacheTest() throws IOException {
+      super(
+          createTempDirectory(), /* storeFileDirsIndexInMemory= */ true, /* lruSegments= */ 4);
+    }
+
+    private static Path createTempDirectory() throws IOException {
+      if (Thread.interrupted()) {
+        throw new RuntimeException(new InterruptedException());
+      }
+      return Files.createTempDirectory("native-cas-test");
+    }
+
+    // a new blob of size bytes, whose key is in segment
+    private Digest blobInSegment(int segment, int size) {
+      for (; ; ) {
+        ByteString blob =
+            ByteString.copyFromUtf8(Strings.padStart(Integer.toString(blobCount++), size, '0'));
+        Digest digest = DIGEST_UTIL.compute(blob);
+        if (fileCache.segmentIndex(CASFileCache.getKey(digest, false)) == segment) {
+          blobs.put(digest, blob);
+          return digest;
+        }
+      }
+    }
+
+    private String putUnreferenced(Digest digest) throws IOException, InterruptedException {
+      Path path = fileCache.put(digest, /* isExecutable= */ false).path();
+      decrementReference(path);
+      return path.getFileName().toString();
+    }
+
+    @Test
+    public void expirationPrefersSegmentOfInsertedKey() throws Exception {
+      String eldest = putUnreferenced(blobInSegment(0, 100));
+      List<String> segmentOne = new ArrayList<>();
+      for (int i = 0; i < 9; i++) {
+        segmentOne.add(putUnreferenced(blobInSegment(1, 100)));
+      }
+
+      // exceeds the 1024 byte limit by a single entry
+      putUnreferenced(blobInSegment(1, 100));
+
+      assertThat(storage.keySet()).contains(eldest);
+      assertThat(storage.keySet()).doesNotContain(segmentOne.get(0));
+      assertThat(storage.keySet()).containsAtLeastElementsIn(segmentOne.subList(1, 9));
+    }
+
+    @Test
+    public void expirationFallsBackToFollowingSegments() throws Exception {
+      String segmentZero = putUnreferenced(blobInSegment(0, 100));
+      List<String> segmentThree = new ArrayList<>();
+      for (int i = 0; i < 9; i++) {
+        segmentThree.add(putUnreferenced(blobInSegment(3, 100)));
+      }
+
+      // segment 2 is empty, and is followed by segment 3 before segment 0
+      putUnreferenced(blobInSegment(2, 100));
+
+      assertThat(storage.keySet()).contains(segmentZero);
+      assertThat(storage.keySet()).doesNotContain(segmentThree.get(0));
+      assertThat(storage.keySet()).containsAtLeastElementsIn(segmentThree.subList(1, 9));
+    }
+
+    @Test
+    public void contendedAccessMaintainsReferenceCounts() throws Exception {
+      // twice as many bytes as the cache holds, spread over every segment
+      List<Digest> digests = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        digests.add(blobInSegment(i % 4, 64));
+      }
+      int accessorCount = 8;
+      ExecutorService service = newFixedThreadPool(accessorCount);
+      CyclicBarrier barrier = new CyclicBarrier(accessorCount);
+      List<Future<Void>> accessors = new ArrayList<>();
+      try {
+        for (int i = 0; i < accessorCount; i++) {
+          Random random = new Random(i);
+          accessors.add(
+              service.submit(
+                  () -> {
+                    barrier.await();
+                    for (int j = 0; j < 200; j++) {
+                      Digest digest = digests.get(random.nextInt(digests.size()));
+                      Path path = fileCache.put(digest, /* isExecutable= */ false).path();
+                      fileCache.findMissingBlobs(
+                          ImmutableList.of(DigestUtil.toDigest(digest)),
+                          digest.getDigestFunction());
+                      decrementReference(path);
+                    }
+                    return null;
+                  }));
+        }
+        for (Future<Void> accessor : accessors) {
+          accessor.get(30, SECONDS);
+        }
+      } finally {
+        service.shutdownNow();
+      }
+
+      assertThat(fileCache.size()).isAtMost(1024);
+      assertThat(fileCache.unreferencedEntryCount()).isEqualTo(fileCache.entryCount());
+      for (Entry entry : storage.values()) {
+        assertThat(entry.referenceCount).isEqualTo(0);
+      }
+    }
+  }
+
   @RunWith(JUnit4.class)
   @SuppressWarnings("PMD.TestClassWithoutTestCases")
   public static class OsXFileDirsIndexInMemoryCASFileCacheTest extends CASFileCacheTest {
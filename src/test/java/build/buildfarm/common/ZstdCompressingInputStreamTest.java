@@ -1,12 +1,17 @@
 package build.buildfarm.common;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
+import build.buildfarm.common.ZstdCompressingInputStream.CompressionContextPool;
 import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.google.common.io.ByteStreams;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -27,4 +32,100 @@ public class ZstdCompressingInputStreamTest {
     String readBlob = new String(Zstd.decompress(buf, blobToRead.length()), StandardCharsets.UTF_8);
     assertThat(readBlob).isEqualTo(blobToRead);
   }
+
+  private static byte[] decompress(byte[] compressed) throws IOException {
+    try (InputStream in = new ZstdInputStreamNoFinalizer(new ByteArrayInputStream(compressed))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  @Test
+  public void multipleBlocksRoundTrip() throws IOException {
+    // incompressible and compressible halves spanning several input blocks
+    byte[] content = new byte[5 * ZstdCompressingInputStream.INPUT_BUFFER_SIZE + 17];
+    Random random = new Random(1);
+    for (int i = 0; i < content.length / 2; i++) {
+      content[i] = (byte) random.nextInt();
+    }
+
+    byte[] compressed;
+    try (InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(content))) {
+      compressed = ByteStreams.toByteArray(in);
+    }
+
+    assertThat(compressed.length).isLessThan(content.length);
+    assertThat(decompress(compressed)).isEqualTo(content);
+  }
+
+  @Test
+  public void emptyContentProducesFrame() throws IOException {
+    byte[] compressed;
+    try (InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(new byte[0]))) {
+      compressed = ByteStreams.toByteArray(in);
+      assertThat(in.read()).isEqualTo(-1);
+    }
+
+    assertThat(compressed).isNotEmpty();
+    assertThat(decompress(compressed)).isEmpty();
+  }
+
+  @Test
+  public void singleByteReadsMatchBulkReads() throws IOException {
+    byte[] content = "single byte reads of compressed content".getBytes(StandardCharsets.UTF_8);
+    CompressionContextPool pool = new CompressionContextPool(/* level= */ 1, /* maxIdle= */ 1);
+
+    byte[] bulk;
+    try (InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(content), pool)) {
+      bulk = ByteStreams.toByteArray(in);
+    }
+    byte[] single = new byte[bulk.length];
+    try (InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(content), pool)) {
+      for (int i = 0; i < single.length; i++) {
+        int b = in.read();
+        assertThat(b).isAtLeast(0);
+        single[i] = (byte) b;
+      }
+      assertThat(in.read()).isEqualTo(-1);
+    }
+
+    assertThat(single).isEqualTo(bulk);
+  }
+
+  @Test
+  public void closeReturnsContextToPool() throws IOException {
+    CompressionContextPool pool = new CompressionContextPool(/* level= */ 3, /* maxIdle= */ 1);
+    InputStream first =
+        new ZstdCompressingInputStream(new ByteArrayInputStream(new byte[10]), pool);
+    // a second stream does not wait for the first to be closed
+    InputStream second =
+        new ZstdCompressingInputStream(new ByteArrayInputStream(new byte[10]), pool);
+    assertThat(pool.getNumActive()).isEqualTo(2);
+
+    // an incomplete frame must not affect the next stream to use the context
+    first.read();
+    first.close();
+    second.close();
+
+    assertThat(pool.getNumActive()).isEqualTo(0);
+    assertThat(pool.getNumIdle()).isEqualTo(1);
+    byte[] content = "reused".getBytes(StandardCharsets.UTF_8);
+    try (InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(content), pool)) {
+      assertThat(decompress(ByteStreams.toByteArray(in))).isEqualTo(content);
+    }
+  }
+
+  @Test
+  public void readAfterCloseThrows() throws IOException {
+    InputStream in = new ZstdCompressingInputStream(new ByteArrayInputStream(new byte[10]));
+    in.close();
+
+    assertThrows(IOException.class, in::read);
+  }
+
+  @Test
+  public void invalidLevelIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new CompressionContextPool(Zstd.maxCompressionLevel() + 1, /* maxIdle= */ 1));
+  }
 }
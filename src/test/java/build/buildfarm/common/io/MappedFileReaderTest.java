@@ -0,0 +1,112 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.common.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MappedFileReaderTest {
+  private static final ByteString CONTENT = ByteString.copyFromUtf8("0123456789abcdefghij");
+
+  private Path root;
+  private FileStore fileStore;
+  private Path path;
+
+  @Before
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("mapped-file-reader-test");
+    fileStore = Files.getFileStore(root);
+    path = root.resolve("content");
+    Files.write(path, CONTENT.toByteArray());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Directories.remove(root, fileStore);
+  }
+
+  private static List<ByteString> readAll(MappedFileReader reader) throws IOException {
+    List<ByteString> chunks = new ArrayList<>();
+    while (reader.hasNext()) {
+      chunks.add(reader.next());
+    }
+    return chunks;
+  }
+
+  @Test
+  public void readsFileInChunks() throws IOException {
+    List<ByteString> chunks;
+    try (MappedFileReader reader = MappedFileReader.open(path, 0, 0, 8)) {
+      chunks = readAll(reader);
+    }
+
+    assertThat(chunks)
+        .containsExactly(CONTENT.substring(0, 8), CONTENT.substring(8, 16), CONTENT.substring(16))
+        .inOrder();
+  }
+
+  @Test
+  public void readsRangeFromOffsetToLimit() throws IOException {
+    List<ByteString> chunks;
+    try (MappedFileReader reader = MappedFileReader.open(path, 3, 10, 4)) {
+      chunks = readAll(reader);
+    }
+
+    assertThat(ByteString.copyFrom(chunks)).isEqualTo(CONTENT.substring(3, 13));
+    assertThat(chunks.get(chunks.size() - 1).size()).isEqualTo(2);
+  }
+
+  @Test
+  public void limitBeyondEndReadsToEnd() throws IOException {
+    List<ByteString> chunks;
+    try (MappedFileReader reader = MappedFileReader.open(path, 15, 100, 64)) {
+      chunks = readAll(reader);
+    }
+
+    assertThat(chunks).containsExactly(CONTENT.substring(15));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void offsetAtEndHasNoChunks() throws IOException {
+    try (MappedFileReader reader = MappedFileReader.open(path, CONTENT.size(), 0, 8)) {
+      assertThat(reader.hasNext()).isFalse();
+      reader.next();
+    }
+  }
+
+  @Test
+  public void chunksRemainValidAfterClose() throws IOException {
+    ByteString chunk;
+    try (MappedFileReader reader = MappedFileReader.open(path, 0, 0, 8)) {
+      chunk = reader.next();
+    }
+
+    assertThat(chunk).isEqualTo(CONTENT.substring(0, 8));
+  }
+}
@@ -14,9 +14,18 @@
 
 package build.buildfarm.common.redis;
 
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Set;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -144,4 +153,43 @@ public class RedisHashMapMockTest {
     // ASSERT
     verify(redis, times(1)).hlen("test");
   }
+
+  // Function under test: updateExisting
+  // Reason for testing: all values are updated by one script, which reports missing keys.
+  // Failure explanation: values are not sent as key/value pairs, or missing keys are not returned.
+  @Test
+  public void redisUpdateExisting() throws Exception {
+    // ARRANGE
+    RedisHashMap<String> map = testRedisHashMap();
+    when(redis.evalsha(any(String.class), eq(ImmutableList.of("test")), any(List.class)))
+        .thenReturn(ImmutableList.of("key2"));
+
+    // ACT
+    Set<String> missing =
+        map.updateExisting(redis, ImmutableMap.of("key1", "value1", "key2", "value2"));
+
+    // ASSERT
+    verify(redis, times(1))
+        .evalsha(
+            any(String.class),
+            eq(ImmutableList.of("test")),
+            eq(ImmutableList.of("key1", "value1", "key2", "value2")));
+    assertThat(missing).containsExactly("key2");
+  }
+
+  // Function under test: updateExisting
+  // Reason for testing: an empty update does not call redis.
+  // Failure explanation: a script was evaluated for no values.
+  @Test
+  public void redisUpdateExistingEmpty() throws Exception {
+    // ARRANGE
+    RedisHashMap<String> map = testRedisHashMap();
+
+    // ACT
+    Set<String> missing = map.updateExisting(redis, ImmutableMap.of());
+
+    // ASSERT
+    verifyNoInteractions(redis);
+    assertThat(missing).isEmpty();
+  }
 }
@@ -16,6 +16,7 @@ package build.buildfarm.common.redis;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyDouble;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -36,6 +37,7 @@ import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 
 /**
  * @class RedisPriorityQueueMockTest
@@ -79,6 +81,7 @@ public class RedisPriorityQueueMockTest {
 
     // ASSERT
     verify(redis, times(1)).zadd("test", 0, "123:foo");
+    verify(redis, times(1)).lpush("test_notify", "1");
   }
 
   // Function under test: offer
@@ -198,7 +201,7 @@ public class RedisPriorityQueueMockTest {
   @Test
   public void dequeueElementCanBeDequeuedWithTimeout() throws Exception {
     // ARRANGE
-    when(redis.eval(any(String.class), any(List.class), any(List.class))).thenReturn("foo");
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class))).thenReturn("foo");
     RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
 
     // ACT
@@ -214,7 +217,7 @@ public class RedisPriorityQueueMockTest {
   @Test
   public void dequeueElementIsNotDequeuedIfTimeRunsOut() throws Exception {
     // ARRANGE
-    when(redis.eval(any(String.class), any(List.class), any(List.class))).thenReturn(null);
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class))).thenReturn(null);
     RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
 
     // ACT
@@ -230,7 +233,7 @@ public class RedisPriorityQueueMockTest {
   @Test
   public void dequeueInterrupt() throws Exception {
     // ARRANGE
-    when(redis.eval(any(String.class), any(List.class), any(List.class))).thenReturn(null);
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class))).thenReturn(null);
     RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
 
     // ACT
@@ -253,6 +256,24 @@ public class RedisPriorityQueueMockTest {
   @Test
   public void nonBlockingDequeueElementCanBeDequeued() throws Exception {
     // ARRANGE
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class))).thenReturn("foo");
+    RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
+
+    // ACT
+    String val = queue.poll();
+
+    // ASSERT
+    assertThat(val).isEqualTo("foo");
+  }
+
+  // Function under test: poll
+  // Reason for testing: the dequeue script is not loaded on the redis server
+  // Failure explanation: the dequeue does not fall back to sending the script
+  @Test
+  public void nonBlockingDequeueLoadsMissingScript() throws Exception {
+    // ARRANGE
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class)))
+        .thenThrow(new JedisNoScriptException("NOSCRIPT"));
     when(redis.eval(any(String.class), any(List.class), any(List.class))).thenReturn("foo");
     RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
 
@@ -261,6 +282,27 @@ public class RedisPriorityQueueMockTest {
 
     // ASSERT
     assertThat(val).isEqualTo("foo");
+    verify(redis, times(1)).eval(any(String.class), any(List.class), any(List.class));
+  }
+
+  // Function under test: take
+  // Reason for testing: an empty queue waits on the notify list
+  // Failure explanation: the take polls the queue rather than blocking
+  @Test
+  public void dequeueBlocksOnNotifyWhenEmpty() throws Exception {
+    // ARRANGE
+    when(redis.evalsha(any(String.class), any(List.class), any(List.class)))
+        .thenReturn(null)
+        .thenReturn("foo");
+    RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
+
+    // ACT
+    String val = queue.take(Duration.ofSeconds(1));
+
+    // ASSERT
+    assertThat(val).isEqualTo("foo");
+    verify(redis, times(1)).blpop(anyDouble(), eq("test_notify"));
+    verify(redis, times(2)).evalsha(any(String.class), any(List.class), any(List.class));
   }
 
   // Function under test: visit
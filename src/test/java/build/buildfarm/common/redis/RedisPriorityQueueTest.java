@@ -51,6 +51,7 @@ public class RedisPriorityQueueTest {
   private BuildfarmConfigs configs = BuildfarmConfigs.getInstance();
   private JedisPooled pooled;
   private Jedis redis;
+  private Jedis offerRedis;
 
   @Before
   public void setUp() throws Exception {
@@ -59,10 +60,12 @@ public class RedisPriorityQueueTest {
     assertThat(unified).isInstanceOf(JedisPooled.class);
     pooled = (JedisPooled) unified;
     redis = new Jedis(pooled.getPool().getResource());
+    offerRedis = new Jedis(pooled.getPool().getResource());
   }
 
   @After
   public void tearDown() {
+    offerRedis.close();
     redis.close();
     pooled.close();
   }
@@ -251,6 +254,29 @@ public class RedisPriorityQueueTest {
     verifyNoInteractions(service);
   }
 
+  // Function under test: poll
+  // Reason for testing: Test multiple values are polled in priority order
+  // Failure explanation: values are not polled in priority order or are not moved to the dequeue
+  @Test
+  public void pollCountInPriorityOrder() throws Exception {
+    // ARRANGE
+    RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
+    queue.offer("prio_2_1", 2);
+    queue.offer("prio_1_1", 1);
+    queue.offer("prio_3_1", 3);
+    queue.offer("prio_1_2", 1);
+
+    // ACT
+    List<String> vals = queue.poll(3);
+
+    // ASSERT
+    assertThat(vals).containsExactly("prio_1_1", "prio_1_2", "prio_2_1").inOrder();
+    assertThat(queue.size()).isEqualTo(1);
+    assertThat(redis.lrange(queue.getDequeueName(), 0, -1)).hasSize(3);
+    assertThat(queue.poll(3)).containsExactly("prio_3_1");
+    assertThat(queue.poll(3)).isEmpty();
+  }
+
   // Function under test: dequeue
   // Reason for testing: Test dequeue times out correctly
   // Failure explanation: dequeue does not spend the full time waiting for response
@@ -269,6 +295,56 @@ public class RedisPriorityQueueTest {
     verifyNoInteractions(service);
   }
 
+  // Function under test: dequeue
+  // Reason for testing: Test dequeue wakes for an offer rather than waiting out its poll interval
+  // Failure explanation: dequeue does not block on the notify list
+  @Test
+  public void checkDequeueWakesOnOffer() throws Exception {
+    // ARRANGE
+    RedisPriorityQueue queue =
+        new RedisPriorityQueue(redis, "test", /* pollIntervalMillis= */ 60_000);
+    RedisPriorityQueue offerQueue = new RedisPriorityQueue(offerRedis, "test");
+    Thread offerer =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(100);
+              } catch (InterruptedException e) {
+                // offer immediately
+              }
+              offerQueue.offer("foo");
+            });
+
+    // ACT
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    offerer.start();
+    String val = queue.take(Duration.ofSeconds(30));
+    long timeElapsed = stopwatch.elapsed(MILLISECONDS);
+    offerer.join();
+
+    // ASSERT
+    assertThat(val).isEqualTo("foo");
+    assertThat(timeElapsed).isLessThan(10_000L);
+  }
+
+  // Function under test: offer
+  // Reason for testing: Test offers without a taker leave a bounded notify list
+  // Failure explanation: every offer grows the notify list
+  @Test
+  public void checkOffersLeaveSingleNotification() {
+    // ARRANGE
+    RedisPriorityQueue queue = new RedisPriorityQueue(redis, "test");
+
+    // ACT
+    for (int i = 0; i < 10; i++) {
+      queue.offer("foo" + i);
+    }
+
+    // ASSERT
+    assertThat(queue.size()).isEqualTo(10L);
+    assertThat(redis.llen(queue.getNotifyName())).isEqualTo(1L);
+  }
+
   // Function under test: dequeue
   // Reason for testing: The queue supports negative priorities.
   // Failure explanation: negative prioritizes are not handled in the correct order.
@@ -24,6 +24,7 @@ import build.buildfarm.common.config.BuildfarmConfigs;
 import build.buildfarm.instance.shard.JedisClusterFactory;
 import com.google.common.collect.ImmutableList;
 import java.time.Duration;
+import java.util.List;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -137,6 +138,29 @@ public class RedisQueueTest {
     assertThat(redis.lrange(queue.getDequeueName(), 0, -1)).containsExactly("foo", "baz").inOrder();
   }
 
+  @Test
+  public void pollCountShouldPrependEachToDequeue() {
+    RedisQueue queue = new RedisQueue(redis, "test");
+    redis.lpush("test", "foo", "bar", "baz");
+    redis.lpush(queue.getDequeueName(), "qux");
+
+    List<String> values = queue.poll(2);
+
+    assertThat(values).containsExactly("foo", "bar").inOrder();
+    assertThat(redis.lrange("test", 0, -1)).containsExactly("baz");
+    assertThat(redis.lrange(queue.getDequeueName(), 0, -1))
+        .containsExactly("bar", "foo", "qux")
+        .inOrder();
+  }
+
+  @Test
+  public void pollCountEmptyShouldReturnEmpty() {
+    RedisQueue queue = new RedisQueue(redis, "test");
+
+    assertThat(queue.poll(2)).isEmpty();
+    assertThat(redis.lrange(queue.getDequeueName(), 0, -1)).isEmpty();
+  }
+
   @Test
   public void pollEmptyShouldReturnNullAndIgnoreDequeue() {
     RedisQueue queue = new RedisQueue(redis, "test");
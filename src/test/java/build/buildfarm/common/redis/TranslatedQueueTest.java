@@ -0,0 +1,60 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.common.redis;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import build.buildfarm.common.Queue;
+import build.buildfarm.common.config.Backplane.VALUE_ENCODING;
+import build.buildfarm.instance.shard.codec.ShardCodec;
+import build.buildfarm.instance.shard.codec.binary.BinaryCodec;
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.QueueEntry;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.AbstractPipeline;
+
+@RunWith(JUnit4.class)
+public class TranslatedQueueTest {
+  private static final QueueEntry QUEUE_ENTRY =
+      QueueEntry.newBuilder()
+          .setExecuteEntry(ExecuteEntry.newBuilder().setOperationName("shard/operations/binary"))
+          .build();
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void binaryEntryIsRemovedFromDequeueByBase64Encoding() throws Exception {
+    // queued by a BINARY_DUAL_READ instance, and dequeued by a BASE64 instance
+    String binary = BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY);
+    Queue<String> queue = mock(Queue.class);
+    when(queue.take(Duration.ofSeconds(1))).thenReturn(binary);
+    when(queue.removeFromDequeue(binary)).thenReturn(true);
+    TranslatedQueue<QueueEntry> translatedQueue =
+        new TranslatedQueue<>(queue, ShardCodec.create(VALUE_ENCODING.BASE64).queueEntry());
+
+    QueueEntry queueEntry = translatedQueue.take(Duration.ofSeconds(1));
+
+    assertThat(queueEntry).isEqualTo(QUEUE_ENTRY);
+    assertThat(translatedQueue.removeFromDequeue(queueEntry)).isTrue();
+    AbstractPipeline pipeline = mock(AbstractPipeline.class);
+    translatedQueue.removeFromDequeue(pipeline, queueEntry);
+    verify(queue).removeFromDequeue(pipeline, binary);
+  }
+}
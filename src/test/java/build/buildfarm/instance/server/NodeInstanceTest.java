@@ -26,6 +26,7 @@ import static build.buildfarm.instance.server.NodeInstance.OUTPUT_FILE_IS_OUTPUT
 import static build.buildfarm.instance.server.NodeInstance.SYMLINK_TARGET_ABSOLUTE;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
@@ -35,14 +36,17 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import build.bazel.remote.execution.v2.Action;
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Command;
 import build.bazel.remote.execution.v2.Compressor;
+import build.bazel.remote.execution.v2.DigestFunction;
 import build.bazel.remote.execution.v2.Directory;
 import build.bazel.remote.execution.v2.DirectoryNode;
 import build.bazel.remote.execution.v2.ExecutionPolicy;
 import build.bazel.remote.execution.v2.FileNode;
 import build.bazel.remote.execution.v2.OutputDirectory;
+import build.bazel.remote.execution.v2.OutputFile;
 import build.bazel.remote.execution.v2.RequestMetadata;
 import build.bazel.remote.execution.v2.ResultsCachePolicy;
 import build.bazel.remote.execution.v2.SymlinkNode;
@@ -58,6 +62,8 @@ import build.buildfarm.common.TreeIterator.DirectoryEntry;
 import build.buildfarm.common.Watcher;
 import build.buildfarm.common.Write;
 import build.buildfarm.common.Write.WriteCompleteException;
+import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.config.ServerCacheConfigs;
 import build.buildfarm.common.io.FeedbackOutputStream;
 import build.buildfarm.common.net.URL;
 import build.buildfarm.v1test.BackplaneStatus;
@@ -83,7 +89,9 @@ import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.UUID;
@@ -104,7 +112,9 @@ public class NodeInstanceTest {
 
   static class DummyServerInstance extends NodeInstance {
     DummyServerInstance(
-        ContentAddressableStorage contentAddressableStorage, ActionCache actionCache) {
+        ContentAddressableStorage contentAddressableStorage,
+        ActionCache actionCache,
+        boolean ensureOutputsPresent) {
       super(
           /* name= */ null,
           contentAddressableStorage,
@@ -112,7 +122,12 @@ public class NodeInstanceTest {
           /* outstandingOperations= */ null,
           /* completedOperations= */ null,
           /* activeBlobWrites= */ null,
-          false);
+          ensureOutputsPresent);
+    }
+
+    DummyServerInstance(
+        ContentAddressableStorage contentAddressableStorage, ActionCache actionCache) {
+      this(contentAddressableStorage, actionCache, /* ensureOutputsPresent= */ false);
     }
 
     DummyServerInstance() {
@@ -671,6 +686,152 @@ public class NodeInstanceTest {
     assertThat(violation.getDescription()).isEqualTo(String.format(missingFmt, "foo/quux"));
   }
 
+  private static NodeInstance validatingInstance(ValidatedDirectories validatedDirectories) {
+    return new DummyServerInstance() {
+      @Override
+      protected ValidatedDirectories getValidatedDirectories() {
+        return validatedDirectories;
+      }
+    };
+  }
+
+  private static Action inputRootAction(Digest inputRootDigest) {
+    return Action.newBuilder().setInputRootDigest(DigestUtil.toDigest(inputRootDigest)).build();
+  }
+
+  private static final Command COMMAND = Command.newBuilder().addArguments("true").build();
+
+  @Test
+  public void validSubtreesAreRemembered() {
+    Digest fileDigest = DIGEST_UTIL.compute(ByteString.copyFromUtf8("file"));
+    Digest otherDigest = DIGEST_UTIL.compute(ByteString.copyFromUtf8("other"));
+    Directory lib =
+        Directory.newBuilder()
+            .addFiles(
+                FileNode.newBuilder().setName("file").setDigest(DigestUtil.toDigest(fileDigest)))
+            .build();
+    Digest libDigest = DIGEST_UTIL.compute(lib);
+    Directory root =
+        Directory.newBuilder()
+            .addFiles(
+                FileNode.newBuilder().setName("other").setDigest(DigestUtil.toDigest(otherDigest)))
+            .addDirectories(
+                DirectoryNode.newBuilder().setName("lib").setDigest(DigestUtil.toDigest(libDigest)))
+            .build();
+    Digest rootDigest = DIGEST_UTIL.compute(root);
+    ValidatedDirectories validatedDirectories = new ValidatedDirectories(/* maxInputs= */ 100);
+    PreconditionFailure.Builder preconditionFailure = PreconditionFailure.newBuilder();
+    List<build.bazel.remote.execution.v2.Digest> inputDigests = new ArrayList<>();
+
+    validatingInstance(validatedDirectories)
+        .validateAction(
+            DIGEST_UTIL.getDigestFunction(),
+            inputRootAction(rootDigest),
+            COMMAND,
+            ImmutableMap.of(
+                DigestUtil.toDigest(rootDigest), root, DigestUtil.toDigest(libDigest), lib),
+            inputDigests::add,
+            preconditionFailure);
+
+    assertThat(preconditionFailure.getViolationsCount()).isEqualTo(0);
+    assertThat(inputDigests)
+        .containsExactly(DigestUtil.toDigest(otherDigest), DigestUtil.toDigest(fileDigest));
+    assertThat(validatedDirectories.get(libDigest))
+        .containsExactly(DigestUtil.toDigest(fileDigest));
+    assertThat(validatedDirectories.get(rootDigest))
+        .containsExactly(DigestUtil.toDigest(otherDigest), DigestUtil.toDigest(fileDigest));
+  }
+
+  @Test
+  public void rememberedSubtreesAreNotRevalidated() {
+    Digest fileDigest = DIGEST_UTIL.compute(ByteString.copyFromUtf8("file"));
+    // unsorted, which would be a violation if it were validated
+    Directory unsorted =
+        Directory.newBuilder()
+            .addFiles(FileNode.newBuilder().setName("z").setDigest(DigestUtil.toDigest(fileDigest)))
+            .addFiles(FileNode.newBuilder().setName("a").setDigest(DigestUtil.toDigest(fileDigest)))
+            .build();
+    Digest unsortedDigest = DIGEST_UTIL.compute(unsorted);
+    Directory root =
+        Directory.newBuilder()
+            .addDirectories(
+                DirectoryNode.newBuilder()
+                    .setName("unsorted")
+                    .setDigest(DigestUtil.toDigest(unsortedDigest)))
+            .build();
+    Digest rootDigest = DIGEST_UTIL.compute(root);
+    Map<build.bazel.remote.execution.v2.Digest, Directory> directoriesIndex =
+        ImmutableMap.of(
+            DigestUtil.toDigest(rootDigest), root, DigestUtil.toDigest(unsortedDigest), unsorted);
+    ValidatedDirectories validatedDirectories = new ValidatedDirectories(/* maxInputs= */ 100);
+    validatedDirectories.put(unsortedDigest, ImmutableSet.of(DigestUtil.toDigest(fileDigest)));
+    PreconditionFailure.Builder preconditionFailure = PreconditionFailure.newBuilder();
+    List<build.bazel.remote.execution.v2.Digest> inputDigests = new ArrayList<>();
+
+    validatingInstance(validatedDirectories)
+        .validateAction(
+            DIGEST_UTIL.getDigestFunction(),
+            inputRootAction(rootDigest),
+            COMMAND,
+            directoriesIndex,
+            inputDigests::add,
+            preconditionFailure);
+
+    assertThat(preconditionFailure.getViolationsCount()).isEqualTo(0);
+    // inputs of remembered subtrees are still reported for missing blob checks
+    assertThat(inputDigests).containsExactly(DigestUtil.toDigest(fileDigest));
+
+    PreconditionFailure.Builder unrememberedFailure = PreconditionFailure.newBuilder();
+    new DummyServerInstance()
+        .validateAction(
+            DIGEST_UTIL.getDigestFunction(),
+            inputRootAction(rootDigest),
+            COMMAND,
+            directoriesIndex,
+            digest -> {},
+            unrememberedFailure);
+    assertThat(unrememberedFailure.getViolationsList().getFirst().getDescription())
+        .isEqualTo(DIRECTORY_NOT_SORTED);
+  }
+
+  @Test
+  public void invalidSubtreesAreNotRemembered() {
+    Digest fileDigest = DIGEST_UTIL.compute(ByteString.copyFromUtf8("file"));
+    Directory duplicate =
+        Directory.newBuilder()
+            .addFiles(FileNode.newBuilder().setName("a").setDigest(DigestUtil.toDigest(fileDigest)))
+            .addFiles(FileNode.newBuilder().setName("a").setDigest(DigestUtil.toDigest(fileDigest)))
+            .build();
+    Digest duplicateDigest = DIGEST_UTIL.compute(duplicate);
+    Directory root =
+        Directory.newBuilder()
+            .addDirectories(
+                DirectoryNode.newBuilder()
+                    .setName("duplicate")
+                    .setDigest(DigestUtil.toDigest(duplicateDigest)))
+            .build();
+    Digest rootDigest = DIGEST_UTIL.compute(root);
+    ValidatedDirectories validatedDirectories = new ValidatedDirectories(/* maxInputs= */ 100);
+    PreconditionFailure.Builder preconditionFailure = PreconditionFailure.newBuilder();
+
+    validatingInstance(validatedDirectories)
+        .validateAction(
+            DIGEST_UTIL.getDigestFunction(),
+            inputRootAction(rootDigest),
+            COMMAND,
+            ImmutableMap.of(
+                DigestUtil.toDigest(rootDigest),
+                root,
+                DigestUtil.toDigest(duplicateDigest),
+                duplicate),
+            digest -> {},
+            preconditionFailure);
+
+    assertThat(preconditionFailure.getViolationsCount()).isEqualTo(1);
+    assertThat(validatedDirectories.get(duplicateDigest)).isNull();
+    assertThat(validatedDirectories.get(rootDigest)).isNull();
+  }
+
   @SuppressWarnings("unchecked")
   private static void doBlob(
       ContentAddressableStorage contentAddressableStorage,
@@ -788,6 +949,50 @@ public class NodeInstanceTest {
     assertThat(index1Headers).containsEntry("X-Common-Header", "CommonValue");
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void presentOutputsAreNotCheckedAgainWithinMemo() throws Exception {
+    ContentAddressableStorage contentAddressableStorage = mock(ContentAddressableStorage.class);
+    ServerCacheConfigs caches = BuildfarmConfigs.getInstance().getServer().getCaches();
+    caches.setOutputPresenceMemoMillis(TimeUnit.MINUTES.toMillis(1));
+    NodeInstance instance;
+    try {
+      instance =
+          new DummyServerInstance(
+              contentAddressableStorage, /* actionCache= */ null, /* ensureOutputsPresent= */ true);
+    } finally {
+      caches.setOutputPresenceMemoMillis(0);
+    }
+    when(contentAddressableStorage.findMissingBlobs(
+            any(Iterable.class), eq(DigestFunction.Value.SHA256)))
+        .thenReturn(ImmutableList.of());
+    ActionResult actionResult =
+        ActionResult.newBuilder()
+            .addOutputFiles(
+                OutputFile.newBuilder()
+                    .setPath("output")
+                    .setDigest(
+                        DigestUtil.toDigest(
+                            DIGEST_UTIL.compute(ByteString.copyFromUtf8("Output File Content")))))
+            .build();
+
+    for (int i = 0; i < 2; i++) {
+      assertThat(
+              instance
+                  .findMissingActionResultOutputs(
+                      actionResult,
+                      DigestFunction.Value.SHA256,
+                      directExecutor(),
+                      RequestMetadata.getDefaultInstance())
+                  .get())
+          .isEmpty();
+    }
+
+    // the second check is answered by the memo
+    verify(contentAddressableStorage, times(1))
+        .findMissingBlobs(any(Iterable.class), eq(DigestFunction.Value.SHA256));
+  }
+
   @Test
   public void outputDirectoriesFilesAreEnsuredPresent() throws Exception {
     // our test subjects - these should appear in the findMissingBlobs request
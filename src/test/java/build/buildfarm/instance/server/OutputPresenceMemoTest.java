@@ -0,0 +1,60 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.buildfarm.v1test.Digest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class OutputPresenceMemoTest {
+  private final OutputPresenceMemo memo =
+      new OutputPresenceMemo(/* windowMillis= */ 60 * 1000, /* maxEntries= */ 16);
+
+  private static Digest key(int exitCode) {
+    return OutputPresenceMemo.key(ActionResult.newBuilder().setExitCode(exitCode).build());
+  }
+
+  @Test
+  public void verifiedResultIsPresent() {
+    memo.put(key(0), memo.generation());
+
+    assertThat(memo.isPresent(key(0))).isTrue();
+    assertThat(memo.isPresent(key(1))).isFalse();
+  }
+
+  @Test
+  public void invalidatedResultIsNotPresent() {
+    memo.put(key(0), memo.generation());
+
+    memo.invalidateAll();
+
+    assertThat(memo.isPresent(key(0))).isFalse();
+  }
+
+  @Test
+  public void checkBegunBeforeInvalidationIsNotRemembered() {
+    long generation = memo.generation();
+
+    memo.invalidateAll();
+    memo.put(key(0), generation);
+
+    assertThat(memo.isPresent(key(0))).isFalse();
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.buildfarm.common.DirectorySketch;
+import build.buildfarm.instance.shard.ExecutionQueue.Affinity;
+import build.buildfarm.v1test.Digest;
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.InputSubtree;
+import build.buildfarm.v1test.QueueEntry;
+import com.google.protobuf.util.Timestamps;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ExecutionQueueTest {
+  private static final long MAX_WAIT_MILLIS = 60 * 1000;
+
+  private static QueueEntry queueEntry(String name, long queuedMillis, InputSubtree... subtrees) {
+    return QueueEntry.newBuilder()
+        .setExecuteEntry(
+            ExecuteEntry.newBuilder()
+                .setOperationName(name)
+                .setQueuedTimestamp(Timestamps.fromMillis(queuedMillis)))
+        .addAllHeaviestSubtrees(List.of(subtrees))
+        .build();
+  }
+
+  private static QueueEntry queueEntry(String name, InputSubtree... subtrees) {
+    return queueEntry(name, System.currentTimeMillis(), subtrees);
+  }
+
+  private static InputSubtree subtree(String hash, long inputBytes) {
+    return InputSubtree.newBuilder()
+        .setDirectoryDigest(Digest.newBuilder().setHash(hash))
+        .setInputBytes(inputBytes)
+        .build();
+  }
+
+  private static Affinity affinity(String... hashes) {
+    DirectorySketch directories = new DirectorySketch(hashes.length);
+    for (String hash : hashes) {
+      directories.add(hash);
+    }
+    return new Affinity(directories, /* scanDepth= */ 16, MAX_WAIT_MILLIS);
+  }
+
+  @Test
+  public void candidatesWithMostHeldBytesArePreferred() {
+    QueueEntry unheld = queueEntry("unheld", subtree("other", 1000));
+    QueueEntry light = queueEntry("light", subtree("sources", 10));
+    QueueEntry heavy = queueEntry("heavy", subtree("toolchain", 100), subtree("sources", 10));
+
+    List<QueueEntry> preferred =
+        ExecutionQueue.preferred(
+            List.of(unheld, light, heavy),
+            /* maxEntries= */ 2,
+            affinity("toolchain", "sources"));
+
+    assertThat(preferred).containsExactly(heavy, light).inOrder();
+  }
+
+  @Test
+  public void equallyPreferredCandidatesRemainInQueueOrder() {
+    QueueEntry first = queueEntry("first", subtree("toolchain", 100));
+    QueueEntry second = queueEntry("second", subtree("toolchain", 100));
+
+    List<QueueEntry> preferred =
+        ExecutionQueue.preferred(
+            List.of(first, second), /* maxEntries= */ 1, affinity("toolchain"));
+
+    assertThat(preferred).containsExactly(first);
+  }
+
+  @Test
+  public void nothingIsPreferredOverLongWaitingHead() {
+    QueueEntry waiting =
+        queueEntry("waiting", System.currentTimeMillis() - MAX_WAIT_MILLIS, subtree("other", 1));
+    QueueEntry held = queueEntry("held", subtree("toolchain", 100));
+
+    List<QueueEntry> preferred =
+        ExecutionQueue.preferred(
+            List.of(waiting, held), /* maxEntries= */ 1, affinity("toolchain"));
+
+    assertThat(preferred).isEmpty();
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.bazel.remote.execution.v2.FileNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.v1test.InputSubtree;
+import build.buildfarm.v1test.Tree;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InputSubtreesTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  private final Tree.Builder tree = Tree.newBuilder();
+
+  private Digest add(Directory directory) {
+    Digest digest = DigestUtil.toDigest(DIGEST_UTIL.compute(directory));
+    tree.putDirectories(digest.getHash(), directory);
+    return digest;
+  }
+
+  private Digest leaf(String name, long sizeBytes) {
+    return add(
+        Directory.newBuilder()
+            .addFiles(
+                FileNode.newBuilder()
+                    .setName(name)
+                    .setDigest(Digest.newBuilder().setSizeBytes(sizeBytes)))
+            .build());
+  }
+
+  private Digest parent(Digest... children) {
+    Directory.Builder directory = Directory.newBuilder();
+    for (int i = 0; i < children.length; i++) {
+      directory.addDirectories(
+          DirectoryNode.newBuilder().setName("child" + i).setDigest(children[i]));
+    }
+    return add(directory.build());
+  }
+
+  private Tree build(Digest root) {
+    return tree.setRootDigest(DigestUtil.fromDigest(root, DIGEST_UTIL.getDigestFunction())).build();
+  }
+
+  private static List<Long> inputBytes(List<InputSubtree> subtrees) {
+    return subtrees.stream().map(InputSubtree::getInputBytes).toList();
+  }
+
+  @Test
+  public void heaviestSubtreeIsSelected() {
+    Digest toolchain = parent(leaf("compiler", 100), leaf("linker", 50));
+    Digest root = parent(toolchain, leaf("source", 10));
+
+    List<InputSubtree> subtrees = InputSubtrees.heaviest(build(root), /* count= */ 1);
+
+    assertThat(subtrees).hasSize(1);
+    assertThat(subtrees.getFirst().getDirectoryDigest().getHash()).isEqualTo(toolchain.getHash());
+    assertThat(subtrees.getFirst().getInputBytes()).isEqualTo(150);
+  }
+
+  @Test
+  public void heaviestSubtreesAreSplitWithinCount() {
+    Digest compiler = leaf("compiler", 100);
+    Digest linker = leaf("linker", 50);
+    Digest source = leaf("source", 10);
+    Digest root = parent(parent(compiler, linker), source);
+
+    List<InputSubtree> subtrees = InputSubtrees.heaviest(build(root), /* count= */ 3);
+
+    assertThat(subtrees.stream().map(subtree -> subtree.getDirectoryDigest().getHash()).toList())
+        .containsExactly(compiler.getHash(), linker.getHash(), source.getHash())
+        .inOrder();
+    assertThat(inputBytes(subtrees)).containsExactly(100L, 50L, 10L).inOrder();
+  }
+
+  @Test
+  public void emptySubtreesAreNotSelected() {
+    Digest root = parent(add(Directory.getDefaultInstance()), leaf("source", 10));
+
+    assertThat(inputBytes(InputSubtrees.heaviest(build(root), /* count= */ 4)))
+        .containsExactly(10L);
+  }
+
+  @Test
+  public void noSubtreesWithoutCount() {
+    Digest root = parent(leaf("source", 10));
+
+    assertThat(InputSubtrees.heaviest(build(root), /* count= */ 0)).isEmpty();
+  }
+}
@@ -2,14 +2,17 @@ package build.buildfarm.instance.shard;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import build.buildfarm.backplane.Backplane.BlobLocations;
 import build.buildfarm.common.DigestUtil;
 import build.buildfarm.v1test.Digest;
 import com.github.fppt.jedismock.RedisServer;
 import com.github.fppt.jedismock.server.ServiceOptions;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Map;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -54,6 +57,25 @@ public class JedisCasWorkerMapTest {
     assertThat(jedis.ttl(casKey2)).isEqualTo(-2);
   }
 
+  @Test
+  public void getLocationsMapOmitsMissingDigests() {
+    Digest testDigest1 = Digest.newBuilder().setHash("abc").setSize(1).build();
+    Digest testDigest2 = Digest.newBuilder().setHash("xyz").setSize(1).build();
+
+    jedisCasWorkerMap.add(testDigest1, "worker1");
+    jedisCasWorkerMap.add(testDigest1, "worker2");
+    long now = Instant.now().getEpochSecond();
+
+    Map<Digest, BlobLocations> locations =
+        jedisCasWorkerMap.getLocationsMap(Arrays.asList(testDigest1, testDigest2));
+
+    assertThat(locations.keySet()).containsExactly(testDigest1);
+    BlobLocations blobLocations = locations.get(testDigest1);
+    assertThat(blobLocations.workers()).containsExactly("worker1", "worker2");
+    assertThat(blobLocations.insertTime()).isAtLeast(now - 1);
+    assertThat(blobLocations.insertTime()).isAtMost(Instant.now().getEpochSecond());
+  }
+
   @After
   public void tearDown() throws IOException {
     redisServer.stop();
@@ -0,0 +1,126 @@
+package build.buildfarm.instance.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import build.buildfarm.backplane.Backplane.BlobLocations;
+import build.buildfarm.v1test.Digest;
+import com.github.fppt.jedismock.RedisServer;
+import com.github.fppt.jedismock.server.ServiceOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+
+@RunWith(JUnit4.class)
+public class JedisCompactCasWorkerMapTest {
+  private static final String CAS_PREFIX = "ContentAddressableStorage";
+  private static final String CAS_WORKER_ID_PREFIX = "ContentAddressableStorageWorkerIds";
+
+  private RedisServer redisServer;
+  private JedisCluster jedis;
+  private CasWorkerIds workerIds;
+  private JedisCompactCasWorkerMap compactMap;
+
+  @Before
+  public void setup() throws IOException {
+    redisServer =
+        RedisServer.newRedisServer(0, InetAddress.getByName("localhost"))
+            .setOptions(ServiceOptions.defaultOptions().withClusterModeEnabled())
+            .start();
+    jedis =
+        new JedisCluster(
+            Collections.singleton(
+                new HostAndPort(redisServer.getHost(), redisServer.getBindPort())));
+    workerIds = new CasWorkerIds("WorkerIds");
+    compactMap =
+        new JedisCompactCasWorkerMap(
+            jedis, CAS_WORKER_ID_PREFIX, 60, directExecutor(), workerIds);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    redisServer.stop();
+  }
+
+  @Test
+  public void workerIdsAreStable() {
+    int id1 = workerIds.assign(jedis, "worker1");
+    int id2 = workerIds.assign(jedis, "worker2");
+
+    assertThat(id1).isNotEqualTo(id2);
+    assertThat(workerIds.assign(jedis, "worker1")).isEqualTo(id1);
+    // a fresh instance observes the same assignments from redis
+    CasWorkerIds otherWorkerIds = new CasWorkerIds("WorkerIds");
+    assertThat(otherWorkerIds.get(jedis, "worker2")).isEqualTo(id2);
+    assertThat(otherWorkerIds.get(jedis, "worker3")).isNull();
+    assertThat(otherWorkerIds.endpoints(jedis, ImmutableList.of(id1, id2, id2 + 1)))
+        .containsExactly(id1, "worker1", id2, "worker2");
+  }
+
+  @Test
+  public void locationsAreStoredAsWorkerIds() {
+    Digest digest = Digest.newBuilder().setHash("abc").setSize(1).build();
+
+    compactMap.addAll(ImmutableList.of(digest), "worker1");
+    compactMap.add(digest, "worker2");
+
+    int id1 = workerIds.get(jedis, "worker1");
+    int id2 = workerIds.get(jedis, "worker2");
+    assertThat(jedis.smembers(CAS_WORKER_ID_PREFIX + ":abc/1"))
+        .containsExactly(String.valueOf(id1), String.valueOf(id2));
+    assertThat(compactMap.get(digest)).containsExactly("worker1", "worker2");
+    assertThat(compactMap.getAny(digest)).isAnyOf("worker1", "worker2");
+
+    compactMap.remove(digest, "worker1");
+    compactMap.remove(digest, "unknown");
+    assertThat(compactMap.get(digest)).containsExactly("worker2");
+  }
+
+  @Test
+  public void getLocationsMapTranslatesWorkerIds() {
+    Digest digest1 = Digest.newBuilder().setHash("abc").setSize(1).build();
+    Digest digest2 = Digest.newBuilder().setHash("xyz").setSize(1).build();
+    Digest missingDigest = Digest.newBuilder().setHash("def").setSize(1).build();
+
+    compactMap.adjust(digest1, ImmutableSet.of("worker1", "worker2"), ImmutableSet.of());
+    compactMap.add(digest2, "worker2");
+
+    Map<Digest, BlobLocations> locations =
+        compactMap.getLocationsMap(ImmutableList.of(digest1, digest2, missingDigest));
+
+    assertThat(locations.keySet()).containsExactly(digest1, digest2);
+    assertThat(locations.get(digest1).workers()).containsExactly("worker1", "worker2");
+    assertThat(locations.get(digest2).workers()).containsExactly("worker2");
+    assertThat(compactMap.getMap(ImmutableList.of(digest1, missingDigest)))
+        .containsExactly(digest1, ImmutableSet.of("worker1", "worker2"));
+  }
+
+  @Test
+  public void dualReadMergesEndpointLocations() {
+    Digest digest = Digest.newBuilder().setHash("abc").setSize(1).build();
+    JedisCasWorkerMap endpointMap = new JedisCasWorkerMap(jedis, CAS_PREFIX, 60);
+    CasWorkerMap dualReadMap = new DualReadCasWorkerMap(compactMap, endpointMap);
+
+    endpointMap.add(digest, "worker1");
+    dualReadMap.add(digest, "worker2");
+
+    assertThat(endpointMap.get(digest)).containsExactly("worker1");
+    assertThat(compactMap.get(digest)).containsExactly("worker2");
+    assertThat(dualReadMap.get(digest)).containsExactly("worker1", "worker2");
+    assertThat(dualReadMap.getLocationsMap(ImmutableList.of(digest)).get(digest).workers())
+        .containsExactly("worker1", "worker2");
+
+    dualReadMap.adjust(digest, ImmutableSet.of(), ImmutableSet.of("worker1"));
+    assertThat(dualReadMap.get(digest)).containsExactly("worker2");
+  }
+}
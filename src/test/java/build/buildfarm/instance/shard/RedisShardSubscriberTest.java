@@ -506,4 +506,25 @@ public class RedisShardSubscriberTest {
         WORKER_CHANNEL, ShardCodec.DEFAULT_CODEC.workerChange().print(workerRemove));
     verify(onWorkerRemoved, times(2)).accept(removeWorkerName);
   }
+
+  @Test
+  public void actionCacheMessagesCallOnActionResultInvalidated() {
+    String actionCacheChannel = "action-cache-channel";
+    Consumer<String> onActionResultInvalidated = mock(Consumer.class);
+    RedisShardSubscriber operationSubscriber =
+        new RedisShardSubscriber(
+            /* watchers= */ null,
+            /* workers= */ null,
+            WorkerType.NONE.getNumber(),
+            WORKER_CHANNEL,
+            name -> {},
+            actionCacheChannel,
+            onActionResultInvalidated,
+            directExecutor(),
+            ShardCodec.DEFAULT_CODEC);
+
+    operationSubscriber.onMessage(actionCacheChannel, "action/142");
+
+    verify(onActionResultInvalidated, times(1)).accept("action/142");
+  }
 }
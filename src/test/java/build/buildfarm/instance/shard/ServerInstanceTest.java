@@ -43,6 +43,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -55,6 +56,7 @@ import build.bazel.remote.execution.v2.Digest;
 import build.bazel.remote.execution.v2.DigestFunction;
 import build.bazel.remote.execution.v2.Directory;
 import build.bazel.remote.execution.v2.DirectoryNode;
+import build.bazel.remote.execution.v2.FileNode;
 import build.bazel.remote.execution.v2.ExecuteOperationMetadata;
 import build.bazel.remote.execution.v2.ExecuteResponse;
 import build.bazel.remote.execution.v2.ExecutionPolicy;
@@ -72,12 +74,14 @@ import build.buildfarm.common.Poller;
 import build.buildfarm.common.Watcher;
 import build.buildfarm.common.Write.NullWrite;
 import build.buildfarm.common.config.BuildfarmConfigs;
+import build.buildfarm.common.config.ServerCacheConfigs;
 import build.buildfarm.instance.stub.StubInstance;
 import build.buildfarm.v1test.ExecuteEntry;
 import build.buildfarm.v1test.QueueEntry;
 import build.buildfarm.v1test.QueuedOperation;
 import build.buildfarm.v1test.QueuedOperationMetadata;
 import build.buildfarm.v1test.ShardWorker;
+import build.buildfarm.v1test.Tree;
 import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.cache.CacheBuilder;
@@ -1296,20 +1300,29 @@ public class ServerInstanceTest {
                 Digest.newBuilder().setHash("toBeFoundDuplicate").setSizeBytes(1).build(),
                 Digest.newBuilder().setHash("missingDuplicate").setSizeBytes(1).build()));
 
-    Map<build.buildfarm.v1test.Digest, Set<String>> digestAndWorkersMap = new HashMap<>();
+    long serverStartTime = 1686951033L; // june 15th, 2023
+    long oneDay = 86400L;
+    Map<build.buildfarm.v1test.Digest, Backplane.BlobLocations> digestAndLocationsMap =
+        new HashMap<>();
 
     Random random = new Random();
     for (Digest digest : availableDigests) {
-      digestAndWorkersMap.put(
-          DigestUtil.fromDigest(digest, digestFunction), getRandomSubset(activeWorkers, random));
+      digestAndLocationsMap.put(
+          DigestUtil.fromDigest(digest, digestFunction),
+          new Backplane.BlobLocations(
+              getRandomSubset(activeWorkers, random), serverStartTime + oneDay));
     }
     for (Digest digest : missingDigests) {
-      digestAndWorkersMap.put(
-          DigestUtil.fromDigest(digest, digestFunction), getRandomSubset(expiredWorkers, random));
+      digestAndLocationsMap.put(
+          DigestUtil.fromDigest(digest, digestFunction),
+          new Backplane.BlobLocations(
+              getRandomSubset(expiredWorkers, random), serverStartTime + oneDay));
     }
     for (Digest digest : digestAvailableOnImposters) {
-      digestAndWorkersMap.put(
-          DigestUtil.fromDigest(digest, digestFunction), getRandomSubset(imposterWorkers, random));
+      digestAndLocationsMap.put(
+          DigestUtil.fromDigest(digest, digestFunction),
+          new Backplane.BlobLocations(
+              getRandomSubset(imposterWorkers, random), serverStartTime - oneDay));
     }
 
     BuildfarmConfigs buildfarmConfigs = instance.getBuildFarmConfigs();
@@ -1318,28 +1331,19 @@ public class ServerInstanceTest {
     activeAndImposterWorkers.addAll(imposterWorkers);
 
     when(mockBackplane.getStorageWorkers()).thenReturn(activeAndImposterWorkers);
-    when(mockBackplane.getBlobDigestsWorkers(any(Iterable.class))).thenReturn(digestAndWorkersMap);
+    when(mockBackplane.getBlobDigestsLocations(any(Iterable.class)))
+        .thenReturn(digestAndLocationsMap);
     when(mockInstanceLoader.load(anyString())).thenReturn(mockWorkerInstance);
     when(mockWorkerInstance.findMissingBlobs(
             anyIterable(), any(DigestFunction.Value.class), any(RequestMetadata.class)))
         .thenReturn(Futures.immediateFuture(new ArrayList<>()));
 
-    long serverStartTime = 1686951033L; // june 15th, 2023
     Map<String, Long> workersStartTime = new HashMap<>();
     for (ShardWorker worker : activeAndImposterWorkers) {
       workersStartTime.put(worker.getEndpoint(), serverStartTime);
     }
     when(mockBackplane.getWorkersStartTimeInEpochSecs(workersStartTime.keySet()))
         .thenReturn(workersStartTime);
-    long oneDay = 86400L;
-    for (Digest digest : availableDigests) {
-      when(mockBackplane.getDigestInsertTime(DigestUtil.fromDigest(digest, digestFunction)))
-          .thenReturn(serverStartTime + oneDay);
-    }
-    for (Digest digest : digestAvailableOnImposters) {
-      when(mockBackplane.getDigestInsertTime(DigestUtil.fromDigest(digest, digestFunction)))
-          .thenReturn(serverStartTime - oneDay);
-    }
 
     Iterable<Digest> actualMissingDigests =
         instance
@@ -1401,4 +1405,59 @@ public class ServerInstanceTest {
         instance.indexCorrelatedInvocations(new java.net.URI("https://" + uuid));
     assertThat(correlatedInvocationsId).isEqualTo("https://" + uuid);
   }
+
+  @Test
+  public void serialTreeFetchCompletesForCachedRoot() throws Exception {
+    Map<String, Directory> directories = new HashMap<>();
+    Directory.Builder shared = Directory.newBuilder();
+    for (int i = 0; i < SubtreeCache.MIN_SUBTREE_DIRECTORIES; i++) {
+      FileNode file =
+          FileNode.newBuilder().setName("file" + i).setDigest(Digest.getDefaultInstance()).build();
+      Directory leaf = Directory.newBuilder().addFiles(file).build();
+      build.buildfarm.v1test.Digest leafDigest = DIGEST_UTIL.compute(leaf);
+      directories.put(leafDigest.getHash(), leaf);
+      shared.addDirectories(
+          DirectoryNode.newBuilder().setName("dir" + i).setDigest(DigestUtil.toDigest(leafDigest)));
+    }
+    build.buildfarm.v1test.Digest sharedDigest = DIGEST_UTIL.compute(shared.build());
+    directories.put(sharedDigest.getHash(), shared.build());
+    Directory outer =
+        Directory.newBuilder()
+            .addDirectories(
+                DirectoryNode.newBuilder()
+                    .setName("shared")
+                    .setDigest(DigestUtil.toDigest(sharedDigest)))
+            .build();
+    build.buildfarm.v1test.Digest outerDigest = DIGEST_UTIL.compute(outer);
+    directories.put(outerDigest.getHash(), outer);
+
+    ServerCacheConfigs caches = instance.getBuildFarmConfigs().getServer().getCaches();
+    caches.setSubtreeCacheMaxBytes(1024 * 1024);
+    try {
+      instance.initializeCaches();
+    } finally {
+      caches.setSubtreeCacheMaxBytes(0);
+    }
+    ServerInstance fetchingInstance = spy(instance);
+    doAnswer(
+            invocation ->
+                immediateFuture(
+                    directories.get(
+                        invocation.getArgument(1, build.buildfarm.v1test.Digest.class).getHash())))
+        .when(fetchingInstance)
+        .expectDirectory(
+            anyString(), any(build.buildfarm.v1test.Digest.class), any(RequestMetadata.class));
+    RequestMetadata requestMetadata = RequestMetadata.getDefaultInstance();
+
+    // the shared subtree is cached from the tree of the outer root
+    fetchingInstance
+        .getTreeFuture("outer", outerDigest, newDirectExecutorService(), requestMetadata)
+        .get(QUEUE_TEST_TIMEOUT_SECONDS, SECONDS);
+    Tree tree =
+        fetchingInstance
+            .getTreeFuture("shared", sharedDigest, newDirectExecutorService(), requestMetadata)
+            .get(QUEUE_TEST_TIMEOUT_SECONDS, SECONDS);
+
+    assertThat(tree.getDirectoriesMap()).hasSize(SubtreeCache.MIN_SUBTREE_DIRECTORIES + 1);
+  }
 }
@@ -0,0 +1,128 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.bazel.remote.execution.v2.FileNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.v1test.Tree;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SubtreeCacheTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  private final Tree.Builder tree = Tree.newBuilder();
+
+  private Digest add(Directory directory) {
+    Digest digest = DigestUtil.toDigest(DIGEST_UTIL.compute(directory));
+    tree.putDirectories(digest.getHash(), directory);
+    return digest;
+  }
+
+  private Digest leaf(String name) {
+    return add(
+        Directory.newBuilder()
+            .addFiles(FileNode.newBuilder().setName(name).setDigest(Digest.getDefaultInstance()))
+            .build());
+  }
+
+  private Digest parent(List<Digest> children) {
+    Directory.Builder directory = Directory.newBuilder();
+    for (int i = 0; i < children.size(); i++) {
+      directory.addDirectories(
+          DirectoryNode.newBuilder().setName("child" + i).setDigest(children.get(i)));
+    }
+    return add(directory.build());
+  }
+
+  private List<Digest> leaves(String prefix, int count) {
+    List<Digest> leaves = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      leaves.add(leaf(prefix + i));
+    }
+    return leaves;
+  }
+
+  private static build.buildfarm.v1test.Digest key(Digest digest) {
+    return DigestUtil.fromDigest(digest, DIGEST_UTIL.getDigestFunction());
+  }
+
+  private Tree build(Digest root) {
+    return tree.setRootDigest(key(root)).build();
+  }
+
+  @Test
+  public void completeSubtreesAreCached() {
+    Digest toolchain = parent(leaves("tool", SubtreeCache.MIN_SUBTREE_DIRECTORIES));
+    Digest root = parent(List.of(toolchain, leaf("source")));
+    SubtreeCache cache = new SubtreeCache(/* maxBytes= */ 1024 * 1024);
+
+    cache.put(build(root));
+
+    assertThat(cache.get(key(toolchain))).hasSize(SubtreeCache.MIN_SUBTREE_DIRECTORIES + 1);
+    // roots are unique to their actions
+    assertThat(cache.get(key(root))).isNull();
+  }
+
+  @Test
+  public void smallSubtreesAreNotCached() {
+    Digest small = parent(leaves("small", 2));
+    Digest root = parent(List.of(small));
+    SubtreeCache cache = new SubtreeCache(/* maxBytes= */ 1024 * 1024);
+
+    cache.put(build(root));
+
+    assertThat(cache.get(key(small))).isNull();
+    assertThat(cache.get(key(root))).isNull();
+  }
+
+  @Test
+  public void incompleteSubtreesAreNotCached() {
+    List<Digest> children = leaves("leaf", SubtreeCache.MIN_SUBTREE_DIRECTORIES);
+    Digest complete = parent(children);
+    Digest missing = leaf("missing");
+    tree.removeDirectories(missing.getHash());
+    children.add(missing);
+    Digest incomplete = parent(children);
+    Digest root = parent(List.of(complete, incomplete));
+    SubtreeCache cache = new SubtreeCache(/* maxBytes= */ 1024 * 1024);
+
+    cache.put(build(root));
+
+    assertThat(cache.get(key(complete))).isNotNull();
+    assertThat(cache.get(key(incomplete))).isNull();
+    assertThat(cache.get(key(root))).isNull();
+  }
+
+  @Test
+  public void disabledCacheHoldsNothing() {
+    Digest root = parent(leaves("leaf", SubtreeCache.MIN_SUBTREE_DIRECTORIES));
+    SubtreeCache cache = new SubtreeCache(/* maxBytes= */ 0);
+
+    cache.put(build(root));
+
+    assertThat(cache.get(key(root))).isNull();
+  }
+}
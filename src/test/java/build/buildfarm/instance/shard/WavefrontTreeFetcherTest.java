@@ -0,0 +1,233 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import build.bazel.remote.execution.v2.DirectoryNode;
+import build.bazel.remote.execution.v2.FileNode;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.v1test.Tree;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WavefrontTreeFetcherTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  private final Map<Digest, Directory> directories = new HashMap<>();
+  private final List<List<Digest>> batches = new ArrayList<>();
+  private final List<Digest> singles = new ArrayList<>();
+  // digests which batches leave out, as if they were not found on the queried worker
+  private final Set<Digest> unbatched = new HashSet<>();
+  private final List<SettableFuture<Directory>> held = new ArrayList<>();
+  private boolean hold = false;
+
+  private final WavefrontTreeFetcher.DirectoryFetcher fetcher =
+      new WavefrontTreeFetcher.DirectoryFetcher() {
+        @Override
+        public ListenableFuture<Map<Digest, Directory>> getDirectories(List<Digest> digests) {
+          batches.add(digests);
+          ImmutableMap.Builder<Digest, Directory> found = ImmutableMap.builder();
+          for (Digest digest : digests) {
+            Directory directory = directories.get(digest);
+            if (directory != null && !unbatched.contains(digest)) {
+              found.put(digest, directory);
+            }
+          }
+          return Futures.immediateFuture(found.buildOrThrow());
+        }
+
+        @Override
+        public ListenableFuture<Directory> getDirectory(Digest digest) {
+          singles.add(digest);
+          if (hold) {
+            SettableFuture<Directory> future = SettableFuture.create();
+            held.add(future);
+            return future;
+          }
+          return Futures.immediateFuture(directories.get(digest));
+        }
+      };
+
+  private Digest add(Directory directory) {
+    Digest digest = DigestUtil.toDigest(DIGEST_UTIL.compute(directory));
+    directories.put(digest, directory);
+    return digest;
+  }
+
+  private Digest leaf(String name) {
+    return add(
+        Directory.newBuilder()
+            .addFiles(FileNode.newBuilder().setName(name).setDigest(Digest.getDefaultInstance()))
+            .build());
+  }
+
+  private static Directory parent(Digest... children) {
+    Directory.Builder directory = Directory.newBuilder();
+    for (int i = 0; i < children.length; i++) {
+      directory.addDirectories(
+          DirectoryNode.newBuilder().setName("child" + i).setDigest(children[i]));
+    }
+    return directory.build();
+  }
+
+  private Tree fetch(WavefrontTreeFetcher treeFetcher, Digest root) throws Exception {
+    return treeFetcher
+        .fetch("test", DigestUtil.fromDigest(root, DIGEST_UTIL.getDigestFunction()))
+        .get();
+  }
+
+  @Test
+  public void levelsAreFetchedInBatches() throws Exception {
+    Digest shared = leaf("shared");
+    Digest first = add(parent(shared));
+    Digest second = add(parent(shared, leaf("second")));
+    Digest third = leaf("third");
+    Digest root = add(parent(first, second, third));
+
+    Tree tree =
+        fetch(
+            new WavefrontTreeFetcher(
+                fetcher, /* concurrency= */ 4, /* batchSize= */ 2, directExecutor()),
+            root);
+
+    assertThat(tree.getDirectoriesMap().keySet()).hasSize(6);
+    assertThat(tree.getDirectoriesMap()).containsEntry(root.getHash(), directories.get(root));
+    // the root and the remainder of the second level are alone in their requests
+    assertThat(singles).containsExactly(root, third);
+    assertThat(batches).hasSize(2);
+    assertThat(batches.get(0)).containsExactly(first, second).inOrder();
+    // the shared directory is requested once
+    assertThat(batches.get(1)).hasSize(2);
+    assertThat(batches.get(1)).contains(shared);
+  }
+
+  @Test
+  public void directoriesMissingFromBatchAreFetchedIndividually() throws Exception {
+    Digest found = leaf("found");
+    Digest missing = leaf("missing");
+    Digest root = add(parent(found, missing));
+    unbatched.add(missing);
+
+    Tree tree =
+        fetch(
+            new WavefrontTreeFetcher(
+                fetcher, /* concurrency= */ 1, /* batchSize= */ 10, directExecutor()),
+            root);
+
+    assertThat(tree.getDirectoriesMap()).containsKey(missing.getHash());
+    assertThat(tree.getDirectoriesMap()).containsKey(found.getHash());
+    assertThat(singles).containsExactly(root, missing);
+  }
+
+  @Test
+  public void nonexistentDirectoriesAreLeftOut() throws Exception {
+    Digest exists = leaf("exists");
+    Digest nonexistent = DigestUtil.toDigest(DIGEST_UTIL.compute(parent(exists, exists)));
+    Digest root = add(parent(exists, nonexistent));
+
+    Tree tree =
+        fetch(
+            new WavefrontTreeFetcher(
+                fetcher, /* concurrency= */ 2, /* batchSize= */ 10, directExecutor()),
+            root);
+
+    assertThat(tree.getDirectoriesMap().keySet()).containsExactly(root.getHash(), exists.getHash());
+  }
+
+  @Test
+  public void cachedSubtreesAreNotFetched() throws Exception {
+    Digest cached = add(parent(leaf("cachedLeaf")));
+    Digest fetched = leaf("fetched");
+    Digest root = add(parent(cached, fetched));
+    Map<String, Directory> subtree = new HashMap<>();
+    for (Directory directory : directories.values()) {
+      subtree.put(DigestUtil.toDigest(DIGEST_UTIL.compute(directory)).getHash(), directory);
+    }
+    subtree.remove(root.getHash());
+    subtree.remove(fetched.getHash());
+    WavefrontTreeFetcher.DirectoryFetcher subtreeFetcher =
+        new WavefrontTreeFetcher.DirectoryFetcher() {
+          @Override
+          public ListenableFuture<Map<Digest, Directory>> getDirectories(List<Digest> digests) {
+            return fetcher.getDirectories(digests);
+          }
+
+          @Override
+          public ListenableFuture<Directory> getDirectory(Digest digest) {
+            return fetcher.getDirectory(digest);
+          }
+
+          @Override
+          public Map<String, Directory> getSubtree(Digest digest) {
+            return digest.equals(cached) ? subtree : null;
+          }
+        };
+
+    Tree tree =
+        fetch(
+            new WavefrontTreeFetcher(
+                subtreeFetcher, /* concurrency= */ 2, /* batchSize= */ 10, directExecutor()),
+            root);
+
+    assertThat(tree.getDirectoriesMap()).hasSize(4);
+    assertThat(singles).containsExactly(root, fetched);
+    assertThat(batches).isEmpty();
+  }
+
+  @Test
+  public void requestsInFlightAreBounded() throws Exception {
+    List<Digest> children = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      children.add(leaf("leaf" + i));
+    }
+    Digest root = add(parent(children.toArray(new Digest[0])));
+    hold = true;
+
+    ListenableFuture<Tree> tree =
+        new WavefrontTreeFetcher(
+                fetcher, /* concurrency= */ 2, /* batchSize= */ 1, directExecutor())
+            .fetch("test", DigestUtil.fromDigest(root, DIGEST_UTIL.getDigestFunction()));
+
+    assertThat(held).hasSize(1);
+    held.get(0).set(directories.get(root));
+    assertThat(held).hasSize(3);
+    held.get(1).set(directories.get(children.get(0)));
+    assertThat(held).hasSize(4);
+    held.get(2).set(directories.get(children.get(1)));
+    assertThat(held).hasSize(5);
+    assertThat(tree.isDone()).isFalse();
+    held.get(3).set(directories.get(children.get(2)));
+    held.get(4).set(directories.get(children.get(3)));
+    assertThat(tree.get().getDirectoriesMap()).hasSize(5);
+    assertThat(batches).isEmpty();
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.instance.shard.codec.binary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.buildfarm.common.config.Backplane.VALUE_ENCODING;
+import build.buildfarm.common.redis.Codec;
+import build.buildfarm.common.redis.StringTranslator.Result;
+import build.buildfarm.instance.shard.codec.ShardCodec;
+import build.buildfarm.instance.shard.codec.b64.B64Codec;
+import build.buildfarm.instance.shard.codec.json.JsonCodec;
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.QueueEntry;
+import com.google.protobuf.Timestamp;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BinaryCodecTest {
+  private static final QueueEntry QUEUE_ENTRY =
+      QueueEntry.newBuilder()
+          .setExecuteEntry(
+              ExecuteEntry.newBuilder()
+                  .setOperationName("shard/operations/binary")
+                  // seconds and nanos include bytes above 0x7f
+                  .setQueuedTimestamp(
+                      Timestamp.newBuilder().setSeconds(1792310400L).setNanos(987654321)))
+          .setRequeueAttempts(200)
+          .build();
+
+  // redis clients store strings as utf-8
+  private static String roundTrip(String value) {
+    return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void printedValueParsesAfterUtf8RoundTrip() {
+    String value = BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY);
+
+    Result<QueueEntry> result = BinaryCodec.CODEC.queueEntry().parse(roundTrip(value));
+
+    assertThat(result.value()).isEqualTo(QUEUE_ENTRY);
+    assertThat(result.dirty()).isFalse();
+  }
+
+  @Test
+  public void printedValueIsSmallerThanBase64() {
+    String binary = BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY);
+    String b64 = B64Codec.CODEC.queueEntry().print(QUEUE_ENTRY);
+
+    assertThat(binary.getBytes(StandardCharsets.UTF_8).length)
+        .isLessThan(b64.getBytes(StandardCharsets.UTF_8).length);
+  }
+
+  @Test
+  public void otherFormatsAreNotParsed() {
+    assertThat(
+            BinaryCodec.CODEC
+                .queueEntry()
+                .parse(B64Codec.CODEC.queueEntry().print(QUEUE_ENTRY))
+                .value())
+        .isNull();
+    assertThat(
+            BinaryCodec.CODEC
+                .queueEntry()
+                .parse(JsonCodec.CODEC.queueEntry().print(QUEUE_ENTRY))
+                .value())
+        .isNull();
+  }
+
+  @Test
+  public void base64EncodingReadsBinaryAsDirty() {
+    Codec codec = ShardCodec.create(VALUE_ENCODING.BASE64);
+    String binary = BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY);
+
+    Result<QueueEntry> result = codec.queueEntry().parse(roundTrip(binary));
+
+    assertThat(result.value()).isEqualTo(QUEUE_ENTRY);
+    assertThat(result.dirty()).isTrue();
+    assertThat(codec.queueEntry().print(QUEUE_ENTRY))
+        .isEqualTo(B64Codec.CODEC.queueEntry().print(QUEUE_ENTRY));
+  }
+
+  @Test
+  public void dualReadEncodingWritesBinaryAndReadsEveryFormat() {
+    Codec codec = ShardCodec.create(VALUE_ENCODING.BINARY_DUAL_READ);
+
+    assertThat(codec.queueEntry().print(QUEUE_ENTRY))
+        .isEqualTo(BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY));
+    Result<QueueEntry> binary =
+        codec.queueEntry().parse(BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY));
+    assertThat(binary.value()).isEqualTo(QUEUE_ENTRY);
+    assertThat(binary.dirty()).isFalse();
+    Result<QueueEntry> b64 =
+        codec.queueEntry().parse(B64Codec.CODEC.queueEntry().print(QUEUE_ENTRY));
+    assertThat(b64.value()).isEqualTo(QUEUE_ENTRY);
+    assertThat(b64.dirty()).isTrue();
+    Result<QueueEntry> json =
+        codec.queueEntry().parse(JsonCodec.CODEC.queueEntry().print(QUEUE_ENTRY));
+    assertThat(json.value()).isEqualTo(QUEUE_ENTRY);
+    assertThat(json.dirty()).isTrue();
+  }
+
+  @Test
+  public void migratingEncodingsRemoveBothForms() {
+    String binary = BinaryCodec.CODEC.queueEntry().print(QUEUE_ENTRY);
+    String b64 = B64Codec.CODEC.queueEntry().print(QUEUE_ENTRY);
+
+    assertThat(ShardCodec.create(VALUE_ENCODING.BASE64).queueEntry().printAll(QUEUE_ENTRY))
+        .containsExactly(b64, binary)
+        .inOrder();
+    assertThat(
+            ShardCodec.create(VALUE_ENCODING.BINARY_DUAL_READ).queueEntry().printAll(QUEUE_ENTRY))
+        .containsExactly(binary, b64)
+        .inOrder();
+    assertThat(ShardCodec.create(VALUE_ENCODING.BINARY).queueEntry().printAll(QUEUE_ENTRY))
+        .containsExactly(binary);
+  }
+}
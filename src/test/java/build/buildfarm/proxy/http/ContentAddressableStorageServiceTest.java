@@ -0,0 +1,210 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.proxy.http;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import build.bazel.remote.execution.v2.BatchReadBlobsRequest;
+import build.bazel.remote.execution.v2.BatchReadBlobsResponse;
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
+import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import com.google.rpc.Code;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public class ContentAddressableStorageServiceTest {
+  private final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  @Mock private SimpleBlobStore simpleBlobStore;
+
+  private ContentAddressableStorageService service;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+    service =
+        new ContentAddressableStorageService(
+            simpleBlobStore,
+            /* treeDefaultPageSize= */ 1024,
+            /* treeMaxPageSize= */ 16384,
+            /* existenceCacheTtlSeconds= */ 60,
+            /* existenceCacheMaxEntries= */ 100,
+            newDirectExecutorService());
+  }
+
+  private static final class RecordingObserver<T> implements StreamObserver<T> {
+    final List<T> values = new ArrayList<>();
+    Throwable error = null;
+    boolean completed = false;
+
+    @Override
+    public void onNext(T value) {
+      values.add(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    @Override
+    public void onCompleted() {
+      completed = true;
+    }
+  }
+
+  private Digest digest(String content) {
+    return DigestUtil.toDigest(DIGEST_UTIL.compute(ByteString.copyFromUtf8(content)));
+  }
+
+  private FindMissingBlobsResponse findMissingBlobs(Digest... digests) {
+    RecordingObserver<FindMissingBlobsResponse> observer = new RecordingObserver<>();
+    service.findMissingBlobs(
+        FindMissingBlobsRequest.newBuilder().addAllBlobDigests(List.of(digests)).build(), observer);
+    assertThat(observer.error).isNull();
+    assertThat(observer.completed).isTrue();
+    return observer.values.get(0);
+  }
+
+  @Test
+  public void findMissingBlobsChecksAllBlobsConcurrently() {
+    Digest present = digest("present");
+    Digest missing = digest("missing");
+    SettableFuture<Boolean> presentContains = SettableFuture.create();
+    SettableFuture<Boolean> missingContains = SettableFuture.create();
+    when(simpleBlobStore.containsKeyFuture(present.getHash())).thenReturn(presentContains);
+    when(simpleBlobStore.containsKeyFuture(missing.getHash())).thenReturn(missingContains);
+    RecordingObserver<FindMissingBlobsResponse> observer = new RecordingObserver<>();
+
+    service.findMissingBlobs(
+        FindMissingBlobsRequest.newBuilder()
+            .addBlobDigests(present)
+            .addBlobDigests(missing)
+            .addBlobDigests(present)
+            .build(),
+        observer);
+
+    // both checks are outstanding together, and the duplicate is checked once
+    verify(simpleBlobStore, times(1)).containsKeyFuture(present.getHash());
+    verify(simpleBlobStore, times(1)).containsKeyFuture(missing.getHash());
+    assertThat(observer.completed).isFalse();
+    missingContains.set(false);
+    presentContains.set(true);
+    assertThat(observer.completed).isTrue();
+    assertThat(observer.values.get(0).getMissingBlobDigestsList()).containsExactly(missing);
+  }
+
+  @Test
+  public void findMissingBlobsCachesOnlyPresentBlobs() {
+    Digest present = digest("present");
+    Digest missing = digest("missing");
+    when(simpleBlobStore.containsKeyFuture(present.getHash())).thenReturn(immediateFuture(true));
+    when(simpleBlobStore.containsKeyFuture(missing.getHash())).thenReturn(immediateFuture(false));
+
+    assertThat(findMissingBlobs(present, missing).getMissingBlobDigestsList())
+        .containsExactly(missing);
+    assertThat(findMissingBlobs(present, missing).getMissingBlobDigestsList())
+        .containsExactly(missing);
+
+    verify(simpleBlobStore, times(1)).containsKeyFuture(present.getHash());
+    verify(simpleBlobStore, times(2)).containsKeyFuture(missing.getHash());
+  }
+
+  @Test
+  public void findMissingBlobsFailsWithBlobStoreError() {
+    Digest digest = digest("error");
+    SettableFuture<Boolean> contains = SettableFuture.create();
+    contains.setException(new IOException("unavailable"));
+    when(simpleBlobStore.containsKeyFuture(digest.getHash())).thenReturn(contains);
+    RecordingObserver<FindMissingBlobsResponse> observer = new RecordingObserver<>();
+
+    service.findMissingBlobs(
+        FindMissingBlobsRequest.newBuilder().addBlobDigests(digest).build(), observer);
+
+    assertThat(observer.error).isNotNull();
+    assertThat(observer.values).isEmpty();
+  }
+
+  @Test
+  public void batchReadBlobsRespondsPerBlobAndCachesFoundBlobs() throws Exception {
+    ByteString content = ByteString.copyFromUtf8("found");
+    Digest found = digest("found");
+    Digest missing = digest("missing");
+    when(simpleBlobStore.get(eq(found.getHash()), any(OutputStream.class)))
+        .thenAnswer(
+            invocation -> {
+              content.writeTo(invocation.getArgument(1, OutputStream.class));
+              return immediateFuture(true);
+            });
+    when(simpleBlobStore.get(eq(missing.getHash()), any(OutputStream.class)))
+        .thenReturn(immediateFuture(false));
+    RecordingObserver<BatchReadBlobsResponse> observer = new RecordingObserver<>();
+
+    service.batchReadBlobs(
+        BatchReadBlobsRequest.newBuilder().addDigests(found).addDigests(missing).build(),
+        observer);
+
+    assertThat(observer.completed).isTrue();
+    List<BatchReadBlobsResponse.Response> responses = observer.values.get(0).getResponsesList();
+    assertThat(responses.get(0).getDigest()).isEqualTo(found);
+    assertThat(responses.get(0).getStatus().getCode()).isEqualTo(Code.OK.getNumber());
+    assertThat(responses.get(0).getData()).isEqualTo(content);
+    assertThat(responses.get(1).getDigest()).isEqualTo(missing);
+    assertThat(responses.get(1).getStatus().getCode()).isEqualTo(Code.NOT_FOUND.getNumber());
+
+    assertThat(findMissingBlobs(found).getMissingBlobDigestsList()).isEmpty();
+    verify(simpleBlobStore, never()).containsKeyFuture(found.getHash());
+  }
+
+  @Test
+  public void batchReadBlobsRejectsRequestsOverTheBatchLimit() {
+    Digest oversized =
+        digest("oversized").toBuilder()
+            .setSizeBytes(ContentAddressableStorageService.MAX_BATCH_TOTAL_SIZE_BYTES + 1)
+            .build();
+    RecordingObserver<BatchReadBlobsResponse> observer = new RecordingObserver<>();
+
+    service.batchReadBlobs(
+        BatchReadBlobsRequest.newBuilder().addDigests(oversized).build(), observer);
+
+    assertThat(Status.fromThrowable(observer.error).getCode())
+        .isEqualTo(Status.Code.INVALID_ARGUMENT);
+    verify(simpleBlobStore, never()).get(any(String.class), any(OutputStream.class));
+  }
+}
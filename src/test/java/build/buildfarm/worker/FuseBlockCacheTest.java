@@ -0,0 +1,120 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.common.InputStreamFactory;
+import build.buildfarm.v1test.Digest;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FuseBlockCacheTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  private final ByteString content = ByteString.copyFromUtf8("0123456789");
+  private final Digest digest = DIGEST_UTIL.compute(content);
+  private final List<Long> fetchedOffsets = new ArrayList<>();
+  private final InputStreamFactory inputStreamFactory =
+      (compressor, blobDigest, offset) -> {
+        fetchedOffsets.add(offset);
+        return content.substring((int) offset).newInput();
+      };
+
+  private FuseBlockCache createBlockCache(long maxSizeBytes, int prefetchBlocks) {
+    return new FuseBlockCache(
+        inputStreamFactory, /* blockSize= */ 4, maxSizeBytes, prefetchBlocks, directExecutor());
+  }
+
+  @Test
+  public void readFetchesOnlyOverlappingBlocks() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 64, /* prefetchBlocks= */ 0);
+    byte[] buf = new byte[4];
+
+    assertThat(blockCache.read(digest, /* offset= */ 3, buf, 3)).isEqualTo(3);
+
+    assertThat(ByteString.copyFrom(buf, 0, 3).toStringUtf8()).isEqualTo("345");
+    assertThat(fetchedOffsets).containsExactly(0L, 4L).inOrder();
+  }
+
+  @Test
+  public void readIsTruncatedAtEndOfBlob() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 64, /* prefetchBlocks= */ 0);
+    byte[] buf = new byte[8];
+
+    assertThat(blockCache.read(digest, /* offset= */ 8, buf, buf.length)).isEqualTo(2);
+    assertThat(blockCache.read(digest, /* offset= */ 10, buf, buf.length)).isEqualTo(0);
+
+    assertThat(ByteString.copyFrom(buf, 0, 2).toStringUtf8()).isEqualTo("89");
+    assertThat(fetchedOffsets).containsExactly(8L);
+  }
+
+  @Test
+  public void blocksAreSharedBetweenReads() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 64, /* prefetchBlocks= */ 0);
+    byte[] buf = new byte[2];
+
+    for (long offset = 0; offset < content.size(); offset += buf.length) {
+      blockCache.read(digest, offset, buf, buf.length);
+    }
+
+    assertThat(fetchedOffsets).containsExactly(0L, 4L, 8L).inOrder();
+  }
+
+  @Test
+  public void evictedBlocksAreFetchedAgain() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 4, /* prefetchBlocks= */ 0);
+    byte[] buf = new byte[1];
+
+    blockCache.read(digest, /* offset= */ 0, buf, buf.length);
+    blockCache.read(digest, /* offset= */ 4, buf, buf.length);
+    blockCache.read(digest, /* offset= */ 0, buf, buf.length);
+
+    assertThat(fetchedOffsets).containsExactly(0L, 4L, 0L).inOrder();
+  }
+
+  @Test
+  public void sequentialReaderPrefetchesFollowingBlocks() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 64, /* prefetchBlocks= */ 1);
+    FuseBlockCache.Reader reader = blockCache.newReader(digest);
+    byte[] buf = new byte[4];
+
+    assertThat(reader.read(/* offset= */ 0, buf, buf.length)).isEqualTo(4);
+    assertThat(fetchedOffsets).containsExactly(0L, 4L).inOrder();
+
+    assertThat(reader.read(/* offset= */ 4, buf, buf.length)).isEqualTo(4);
+    assertThat(fetchedOffsets).containsExactly(0L, 4L, 8L).inOrder();
+  }
+
+  @Test
+  public void seekingReaderDoesNotPrefetch() throws IOException {
+    FuseBlockCache blockCache = createBlockCache(/* maxSizeBytes= */ 64, /* prefetchBlocks= */ 1);
+    FuseBlockCache.Reader reader = blockCache.newReader(digest);
+    byte[] buf = new byte[1];
+
+    reader.read(/* offset= */ 8, buf, buf.length);
+
+    assertThat(fetchedOffsets).containsExactly(8L);
+  }
+}
@@ -16,9 +16,11 @@ package build.buildfarm.worker;
 
 import static com.google.common.truth.Truth.assertThat;
 import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.fail;
 
 import com.google.longrunning.Operation;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 import lombok.extern.java.Log;
 import org.junit.Test;
@@ -52,8 +54,8 @@ public class SuperscalarPipelineStageTest {
       throw new UnsupportedOperationException();
     }
 
-    boolean hasOpenSlots() {
-      return !claims.isEmpty();
+    boolean hasClaimWaiters() {
+      return claims.hasWaiters();
     }
 
     @Override
@@ -64,7 +66,7 @@ public class SuperscalarPipelineStageTest {
 
   @Test
   @SuppressWarnings("PMD.JUnitUseExpected")
-  public void interruptedClaimReleasesPartial() throws InterruptedException {
+  public void interruptedClaimLeavesStageUnclaimed() throws InterruptedException {
     AbstractSuperscalarPipelineStage stage =
         new AbstractSuperscalarPipelineStage("too-narrow", /* output= */ null, /* width= */ 3) {
           @Override
@@ -78,7 +80,8 @@ public class SuperscalarPipelineStageTest {
     Thread interruptor =
         new Thread(
             () -> {
-              while (stage.hasOpenSlots()) {
+              // claims are atomic, the stage can never satisfy this one
+              while (!stage.hasClaimWaiters()) {
                 try {
                   MICROSECONDS.sleep(1);
                 } catch (InterruptedException e) {
@@ -101,6 +104,33 @@ public class SuperscalarPipelineStageTest {
     }
   }
 
+  @Test
+  public void releaseWakesMultiSlotClaim() throws Exception {
+    AbstractSuperscalarPipelineStage stage =
+        new AbstractSuperscalarPipelineStage("multi-slot", /* output= */ null, /* width= */ 3) {
+          @Override
+          protected int claimsRequired(ExecutionContext executionContext) {
+            return 2;
+          }
+        };
+
+    assertThat(stage.claim(/* executionContext= */ null)).isTrue();
+    FutureTask<Boolean> claim = new FutureTask<>(() -> stage.claim(/* executionContext= */ null));
+    Thread claimer = new Thread(claim);
+    claimer.start();
+    while (!stage.hasClaimWaiters()) {
+      MICROSECONDS.sleep(1);
+    }
+    // a single free slot must not satisfy the waiting claim
+    assertThat(claim.isDone()).isFalse();
+
+    stage.releaseClaim("first", 2);
+    assertThat(claim.get(10, SECONDS)).isTrue();
+    claimer.join();
+    stage.releaseClaim("second", 2);
+    assertThat(stage.isClaimed()).isFalse();
+  }
+
   @Test
   @SuppressWarnings("PMD.JUnitUseExpected")
   public void takeReleasesQueueClaims() throws InterruptedException {
@@ -135,4 +135,41 @@ public class ProtoCoordinatorTest {
     assertThat(workRootPaths).containsAtLeastElementsIn(expectedToolInputs);
     assertThat(workRootPaths).containsNoneIn(expectedOpRootFiles);
   }
+
+  @Test
+  public void toolInputsAreLinkedWhenLinkingInputs() throws Exception {
+    ProtoCoordinator pc = ProtoCoordinator.ofCommonsPool(4, 4, /* linkInputs= */ true);
+
+    Path fsRoot = jimFsRoot();
+    Path opRoot = fsRoot.resolve("linkedOpRoot");
+    Files.createDirectory(opRoot);
+
+    List<TreeFile> fileInputs =
+        ImmutableList.of(
+            new TreeFile("file_1", "file contents 1"),
+            new TreeFile("tools_dir/tool_file", "tool file contents", true));
+
+    Tree tree = WorkerTestUtils.makeTree(opRoot.toString(), fileInputs);
+
+    Command command = WorkerTestUtils.makeCommand();
+    WorkFilesContext ctx = WorkFilesContext.fromContext(opRoot, tree, command);
+    WorkerInputs workerFiles = WorkerInputs.from(ctx, ImmutableList.of("reqArg1"));
+
+    for (Path file : workerFiles.allInputs.keySet()) {
+      Files.createDirectories(file.getParent());
+      Files.createFile(file);
+    }
+
+    WorkerKey key = makeWorkerKey(ctx, workerFiles, fsRoot.resolve("linkedWorkRootsDir"));
+    pc.copyToolInputsIntoWorkerToolRoot(key, workerFiles);
+
+    Path opToolPath = opRoot.resolve("tools_dir/tool_file");
+    Path toolRootPath = key.getToolRoot().resolve("tools_dir/tool_file");
+    assertThat(Files.isSameFile(opToolPath, toolRootPath)).isTrue();
+
+    // a tool input removed from a staged tool root is staged again
+    Files.delete(toolRootPath);
+    pc.copyToolInputsIntoWorkerToolRoot(key, workerFiles);
+    assertThat(Files.isSameFile(opToolPath, toolRootPath)).isTrue();
+  }
 }
@@ -831,4 +831,40 @@ public class ResourceDeciderTest {
     // ASSERT
     assertThat(limits.useLinuxSandbox).isFalse();
   }
+
+  // Function under test: decideResourceLimitations
+  // Reason for testing: we can parse out a positive bool for multiplex persistent workers
+  // Failure explanation: the bool was not parsed as true like we would have expected
+  @Test
+  public void decideResourceLimitationsTestPersistentWorkerMultiplexParse() throws Exception {
+    // ARRANGE
+    Command command =
+        Command.newBuilder()
+            .setPlatform(
+                Platform.newBuilder()
+                    .addProperties(
+                        Platform.Property.newBuilder()
+                            .setName("persistentWorkerKey")
+                            .setValue("tools-hash"))
+                    .addProperties(
+                        Platform.Property.newBuilder()
+                            .setName("persistentWorkerMultiplex")
+                            .setValue("true")))
+            .build();
+
+    // ACT
+    ResourceLimits limits =
+        ResourceDecider.decideResourceLimitations(
+            command,
+            /* defaultMaxCores= */ 0,
+            /* onlyMulticoreTests= */ false,
+            /* limitGlobalExecution= */ false,
+            /* executeStageWidth= */ 100,
+            /* allowBringYourOwnContainer= */ false,
+            new SandboxSettings());
+
+    // ASSERT
+    assertThat(limits.persistentWorkerKey).isEqualTo("tools-hash");
+    assertThat(limits.persistentWorkerMultiplex).isTrue();
+  }
 }
@@ -0,0 +1,197 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import build.buildfarm.backplane.Backplane;
+import build.buildfarm.common.DigestUtil;
+import build.buildfarm.common.DigestUtil.HashFunction;
+import build.buildfarm.v1test.Digest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+@RunWith(JUnit4.class)
+public class BlobLocationPublisherTest {
+  private static final String WORKER_NAME = "worker";
+
+  private final DigestUtil DIGEST_UTIL = new DigestUtil(HashFunction.SHA256);
+
+  @Mock private Backplane backplane;
+
+  private BlobLocationPublisher publisher;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.initMocks(this);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (publisher != null) {
+      publisher.stop(/* timeoutMillis= */ 1000);
+    }
+  }
+
+  private Digest digest(String content) {
+    return DIGEST_UTIL.compute(ByteString.copyFromUtf8(content));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArgumentCaptor<Iterable<Digest>> digestsCaptor() {
+    return ArgumentCaptor.forClass(Iterable.class);
+  }
+
+  @Test
+  public void fullBatchIsPublishedTogether() throws Exception {
+    publisher =
+        new BlobLocationPublisher(
+            backplane,
+            WORKER_NAME,
+            /* batchSize= */ 3,
+            /* flushIntervalMillis= */ 60000,
+            /* maxPending= */ 10);
+    publisher.start();
+    Digest first = digest("first");
+    Digest second = digest("second");
+    Digest third = digest("third");
+
+    publisher.add(first);
+    publisher.add(second);
+    publisher.add(third);
+
+    ArgumentCaptor<Iterable<Digest>> added = digestsCaptor();
+    verify(backplane, timeout(1000)).addBlobsLocation(added.capture(), eq(WORKER_NAME));
+    assertThat(added.getValue()).containsExactly(first, second, third).inOrder();
+    verify(backplane, never()).addBlobLocation(any(Digest.class), any(String.class));
+  }
+
+  @Test
+  public void partialBatchIsPublishedAfterFlushInterval() throws Exception {
+    publisher =
+        new BlobLocationPublisher(
+            backplane,
+            WORKER_NAME,
+            /* batchSize= */ 100,
+            /* flushIntervalMillis= */ 10,
+            /* maxPending= */ 100);
+    publisher.start();
+    Digest digest = digest("partial");
+
+    publisher.add(digest);
+
+    ArgumentCaptor<Iterable<Digest>> added = digestsCaptor();
+    verify(backplane, timeout(1000)).addBlobsLocation(added.capture(), eq(WORKER_NAME));
+    assertThat(added.getValue()).containsExactly(digest);
+  }
+
+  @Test
+  public void changesToDigestCoalesceToLatest() throws Exception {
+    publisher =
+        new BlobLocationPublisher(
+            backplane,
+            WORKER_NAME,
+            /* batchSize= */ 100,
+            /* flushIntervalMillis= */ 60000,
+            /* maxPending= */ 100);
+    // not started, so that every change is pending until stop
+    Digest readded = digest("readded");
+    Digest expired = digest("expired");
+
+    publisher.add(readded);
+    publisher.add(expired);
+    publisher.remove(ImmutableList.of(readded, expired));
+    publisher.add(readded);
+    publisher.start();
+    publisher.stop(/* timeoutMillis= */ 1000);
+    publisher = null;
+
+    ArgumentCaptor<Iterable<Digest>> added = digestsCaptor();
+    ArgumentCaptor<Iterable<Digest>> removed = digestsCaptor();
+    verify(backplane, times(1)).addBlobsLocation(added.capture(), eq(WORKER_NAME));
+    verify(backplane, times(1)).removeBlobsLocation(removed.capture(), eq(WORKER_NAME));
+    assertThat(added.getValue()).containsExactly(readded);
+    assertThat(removed.getValue()).containsExactly(expired);
+  }
+
+  @Test
+  public void unavailableBatchIsRetried() throws Exception {
+    doThrow(new IOException(Status.UNAVAILABLE.asRuntimeException()))
+        .doNothing()
+        .when(backplane)
+        .addBlobsLocation(any(Iterable.class), eq(WORKER_NAME));
+    publisher =
+        new BlobLocationPublisher(
+            backplane,
+            WORKER_NAME,
+            /* batchSize= */ 1,
+            /* flushIntervalMillis= */ 10,
+            /* maxPending= */ 1);
+    publisher.start();
+    Digest digest = digest("retried");
+
+    publisher.add(digest);
+
+    ArgumentCaptor<Iterable<Digest>> added = digestsCaptor();
+    verify(backplane, timeout(1000).times(2)).addBlobsLocation(added.capture(), eq(WORKER_NAME));
+    for (Iterable<Digest> digests : added.getAllValues()) {
+      assertThat(digests).containsExactly(digest);
+    }
+  }
+
+  @Test
+  public void stopPublishesPendingChanges() throws Exception {
+    publisher =
+        new BlobLocationPublisher(
+            backplane,
+            WORKER_NAME,
+            /* batchSize= */ 2,
+            /* flushIntervalMillis= */ 60000,
+            /* maxPending= */ 4);
+    publisher.start();
+    List<Digest> digests = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      Digest digest = digest("digest " + i);
+      digests.add(digest);
+      publisher.add(digest);
+    }
+    publisher.stop(/* timeoutMillis= */ 1000);
+    publisher = null;
+
+    ArgumentCaptor<Iterable<Digest>> added = digestsCaptor();
+    verify(backplane, times(3)).addBlobsLocation(added.capture(), eq(WORKER_NAME));
+    assertThat(Iterables.concat(added.getAllValues())).containsExactlyElementsIn(digests);
+  }
+}
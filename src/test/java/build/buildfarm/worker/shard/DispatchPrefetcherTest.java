@@ -0,0 +1,222 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.mockito.Mockito.mock;
+
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.QueueEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DispatchPrefetcherTest {
+  private final List<Integer> dispatches = new ArrayList<>();
+  private final List<String> renewals = new ArrayList<>();
+  private final List<String> rejections = new ArrayList<>();
+  private final List<Integer> rejectedRequeueAttempts = new ArrayList<>();
+  private List<QueueEntry> queued = new ArrayList<>();
+  private Set<String> lost = ImmutableSet.of();
+  private long prefetchTimeoutMillis = 60000;
+  private int freeClaims = Integer.MAX_VALUE;
+  private ExecutionLeaseRenewer renewer;
+
+  @Before
+  public void setUp() {
+    // the period is long enough that only explicit renewals occur
+    renewer =
+        new ExecutionLeaseRenewer(
+            Duration.newBuilder().setSeconds(DAYS.toSeconds(1)).build(),
+            /* leaseMillis= */ 30 * 1000,
+            (queueEntries, requeueAt) -> {
+              for (QueueEntry queueEntry : queueEntries) {
+                renewals.add(queueEntry.getExecuteEntry().getOperationName());
+              }
+              return lost;
+            },
+            renewed -> {});
+  }
+
+  private static QueueEntry queueEntry(String operationName) {
+    // as dispatched, with the attempt counted
+    return QueueEntry.newBuilder()
+        .setExecuteEntry(ExecuteEntry.newBuilder().setOperationName(operationName))
+        .setRequeueAttempts(1)
+        .build();
+  }
+
+  private void enqueue(String... operationNames) {
+    for (String operationName : operationNames) {
+      queued.add(queueEntry(operationName));
+    }
+  }
+
+  private DispatchPrefetcher newPrefetcher(int batchSize) {
+    return new DispatchPrefetcher(
+        batchSize,
+        prefetchTimeoutMillis,
+        renewer,
+        maxEntries -> {
+          dispatches.add(maxEntries);
+          List<QueueEntry> batch =
+              ImmutableList.copyOf(queued.subList(0, Math.min(maxEntries, queued.size())));
+          queued = new ArrayList<>(queued.subList(batch.size(), queued.size()));
+          return batch;
+        },
+        queueEntry -> {
+          rejections.add(queueEntry.getExecuteEntry().getOperationName());
+          rejectedRequeueAttempts.add(queueEntry.getRequeueAttempts());
+        },
+        // expirations are only run explicitly
+        mock(ScheduledExecutorService.class));
+  }
+
+  private static String name(QueueEntry queueEntry) {
+    return queueEntry.getExecuteEntry().getOperationName();
+  }
+
+  @Test
+  public void batchIsTakenFromBufferBeforeDispatch() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 3);
+    enqueue("first", "second", "third", "fourth");
+
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("first");
+    assertThat(prefetcher.size()).isEqualTo(2);
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("second");
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("third");
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("fourth");
+
+    assertThat(dispatches).containsExactly(3, 3);
+    assertThat(rejections).isEmpty();
+  }
+
+  @Test
+  public void batchIsBoundedByFreeClaims() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 4);
+    enqueue("first", "second", "third");
+
+    freeClaims = 2;
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("first");
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("second");
+    freeClaims = 0;
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("third");
+
+    assertThat(dispatches).containsExactly(2, 1).inOrder();
+  }
+
+  @Test
+  public void emptyDispatchYieldsNull() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 4);
+
+    assertThat(prefetcher.take(freeClaims)).isNull();
+    assertThat(prefetcher.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void onlyBufferedEntriesAreRenewed() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 2);
+    enqueue("matched", "buffered");
+
+    prefetcher.take(freeClaims);
+    renewer.renewAll();
+    prefetcher.take(freeClaims);
+    renewer.renewAll();
+
+    // the lease of a taken entry is left to the stages which follow a match
+    assertThat(renewals).containsExactly("buffered");
+  }
+
+  @Test
+  public void expiredEntriesAreReturned() throws Exception {
+    prefetchTimeoutMillis = -1;
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 2);
+    enqueue("matched", "expired");
+
+    prefetcher.take(freeClaims);
+    prefetcher.expire();
+    renewer.renewAll();
+
+    assertThat(prefetcher.size()).isEqualTo(0);
+    assertThat(rejections).containsExactly("expired");
+    assertThat(rejectedRequeueAttempts).containsExactly(0);
+    // expiration is not a lost lease
+    assertThat(renewals).isEmpty();
+  }
+
+  @Test
+  public void expiredEntriesAreTakenFromBufferBeforeDispatch() throws Exception {
+    prefetchTimeoutMillis = -1;
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 2);
+    enqueue("matched", "expired", "dispatched");
+
+    prefetcher.take(freeClaims);
+
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("dispatched");
+    assertThat(rejections).containsExactly("expired");
+  }
+
+  @Test
+  public void returnedEntriesKeepTheirRequeueAttempts() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 2);
+    enqueue("matched", "returned");
+
+    prefetcher.take(freeClaims);
+    prefetcher.close();
+
+    assertThat(rejections).containsExactly("returned");
+    assertThat(rejectedRequeueAttempts).containsExactly(0);
+  }
+
+  @Test
+  public void lostEntriesAreDroppedWithoutReturn() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 2);
+    enqueue("matched", "lost");
+    lost = ImmutableSet.of("lost");
+
+    prefetcher.take(freeClaims);
+    renewer.renewAll();
+
+    assertThat(prefetcher.size()).isEqualTo(0);
+    assertThat(rejections).isEmpty();
+  }
+
+  @Test
+  public void closeReturnsBufferedAndLaterEntries() throws Exception {
+    DispatchPrefetcher prefetcher = newPrefetcher(/* batchSize= */ 3);
+    enqueue("matched", "second", "third", "fourth", "fifth");
+
+    prefetcher.take(freeClaims);
+    prefetcher.close();
+    renewer.renewAll();
+
+    assertThat(rejections).containsExactly("second", "third").inOrder();
+    assertThat(renewals).isEmpty();
+
+    // a dispatch in flight at close keeps only the entry it matched
+    assertThat(name(prefetcher.take(freeClaims))).isEqualTo("fourth");
+    assertThat(rejections).containsExactly("second", "third", "fifth").inOrder();
+  }
+}
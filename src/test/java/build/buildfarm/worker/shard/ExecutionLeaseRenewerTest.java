@@ -0,0 +1,172 @@
+// Copyright 2026 The Buildfarm Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package build.buildfarm.worker.shard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import build.buildfarm.v1test.ExecuteEntry;
+import build.buildfarm.v1test.QueueEntry;
+import build.buildfarm.worker.shard.ExecutionLeaseRenewer.Lease;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Duration;
+import io.grpc.Deadline;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ExecutionLeaseRenewerTest {
+  private final List<List<String>> renewals = new ArrayList<>();
+  private final List<String> failures = new ArrayList<>();
+  private final AtomicInteger renewed = new AtomicInteger();
+  private Set<String> lost = ImmutableSet.of();
+  private IOException renewalException = null;
+  private ExecutionLeaseRenewer renewer;
+
+  @Before
+  public void setUp() {
+    // the period is long enough that only explicit renewals occur
+    renewer =
+        new ExecutionLeaseRenewer(
+            Duration.newBuilder().setSeconds(DAYS.toSeconds(1)).build(),
+            /* leaseMillis= */ 30 * 1000,
+            (queueEntries, requeueAt) -> {
+              List<String> names = new ArrayList<>();
+              for (QueueEntry queueEntry : queueEntries) {
+                names.add(queueEntry.getExecuteEntry().getOperationName());
+              }
+              renewals.add(names);
+              if (renewalException != null) {
+                throw renewalException;
+              }
+              return lost;
+            },
+            renewed::addAndGet);
+  }
+
+  private static QueueEntry queueEntry(String operationName) {
+    return QueueEntry.newBuilder()
+        .setExecuteEntry(ExecuteEntry.newBuilder().setOperationName(operationName))
+        .build();
+  }
+
+  private Lease resume(String operationName, Deadline deadline) {
+    Lease lease = renewer.newLease();
+    lease.resume("test", queueEntry(operationName), () -> failures.add(operationName), deadline);
+    return lease;
+  }
+
+  private Lease resume(String operationName) {
+    return resume(operationName, Deadline.after(1, DAYS));
+  }
+
+  @Test
+  public void allLeasesAreRenewedTogether() {
+    resume("first");
+    resume("second");
+    resume("third");
+
+    renewer.renewAll();
+
+    assertThat(renewals).containsExactly(List.of("first", "second", "third"));
+    assertThat(renewed.get()).isEqualTo(3);
+    assertThat(failures).isEmpty();
+  }
+
+  @Test
+  public void onlyLostLeasesFail() {
+    resume("kept");
+    resume("lost");
+    lost = ImmutableSet.of("lost");
+
+    renewer.renewAll();
+    lost = ImmutableSet.of();
+    renewer.renewAll();
+
+    assertThat(failures).containsExactly("lost");
+    // the lost lease is no longer renewed
+    assertThat(renewals.get(1)).containsExactly("kept");
+  }
+
+  @Test
+  public void pausedLeasesAreNotRenewed() {
+    Lease paused = resume("paused");
+    resume("active");
+
+    paused.pause();
+    renewer.renewAll();
+
+    assertThat(renewals).containsExactly(List.of("active"));
+    assertThat(failures).isEmpty();
+  }
+
+  @Test
+  public void expiredLeasesFailWithoutRenewal() {
+    resume("expired", Deadline.after(-1, SECONDS));
+    resume("active");
+
+    renewer.renewAll();
+
+    assertThat(failures).containsExactly("expired");
+    assertThat(renewals).containsExactly(List.of("active"));
+  }
+
+  @Test
+  public void renewalErrorKeepsLeasesForNextPeriod() {
+    resume("first");
+    resume("second");
+    renewalException = new IOException("unavailable");
+
+    renewer.renewAll();
+    renewalException = null;
+    renewer.renewAll();
+
+    assertThat(failures).isEmpty();
+    assertThat(renewals.get(1)).containsExactly("first", "second").inOrder();
+    assertThat(renewed.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void renewalErrorsFailLeasesAtTheirDeadlines() throws Exception {
+    resume("expiring", Deadline.after(50, MILLISECONDS));
+    resume("active");
+    renewalException = new IOException("unavailable");
+
+    renewer.renewAll();
+    MILLISECONDS.sleep(100);
+    renewer.renewAll();
+
+    assertThat(failures).containsExactly("expiring");
+    assertThat(renewals.get(1)).containsExactly("active");
+  }
+
+  @Test
+  public void noRenewalWithoutLeases() {
+    resume("paused").pause();
+
+    renewer.renewAll();
+
+    assertThat(renewals).isEmpty();
+  }
+}
@@ -14,10 +14,14 @@
 
 package build.buildfarm.worker.shard;
 
+import static build.buildfarm.cas.ContentAddressableStorage.UNLIMITED_ENTRY_SIZE_MAX;
 import static build.buildfarm.common.Claim.Stage.REPORT_RESULT_STAGE;
 import static build.buildfarm.common.config.Server.INSTANCE_TYPE.SHARD;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -50,11 +54,16 @@ import build.buildfarm.worker.resources.LocalResourceSet.PoolResource;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.jimfs.Jimfs;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.protobuf.Duration;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -101,6 +110,13 @@ public class ShardWorkerContextTest {
 
   WorkerContext createTestContext(
       Iterable<ExecutionPolicy> policies, LocalResourceSet resourceSet) {
+    return createTestContext(policies, resourceSet, directExecutor());
+  }
+
+  WorkerContext createTestContext(
+      Iterable<ExecutionPolicy> policies,
+      LocalResourceSet resourceSet,
+      Executor outputUploadService) {
     return new ShardWorkerContext(
         "testWorker",
         ImmutableList.of("test"),
@@ -124,7 +140,8 @@ public class ShardWorkerContextTest {
         /* errorOperationRemainingResources= */ false,
         /* errorOperationOutputSizeExceeded= */ false,
         resourceSet,
-        writer);
+        writer,
+        outputUploadService);
   }
 
   @SuppressWarnings("unchecked")
@@ -226,6 +243,91 @@ public class ShardWorkerContextTest {
     assertThat(outputFile.getPath()).isEqualTo("baz/quux");
   }
 
+  @Test
+  public void uploadOutputsConcurrentlyPreservesOutputOrder() throws Exception {
+    ExecutorService outputUploadService = newFixedThreadPool(4);
+    try {
+      WorkerContext context =
+          createTestContext(
+              /* policies= */ ImmutableList.of(), new LocalResourceSet(), outputUploadService);
+      Command.Builder command = Command.newBuilder();
+      ContentAddressableStorage storage = mock(ContentAddressableStorage.class);
+      when(storage.maxEntrySize()).thenReturn(UNLIMITED_ENTRY_SIZE_MAX);
+      when(execFileSystem.getStorage()).thenReturn(storage);
+      Path actionRoot = Iterables.getFirst(Jimfs.newFileSystem().getRootDirectories(), null);
+      List<String> outputFiles = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        String outputFile = "out" + (31 - i);
+        Files.write(actionRoot.resolve(outputFile), new byte[i]);
+        command.addOutputFiles(outputFile);
+        outputFiles.add(outputFile);
+      }
+      ActionResult.Builder resultBuilder = ActionResult.newBuilder();
+      Digest actionDigest =
+          Digest.newBuilder().setDigestFunction(DigestFunction.Value.SHA256).build();
+      context.uploadOutputs(actionDigest, resultBuilder, actionRoot, command.build());
+
+      assertThat(
+              resultBuilder.getOutputFilesList().stream().map(OutputFile::getPath).toList())
+          .containsExactlyElementsIn(outputFiles)
+          .inOrder();
+      verify(writer, times(32)).write(any(Digest.class), any(Path.class));
+    } finally {
+      outputUploadService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void interruptedUploadOutputsAwaitsRunningUploads() throws Exception {
+    ExecutorService outputUploadService = newFixedThreadPool(1);
+    try {
+      WorkerContext context =
+          createTestContext(
+              /* policies= */ ImmutableList.of(), new LocalResourceSet(), outputUploadService);
+      Command command = Command.newBuilder().addOutputFiles("out").build();
+      ContentAddressableStorage storage = mock(ContentAddressableStorage.class);
+      when(storage.maxEntrySize()).thenReturn(UNLIMITED_ENTRY_SIZE_MAX);
+      when(execFileSystem.getStorage()).thenReturn(storage);
+      Path actionRoot = Iterables.getFirst(Jimfs.newFileSystem().getRootDirectories(), null);
+      Files.write(actionRoot.resolve("out"), new byte[1]);
+      CountDownLatch writing = new CountDownLatch(1);
+      CountDownLatch written = new CountDownLatch(1);
+      doAnswer(
+              invocation -> {
+                writing.countDown();
+                // the upload ignores its cancellation
+                Uninterruptibles.awaitUninterruptibly(written);
+                return null;
+              })
+          .when(writer)
+          .write(any(Digest.class), any(Path.class));
+      Digest actionDigest =
+          Digest.newBuilder().setDigestFunction(DigestFunction.Value.SHA256).build();
+      AtomicReference<Throwable> uploadError = new AtomicReference<>();
+      Thread uploader =
+          new Thread(
+              () -> {
+                try {
+                  context.uploadOutputs(
+                      actionDigest, ActionResult.newBuilder(), actionRoot, command);
+                } catch (Throwable t) {
+                  uploadError.set(t);
+                }
+              });
+      uploader.start();
+      writing.await();
+      uploader.interrupt();
+      uploader.join(100);
+
+      assertThat(uploader.isAlive()).isTrue();
+      written.countDown();
+      uploader.join();
+      assertThat(uploadError.get()).isInstanceOf(InterruptedException.class);
+    } finally {
+      outputUploadService.shutdownNow();
+    }
+  }
+
   @Test
   public void resourceExhaustedIgnoresEntryWithExecOwner() throws Exception {
     LocalResourceSet resourceSet = new LocalResourceSet();
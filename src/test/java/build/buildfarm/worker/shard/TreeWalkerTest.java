@@ -15,6 +15,9 @@
 package build.buildfarm.worker.shard;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -39,6 +42,7 @@ import java.nio.file.Path;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -138,4 +142,31 @@ public class TreeWalkerTest {
     assertThat(deadSymlink.getTarget()).isEqualTo(treeRoot.relativize(filePath).toString());
     assertThat(rootDirectory.getFilesCount()).isEqualTo(0);
   }
+
+  @Test
+  public void concurrentWalkMatchesSerialWalk() throws IOException {
+    DigestUtil digestUtil = DigestUtil.forHash("BLAKE3");
+    Path treeRoot = root.resolve("tree_root");
+    for (int i = 0; i < 8; i++) {
+      Path dir = treeRoot.resolve("dir" + i).resolve("subdir");
+      Files.createDirectories(dir);
+      for (int j = 0; j < 16; j++) {
+        Files.write(dir.getParent().resolve("file" + j), (i + "/" + j).getBytes(UTF_8));
+        Files.write(dir.resolve("file" + j), (j + "/" + i).getBytes(UTF_8));
+      }
+    }
+
+    TreeWalker serialWalker = new TreeWalker(digestUtil, digestPath -> {});
+    Files.walkFileTree(treeRoot, serialWalker);
+    ExecutorService executor = newFixedThreadPool(4);
+    try {
+      IOConsumer<DigestPath> fileObserver = mock(IOConsumer.class);
+      TreeWalker concurrentWalker = new TreeWalker(digestUtil, fileObserver, executor);
+      Files.walkFileTree(treeRoot, concurrentWalker);
+      assertThat(concurrentWalker.getTree()).isEqualTo(serialWalker.getTree());
+      verify(fileObserver, times(256)).accept(any(DigestPath.class));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }